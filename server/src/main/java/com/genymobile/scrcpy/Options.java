@@ -6,6 +6,8 @@ import java.util.Locale;
 
 public class Options {
 
+    private static final int GESTURE_SAMPLES_PER_FRAME_MAX = 4;
+
     private Ln.Level logLevel = Ln.Level.DEBUG;
     private int scid = -1; // 31-bit non-negative value, or -1
     private boolean tunnelForward;
@@ -13,6 +15,12 @@ public class Options {
     private int displayId;
     private boolean powerOn = true;
     private boolean sendDummyByte = true;
+    private int responseMaxDelayUs = 1000;
+    private boolean multiClient;
+    private boolean resident;
+    private boolean seqpacket;
+    private int tcpPort; // 0 if disabled
+    private int gestureSamplesPerFrame = 1;
 
     public Ln.Level getLogLevel() {
         return logLevel;
@@ -42,6 +50,30 @@ public class Options {
         return sendDummyByte;
     }
 
+    public int getResponseMaxDelayUs() {
+        return responseMaxDelayUs;
+    }
+
+    public boolean getMultiClient() {
+        return multiClient;
+    }
+
+    public boolean getResident() {
+        return resident;
+    }
+
+    public boolean getSeqpacket() {
+        return seqpacket;
+    }
+
+    public int getTcpPort() {
+        return tcpPort;
+    }
+
+    public int getGestureSamplesPerFrame() {
+        return gestureSamplesPerFrame;
+    }
+
     /**
      * FrameX 브리지 서버에 필요한 최소 옵션만 파싱한다.
      * 기존 scrcpy 옵션은 의도적으로 무시한다.
@@ -85,12 +117,53 @@ public class Options {
                 options.powerOn = Boolean.parseBoolean(value);
             } else if ("send_dummy_byte".equals(key)) {
                 options.sendDummyByte = Boolean.parseBoolean(value);
+            } else if ("response_max_delay_us".equals(key)) {
+                // 응답을 묶어 보내기 위해 버퍼에 머무를 수 있는 최대 시간, 0이면 이미 쌓인 응답만 묶는다.
+                int responseMaxDelayUs = Integer.parseInt(value);
+                if (responseMaxDelayUs < 0) {
+                    throw new IllegalArgumentException("response_max_delay_us may not be negative: " + responseMaxDelayUs);
+                }
+                options.responseMaxDelayUs = responseMaxDelayUs;
+            } else if ("multi_client".equals(key)) {
+                options.multiClient = Boolean.parseBoolean(value);
+            } else if ("resident".equals(key)) {
+                options.resident = Boolean.parseBoolean(value);
+            } else if ("seqpacket".equals(key)) {
+                options.seqpacket = Boolean.parseBoolean(value);
+            } else if ("tcp_port".equals(key)) {
+                // 0이 아니면 로컬 소켓 대신 루프백 TCP 포트에서 연결을 받는다.
+                int tcpPort = Integer.parseInt(value);
+                if (tcpPort < 0 || tcpPort > 0xffff) {
+                    throw new IllegalArgumentException("Invalid tcp_port: " + tcpPort);
+                }
+                options.tcpPort = tcpPort;
+            } else if ("gesture_samples_per_frame".equals(key)) {
+                // 제스처 MOVE를 vsync마다 몇 개씩 주입할지, 1보다 크면 프레임 사이의 위치도 시각과 함께 보낸다.
+                int samples = Integer.parseInt(value);
+                if (samples < 1 || samples > GESTURE_SAMPLES_PER_FRAME_MAX) {
+                    throw new IllegalArgumentException("Invalid gesture_samples_per_frame: " + samples);
+                }
+                options.gestureSamplesPerFrame = samples;
             } else {
                 // 미사용 옵션은 로그만 남기고 무시한다.
                 Ln.w("Unknown server option: " + key);
             }
         }
 
+        if ((options.multiClient || options.resident) && !options.tunnelForward && options.tcpPort == 0) {
+            // 클라이언트가 계속 붙으려면 디바이스 쪽에서 서버 소켓을 열어 두어야 한다.
+            throw new IllegalArgumentException("multi_client and resident require tunnel_forward or tcp_port");
+        }
+
+        if (options.seqpacket && options.tunnelForward) {
+            // LocalServerSocket은 스트림 소켓만 만들 수 있으므로, SOCK_SEQPACKET 소켓은 디바이스 내 클라이언트가 열고 서버가 연결한다.
+            throw new IllegalArgumentException("seqpacket requires tunnel_forward=false");
+        }
+
+        if (options.seqpacket && options.tcpPort != 0) {
+            throw new IllegalArgumentException("seqpacket is not supported with tcp_port");
+        }
+
         return options;
     }
 }
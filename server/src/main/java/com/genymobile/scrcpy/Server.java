@@ -2,6 +2,9 @@ package com.genymobile.scrcpy;
 
 import com.genymobile.scrcpy.control.ControlChannel;
 import com.genymobile.scrcpy.control.Controller;
+import com.genymobile.scrcpy.control.DeviceEventMonitor;
+import com.genymobile.scrcpy.control.InputInjector;
+import com.genymobile.scrcpy.control.SessionAcceptor;
 import com.genymobile.scrcpy.device.DesktopConnection;
 import com.genymobile.scrcpy.util.Ln;
 
@@ -64,11 +67,31 @@ public final class Server {
 
         List<AsyncProcessor> asyncProcessors = new ArrayList<>();
 
-        DesktopConnection connection = DesktopConnection.open(scid, tunnelForward, control, sendDummyByte);
+        // 상주 모드, 다중 클라이언트 모드, TCP 모드는 서버 소켓을 열어 두고 연결을 계속 받는다.
+        int tcpPort = options.getTcpPort();
+        boolean acceptClients = options.getMultiClient() || options.getResident() || tcpPort != 0;
+
+        DesktopConnection connection;
+        if (tcpPort != 0) {
+            connection = DesktopConnection.listenTcp(tcpPort, sendDummyByte);
+        } else if (acceptClients) {
+            connection = DesktopConnection.listen(scid, sendDummyByte);
+        } else {
+            connection = DesktopConnection.open(scid, tunnelForward, control, sendDummyByte, options.getSeqpacket());
+        }
         try {
-            ControlChannel controlChannel = connection.getControlChannel();
-            Controller controller = new Controller(controlChannel, options);
-            asyncProcessors.add(controller);
+            // 입력 주입과 기기 상태 감시는 모든 세션이 공유한다.
+            InputInjector injector = new InputInjector(options.getDisplayId());
+            DeviceEventMonitor eventMonitor = new DeviceEventMonitor(options.getDisplayId());
+            if (acceptClients) {
+                // 세션마다 Controller를 만들고, 세션이 끝나도 서버는 다음 클라이언트를 기다린다.
+                // 상주 모드에서는 Workarounds, 서비스 래퍼, 키 맵 등 초기화 비용을 재연결마다 다시 치르지 않는다.
+                asyncProcessors.add(new SessionAcceptor(connection, injector, eventMonitor, options));
+            } else {
+                ControlChannel controlChannel = connection.getControlChannel();
+                Controller controller = new Controller(controlChannel, injector, eventMonitor, options);
+                asyncProcessors.add(controller);
+            }
 
             final Completion completion = new Completion(asyncProcessors.size());
             for (int i = 0; i < asyncProcessors.size(); ++i) {
@@ -0,0 +1,97 @@
+package com.genymobile.scrcpy.control;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 실행 중이거나 대기 중인 명령 하나의 취소 표시. CANCEL 명령을 처리하는 수신 스레드가 {@link #cancel()}하고, 명령을 실행하는 스레드는 단계 사이에
+ * 확인하거나 {@link #sleep(long)}으로 기다리다가 바로 깨어난다.
+ */
+final class CancelToken {
+
+    static final int CATEGORY_GESTURE = 1;
+    static final int CATEGORY_TEXT = 1 << 1;
+    static final int CATEGORY_CLIPBOARD = 1 << 2;
+    // AT으로 예약되어 아직 실행 시각이 되지 않은 명령
+    static final int CATEGORY_SCHEDULED = 1 << 3;
+    static final int CATEGORY_MACRO = 1 << 4;
+    static final int CATEGORY_ALL = CATEGORY_GESTURE | CATEGORY_TEXT | CATEGORY_CLIPBOARD | CATEGORY_SCHEDULED | CATEGORY_MACRO;
+
+    private final String requestId;
+    private final int categories;
+
+    // guarded by this
+    private boolean cancelled;
+    private Runnable cancelListener;
+
+    /**
+     * @param requestId 요청 ID, 없으면 {@code null} (분류로만 취소할 수 있다)
+     * @param categories 명령이 속한 {@code CATEGORY_*} 조합, BATCH는 여러 분류에 속할 수 있다
+     */
+    CancelToken(String requestId, int categories) {
+        this.requestId = requestId;
+        this.categories = categories;
+    }
+
+    String getRequestId() {
+        return requestId;
+    }
+
+    boolean matches(int categoryMask) {
+        return (categories & categoryMask) != 0;
+    }
+
+    void cancel() {
+        Runnable listener;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            notifyAll();
+            listener = cancelListener;
+            cancelListener = null;
+        }
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    /**
+     * 취소될 때 한 번 실행할 동작을 설정한다. 이미 취소되었으면 바로 실행한다. 예약된 명령을 실행 시각 전에 끝내는 데 사용한다.
+     */
+    void setCancelListener(Runnable listener) {
+        synchronized (this) {
+            if (!cancelled) {
+                cancelListener = listener;
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * {@code millis}만큼 기다린다. 기다리는 중에 취소되면 바로 반환한다.
+     *
+     * @return 취소되었으면 {@code true}
+     */
+    synchronized boolean sleep(long millis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        long remaining = millis;
+        while (!cancelled && remaining > 0) {
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                // 컨트롤러가 멈추는 중이다. 제스처를 취소된 것으로 끝낸다.
+                Thread.currentThread().interrupt();
+                cancelled = true;
+                break;
+            }
+            remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        }
+        return cancelled;
+    }
+}
@@ -0,0 +1,154 @@
+package com.genymobile.scrcpy.control;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 큰 클립보드 내용을 여러 줄로 나누어 주고받기 위한 상태.
+ * <p>
+ * 업로드는 디코딩된 UTF-8 바이트를 한 버퍼에 모았다가 끝에서 한 번만 문자열로 만든다. 다운로드는 클립보드 문자열을 고정 크기 버퍼에 조금씩 인코딩하므로
+ * 전체 UTF-8 바이트 배열이나 전체 base64 문자열을 만들지 않는다.
+ * <p>
+ * 명령 스레드와 워커 스레드에서 모두 호출되므로 모든 메서드는 동기화한다.
+ */
+public final class ClipboardTransfer {
+
+    // 한 방향 전송의 최대 크기(UTF-8 바이트)
+    public static final int TRANSFER_MAX_LENGTH = 1 << 25; // 32M
+    // 한 청크의 최대 크기(디코딩된 바이트)
+    public static final int CHUNK_MAX_LENGTH = 3 << 14; // 48k, base64로 64k 문자
+
+    private static final int UPLOAD_INITIAL_CAPACITY = 1 << 16;
+    // 클라이언트가 알린 크기로 미리 할당하는 최대 크기, 나머지는 청크가 실제로 도착하는 만큼 늘린다.
+    private static final int UPLOAD_PRESIZE_MAX_LENGTH = 1 << 20; // 1M
+
+    private byte[] uploadBuffer;
+    private int uploadLength;
+
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final ByteBuffer chunkBuffer = ByteBuffer.allocate(CHUNK_MAX_LENGTH);
+    private CharBuffer downloadSource;
+    private boolean downloadFlushed;
+
+    /**
+     * 업로드를 시작한다. 진행 중이던 업로드는 버린다.
+     *
+     * @param expectedLength 예상 크기(바이트), 모르면 -1
+     * @return 최대 크기를 넘으면 {@code false}
+     */
+    public synchronized boolean beginUpload(int expectedLength) {
+        if (expectedLength > TRANSFER_MAX_LENGTH) {
+            return false;
+        }
+        // 크기를 알면 그만큼 할당해 재할당 복사를 피하되, 선언만 하고 보내지 않는 클라이언트가 큰 버퍼를 잡지 못하게 제한한다.
+        uploadBuffer = new byte[expectedLength > 0 ? Math.min(expectedLength, UPLOAD_PRESIZE_MAX_LENGTH) : UPLOAD_INITIAL_CAPACITY];
+        uploadLength = 0;
+        return true;
+    }
+
+    public synchronized boolean isUploading() {
+        return uploadBuffer != null;
+    }
+
+    /**
+     * 디코딩된 청크를 이어 붙인다.
+     *
+     * @return 누적 크기, 최대 크기를 넘으면 업로드를 중단하고 -1
+     */
+    public synchronized int appendUpload(byte[] data, int offset, int length) {
+        int required = uploadLength + length;
+        if (required > TRANSFER_MAX_LENGTH) {
+            uploadBuffer = null;
+            return -1;
+        }
+        if (required > uploadBuffer.length) {
+            int newCapacity = Math.max(required, Math.min(uploadBuffer.length * 2, TRANSFER_MAX_LENGTH));
+            byte[] newBuffer = new byte[newCapacity];
+            System.arraycopy(uploadBuffer, 0, newBuffer, 0, uploadLength);
+            uploadBuffer = newBuffer;
+        }
+        System.arraycopy(data, offset, uploadBuffer, uploadLength, length);
+        uploadLength = required;
+        return uploadLength;
+    }
+
+    /**
+     * 업로드를 끝내고 모인 내용을 문자열로 반환한다. 버퍼는 즉시 해제한다.
+     */
+    public synchronized String finishUpload() {
+        String text = new String(uploadBuffer, 0, uploadLength, StandardCharsets.UTF_8);
+        uploadBuffer = null;
+        uploadLength = 0;
+        return text;
+    }
+
+    /**
+     * 다운로드를 시작한다. 진행 중이던 다운로드는 버린다.
+     */
+    public synchronized void beginDownload(CharSequence text) {
+        encoder.reset();
+        downloadSource = CharBuffer.wrap(text);
+        downloadFlushed = false;
+    }
+
+    public synchronized boolean isDownloading() {
+        return downloadSource != null;
+    }
+
+    /**
+     * 다음 청크를 UTF-8로 인코딩한다. 반환된 버퍼는 다음 호출 전까지만 유효하다.
+     *
+     * @return 청크 버퍼(position=0, limit=크기), 모두 보냈으면 비어 있고 다운로드는 종료된다
+     */
+    public synchronized ByteBuffer readChunk() {
+        chunkBuffer.clear();
+        if (!downloadFlushed) {
+            // 입력 전체가 이미 주어졌으므로 endOfInput은 항상 true다. 버퍼가 차면 OVERFLOW로 멈추고 다음 호출에서 이어간다.
+            CoderResult result = encoder.encode(downloadSource, chunkBuffer, true);
+            if (result.isUnderflow()) {
+                downloadFlushed = encoder.flush(chunkBuffer).isUnderflow();
+            }
+        }
+        chunkBuffer.flip();
+        if (!chunkBuffer.hasRemaining()) {
+            downloadSource = null;
+        }
+        return chunkBuffer;
+    }
+
+    /**
+     * 진행 중인 업로드 버퍼를 모인 크기로 줄인다. 세션을 보관하는 동안 여분의 용량을 들고 있지 않게 한다.
+     *
+     * @return 남은 업로드 버퍼 크기(바이트), 업로드 중이 아니면 0
+     */
+    public synchronized int trimUpload() {
+        if (uploadBuffer == null) {
+            return 0;
+        }
+        if (uploadBuffer.length > uploadLength) {
+            uploadBuffer = Arrays.copyOf(uploadBuffer, uploadLength);
+        }
+        return uploadLength;
+    }
+
+    /**
+     * 진행 중인 업로드만 버린다. 진행 중인 다운로드는 그대로 이어받을 수 있다.
+     */
+    public synchronized void abortUpload() {
+        uploadBuffer = null;
+        uploadLength = 0;
+    }
+
+    public synchronized void abort() {
+        uploadBuffer = null;
+        uploadLength = 0;
+        downloadSource = null;
+    }
+}
@@ -0,0 +1,174 @@
+package com.genymobile.scrcpy.control;
+
+/**
+ * 텍스트 명령 하나의 처리기. {@link CommandRegistry}에 등록하면 이름으로 찾아 실행된다.
+ * <p>
+ * 인수 형식은 사용법 문자열로 선언한다. "&lt;x&gt;"는 필수 인수, "[x]"는 선택 인수이고, 마지막 인수 뒤의 "..."는 그 인수가 여러 번 올 수 있음을
+ * 뜻한다(예: "&lt;x&gt; &lt;y&gt; [pressure] [buttons]", "&lt;event&gt;..."). 인수 개수는 실행 전에 일괄 검사하므로, 처리기는 각 인수의 값만
+ * 검사하면 된다.
+ */
+public abstract class CommandHandler {
+
+    /**
+     * 입력 주입이 필요하다. 입력을 지원하지 않는 디스플레이에서는 실행하지 않고 "ERR INPUT_NOT_SUPPORTED"로 응답한다.
+     */
+    public static final int FLAG_NEEDS_INPUT = 1;
+    /**
+     * 오래 걸릴 수 있다. 요청 ID가 붙으면 별도 워커에서 실행해 뒤따르는 짧은 명령이 먼저 완료될 수 있게 한다.
+     */
+    public static final int FLAG_LONG_RUNNING = 1 << 1;
+    /**
+     * BATCH 블록 안에서 허용하지 않는다.
+     */
+    public static final int FLAG_NOT_IN_BATCH = 1 << 2;
+    /**
+     * 클립보드처럼 느린 I/O를 하는 명령. 요청 ID와 관계없이 별도 레인에서 실행해, 입력과 PING이 이 명령 뒤에서 기다리지 않게 한다.
+     */
+    public static final int FLAG_BULK = 1 << 3;
+    /**
+     * 제스처를 재생한다. 단독 명령은 제스처 스레드에서 재생되지만, 제스처가 끝날 때까지 기다리는 BATCH와 매크로는 디바이스의 터치 레인에서
+     * 모든 세션의 블록과 함께 받은 순서대로 실행한다.
+     */
+    public static final int FLAG_TOUCH = 1 << 4;
+    /**
+     * 수신 스레드가 읽는 즉시 처리하는 세션 제어 명령(MODE, BATCH, AT 등). 실행 코드가 없으며 BATCH 블록과 매크로 안에서는 허용하지 않는다.
+     * {@link #createReceiverCommand(String, String)}로 만든다.
+     */
+    public static final int FLAG_RECEIVER = 1 << 5;
+    /**
+     * 요청 ID와 관계없이 async 레인에서 실행한다. ID 없이 보내도 실행 스레드의 짧은 명령을 막으면 안 되는 긴 명령(INJECT_BENCH 등)에 쓴다.
+     */
+    public static final int FLAG_ASYNC = 1 << 6;
+
+    private static final String VARIADIC_SUFFIX = "...";
+
+    /**
+     * 람다로 처리기를 만들 때 사용한다({@link #create(String, String, int, Action)}).
+     */
+    public interface Action {
+        String execute(LineTokenizer arguments);
+    }
+
+    private final String name;
+    private final String usage;
+    private final int flags;
+    private final int minArgs;
+    private final int maxArgs;
+
+    /**
+     * @param name 명령 이름(ASCII, 대소문자 구분 없음)
+     * @param usage 인수 형식, 인수가 없으면 빈 문자열
+     * @param flags {@code FLAG_*} 조합
+     */
+    protected CommandHandler(String name, String usage, int flags) {
+        this.name = name;
+        this.usage = usage;
+        this.flags = flags;
+
+        int min = 0;
+        int max = 0;
+        boolean optional = false;
+        String[] args = usage.isEmpty() ? new String[0] : usage.split(" ");
+        for (int i = 0; i < args.length; ++i) {
+            String arg = args[i];
+            boolean variadic = arg.endsWith(VARIADIC_SUFFIX);
+            if (variadic) {
+                if (i != args.length - 1) {
+                    throw new IllegalArgumentException("Only the last argument may repeat: " + usage);
+                }
+                arg = arg.substring(0, arg.length() - VARIADIC_SUFFIX.length());
+            }
+
+            if (arg.startsWith("<") && arg.endsWith(">")) {
+                if (optional) {
+                    throw new IllegalArgumentException("Required argument after an optional one: " + usage);
+                }
+                ++min;
+            } else if (arg.startsWith("[") && arg.endsWith("]")) {
+                optional = true;
+            } else {
+                throw new IllegalArgumentException("Invalid argument \"" + args[i] + "\": " + usage);
+            }
+            max = variadic ? Integer.MAX_VALUE : max + 1;
+        }
+        minArgs = min;
+        maxArgs = max;
+    }
+
+    /**
+     * 인수 형식과 실행 코드로 처리기를 만든다.
+     */
+    public static CommandHandler create(String name, String usage, int flags, final Action action) {
+        return new CommandHandler(name, usage, flags) {
+            @Override
+            public String execute(LineTokenizer arguments) {
+                return action.execute(arguments);
+            }
+        };
+    }
+
+    /**
+     * 수신 스레드에서 처리하는 명령({@link #FLAG_RECEIVER})을 만든다. 등록은 이름 조회와 인수 형식을 위한 것이며 실행 코드는 불리지 않는다.
+     */
+    public static CommandHandler createReceiverCommand(String name, String usage) {
+        return new CommandHandler(name, usage, FLAG_RECEIVER) {
+            @Override
+            public String execute(LineTokenizer arguments) {
+                throw new IllegalStateException(getName() + " is handled by the receiver thread");
+            }
+        };
+    }
+
+    /**
+     * 명령을 실행하고 응답 라인("OK ..." 또는 "ERR ...")을 반환한다. 인수 개수는 이미 검사되어 있다.
+     */
+    public abstract String execute(LineTokenizer arguments);
+
+    public String getName() {
+        return name;
+    }
+
+    public String getUsage() {
+        return usage;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public boolean needsInput() {
+        return (flags & FLAG_NEEDS_INPUT) != 0;
+    }
+
+    public boolean isLongRunning() {
+        return (flags & FLAG_LONG_RUNNING) != 0;
+    }
+
+    public boolean isBulk() {
+        return (flags & FLAG_BULK) != 0;
+    }
+
+    public boolean isTouch() {
+        return (flags & FLAG_TOUCH) != 0;
+    }
+
+    public boolean isAsync() {
+        return (flags & FLAG_ASYNC) != 0;
+    }
+
+    public boolean isReceiverCommand() {
+        return (flags & FLAG_RECEIVER) != 0;
+    }
+
+    public boolean isAllowedInBatch() {
+        return (flags & (FLAG_NOT_IN_BATCH | FLAG_RECEIVER)) == 0;
+    }
+
+    /**
+     * 남은 토큰 수가 인수 형식에 맞는지 확인한다. 토큰 위치는 바꾸지 않는다.
+     */
+    public boolean acceptsArguments(LineTokenizer arguments) {
+        int count = arguments.countTokens(maxArgs);
+        return count >= minArgs && count <= maxArgs;
+    }
+}
@@ -0,0 +1,84 @@
+package com.genymobile.scrcpy.control;
+
+/**
+ * 이름으로 {@link CommandHandler}를 찾는 표.
+ * <p>
+ * 명령 이름의 대소문자 무시 해시({@link LineTokenizer#tokenHashIgnoreCase()})로 열린 주소 해시 표를 구성하므로, 수신한 토큰을 문자열로 만들지 않고
+ * 등록된 명령 수와 무관하게 한 번의 해시 계산과 대개 한 번의 바이트 비교로 찾는다.
+ */
+final class CommandRegistry {
+
+    private static final int INITIAL_CAPACITY = 32; // must be a power of 2
+
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    private CommandHandler[] handlers = new CommandHandler[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * 처리기를 등록한다. 같은 이름(대소문자 무시)이 이미 있으면 {@link IllegalArgumentException}을 던진다.
+     *
+     * @return {@code handler}
+     */
+    CommandHandler register(CommandHandler handler) {
+        String name = handler.getName();
+        if (name.isEmpty() || name.indexOf(' ') != -1) {
+            throw new IllegalArgumentException("Invalid command name: \"" + name + "\"");
+        }
+
+        LineTokenizer tokenizer = new LineTokenizer(name);
+        tokenizer.nextToken();
+        if (lookup(tokenizer) != null) {
+            throw new IllegalArgumentException("Command already registered: " + name);
+        }
+
+        // 부하율을 1/2 이하로 유지해 탐사 길이를 짧게 한다.
+        if ((size + 1) * 2 > handlers.length) {
+            resize(handlers.length * 2);
+        }
+        insert(LineTokenizer.hashIgnoreCase(name), handler);
+        ++size;
+        return handler;
+    }
+
+    /**
+     * 현재 토큰에 해당하는 처리기를 찾는다. 할당이 발생하지 않는다.
+     *
+     * @return 등록되지 않은 명령이면 {@code null}
+     */
+    CommandHandler lookup(LineTokenizer tokenizer) {
+        int hash = tokenizer.tokenHashIgnoreCase();
+        int mask = handlers.length - 1;
+        for (int i = hash & mask; handlers[i] != null; i = (i + 1) & mask) {
+            if (hashes[i] == hash && tokenizer.tokenEqualsIgnoreCase(handlers[i].getName())) {
+                return handlers[i];
+            }
+        }
+        return null;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void insert(int hash, CommandHandler handler) {
+        int mask = handlers.length - 1;
+        int i = hash & mask;
+        while (handlers[i] != null) {
+            i = (i + 1) & mask;
+        }
+        hashes[i] = hash;
+        handlers[i] = handler;
+    }
+
+    private void resize(int capacity) {
+        int[] oldHashes = hashes;
+        CommandHandler[] oldHandlers = handlers;
+        hashes = new int[capacity];
+        handlers = new CommandHandler[capacity];
+        for (int i = 0; i < oldHandlers.length; ++i) {
+            if (oldHandlers[i] != null) {
+                insert(oldHashes[i], oldHandlers[i]);
+            }
+        }
+    }
+}
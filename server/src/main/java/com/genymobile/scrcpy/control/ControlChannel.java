@@ -2,93 +2,119 @@ package com.genymobile.scrcpy.control;
 
 import android.net.LocalSocket;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 
-import com.genymobile.scrcpy.util.Ln;
-
 public final class ControlChannel {
 
-    // 입력 로그가 지나치게 길어지는 것을 막기 위해 프리뷰 길이를 제한한다.
-    private static final int LOG_TEXT_PREVIEW_LIMIT = 80;
-    private static final int LOG_BYTE_PREVIEW_LIMIT = 64;
+    // 여러 응답을 한 번의 write로 내보낼 수 있을 만큼 잡는다.
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16; // 64k
+
+    private final ControlLineReader lineReader;
+
+    // 텍스트 응답과 바이너리 메시지가 같은 버퍼를 공유해 전송 순서가 유지된다.
+    private final DataOutputStream output;
+    private final DeviceMessageWriter messageWriter;
+
+    // SOCK_SEQPACKET이면 응답 하나를 패킷 하나로 보낸다. 스트림 소켓이면 null.
+    private final ByteArrayOutputStream packetBuffer;
+    private final OutputStream rawOutput;
 
-    private final BufferedReader reader;
-    private final BufferedWriter writer;
+    // 바이너리 모드로 전환된 이후에만 생성된다.
+    private ControlMessageReader messageReader;
 
     public ControlChannel(LocalSocket controlSocket) throws IOException {
-        // 소켓 스트림을 텍스트 단위로 읽기 위해 UTF-8 기반 Reader/Writer로 래핑한다.
-        reader = new BufferedReader(new InputStreamReader(controlSocket.getInputStream(), StandardCharsets.UTF_8));
-        writer = new BufferedWriter(new OutputStreamWriter(controlSocket.getOutputStream(), StandardCharsets.UTF_8));
+        this(controlSocket, false);
+    }
+
+    /**
+     * @param packetMode 소켓이 {@link LocalSocket#SOCKET_SEQPACKET}이면 {@code true}
+     */
+    public ControlChannel(LocalSocket controlSocket, boolean packetMode) throws IOException {
+        this(controlSocket.getInputStream(), controlSocket.getOutputStream(), packetMode);
     }
 
     /**
-     * 한 줄 명령을 읽는다. EOF이면 null을 반환한다.
+     * 로컬 소켓이 아닌 전송(TCP 등)의 스트림 위에 채널을 만든다.
      */
-    public String recv() throws IOException {
-        // 컨트롤 소켓으로부터 입력이 올 때까지 대기 중임을 로그로 남긴다.
-        //Ln.d("컨트롤 소켓 수신 대기중");
-        String line = reader.readLine();
-        if (line == null) {
-            // 소켓이 닫히면 EOF가 반환된다.
-            //Ln.d("컨트롤 소켓 EOF 수신");
-            return null;
+    public ControlChannel(InputStream in, OutputStream out, boolean packetMode) {
+        // 수신은 재사용 버퍼 위에서 바이트 단위로 줄을 자른다. 패킷 모드에서는 패킷 경계가 곧 명령 경계다.
+        lineReader = new ControlLineReader(in, packetMode);
+        rawOutput = out;
+        if (packetMode) {
+            packetBuffer = new ByteArrayOutputStream(OUTPUT_BUFFER_SIZE);
+            output = new DataOutputStream(packetBuffer);
+        } else {
+            packetBuffer = null;
+            output = new DataOutputStream(new BufferedOutputStream(rawOutput, OUTPUT_BUFFER_SIZE));
         }
+        messageWriter = new DeviceMessageWriter(output);
+    }
 
-        // 실제 수신된 텍스트와 바이트 정보를 함께 기록한다.
-        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
-        String bytePreview = toHexPreview(bytes, LOG_BYTE_PREVIEW_LIMIT);
-        String textPreview = toTextPreview(line, LOG_TEXT_PREVIEW_LIMIT);
-        //Ln.d("컨트롤 소켓 수신: textLength=" + line.length() + ", byteLength=" + bytes.length
-                + ", textPreview=\"" + textPreview + "\", bytePreview=" + bytePreview);
-        return line;
+    /**
+     * 이후 수신을 바이너리 ControlMessage 포맷으로 전환한다.
+     * <p>
+     * 라인 리더에 이미 읽혀 있던 바이트는 바이너리 리더로 그대로 이어진다.
+     */
+    public void switchToBinary() {
+        messageReader = new ControlMessageReader(lineReader);
+    }
+
+    public boolean isBinary() {
+        return messageReader != null;
     }
 
     /**
-     * 한 줄 응답을 보낸다. 항상 \n으로 끝낸다.
+     * 한 줄 명령을 읽어 tokenizer가 가리키게 한다. tokenizer 내용은 다음 호출 전까지만 유효하다.
+     *
+     * @return EOF이면 {@code false}
      */
-    public synchronized void send(String line) throws IOException {
-        writer.write(line);
-        writer.newLine();
-        writer.flush();
+    public boolean recv(LineTokenizer tokenizer) throws IOException {
+        return lineReader.readLine(tokenizer);
     }
 
-    private static String toTextPreview(String text, int limit) {
-        if (text == null) {
-            return "";
-        }
-        if (text.length() <= limit) {
-            return text;
-        }
-        String prefix = text.substring(0, limit);
-        return prefix + "...(len=" + text.length() + ")";
+    /**
+     * 바이너리 모드에서 메시지 하나를 {@code msg}에 읽는다.
+     *
+     * @throws ControlProtocolException 알 수 없는 메시지 종류
+     */
+    public void recvMessage(ControlMessage msg) throws IOException {
+        messageReader.read(msg);
     }
 
-    private static String toHexPreview(byte[] bytes, int limit) {
-        if (bytes == null || bytes.length == 0) {
-            return "[]";
-        }
-        int max = bytes.length < limit ? bytes.length : limit;
-        StringBuilder builder = new StringBuilder();
-        builder.append('[');
-        for (int i = 0; i < max; ++i) {
-            if (i > 0) {
-                builder.append(' ');
-            }
-            int value = bytes[i] & 0xff;
-            if (value < 16) {
-                builder.append('0');
-            }
-            builder.append(Integer.toHexString(value));
-        }
-        if (bytes.length > limit) {
-            builder.append(" ...len=").append(bytes.length);
+    /**
+     * 한 줄 응답을 출력 버퍼에 쓴다. 항상 \n으로 끝내며, 실제 전송은 {@link #flush()}에서 일어난다.
+     * <p>
+     * 송신 스레드({@link ResponseSender})에서만 호출해야 한다.
+     */
+    public void write(String line) throws IOException {
+        output.write(line.getBytes(StandardCharsets.UTF_8));
+        output.write('\n');
+        endPacket();
+    }
+
+    /**
+     * 바이너리 모드의 디바이스 메시지 하나를 출력 버퍼에 쓴다.
+     */
+    public void write(DeviceMessage msg) throws IOException {
+        messageWriter.append(msg);
+        endPacket();
+    }
+
+    private void endPacket() throws IOException {
+        if (packetBuffer != null) {
+            // SOCK_SEQPACKET에서는 write 한 번이 패킷 하나다.
+            packetBuffer.writeTo(rawOutput);
+            packetBuffer.reset();
         }
-        builder.append(']');
-        return builder.toString();
+    }
+
+    public void flush() throws IOException {
+        output.flush();
     }
 }
@@ -0,0 +1,180 @@
+package com.genymobile.scrcpy.control;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 재사용 버퍼에서 '\n'을 직접 찾아 한 줄씩 잘라 내는 바이트 단위 라인 리더.
+ * <p>
+ * 줄마다 String이나 char 배열을 만들지 않고, 읽은 줄은 {@link LineTokenizer}로 버퍼 위에서 그대로 파싱한다. 바이너리 모드로 전환하면
+ * {@link InputStream}으로 사용되어, 이미 버퍼에 읽혀 있던 바이트부터 이어서 전달한다.
+ * <p>
+ * 패킷 모드(SOCK_SEQPACKET)에서는 커널이 메시지 경계를 보존하므로, 미리 할당한 버퍼에 read 한 번으로 패킷 하나(명령 하나)를 통째로 읽고 개행을
+ * 찾지 않는다.
+ */
+public final class ControlLineReader extends InputStream {
+
+    private static final int INITIAL_CAPACITY = 8192;
+    // 이보다 커진 버퍼는 긴 줄(클립보드 등)을 다 쓴 뒤 처음 크기로 줄인다.
+    private static final int RETAINED_CAPACITY_MAX = 1 << 16; // 64k
+    // 클립보드 base64 한 줄을 허용하기 위한 상한, 초과하면 프로토콜 오류로 본다.
+    public static final int LINE_MAX_LENGTH = 1 << 24; // 16M
+    // 패킷 모드에서 한 패킷의 최대 크기, 버퍼보다 큰 패킷은 커널이 잘라 버리므로 미리 이만큼 할당한다.
+    public static final int PACKET_MAX_LENGTH = 1 << 18; // 256k
+
+    private final InputStream in;
+    private final boolean packetMode;
+
+    private byte[] buffer;
+    private int head; // 아직 소비하지 않은 데이터의 시작
+    private int tail; // 유효한 데이터의 끝
+
+    public ControlLineReader(InputStream in) {
+        this(in, false);
+    }
+
+    public ControlLineReader(InputStream in, boolean packetMode) {
+        this.in = in;
+        this.packetMode = packetMode;
+        buffer = new byte[packetMode ? PACKET_MAX_LENGTH : INITIAL_CAPACITY];
+    }
+
+    /**
+     * 다음 줄을 읽어 tokenizer가 그 줄을 가리키도록 한다. 줄 끝의 "\n" 또는 "\r\n"은 포함하지 않는다.
+     *
+     * @return EOF이면 {@code false}
+     */
+    public boolean readLine(LineTokenizer tokenizer) throws IOException {
+        if (packetMode) {
+            return readPacket(tokenizer);
+        }
+
+        if (buffer.length > RETAINED_CAPACITY_MAX && tail - head <= INITIAL_CAPACITY) {
+            // 앞서 반환한 긴 줄은 이미 다 썼으므로 남은 데이터만 옮기고 큰 버퍼를 놓는다.
+            shrink();
+        }
+
+        int scan = head;
+        while (true) {
+            for (int i = scan; i < tail; ++i) {
+                if (buffer[i] == '\n') {
+                    int end = i > head && buffer[i - 1] == '\r' ? i - 1 : i;
+                    tokenizer.reset(buffer, head, end);
+                    head = i + 1;
+                    return true;
+                }
+            }
+
+            scan = tail;
+            if (head > 0) {
+                // 아직 읽지 않은 부분을 버퍼 앞으로 옮겨 공간을 확보한다.
+                int pending = tail - head;
+                System.arraycopy(buffer, head, buffer, 0, pending);
+                scan -= head;
+                head = 0;
+                tail = pending;
+            }
+
+            if (tail == buffer.length) {
+                grow();
+            }
+
+            int r = in.read(buffer, tail, buffer.length - tail);
+            if (r == -1) {
+                if (tail == head) {
+                    return false;
+                }
+                // 마지막 줄이 개행 없이 끝난 경우(BufferedReader.readLine()과 동일한 동작)
+                tokenizer.reset(buffer, head, tail);
+                head = tail;
+                return true;
+            }
+            tail += r;
+        }
+    }
+
+    private boolean readPacket(LineTokenizer tokenizer) throws IOException {
+        if (head == tail && !fillPacket()) {
+            return false;
+        }
+
+        // 패킷 하나가 명령 하나다. 끝의 개행은 있어도 되고 없어도 된다.
+        int end = tail;
+        if (end > head && buffer[end - 1] == '\n') {
+            --end;
+            if (end > head && buffer[end - 1] == '\r') {
+                --end;
+            }
+        }
+        tokenizer.reset(buffer, head, end);
+        head = tail;
+        return true;
+    }
+
+    /**
+     * 패킷 하나를 버퍼 처음부터 읽는다.
+     *
+     * @return EOF이면 {@code false}
+     */
+    private boolean fillPacket() throws IOException {
+        int r = in.read(buffer, 0, buffer.length);
+        if (r == -1) {
+            return false;
+        }
+        if (r == buffer.length) {
+            // 버퍼를 꽉 채웠다면 패킷이 잘렸을 수 있다.
+            throw new ControlProtocolException("Control packet too large (>= " + buffer.length + " bytes)");
+        }
+        head = 0;
+        tail = r;
+        return true;
+    }
+
+    private void grow() throws ControlProtocolException {
+        if (buffer.length >= LINE_MAX_LENGTH) {
+            throw new ControlProtocolException("Control line too long (> " + LINE_MAX_LENGTH + " bytes)");
+        }
+        byte[] newBuffer = new byte[Math.min(buffer.length * 2, LINE_MAX_LENGTH)];
+        System.arraycopy(buffer, 0, newBuffer, 0, tail);
+        buffer = newBuffer;
+    }
+
+    private void shrink() {
+        byte[] newBuffer = new byte[INITIAL_CAPACITY];
+        int pending = tail - head;
+        System.arraycopy(buffer, head, newBuffer, 0, pending);
+        buffer = newBuffer;
+        head = 0;
+        tail = pending;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (head == tail && packetMode && !fillPacket()) {
+            return -1;
+        }
+        if (head < tail) {
+            return buffer[head++] & 0xff;
+        }
+        return in.read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (head == tail && packetMode && len > 0 && !fillPacket()) {
+            return -1;
+        }
+        if (head < tail) {
+            int n = Math.min(len, tail - head);
+            System.arraycopy(buffer, head, b, off, n);
+            head += n;
+            return n;
+        }
+        return in.read(b, off, len);
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (tail - head) + in.available();
+    }
+}
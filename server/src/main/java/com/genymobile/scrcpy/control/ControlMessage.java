@@ -0,0 +1,373 @@
+package com.genymobile.scrcpy.control;
+
+import com.genymobile.scrcpy.device.Position;
+
+/**
+ * Union of all supported event types, identified by their {@code type}.
+ */
+public final class ControlMessage {
+
+    public static final int TYPE_INJECT_KEYCODE = 0;
+    public static final int TYPE_INJECT_TEXT = 1;
+    public static final int TYPE_INJECT_TOUCH_EVENT = 2;
+    public static final int TYPE_INJECT_SCROLL_EVENT = 3;
+    public static final int TYPE_BACK_OR_SCREEN_ON = 4;
+    public static final int TYPE_EXPAND_NOTIFICATION_PANEL = 5;
+    public static final int TYPE_EXPAND_SETTINGS_PANEL = 6;
+    public static final int TYPE_COLLAPSE_PANELS = 7;
+    public static final int TYPE_GET_CLIPBOARD = 8;
+    public static final int TYPE_SET_CLIPBOARD = 9;
+    public static final int TYPE_SET_DISPLAY_POWER = 10;
+    public static final int TYPE_ROTATE_DEVICE = 11;
+    public static final int TYPE_UHID_CREATE = 12;
+    public static final int TYPE_UHID_INPUT = 13;
+    public static final int TYPE_UHID_DESTROY = 14;
+    public static final int TYPE_OPEN_HARD_KEYBOARD_SETTINGS = 15;
+    public static final int TYPE_START_APP = 16;
+    public static final int TYPE_RESET_VIDEO = 17;
+
+    public static final long SEQUENCE_INVALID = 0;
+
+    public static final int COPY_KEY_NONE = 0;
+    public static final int COPY_KEY_COPY = 1;
+    public static final int COPY_KEY_CUT = 2;
+
+    private int type;
+    private String text;
+    private int metaState; // KeyEvent.META_*
+    private int action; // KeyEvent.ACTION_* or MotionEvent.ACTION_*
+    private int keycode; // KeyEvent.KEYCODE_*
+    private int actionButton; // MotionEvent.BUTTON_*
+    private int buttons; // MotionEvent.BUTTON_*
+    private long pointerId;
+    private float pressure;
+    // 메시지마다 Position을 만들지 않도록 좌표와 화면 크기를 그대로 둔다.
+    private int x;
+    private int y;
+    private int screenWidth;
+    private int screenHeight;
+    private float hScroll;
+    private float vScroll;
+    private int copyKey;
+    private boolean paste;
+    private int repeat;
+    private long sequence;
+    private int id;
+    private byte[] data;
+    private boolean on;
+    private int vendorId;
+    private int productId;
+
+    ControlMessage() {
+        // 바이너리 모드에서는 큐의 칸마다 하나를 만들어 set*()으로 재사용한다.
+    }
+
+    private void reset(int type) {
+        this.type = type;
+        text = null;
+        metaState = 0;
+        action = 0;
+        keycode = 0;
+        actionButton = 0;
+        buttons = 0;
+        pointerId = 0;
+        pressure = 0;
+        x = 0;
+        y = 0;
+        screenWidth = 0;
+        screenHeight = 0;
+        hScroll = 0;
+        vScroll = 0;
+        copyKey = 0;
+        paste = false;
+        repeat = 0;
+        sequence = 0;
+        id = 0;
+        data = null;
+        on = false;
+        vendorId = 0;
+        productId = 0;
+    }
+
+    public static ControlMessage createInjectKeycode(int action, int keycode, int repeat, int metaState) {
+        ControlMessage msg = new ControlMessage();
+        msg.setInjectKeycode(action, keycode, repeat, metaState);
+        return msg;
+    }
+
+    void setInjectKeycode(int action, int keycode, int repeat, int metaState) {
+        reset(TYPE_INJECT_KEYCODE);
+        this.action = action;
+        this.keycode = keycode;
+        this.repeat = repeat;
+        this.metaState = metaState;
+    }
+
+    public static ControlMessage createInjectText(String text) {
+        ControlMessage msg = new ControlMessage();
+        msg.setInjectText(text);
+        return msg;
+    }
+
+    void setInjectText(String text) {
+        reset(TYPE_INJECT_TEXT);
+        this.text = text;
+    }
+
+    public static ControlMessage createInjectTouchEvent(int action, long pointerId, Position position, float pressure, int actionButton,
+            int buttons) {
+        ControlMessage msg = new ControlMessage();
+        msg.setInjectTouchEvent(action, pointerId, position, pressure, actionButton, buttons);
+        return msg;
+    }
+
+    void setInjectTouchEvent(int action, long pointerId, Position position, float pressure, int actionButton, int buttons) {
+        setInjectTouchEvent(action, pointerId, pressure, actionButton, buttons);
+        setPosition(position);
+    }
+
+    /**
+     * 위치는 {@link #setPosition(int, int, int, int)}로 따로 채운다.
+     */
+    void setInjectTouchEvent(int action, long pointerId, float pressure, int actionButton, int buttons) {
+        reset(TYPE_INJECT_TOUCH_EVENT);
+        this.action = action;
+        this.pointerId = pointerId;
+        this.pressure = pressure;
+        this.actionButton = actionButton;
+        this.buttons = buttons;
+    }
+
+    public static ControlMessage createInjectScrollEvent(Position position, float hScroll, float vScroll, int buttons) {
+        ControlMessage msg = new ControlMessage();
+        msg.setInjectScrollEvent(position, hScroll, vScroll, buttons);
+        return msg;
+    }
+
+    void setInjectScrollEvent(Position position, float hScroll, float vScroll, int buttons) {
+        setInjectScrollEvent(hScroll, vScroll, buttons);
+        setPosition(position);
+    }
+
+    /**
+     * 위치는 {@link #setPosition(int, int, int, int)}로 따로 채운다.
+     */
+    void setInjectScrollEvent(float hScroll, float vScroll, int buttons) {
+        reset(TYPE_INJECT_SCROLL_EVENT);
+        this.hScroll = hScroll;
+        this.vScroll = vScroll;
+        this.buttons = buttons;
+    }
+
+    public static ControlMessage createBackOrScreenOn(int action) {
+        ControlMessage msg = new ControlMessage();
+        msg.setBackOrScreenOn(action);
+        return msg;
+    }
+
+    void setBackOrScreenOn(int action) {
+        reset(TYPE_BACK_OR_SCREEN_ON);
+        this.action = action;
+    }
+
+    public static ControlMessage createGetClipboard(int copyKey) {
+        ControlMessage msg = new ControlMessage();
+        msg.setGetClipboard(copyKey);
+        return msg;
+    }
+
+    void setGetClipboard(int copyKey) {
+        reset(TYPE_GET_CLIPBOARD);
+        this.copyKey = copyKey;
+    }
+
+    public static ControlMessage createSetClipboard(long sequence, String text, boolean paste) {
+        ControlMessage msg = new ControlMessage();
+        msg.setSetClipboard(sequence, text, paste);
+        return msg;
+    }
+
+    void setSetClipboard(long sequence, String text, boolean paste) {
+        reset(TYPE_SET_CLIPBOARD);
+        this.sequence = sequence;
+        this.text = text;
+        this.paste = paste;
+    }
+
+    public static ControlMessage createSetDisplayPower(boolean on) {
+        ControlMessage msg = new ControlMessage();
+        msg.setSetDisplayPower(on);
+        return msg;
+    }
+
+    void setSetDisplayPower(boolean on) {
+        reset(TYPE_SET_DISPLAY_POWER);
+        this.on = on;
+    }
+
+    public static ControlMessage createEmpty(int type) {
+        ControlMessage msg = new ControlMessage();
+        msg.setEmpty(type);
+        return msg;
+    }
+
+    void setEmpty(int type) {
+        reset(type);
+    }
+
+    public static ControlMessage createUhidCreate(int id, int vendorId, int productId, String name, byte[] reportDesc) {
+        ControlMessage msg = new ControlMessage();
+        msg.setUhidCreate(id, vendorId, productId, name, reportDesc);
+        return msg;
+    }
+
+    void setUhidCreate(int id, int vendorId, int productId, String name, byte[] reportDesc) {
+        reset(TYPE_UHID_CREATE);
+        this.id = id;
+        this.vendorId = vendorId;
+        this.productId = productId;
+        this.text = name;
+        this.data = reportDesc;
+    }
+
+    public static ControlMessage createUhidInput(int id, byte[] data) {
+        ControlMessage msg = new ControlMessage();
+        msg.setUhidInput(id, data);
+        return msg;
+    }
+
+    void setUhidInput(int id, byte[] data) {
+        reset(TYPE_UHID_INPUT);
+        this.id = id;
+        this.data = data;
+    }
+
+    public static ControlMessage createUhidDestroy(int id) {
+        ControlMessage msg = new ControlMessage();
+        msg.setUhidDestroy(id);
+        return msg;
+    }
+
+    void setUhidDestroy(int id) {
+        reset(TYPE_UHID_DESTROY);
+        this.id = id;
+    }
+
+    public static ControlMessage createStartApp(String name) {
+        ControlMessage msg = new ControlMessage();
+        msg.setStartApp(name);
+        return msg;
+    }
+
+    void setStartApp(String name) {
+        reset(TYPE_START_APP);
+        this.text = name;
+    }
+
+    private void setPosition(Position position) {
+        setPosition(position.getPoint().getX(), position.getPoint().getY(), position.getScreenSize().getWidth(),
+                position.getScreenSize().getHeight());
+    }
+
+    void setPosition(int x, int y, int screenWidth, int screenHeight) {
+        this.x = x;
+        this.y = y;
+        this.screenWidth = screenWidth;
+        this.screenHeight = screenHeight;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public int getMetaState() {
+        return metaState;
+    }
+
+    public int getAction() {
+        return action;
+    }
+
+    public int getKeycode() {
+        return keycode;
+    }
+
+    public int getActionButton() {
+        return actionButton;
+    }
+
+    public int getButtons() {
+        return buttons;
+    }
+
+    public long getPointerId() {
+        return pointerId;
+    }
+
+    public float getPressure() {
+        return pressure;
+    }
+
+    /**
+     * 호출할 때마다 새로 만든다. 주입 경로는 {@link #getX()}, {@link #getY()}를 쓴다.
+     */
+    public Position getPosition() {
+        return new Position(x, y, screenWidth, screenHeight);
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public float getHScroll() {
+        return hScroll;
+    }
+
+    public float getVScroll() {
+        return vScroll;
+    }
+
+    public int getCopyKey() {
+        return copyKey;
+    }
+
+    public boolean getPaste() {
+        return paste;
+    }
+
+    public int getRepeat() {
+        return repeat;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public boolean getOn() {
+        return on;
+    }
+
+    public int getVendorId() {
+        return vendorId;
+    }
+
+    public int getProductId() {
+        return productId;
+    }
+}
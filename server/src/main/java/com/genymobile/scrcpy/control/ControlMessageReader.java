@@ -0,0 +1,203 @@
+package com.genymobile.scrcpy.control;
+
+import com.genymobile.scrcpy.util.Binary;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+public class ControlMessageReader {
+
+    private static final int MESSAGE_MAX_SIZE = 1 << 18; // 256k
+
+    public static final int CLIPBOARD_TEXT_MAX_LENGTH = MESSAGE_MAX_SIZE - 14; // type: 1 byte; sequence: 8 bytes; paste flag: 1 byte; length: 4 bytes
+    public static final int INJECT_TEXT_MAX_LENGTH = 300;
+
+    private final DataInputStream dis;
+
+    // 문자열 페이로드는 메시지마다 버퍼를 새로 만들지 않도록 재사용한다.
+    private byte[] stringBuffer = new byte[INJECT_TEXT_MAX_LENGTH];
+
+    public ControlMessageReader(InputStream rawInputStream) {
+        dis = new DataInputStream(new BufferedInputStream(rawInputStream));
+    }
+
+    public ControlMessage read() throws IOException {
+        ControlMessage msg = new ControlMessage();
+        read(msg);
+        return msg;
+    }
+
+    /**
+     * 다음 메시지로 {@code msg}를 덮어쓴다. 메시지마다 객체를 만들지 않도록 호출하는 쪽이 같은 인스턴스를 다시 넘긴다.
+     */
+    public void read(ControlMessage msg) throws IOException {
+        int type = dis.readUnsignedByte();
+        switch (type) {
+            case ControlMessage.TYPE_INJECT_KEYCODE:
+                parseInjectKeycode(msg);
+                break;
+            case ControlMessage.TYPE_INJECT_TEXT:
+                parseInjectText(msg);
+                break;
+            case ControlMessage.TYPE_INJECT_TOUCH_EVENT:
+                parseInjectTouchEvent(msg);
+                break;
+            case ControlMessage.TYPE_INJECT_SCROLL_EVENT:
+                parseInjectScrollEvent(msg);
+                break;
+            case ControlMessage.TYPE_BACK_OR_SCREEN_ON:
+                parseBackOrScreenOnEvent(msg);
+                break;
+            case ControlMessage.TYPE_GET_CLIPBOARD:
+                parseGetClipboard(msg);
+                break;
+            case ControlMessage.TYPE_SET_CLIPBOARD:
+                parseSetClipboard(msg);
+                break;
+            case ControlMessage.TYPE_SET_DISPLAY_POWER:
+                parseSetDisplayPower(msg);
+                break;
+            case ControlMessage.TYPE_EXPAND_NOTIFICATION_PANEL:
+            case ControlMessage.TYPE_EXPAND_SETTINGS_PANEL:
+            case ControlMessage.TYPE_COLLAPSE_PANELS:
+            case ControlMessage.TYPE_ROTATE_DEVICE:
+            case ControlMessage.TYPE_OPEN_HARD_KEYBOARD_SETTINGS:
+            case ControlMessage.TYPE_RESET_VIDEO:
+                msg.setEmpty(type);
+                break;
+            case ControlMessage.TYPE_UHID_CREATE:
+                parseUhidCreate(msg);
+                break;
+            case ControlMessage.TYPE_UHID_INPUT:
+                parseUhidInput(msg);
+                break;
+            case ControlMessage.TYPE_UHID_DESTROY:
+                parseUhidDestroy(msg);
+                break;
+            case ControlMessage.TYPE_START_APP:
+                parseStartApp(msg);
+                break;
+            default:
+                throw new ControlProtocolException("Unknown event type: " + type);
+        }
+    }
+
+    private void parseInjectKeycode(ControlMessage msg) throws IOException {
+        int action = dis.readUnsignedByte();
+        int keycode = dis.readInt();
+        int repeat = dis.readInt();
+        int metaState = dis.readInt();
+        msg.setInjectKeycode(action, keycode, repeat, metaState);
+    }
+
+    private int parseBufferLength(int sizeBytes) throws IOException {
+        assert sizeBytes > 0 && sizeBytes <= 4;
+        int value = 0;
+        for (int i = 0; i < sizeBytes; ++i) {
+            value = (value << 8) | dis.readUnsignedByte();
+        }
+        return value;
+    }
+
+    private String parseString(int sizeBytes) throws IOException {
+        int len = parseBufferLength(sizeBytes);
+        if (len > stringBuffer.length) {
+            stringBuffer = new byte[len];
+        }
+        dis.readFully(stringBuffer, 0, len);
+        return new String(stringBuffer, 0, len, StandardCharsets.UTF_8);
+    }
+
+    private String parseString() throws IOException {
+        return parseString(4);
+    }
+
+    private byte[] parseByteArray(int sizeBytes) throws IOException {
+        int len = parseBufferLength(sizeBytes);
+        byte[] data = new byte[len];
+        dis.readFully(data);
+        return data;
+    }
+
+    private void parseInjectText(ControlMessage msg) throws IOException {
+        String text = parseString();
+        msg.setInjectText(text);
+    }
+
+    private void parseInjectTouchEvent(ControlMessage msg) throws IOException {
+        int action = dis.readUnsignedByte();
+        long pointerId = dis.readLong();
+        int x = dis.readInt();
+        int y = dis.readInt();
+        int screenWidth = dis.readUnsignedShort();
+        int screenHeight = dis.readUnsignedShort();
+        float pressure = Binary.u16FixedPointToFloat(dis.readShort());
+        int actionButton = dis.readInt();
+        int buttons = dis.readInt();
+        msg.setInjectTouchEvent(action, pointerId, pressure, actionButton, buttons);
+        msg.setPosition(x, y, screenWidth, screenHeight);
+    }
+
+    private void parseInjectScrollEvent(ControlMessage msg) throws IOException {
+        int x = dis.readInt();
+        int y = dis.readInt();
+        int screenWidth = dis.readUnsignedShort();
+        int screenHeight = dis.readUnsignedShort();
+        // Binary.i16FixedPointToFloat() decodes values assuming the full range is [-1, 1], but the actual range is [-16, 16].
+        float hScroll = Binary.i16FixedPointToFloat(dis.readShort()) * 16;
+        float vScroll = Binary.i16FixedPointToFloat(dis.readShort()) * 16;
+        int buttons = dis.readInt();
+        msg.setInjectScrollEvent(hScroll, vScroll, buttons);
+        msg.setPosition(x, y, screenWidth, screenHeight);
+    }
+
+    private void parseBackOrScreenOnEvent(ControlMessage msg) throws IOException {
+        int action = dis.readUnsignedByte();
+        msg.setBackOrScreenOn(action);
+    }
+
+    private void parseGetClipboard(ControlMessage msg) throws IOException {
+        int copyKey = dis.readUnsignedByte();
+        msg.setGetClipboard(copyKey);
+    }
+
+    private void parseSetClipboard(ControlMessage msg) throws IOException {
+        long sequence = dis.readLong();
+        boolean paste = dis.readByte() != 0;
+        String text = parseString();
+        msg.setSetClipboard(sequence, text, paste);
+    }
+
+    private void parseSetDisplayPower(ControlMessage msg) throws IOException {
+        boolean on = dis.readBoolean();
+        msg.setSetDisplayPower(on);
+    }
+
+    private void parseUhidCreate(ControlMessage msg) throws IOException {
+        int id = dis.readUnsignedShort();
+        int vendorId = dis.readUnsignedShort();
+        int productId = dis.readUnsignedShort();
+        String name = parseString(1);
+        byte[] data = parseByteArray(2);
+        msg.setUhidCreate(id, vendorId, productId, name, data);
+    }
+
+    private void parseUhidInput(ControlMessage msg) throws IOException {
+        int id = dis.readUnsignedShort();
+        byte[] data = parseByteArray(2);
+        msg.setUhidInput(id, data);
+    }
+
+    private void parseUhidDestroy(ControlMessage msg) throws IOException {
+        int id = dis.readUnsignedShort();
+        msg.setUhidDestroy(id);
+    }
+
+    private void parseStartApp(ControlMessage msg) throws IOException {
+        String name = parseString(1);
+        msg.setStartApp(name);
+    }
+}
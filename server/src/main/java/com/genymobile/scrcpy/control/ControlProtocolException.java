@@ -0,0 +1,9 @@
+package com.genymobile.scrcpy.control;
+
+import java.io.IOException;
+
+public class ControlProtocolException extends IOException {
+    public ControlProtocolException(String message) {
+        super(message);
+    }
+}
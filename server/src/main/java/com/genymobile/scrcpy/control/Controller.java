@@ -4,62 +4,305 @@ import com.genymobile.scrcpy.AsyncProcessor;
 import com.genymobile.scrcpy.Options;
 import com.genymobile.scrcpy.device.Device;
 import com.genymobile.scrcpy.util.Ln;
+import com.genymobile.scrcpy.util.StringUtils;
+import com.genymobile.scrcpy.wrappers.ServiceManager;
 
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 import android.os.SystemClock;
 import android.util.Base64;
-import android.view.InputDevice;
-import android.view.KeyCharacterMap;
 import android.view.KeyEvent;
 import android.view.MotionEvent;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.Locale;
-import java.util.StringTokenizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
 
 public class Controller implements AsyncProcessor {
 
-    private static final int DEFAULT_DEVICE_ID = 0;
     // 로그에 너무 긴 클립보드 본문이 그대로 찍히지 않도록 미리보기 길이를 제한한다.
     private static final int CLIPBOARD_LOG_PREVIEW_LIMIT = 64;
+    // 파이프라이닝 요청 ID 접두어와 최대 길이
+    private static final char REQUEST_ID_PREFIX = '#';
+    private static final int REQUEST_ID_MAX_LENGTH = 32;
+    // BATCH 한 번에 허용하는 최대 하위 명령 수
+    private static final int BATCH_MAX_COMMANDS = 256;
+    // 실행 기한 접두어 "!<uptimeMillis>"
+    private static final char DEADLINE_PREFIX = '!';
+    // 수신했지만 아직 실행하지 않은 명령의 최대 수
+    private static final int INBOUND_QUEUE_CAPACITY = 64;
+    // join()이 세션의 레인에서 실행 중인 명령을 기다리는 시간
+    private static final long LANE_STOP_TIMEOUT_MS = 1000;
+    // MTOUCH MOVE를 합칠 때 TOUCH MOVE(키 0)와 구분하는 키 비트, 아래 비트는 포인터 ID
+    private static final long MULTI_TOUCH_MOVE_KEY = 1L << 32;
+    // 기한이 지나 버린 터치 스트림 비트, 아래 MAX_POINTERS개 비트는 MTOUCH 포인터 ID, 그 위 비트는 TOUCH
+    private static final int EXPIRED_MULTI_TOUCH = (1 << InputInjector.MAX_POINTERS) - 1;
+    private static final int EXPIRED_SINGLE_TOUCH = 1 << InputInjector.MAX_POINTERS;
+
+    // 등록되지 않은 명령, BATCH 블록 안의 빈 줄과 요청 ID가 붙은 줄
+    private static final CommandHandler UNKNOWN_COMMAND = CommandHandler.create("?", "[arg]...", 0, arguments -> error("UNKNOWN_COMMAND"));
+    private static final CommandHandler EMPTY_COMMAND = CommandHandler.create("", "", 0, arguments -> error("EMPTY_COMMAND"));
+    private static final CommandHandler TAGGED_COMMAND = CommandHandler.create("#", "[arg]...", CommandHandler.FLAG_NOT_IN_BATCH,
+            arguments -> error("NOT_ALLOWED_IN_BATCH"));
+
+    // SUBSCRIBE/UNSUBSCRIBE 인수, EVENT_MASKS와 같은 순서
+    private static final String[] EVENT_NAMES = {"CLIPBOARD", "DISPLAY", "ROTATION", "POWER"};
+    private static final int[] EVENT_MASKS = {
+            DeviceEventMonitor.EVENT_CLIPBOARD, DeviceEventMonitor.EVENT_DISPLAY, DeviceEventMonitor.EVENT_ROTATION, DeviceEventMonitor.EVENT_POWER,
+    };
+
+    // 압축된 CLIP_CHUNK 하나를 풀었을 때 허용하는 최대 크기
+    private static final int CLIPBOARD_CHUNK_INFLATED_MAX_LENGTH = 1 << 20; // 1M
+
+    // KEYCODE 명령의 action 인수
+    private static final int KEY_ACTION_INVALID = -1;
+    private static final int KEY_ACTION_BOTH = 0;
+    private static final int KEY_ACTION_DOWN = 1;
+    private static final int KEY_ACTION_UP = 2;
 
     private final int displayId;
     private final boolean supportsInputEvents;
+    private final InputInjector injector;
     private final ControlChannel controlChannel;
+    private final ResponseSender sender;
+    private final UntaggedResponseOrder untaggedResponses;
     private final boolean powerOn;
 
-    private final KeyCharacterMap charMap = KeyCharacterMap.load(KeyCharacterMap.VIRTUAL_KEYBOARD);
+    private final DeviceEventMonitor eventMonitor;
+    // 구독한 이벤트는 응답과 같은 송신 큐로 내보낸다.
+    private final DeviceEventMonitor.Listener eventListener = new DeviceEventMonitor.Listener() {
+        @Override
+        public void onEvent(String event) {
+            sender.send(event);
+        }
+    };
+
+    // 상주 모드가 아니면 null
+    private final SessionRegistry sessionRegistry;
+    // 재연결 시 RESUME으로 교체될 수 있다. 교체는 첫 명령에서만 허용하므로 워커와 경합하지 않는다.
+    private SessionState sessionState;
+    // CLIP_BEGIN/CHUNK/END, CLIP_OPEN/READ 분할 전송 상태
+    private ClipboardTransfer clipboardTransfer;
+    // 클립보드 페이로드 base64/압축, 여러 스레드에서 쓰므로 이 객체로 동기화한다.
+    private PayloadCodec payloadCodec;
+    // MACRO_DEF로 저장한 매크로
+    private MacroLibrary macroLibrary;
+    private boolean firstCommand = true;
+    // 기한이 지나 UP(또는 CANCEL)까지 나머지를 버리는 터치 스트림 (실행 스레드 전용)
+    private int expiredTouchStreams;
+
+    private final CommandRegistry commands = new CommandRegistry();
+    // 실행 경로가 일반 명령과 다른 명령
+    private CommandHandler pingCommand;
+    private CommandHandler modeCommand;
+    private CommandHandler batchCommand;
+    private CommandHandler resumeCommand;
+    private CommandHandler touchCommand;
+    private CommandHandler cancelCommand;
+    private CommandHandler atCommand;
+    private CommandHandler macroDefCommand;
+    private CommandHandler macroRunCommand;
+    private CommandHandler macroDelCommand;
+    private CommandHandler swipeCommand;
+    private CommandHandler dragCommand;
+    private CommandHandler pinchCommand;
+    private CommandHandler rotateCommand;
+    private CommandHandler multiTouchCommand;
+    private CommandHandler textCommand;
+
+    // 아직 끝나지 않은 취소 가능한 명령 (guarded by itself)
+    private final List<CancelToken> cancelTokens = new ArrayList<>();
+    // 실행 중인 명령의 취소 표시, 명령을 실행하는 스레드마다 설정한다.
+    private final ThreadLocal<CancelToken> currentCancelToken = new ThreadLocal<>();
+
+    // MACRO_DEF의 줄을 해석한다(수신 스레드).
+    private final Macro.Resolver macroResolver = new Macro.Resolver() {
+        @Override
+        public CommandHandler lookupCommand(LineTokenizer tokenizer) {
+            return commands.lookup(tokenizer);
+        }
+
+        @Override
+        public String decodeText(LineTokenizer tokenizer) {
+            synchronized (payloadCodec) {
+                int length = payloadCodec.decode(tokenizer.getBuffer(), tokenizer.getRemainingStart(), tokenizer.getRemainingEnd(),
+                        ClipboardTransfer.TRANSFER_MAX_LENGTH);
+                if (length < 0) {
+                    return null;
+                }
+                String text = new String(payloadCodec.getDecoded(), 0, length, StandardCharsets.UTF_8);
+                payloadCodec.releaseLargeBuffers();
+                return text;
+            }
+        }
+    };
+
+    // MACRO_RUN을 실행하는 스레드에서 사용한다.
+    private final Macro.Environment macroEnvironment = new Macro.Environment() {
+        @Override
+        public String execute(CommandHandler command, LineTokenizer arguments) {
+            return Controller.this.execute(command, arguments);
+        }
 
-    private final MotionEvent.PointerProperties[] pointerProperties = new MotionEvent.PointerProperties[1];
-    private final MotionEvent.PointerCoords[] pointerCoords = new MotionEvent.PointerCoords[1];
+        @Override
+        public boolean isScreenOn() {
+            return Device.isScreenOn(displayId);
+        }
+
+        @Override
+        public String getClipboardText() {
+            return Device.getClipboardText();
+        }
+    };
+
+    // 수신 스레드 전용, 매 줄마다 재사용한다.
+    private final LineTokenizer lineTokenizer = new LineTokenizer();
+
+    // 수신 스레드가 읽은 명령을 실행 스레드로 넘긴다.
+    private final InboundQueue inboundQueue = new InboundQueue(INBOUND_QUEUE_CAPACITY);
 
     private Thread thread;
+    private Thread execThread;
+    private final Object laneTaskLock = new Object();
+    // guarded by laneTaskLock
+    private boolean stopped;
+    private int runningLaneTasks;
+    // 실행 스레드에서 바로 실행한 명령의 지연 통계
+    private final LaneStats realtimeStats = new LaneStats();
+    // ID가 붙은 오래 걸리는 입력 명령(TEXT, 제스처가 든 BATCH 등)을 순서대로 실행한다.
+    private final WorkerLane asyncLane = new WorkerLane("async");
+    // 클립보드처럼 느린 I/O 명령을 순서대로 실행한다.
+    private final WorkerLane bulkLane = new WorkerLane("bulk");
+    // 디바이스의 터치 레인, 모든 세션이 공유한다(InputInjector#getTouchLane()).
+    private final WorkerLane touchLane;
+    // 제스처 명령의 이벤트를 시각표대로 주입한다.
+    private final GestureEngine gestureEngine;
+    // AT으로 예약한 명령을 지정한 시각에 실행한다. 처음 예약할 때 시작한다.
+    private volatile HandlerThread schedulerThread;
+    private Handler scheduler;
+    // 예약 시각 대비 실행 지연 통계, 대기는 예약 시각부터 실제 실행까지다.
+    private final LaneStats scheduledStats = new LaneStats();
+    // 예약되었지만 아직 응답하지 않은 명령 수
+    private final AtomicInteger scheduledPending = new AtomicInteger();
+
+    /**
+     * @param injector 모든 세션이 공유하는 입력 주입기
+     * @param eventMonitor 모든 세션이 공유하는 기기 상태 감시기
+     */
+    public Controller(ControlChannel controlChannel, InputInjector injector, DeviceEventMonitor eventMonitor, Options options) {
+        this(controlChannel, injector, eventMonitor, options, null);
+    }
 
-    public Controller(ControlChannel controlChannel, Options options) {
-        this.displayId = options.getDisplayId();
+    /**
+     * @param sessionRegistry 상주 모드에서 RESUME으로 이전 세션 상태를 찾을 곳, 없으면 {@code null}
+     */
+    Controller(ControlChannel controlChannel, InputInjector injector, DeviceEventMonitor eventMonitor, Options options,
+            SessionRegistry sessionRegistry) {
+        this.sessionRegistry = sessionRegistry;
+        setSessionState(new SessionState());
+        this.injector = injector;
+        this.eventMonitor = eventMonitor;
+        this.displayId = injector.getDisplayId();
+        this.supportsInputEvents = injector.supportsInputEvents();
         this.controlChannel = controlChannel;
+        this.sender = new ResponseSender(controlChannel, options.getResponseMaxDelayUs());
+        this.untaggedResponses = new UntaggedResponseOrder(sender);
         this.powerOn = options.getPowerOn();
-        initPointers();
+        this.touchLane = injector.getTouchLane();
+        this.gestureEngine = new GestureEngine(injector, options.getGestureSamplesPerFrame());
+        registerCommands();
+    }
 
-        supportsInputEvents = Device.supportsInputEvents(displayId);
-        if (!supportsInputEvents) {
-            Ln.w("Input events are not supported for secondary displays before Android 10");
-        }
+    private void registerCommands() {
+        final int input = CommandHandler.FLAG_NEEDS_INPUT;
+        final int longRunning = CommandHandler.FLAG_LONG_RUNNING;
+        final int bulk = CommandHandler.FLAG_BULK;
+        final int touch = CommandHandler.FLAG_TOUCH;
+        final int async = CommandHandler.FLAG_ASYNC;
+
+        // 송신 시각은 송신 스레드에서 붙이므로 "PING TIME"은 단독으로만 쓸 수 있다(handlePing).
+        pingCommand = register("PING", "[TIME]", 0, args -> args.hasMoreTokens() ? error("NOT_ALLOWED_IN_BATCH") : ok("PONG"));
+        // 아래 명령은 수신 스레드에서 처리한다(receiveLine).
+        modeCommand = registerReceiver("MODE", "<TEXT|BINARY>");
+        batchCommand = registerReceiver("BATCH", "<count> [STOP|CONTINUE]");
+        resumeCommand = registerReceiver("RESUME", "<token>");
+        // 앞선 명령의 실행을 기다리지 않도록 수신 스레드에서 처리한다.
+        cancelCommand = registerReceiver("CANCEL", "<#id|GESTURES|TEXT|CLIPBOARD|SCHEDULED|MACROS|ALL>");
+        // 수신 스레드에서 대상 명령으로 바꿔 큐에 넣는다.
+        atCommand = registerReceiver("AT", "<uptimeMillis> <command> [arg]...");
+        // 매크로 정의, 삭제와 이름 해석은 수신 순서대로 적용되도록 수신 스레드에서 처리한다.
+        macroDefCommand = registerReceiver("MACRO_DEF", "<name> <lines>");
+        macroRunCommand = registerReceiver("MACRO_RUN", "<name>");
+        macroDelCommand = registerReceiver("MACRO_DEL", "<name>");
+        register("MACRO_LIST", "", 0, args -> ok(String.join(" ", macroLibrary.getNames())));
+
+        // 클립보드 명령은 전송 상태와 코덱을 공유하므로 모두 bulk 레인에서 순서대로 실행한다.
+        register("CLIP_GET", "", bulk, args -> handleClipboardGet());
+        register("CLIP_SET", "[base64]", bulk, this::handleClipboardSet);
+        register("CLIP_BEGIN", "[length]", bulk, this::handleClipboardBegin);
+        register("CLIP_CHUNK", "[base64]", bulk, this::handleClipboardChunk);
+        register("CLIP_END", "", bulk, this::handleClipboardEnd);
+        register("CLIP_OPEN", "", bulk, this::handleClipboardOpen);
+        register("CLIP_READ", "", bulk, this::handleClipboardRead);
+        register("CLIP_ABORT", "", bulk, args -> {
+            clipboardTransfer.abort();
+            return ok(null);
+        });
+        register("COMPRESS", "<DEFLATE|NONE> [level]", bulk, this::handleCompress);
+        register("SESSION", "", 0, args -> ok(sessionState.getToken()));
+        register("SUBSCRIBE", "<event>...", 0, args -> handleSubscribe(args, true));
+        register("UNSUBSCRIBE", "[event]...", 0, args -> handleSubscribe(args, false));
+        register("STATS", "", 0, args -> handleStats());
+        register("INJECT_STATS", "[START|STOP]", 0, this::handleInjectStats);
+        // 이벤트 수만큼 바인더를 호출하므로 ID가 없어도 실행 스레드에서 실행하지 않는다.
+        register("INJECT_BENCH", "[count]", input | longRunning | async, this::handleInjectBench);
+
+        // TAP, TOUCH와 MTOUCH는 바로 끝나므로 실행 스레드에서 주입한다. 포인터 스트림은 InputInjector가 원자적으로 검사한다.
+        register("TAP", "<x> <y> [pressure] [buttons]", input, this::handleTap);
+        swipeCommand = register("SWIPE", "<x1> <y1> <x2> <y2> <durationMs>", input | longRunning | touch, args -> handleGesture(swipeCommand, args));
+        // SWIPE와 DRAG는 같은 입력 경로를 사용하지만 로그에서 의미를 분리한다.
+        dragCommand = register("DRAG", "<x1> <y1> <x2> <y2> <durationMs>", input | longRunning | touch, args -> handleGesture(dragCommand, args));
+        pinchCommand = register("PINCH", "<cx> <cy> <fromDistance> <toDistance> <durationMs> [angleDeg]", input | longRunning | touch,
+                args -> handleGesture(pinchCommand, args));
+        rotateCommand = register("ROTATE", "<cx> <cy> <radius> <degrees> <durationMs> [startDeg]", input | longRunning | touch,
+                args -> handleGesture(rotateCommand, args));
+        register("KEYCODE", "<keycode> [DOWN|UP|BOTH]", input, this::handleKeycode);
+        textCommand = register("TEXT", "[base64]", input | longRunning, this::handleText);
+        touchCommand = register("TOUCH", "<DOWN|MOVE|UP|CANCEL> <x> <y> [pressure]", input, this::handleTouch);
+        multiTouchCommand = register("MTOUCH", "<DOWN|MOVE|UP|CANCEL> <pointer> <x> <y> [pressure]", input,
+                this::handleMultiTouch);
+    }
+
+    private CommandHandler register(String name, String usage, int flags, CommandHandler.Action action) {
+        return commands.register(CommandHandler.create(name, usage, flags, action));
+    }
+
+    private CommandHandler registerReceiver(String name, String usage) {
+        return commands.register(CommandHandler.createReceiverCommand(name, usage));
     }
 
-    private void initPointers() {
-        MotionEvent.PointerProperties props = new MotionEvent.PointerProperties();
-        props.id = 0;
-        props.toolType = MotionEvent.TOOL_TYPE_FINGER;
-        pointerProperties[0] = props;
+    private void setSessionState(SessionState sessionState) {
+        this.sessionState = sessionState;
+        clipboardTransfer = sessionState.getClipboardTransfer();
+        payloadCodec = sessionState.getPayloadCodec();
+        macroLibrary = sessionState.getMacroLibrary();
+    }
 
-        MotionEvent.PointerCoords coords = new MotionEvent.PointerCoords();
-        coords.orientation = 0;
-        coords.size = 0;
-        pointerCoords[0] = coords;
+    /**
+     * 현재 세션 상태. 연결이 끝난 뒤 상주 모드에서 보관하는 데 사용한다.
+     */
+    public SessionState getSessionState() {
+        return sessionState;
     }
 
-    private void control() throws IOException {
+    private void control() throws InterruptedException {
         // on start, power on the device
         if (powerOn && displayId == 0 && !Device.isScreenOn(displayId)) {
             Device.pressReleaseKeycode(KeyEvent.KEYCODE_POWER, displayId, Device.INJECT_MODE_ASYNC);
@@ -67,431 +310,1971 @@ public class Controller implements AsyncProcessor {
             SystemClock.sleep(500);
         }
 
+        InjectionStats stats = injector.getStats();
         boolean alive = true;
         while (!Thread.currentThread().isInterrupted() && alive) {
-            alive = handleEvent();
+            long allocationStart = stats.begin();
+            alive = controlChannel.isBinary() ? receiveMessage() : receiveLine();
+            stats.recordReceive(allocationStart);
+        }
+    }
+
+    private void runCommands() throws InterruptedException {
+        InjectionStats stats = injector.getStats();
+        while (!Thread.currentThread().isInterrupted()) {
+            InboundCommand cmd = inboundQueue.take();
+            long allocationStart = stats.begin();
+            try {
+                run(cmd);
+            } catch (RuntimeException e) {
+                // 실행 스레드가 끝나면 수신 스레드가 가득 찬 큐에서 영원히 기다리므로, 실패한 명령에만 응답하고 계속한다.
+                Ln.e("Command failed", e);
+                if (cmd.getMessage() == null) {
+                    send(cmd.getRequestId(), error("INTERNAL_ERROR"));
+                }
+            } finally {
+                inboundQueue.done();
+                stats.recordDispatch(allocationStart);
+            }
         }
     }
 
     @Override
     public void start(final TerminationListener listener) {
+        final AtomicBoolean terminated = new AtomicBoolean();
+        sender.start(new ResponseSender.Listener() {
+            @Override
+            public void onSendFailed() {
+                // 수신 스레드는 연결이 닫혀야 깨어나므로 여기서 세션 종료를 알린다.
+                if (terminated.compareAndSet(false, true)) {
+                    listener.onTerminated(true);
+                }
+            }
+        });
+        execThread = new Thread(() -> {
+            try {
+                runCommands();
+            } catch (InterruptedException e) {
+                // stopped
+            }
+        }, "control-exec");
+        execThread.start();
         thread = new Thread(new Runnable() {
             @Override
             public void run() {
                 try {
                     control();
-                } catch (IOException e) {
-                    Ln.e("Controller error", e);
+                } catch (InterruptedException e) {
+                    // stopped
                 } finally {
                     Ln.d("Controller stopped");
-                    listener.onTerminated(true);
+                    if (terminated.compareAndSet(false, true)) {
+                        listener.onTerminated(true);
+                    }
                 }
             }
         }, "control-recv");
         thread.start();
     }
 
+    /**
+     * 세션의 스레드에서 불릴 수 있다(세션 종료 알림). 그 스레드는 곧 끝나므로 자신은 인터럽트하지 않는다.
+     */
     @Override
     public void stop() {
-        if (thread != null) {
-            thread.interrupt();
+        synchronized (laneTaskLock) {
+            stopped = true;
+        }
+        interrupt(thread);
+        interrupt(execThread);
+        // 진행 중인 제스처를 ACTION_CANCEL로 끝내 워커가 바로 멈추게 한다.
+        cancel(null, CancelToken.CATEGORY_ALL);
+        asyncLane.shutdownNow();
+        bulkLane.shutdownNow();
+        gestureEngine.quit();
+        HandlerThread scheduledThread = schedulerThread;
+        if (scheduledThread != null) {
+            scheduledThread.quit();
         }
+        eventMonitor.unsubscribe(eventListener, DeviceEventMonitor.EVENT_ALL);
+        sender.stop();
     }
 
+    /**
+     * 세션의 스레드를 기다린다. 레인의 명령이 {@link #LANE_STOP_TIMEOUT_MS} 안에 멈추지 않으면 더 기다리지 않으므로, 세션 상태를 다시 쓰려면
+     * {@link #join(long)}의 결과를 확인해야 한다.
+     */
     @Override
     public void join() throws InterruptedException {
-        if (thread != null) {
-            thread.join();
+        if (!join(LANE_STOP_TIMEOUT_MS)) {
+            Ln.w("Session commands still running after " + LANE_STOP_TIMEOUT_MS + " ms");
+        }
+    }
+
+    /**
+     * 세션의 모든 스레드와 레인에서 이 세션의 명령이 끝날 때까지 기다린다. 세션의 스레드에서 부르면 그 스레드는 기다리지 않는다.
+     *
+     * @param laneTimeoutMillis 레인에서 실행 중인 명령을 기다리는 최대 시간
+     * @return 모든 명령이 끝났으면 {@code true}, 이때만 세션 상태({@link #getSessionState()})를 쓰는 스레드가 없다
+     */
+    public boolean join(long laneTimeoutMillis) throws InterruptedException {
+        join(thread);
+        join(execThread);
+        long deadline = SystemClock.uptimeMillis() + laneTimeoutMillis;
+        boolean stopped = asyncLane.awaitTermination(remainingMillis(deadline), TimeUnit.MILLISECONDS);
+        stopped &= bulkLane.awaitTermination(remainingMillis(deadline), TimeUnit.MILLISECONDS);
+        join(schedulerThread);
+        stopped &= awaitLaneTasks(remainingMillis(deadline));
+        sender.join();
+        return stopped;
+    }
+
+    private static long remainingMillis(long deadline) {
+        return Math.max(0, deadline - SystemClock.uptimeMillis());
+    }
+
+    private static void interrupt(Thread t) {
+        if (t != null && t != Thread.currentThread()) {
+            t.interrupt();
+        }
+    }
+
+    private static void join(Thread t) throws InterruptedException {
+        if (t != null && t != Thread.currentThread()) {
+            t.join();
+        }
+    }
+
+    /**
+     * 공유 터치 레인은 멈추지 않으므로 그 위에서 실행 중인 이 세션의 명령을 따로 기다린다.
+     *
+     * @return 시간 안에 모두 끝났으면 {@code true}
+     */
+    private boolean awaitLaneTasks(long timeoutMillis) throws InterruptedException {
+        long deadline = SystemClock.uptimeMillis() + timeoutMillis;
+        synchronized (laneTaskLock) {
+            while (runningLaneTasks > 0) {
+                long remaining = deadline - SystemClock.uptimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                laneTaskLock.wait(remaining);
+            }
         }
+        return true;
     }
 
-    private boolean handleEvent() throws IOException {
-        String line;
+    /**
+     * 명령 라인 하나를 읽어 실행 큐에 넣는다.
+     * <p>
+     * 형식: "[#&lt;id&gt;] [!&lt;uptimeMillis&gt;] &lt;command&gt; [args...]". "!" 접두어는 실행 기한으로, 실행 스레드가 꺼냈을 때
+     * 기기의 {@code SystemClock.uptimeMillis()}가 이 값을 지났으면 실행하지 않고 "ERR EXPIRED"로 응답한다. TOUCH/MTOUCH는 스트림 단위로
+     * 버린다({@link #dropExpiredTouch(InboundCommand)}).
+     */
+    private boolean receiveLine() throws InterruptedException {
+        LineTokenizer tokenizer = lineTokenizer;
         try {
-            line = controlChannel.recv();
+            if (!controlChannel.recv(tokenizer)) {
+                return false;
+            }
         } catch (IOException e) {
             // this is expected on close
             return false;
         }
+        long recvUptimeMillis = SystemClock.uptimeMillis();
+        long recvElapsedNanos = SystemClock.elapsedRealtimeNanos();
 
-        if (line == null) {
-            return false;
-        }
-
-        String trimmed = line.trim();
-        if (trimmed.isEmpty()) {
-            sendError("EMPTY_COMMAND");
+        if (!tokenizer.nextToken()) {
+            reply(null, error("EMPTY_COMMAND"));
             return true;
         }
 
-        String command;
-        String arguments;
-        int spaceIndex = trimmed.indexOf(' ');
-        if (spaceIndex == -1) {
-            command = trimmed;
-            arguments = "";
-        } else {
-            command = trimmed.substring(0, spaceIndex);
-            arguments = trimmed.substring(spaceIndex + 1).trim();
+        // "#<id> " 접두어가 있으면 응답에 같은 ID를 붙여 파이프라이닝을 허용한다.
+        String requestId = null;
+        if (tokenizer.tokenStartsWith(REQUEST_ID_PREFIX)) {
+            int idLength = tokenizer.tokenLength() - 1;
+            if (idLength == 0 || idLength > REQUEST_ID_MAX_LENGTH) {
+                reply(null, error("INVALID_REQUEST_ID"));
+                return true;
+            }
+            requestId = tokenizer.tokenToString(1);
+            if (!tokenizer.nextToken()) {
+                reply(requestId, error("EMPTY_COMMAND"));
+                return true;
+            }
         }
 
-        command = command.toUpperCase(Locale.ENGLISH);
+        long deadline = InboundCommand.NO_DEADLINE;
+        if (tokenizer.tokenStartsWith(DEADLINE_PREFIX)) {
+            try {
+                deadline = tokenizer.tokenToLong(1);
+            } catch (NumberFormatException e) {
+                reply(requestId, error("INVALID_DEADLINE"));
+                return true;
+            }
+            if (!tokenizer.nextToken()) {
+                reply(requestId, error("EMPTY_COMMAND"));
+                return true;
+            }
+        }
 
-        // 어떤 컨트롤 명령이 들어왔는지 기본 정보를 로그로 남긴다.
-        // 인수는 길이 중심으로 기록해 민감 데이터 노출을 최소화한다.
-        //Ln.d("컨트롤 명령 수신: command=" + command + ", argsLength=" + arguments.length());
+        CommandHandler command = lookupCommand(tokenizer);
+        boolean first = firstCommand;
+        firstCommand = false;
 
-        if ("PING".equals(command)) {
-            sendOk("PONG");
+        if (command == resumeCommand) {
+            reply(requestId, handleResume(tokenizer, first));
             return true;
         }
 
-        if ("CLIP_GET".equals(command)) {
-            handleClipboardGet();
+        if (command == modeCommand) {
+            handleMode(requestId, tokenizer);
             return true;
         }
 
-        if ("CLIP_SET".equals(command)) {
-            handleClipboardSet(arguments);
+        if (command == batchCommand) {
+            return receiveBatch(requestId, deadline, tokenizer);
+        }
+
+        if (command == cancelCommand) {
+            handleCancel(requestId, tokenizer);
             return true;
         }
 
-        // 입력이 필요한 커맨드는 디스플레이 지원 여부를 먼저 확인한다.
-        if (!supportsInputEvents) {
-            sendError("INPUT_NOT_SUPPORTED");
+        if (command == macroDefCommand) {
+            return receiveMacroDef(requestId, tokenizer);
+        }
+
+        if (command == macroDelCommand) {
+            String name = tokenizer.nextToken() && !tokenizer.hasMoreTokens() ? tokenizer.tokenToString() : null;
+            if (name == null) {
+                reply(requestId, error("INVALID_ARGS"));
+            } else {
+                reply(requestId, macroLibrary.remove(name) ? ok(null) : error("UNKNOWN_MACRO"));
+            }
             return true;
         }
 
-        if ("TAP".equals(command)) {
-            handleTap(arguments);
-        } else if ("SWIPE".equals(command) || "DRAG".equals(command)) {
-            // SWIPE와 DRAG는 같은 입력 경로를 사용하지만 로그에서 의미를 분리한다.
-            boolean isDrag = "DRAG".equals(command);
-            handleSwipe(arguments, isDrag);
-        } else if ("KEYCODE".equals(command)) {
-            handleKeycode(arguments);
-        } else if ("TEXT".equals(command)) {
-            handleText(arguments);
-        } else {
-            sendError("UNKNOWN_COMMAND");
+        if (command == macroRunCommand) {
+            receiveMacroRun(requestId, deadline, tokenizer, recvUptimeMillis, recvElapsedNanos);
+            return true;
         }
 
+        long scheduledTime = InboundCommand.NOT_SCHEDULED;
+        int cancelCategories = 0;
+        if (command == atCommand) {
+            // "AT <uptimeMillis> <command> [args...]": 토큰을 대상 명령까지 옮긴다.
+            String error = null;
+            if (!tokenizer.nextToken()) {
+                error = "INVALID_ARGS";
+            } else {
+                scheduledTime = InboundCommand.parseScheduledTime(tokenizer, recvUptimeMillis);
+                if (scheduledTime == InboundCommand.NOT_SCHEDULED) {
+                    error = "INVALID_TIME";
+                } else if (!tokenizer.nextToken()) {
+                    error = "INVALID_ARGS";
+                } else {
+                    command = lookupCommand(tokenizer);
+                    if (!command.needsInput()) {
+                        // 예약은 입력 명령만 허용한다.
+                        error = "NOT_SCHEDULABLE";
+                    }
+                }
+            }
+
+            if (error != null) {
+                reply(requestId, error(error));
+                return true;
+            }
+            cancelCategories = CancelToken.CATEGORY_SCHEDULED;
+        }
+        cancelCategories |= getCancelCategories(command);
+
+        // 수신 버퍼는 다음 줄에 재사용되므로 인수를 큐의 칸으로 복사해 넘긴다.
+        InboundCommand cmd = inboundQueue.claimText(tokenizer);
+        cmd.setText(requestId, command, tokenizer);
+        cmd.setCancelToken(createCancelToken(requestId, cancelCategories));
+        cmd.setScheduledTime(scheduledTime);
+        cmd.setDeadline(deadline);
+        cmd.setRecvTime(recvUptimeMillis, recvElapsedNanos);
+        if (requestId == null && scheduledTime == InboundCommand.NOT_SCHEDULED && (command == touchCommand || command == multiTouchCommand)
+                && tokenizer.nextToken() && tokenizer.tokenEqualsIgnoreCase("move")) {
+            // ID 없는 MOVE는 실행 전에 뒤따르는 같은 포인터의 MOVE로 대체될 수 있다.
+            if (command == touchCommand) {
+                cmd.setMove(0);
+            } else {
+                try {
+                    cmd.setMove(MULTI_TOUCH_MOVE_KEY | tokenizer.nextInt());
+                } catch (NumberFormatException e) {
+                    // 실행할 때 INVALID_ARGS로 응답한다.
+                }
+            }
+        }
+        inboundQueue.publish();
         return true;
     }
 
-    private void handleTap(String arguments) throws IOException {
-        StringTokenizer tokenizer = new StringTokenizer(arguments);
-        if (tokenizer.countTokens() < 2) {
-            sendError("INVALID_ARGS");
-            return;
+    /**
+     * 수신 스레드에서 결정된 응답도 큐를 거쳐 앞선 명령의 응답 뒤에 보낸다.
+     */
+    private void reply(String requestId, String response) throws InterruptedException {
+        inboundQueue.claim().setResponse(requestId, response);
+        inboundQueue.publish();
+    }
+
+    /**
+     * 현재 토큰에 해당하는 명령을 찾는다. 대소문자를 구분하지 않으며 문자열을 만들지 않는다.
+     */
+    private CommandHandler lookupCommand(LineTokenizer tokenizer) {
+        CommandHandler command = commands.lookup(tokenizer);
+        return command != null ? command : UNKNOWN_COMMAND;
+    }
+
+    /**
+     * "BATCH &lt;count&gt; [stop|continue]" 헤더 뒤에 오는 count개의 명령 라인을 읽어 연속 실행하고, 결과 벡터를 한 줄로 응답한다.
+     * <p>
+     * 응답 형식: "OK &lt;r1&gt;,&lt;r2&gt;,..." 각 결과는 하위 응답의 공백을 ':'로 바꾼 값이며(예: "OK", "ERR:INVALID_ARGS"),
+     * stop 정책에서 실행되지 않은 명령은 "SKIP"이다.
+     */
+    private boolean receiveBatch(String requestId, long deadline, LineTokenizer tokenizer) throws InterruptedException {
+        int count;
+        try {
+            count = tokenizer.nextInt();
+        } catch (NumberFormatException e) {
+            reply(requestId, error("INVALID_ARGS"));
+            return true;
         }
 
-        Integer x = parseInt(tokenizer.nextToken());
-        Integer y = parseInt(tokenizer.nextToken());
-        if (x == null || y == null) {
-            sendError("INVALID_COORDS");
-            return;
+        if (count <= 0 || count > BATCH_MAX_COMMANDS) {
+            reply(requestId, error("INVALID_BATCH_SIZE"));
+            return true;
         }
 
-        float pressure = 1.0f;
-        if (tokenizer.hasMoreTokens()) {
-            Float parsedPressure = parseFloat(tokenizer.nextToken());
-            if (parsedPressure == null) {
-                sendError("INVALID_PRESSURE");
-                return;
+        boolean stopOnError = true;
+        if (tokenizer.nextToken()) {
+            if (tokenizer.tokenEqualsIgnoreCase("continue")) {
+                stopOnError = false;
+            } else if (!tokenizer.tokenEqualsIgnoreCase("stop")) {
+                reply(requestId, error("INVALID_ARGS"));
+                return true;
             }
-            pressure = parsedPressure.floatValue();
         }
 
-        int buttons = 0;
         if (tokenizer.hasMoreTokens()) {
-            Integer parsedButtons = parseInt(tokenizer.nextToken());
-            if (parsedButtons == null) {
-                sendError("INVALID_BUTTONS");
-                return;
+            reply(requestId, error("INVALID_ARGS"));
+            return true;
+        }
+
+        // 블록 전체를 먼저 수신한 뒤 실행해, 실행 도중 소켓 읽기가 섞이지 않게 한다.
+        CommandHandler[] batchCommands = new CommandHandler[count];
+        LineTokenizer[] arguments = new LineTokenizer[count];
+        for (int i = 0; i < count; ++i) {
+            try {
+                if (!controlChannel.recv(tokenizer)) {
+                    return false;
+                }
+            } catch (IOException e) {
+                // this is expected on close
+                return false;
+            }
+
+            if (!tokenizer.nextToken()) {
+                batchCommands[i] = EMPTY_COMMAND;
+            } else if (tokenizer.tokenStartsWith(REQUEST_ID_PREFIX)) {
+                batchCommands[i] = TAGGED_COMMAND;
+            } else {
+                batchCommands[i] = lookupCommand(tokenizer);
             }
-            buttons = parsedButtons.intValue();
+            arguments[i] = tokenizer.copy();
         }
 
-        if (tokenizer.hasMoreTokens()) {
-            sendError("INVALID_ARGS");
-            return;
+        int categories = 0;
+        for (CommandHandler command : batchCommands) {
+            categories |= getCancelCategories(command);
         }
 
-        boolean ok = injectTap(x.intValue(), y.intValue(), pressure, buttons);
-        // 클라이언트 터치 요청을 디버깅할 수 있도록 입력 정보를 상세히 남긴다.
-        Ln.i("터치 입력 요청 처리: x=" + x + ", y=" + y + ", pressure=" + pressure
-                + ", buttons=" + buttons + ", 결과=" + (ok ? "성공" : "실패"));
-        respond(ok, null);
+        InboundCommand cmd = inboundQueue.claim();
+        cmd.setBatch(requestId, batchCommand, batchCommands, arguments, stopOnError);
+        cmd.setCancelToken(createCancelToken(requestId, categories));
+        cmd.setDeadline(deadline);
+        cmd.setRecvTime(SystemClock.uptimeMillis(), SystemClock.elapsedRealtimeNanos());
+        inboundQueue.publish();
+        return true;
     }
 
-    private void handleSwipe(String arguments, boolean isDrag) throws IOException {
-        StringTokenizer tokenizer = new StringTokenizer(arguments);
-        if (tokenizer.countTokens() < 5) {
-            sendError("INVALID_ARGS");
-            return;
+    /**
+     * "MACRO_DEF &lt;name&gt; &lt;lines&gt;" 헤더 뒤에 오는 lines개의 줄을 읽어 매크로로 저장한다. 줄 형식은 {@link Macro}를 참고한다.
+     * <p>
+     * 블록 짝, 명령 이름과 인수 개수는 저장할 때 검사한다. 응답은 "OK" 또는 "ERR INVALID_MACRO &lt;line&gt; &lt;reason&gt;"이다. 같은 이름이
+     * 있으면 교체한다.
+     */
+    private boolean receiveMacroDef(String requestId, LineTokenizer tokenizer) throws InterruptedException {
+        String name = tokenizer.nextToken() ? tokenizer.tokenToString() : null;
+        int count;
+        try {
+            count = tokenizer.nextInt();
+        } catch (NumberFormatException e) {
+            count = -1;
         }
 
-        Integer x1 = parseInt(tokenizer.nextToken());
-        Integer y1 = parseInt(tokenizer.nextToken());
-        Integer x2 = parseInt(tokenizer.nextToken());
-        Integer y2 = parseInt(tokenizer.nextToken());
-        Integer durationMs = parseInt(tokenizer.nextToken());
-        if (x1 == null || y1 == null || x2 == null || y2 == null || durationMs == null) {
-            sendError("INVALID_ARGS");
-            return;
+        if (name == null || !MacroLibrary.isValidName(name) || count <= 0 || count > Macro.MAX_LINES || tokenizer.hasMoreTokens()) {
+            reply(requestId, error("INVALID_ARGS"));
+            return true;
         }
 
-        if (tokenizer.hasMoreTokens()) {
-            sendError("INVALID_ARGS");
-            return;
+        LineTokenizer[] lines = new LineTokenizer[count];
+        for (int i = 0; i < count; ++i) {
+            try {
+                if (!controlChannel.recv(tokenizer)) {
+                    return false;
+                }
+            } catch (IOException e) {
+                // this is expected on close
+                return false;
+            }
+            lines[i] = tokenizer.copy();
+        }
+
+        Macro macro;
+        try {
+            macro = Macro.compile(name, lines, macroResolver);
+        } catch (Macro.InvalidMacroException e) {
+            reply(requestId, error("INVALID_MACRO " + e.getLine() + " " + e.getReason()));
+            return true;
         }
 
-        boolean ok = injectSwipe(x1.intValue(), y1.intValue(), x2.intValue(), y2.intValue(), durationMs.intValue());
-        // 드래그/스와이프 입력의 경로와 시간을 상세히 기록한다.
-        String actionLabel = isDrag ? "드래그" : "스와이프";
-        Ln.i(actionLabel + " 입력 요청 처리: 시작=(" + x1 + "," + y1 + "), 종료=(" + x2 + "," + y2 + "), durationMs=" + durationMs
-                + ", 결과=" + (ok ? "성공" : "실패"));
-        respond(ok, null);
+        reply(requestId, macroLibrary.put(macro) ? ok(null) : error("TOO_MANY_MACROS"));
+        return true;
     }
 
-    private void handleKeycode(String arguments) throws IOException {
-        StringTokenizer tokenizer = new StringTokenizer(arguments);
-        if (!tokenizer.hasMoreTokens()) {
-            sendError("INVALID_ARGS");
+    /**
+     * "MACRO_RUN &lt;name&gt;": 저장한 매크로를 실행한다. 응답 형식은 {@link Macro#run(Macro.Environment, CancelToken)}을 참고한다.
+     * <p>
+     * BATCH처럼 블록 전체가 한 레인에서 실행된다. 제스처가 있으면 터치 레인, 클립보드 명령이 있으면 bulk 레인, 그 밖에는 ID와 관계없이 async
+     * 레인에서 실행하므로 WAIT가 긴 매크로도 실행 스레드의 짧은 명령을 막지 않는다. "CANCEL MACROS" 또는 "CANCEL #id"로 멈출 수 있다.
+     */
+    private void receiveMacroRun(String requestId, long deadline, LineTokenizer tokenizer, long recvUptimeMillis, long recvElapsedNanos)
+            throws InterruptedException {
+        if (!tokenizer.nextToken() || tokenizer.hasMoreTokens()) {
+            reply(requestId, error("INVALID_ARGS"));
             return;
         }
 
-        Integer keyCode = parseInt(tokenizer.nextToken());
-        if (keyCode == null) {
-            sendError("INVALID_KEYCODE");
+        Macro macro = macroLibrary.get(tokenizer.tokenToString());
+        if (macro == null) {
+            reply(requestId, error("UNKNOWN_MACRO"));
             return;
         }
 
-        String action = "both";
-        if (tokenizer.hasMoreTokens()) {
-            action = tokenizer.nextToken();
+        int categories = CancelToken.CATEGORY_MACRO;
+        for (CommandHandler command : macro.getCommands()) {
+            categories |= getCancelCategories(command);
         }
 
-        if (tokenizer.hasMoreTokens()) {
-            sendError("INVALID_ARGS");
+        InboundCommand cmd = inboundQueue.claimText(tokenizer);
+        cmd.setText(requestId, macroRunCommand, tokenizer);
+        cmd.setMacro(macro);
+        cmd.setCancelToken(createCancelToken(requestId, categories));
+        cmd.setDeadline(deadline);
+        cmd.setRecvTime(recvUptimeMillis, recvElapsedNanos);
+        inboundQueue.publish();
+    }
+
+    /**
+     * 실행 스레드에서 큐에서 꺼낸 명령 하나를 처리한다.
+     * <p>
+     * 명령은 네 레인 중 하나에서 실행된다. KEYCODE, TAP, TOUCH와 PING 같은 짧은 명령은 이 스레드(realtime)에서 바로 실행하고, 제스처를
+     * 기다리는 BATCH와 매크로({@link CommandHandler#FLAG_TOUCH})는 디바이스의 터치 레인에서, 클립보드 같은 느린 I/O
+     * 명령({@link CommandHandler#FLAG_BULK})은 bulk 레인에서, ID가 붙은 오래 걸리는 입력(TEXT 등)은 async 레인에서 실행한다. 제스처는 이
+     * 스레드에서 시작만 하고 제스처 스레드에서 재생하므로 뒤따르는 TAP과 TOUCH를 막지 않는다. 바이너리
+     * 모드의 터치 이벤트는 제스처가 없으므로 이 스레드에서 바로 주입하고, 바이너리 클립보드 메시지는 텍스트 명령처럼 bulk 레인에서 처리한다. 따라서 짧은 명령은 앞선 느린 명령의 완료를 기다리지 않는다.
+     * ID 없는 응답의 순서는 {@link UntaggedResponseOrder}가 유지하지만, 실행 순서까지 보장해야 하는 조합(예: CLIP_SET 뒤의 붙여넣기 KEYCODE)은
+     * 응답을 기다린 뒤 보내거나 BATCH로 묶어야 한다.
+     */
+    private void run(InboundCommand cmd) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        ControlMessage msg = cmd.getMessage();
+        if (msg != null) {
+            handleMessage(msg, cmd.getRecvElapsedNanos());
+            recordRealtime(cmd, start);
             return;
         }
 
-        boolean ok = injectKeycode(keyCode.intValue(), action);
-        respond(ok, null);
-    }
+        String requestId = cmd.getRequestId();
+        for (int i = 0; i < cmd.getMergedCount(); ++i) {
+            // 대체된 MOVE도 각각 응답해, ID 없는 요청의 응답 수와 순서를 유지한다.
+            send(null, ok("MERGED"));
+        }
 
-    private void handleText(String arguments) throws IOException {
-        String decoded = decodeBase64(arguments);
-        if (decoded == null) {
-            sendError("INVALID_BASE64");
+        if (cmd.getResponse() != null) {
+            send(requestId, cmd.getResponse());
             return;
         }
 
-        if (decoded.isEmpty()) {
-            sendOk(null);
+        final CommandHandler command = cmd.getCommand();
+        boolean touchStream = (command == touchCommand || command == multiTouchCommand) && cmd.getScheduledTime() == InboundCommand.NOT_SCHEDULED;
+        if (touchStream && dropExpiredTouch(cmd)) {
             return;
         }
 
-        int injected = injectText(decoded);
-        if (injected <= 0) {
-            sendError("TEXT_NOT_SUPPORTED");
+        if (!touchStream && cmd.isExpired(SystemClock.uptimeMillis())) {
+            inboundQueue.countExpired();
+            releaseCancelToken(cmd.getCancelToken());
+            send(requestId, error("EXPIRED"));
             return;
         }
 
-        sendOk(null);
-    }
+        if (cmd.getScheduledTime() != InboundCommand.NOT_SCHEDULED) {
+            schedule(cmd);
+            return;
+        }
 
-    private void handleClipboardGet() throws IOException {
-        // 클립보드 복사 요청은 상세 로그로 남겨 클라이언트 동작을 추적한다.
-        Ln.i("클립보드 GET 요청 수신");
-        String clipboardText = Device.getClipboardText();
-        if (clipboardText == null) {
-            Ln.w("클립보드 GET 실패: 클립보드 접근 불가");
-            sendError("CLIPBOARD_UNAVAILABLE");
+        if (command == batchCommand) {
+            runBatch(cmd, start);
             return;
         }
 
-        Ln.i("클립보드 GET 결과: length=" + clipboardText.length() + ", preview=\"" + toPreview(clipboardText) + "\"");
-        String encoded = encodeBase64(clipboardText);
-        sendOk(encoded);
-    }
+        if (command == macroRunCommand) {
+            runMacro(cmd);
+            return;
+        }
 
-    private void handleClipboardSet(String arguments) throws IOException {
-        String decoded = decodeBase64(arguments);
-        if (decoded == null) {
-            Ln.w("클립보드 SET 실패: base64 디코딩 오류");
-            sendError("INVALID_BASE64");
+        if (command == pingCommand && cmd.getArguments().hasMoreTokens()) {
+            handlePing(cmd);
+            recordRealtime(cmd, start);
             return;
         }
 
-        // 클립보드 붙여넣기용 데이터 수신 내용을 상세히 기록한다.
-        Ln.i("클립보드 SET 요청 수신: length=" + decoded.length() + ", preview=\"" + toPreview(decoded) + "\"");
-        boolean ok = Device.setClipboardText(decoded);
-        Ln.i("클립보드 SET 처리 결과: " + (ok ? "성공" : "실패"));
-        respond(ok, ok ? null : "CLIPBOARD_SET_FAILED");
-    }
+        if (isGesture(command)) {
+            // 제스처 스레드에서 재생하므로 끝날 때까지 기다리지 않는다. 인수는 시작하기 전에 파싱하므로 복사하지 않는다.
+            startGesture(requestId, command, cmd.getArguments(), cmd.getCancelToken(), reserveResponse(requestId));
+            recordRealtime(cmd, start);
+            return;
+        }
+
+        final CancelToken cancelToken = cmd.getCancelToken();
+        WorkerLane lane = selectLane(requestId, command.getFlags());
+        if (lane != null && cmd.hasLargeArguments()) {
+            // 큰 인수는 복사하지 않고 넘겨받는다. 레인에서 다 쓴 뒤에 다음 큰 명령을 받는다.
+            final LineTokenizer arguments = cmd.detachLargeArguments();
+            executeOn(lane, requestId, cmd.getRecvElapsedNanos(), () -> {
+                try {
+                    return execute(command, arguments, cancelToken);
+                } finally {
+                    inboundQueue.releaseLargeArguments();
+                }
+            });
+            return;
+        }
+        if (lane != null) {
+            // 큐의 칸은 done() 뒤 재사용되므로 인수를 복사해 넘긴다.
+            final LineTokenizer arguments = cmd.getArguments().copy();
+            executeOn(lane, requestId, cmd.getRecvElapsedNanos(), () -> execute(command, arguments, cancelToken));
+            return;
+        }
 
-    private boolean injectTap(int x, int y, float pressure, int buttons) {
-        long downTime = SystemClock.uptimeMillis();
-        boolean downOk = injectTouchEvent(downTime, downTime, MotionEvent.ACTION_DOWN, x, y, pressure, buttons);
-        long upTime = SystemClock.uptimeMillis();
-        boolean upOk = injectTouchEvent(downTime, upTime, MotionEvent.ACTION_UP, x, y, pressure, buttons);
-        return downOk && upOk;
+        send(requestId, execute(command, cmd.getArguments(), cancelToken));
+        recordRealtime(cmd, start);
     }
 
-    private boolean injectSwipe(int x1, int y1, int x2, int y2, int durationMs) {
-        long downTime = SystemClock.uptimeMillis();
-        boolean downOk = injectTouchEvent(downTime, downTime, MotionEvent.ACTION_DOWN, x1, y1, 1.0f, 0);
-        if (!downOk) {
+    /**
+     * 기한이 지난 TOUCH/MTOUCH는 명령 하나가 아니라 스트림 단위로 버린다. 중간의 명령만 버리면 DOWN 없는 MOVE/UP이나 UP 없는 DOWN이 남는다.
+     * <ul>
+     * <li>DOWN이 지나면 주입한 것이 없으므로 그 포인터의 UP까지 모두 버린다.</li>
+     * <li>이미 주입 중인 스트림의 MOVE/UP이 지나면 ACTION_CANCEL을 주입하고 나머지를 버린다. MTOUCH의 ACTION_CANCEL은 눌린 모든
+     * 포인터를 떼므로 모든 포인터의 나머지를 버린다.</li>
+     * <li>CANCEL은 버린 스트림이 있어도 실행한다. 지났으면 ACTION_CANCEL만 주입한다.</li>
+     * </ul>
+     * 버린 명령은 "ERR EXPIRED"로 응답한다. 스트림 상태는 실행 스레드에서 받은 순서대로 관리한다.
+     *
+     * @return 명령을 실행하지 않고 응답했으면 {@code true}
+     */
+    private boolean dropExpiredTouch(InboundCommand cmd) {
+        boolean multiTouch = cmd.getCommand() == multiTouchCommand;
+        LineTokenizer arguments = cmd.getArguments();
+        byte[] buf = arguments.getBuffer();
+        int start = arguments.getRemainingStart();
+        int end = arguments.getRemainingEnd();
+        int action = -1;
+        int stream = EXPIRED_SINGLE_TOUCH;
+        try {
+            if (arguments.nextToken()) {
+                action = parseTouchAction(arguments);
+            }
+            if (multiTouch) {
+                int pointerId = arguments.nextInt();
+                stream = pointerId >= 0 && pointerId < InputInjector.MAX_POINTERS ? 1 << pointerId : 0;
+            }
+        } catch (NumberFormatException e) {
+            stream = 0;
+        } finally {
+            // 실행할 때 처음부터 다시 읽는다.
+            arguments.reset(buf, start, end);
+        }
+        if (action == -1 || stream == 0) {
+            // 실행해서 INVALID_ARGS로 응답한다.
             return false;
         }
 
-        int safeDuration = Math.max(0, durationMs);
-        int steps = safeDuration > 0 ? Math.max(1, safeDuration / 16) : 0;
-        if (steps > 0) {
-            int stepDuration = safeDuration / steps;
-            for (int i = 1; i < steps; ++i) {
-                float progress = (float) i / (float) steps;
-                int moveX = x1 + Math.round((x2 - x1) * progress);
-                int moveY = y1 + Math.round((y2 - y1) * progress);
-                long eventTime = downTime + (long) stepDuration * i;
-                if (!injectTouchEvent(downTime, eventTime, MotionEvent.ACTION_MOVE, moveX, moveY, 1.0f, 0)) {
-                    return false;
-                }
-                SystemClock.sleep(stepDuration);
+        boolean expired = cmd.isExpired(SystemClock.uptimeMillis());
+        int streams = multiTouch ? EXPIRED_MULTI_TOUCH : EXPIRED_SINGLE_TOUCH;
+        boolean cancel = false;
+        if (action == MotionEvent.ACTION_CANCEL) {
+            expiredTouchStreams &= ~streams;
+            if (!expired) {
+                return false;
+            }
+            cancel = true;
+        } else if (action == MotionEvent.ACTION_DOWN) {
+            if (!expired) {
+                expiredTouchStreams &= ~stream;
+                return false;
+            }
+            expiredTouchStreams |= stream;
+        } else if ((expiredTouchStreams & stream) != 0) {
+            if (action == MotionEvent.ACTION_UP) {
+                expiredTouchStreams &= ~stream;
+            }
+        } else if (expired) {
+            cancel = true;
+            expiredTouchStreams |= streams;
+            if (action == MotionEvent.ACTION_UP) {
+                expiredTouchStreams &= ~stream;
+            }
+        } else {
+            return false;
+        }
+
+        inboundQueue.countExpired();
+        releaseCancelToken(cmd.getCancelToken());
+        if (!cancel) {
+            send(cmd.getRequestId(), error("EXPIRED"));
+            return true;
+        }
+
+        if (supportsInputEvents) {
+            if (multiTouch) {
+                injector.injectPointer(MotionEvent.ACTION_CANCEL, 0, 0, 0, 0f);
+            } else {
+                injector.cancelSingleTouch();
             }
         }
+        send(cmd.getRequestId(), error("EXPIRED"));
+        return true;
+    }
+
+    private void runBatch(InboundCommand cmd, long start) {
+        final CommandHandler[] batchCommands = cmd.getBatchCommands();
+        final LineTokenizer[] arguments = cmd.getBatchArguments();
+        final boolean stopOnError = cmd.getBatchStopOnError();
+        final CancelToken cancelToken = cmd.getCancelToken();
+
+        int flags = 0;
+        for (CommandHandler command : batchCommands) {
+            flags |= command.getFlags();
+        }
+
+        String requestId = cmd.getRequestId();
+        WorkerLane lane = selectLane(requestId, flags);
+        if (lane != null) {
+            // 블록 안의 명령은 모두 같은 레인에서 순서대로 실행한다.
+            executeOn(lane, requestId, cmd.getRecvElapsedNanos(), () -> executeBatch(batchCommands, arguments, stopOnError, cancelToken));
+            return;
+        }
 
-        long upTime = SystemClock.uptimeMillis();
-        return injectTouchEvent(downTime, upTime, MotionEvent.ACTION_UP, x2, y2, 1.0f, 0);
+        send(requestId, executeBatch(batchCommands, arguments, stopOnError, cancelToken));
+        recordRealtime(cmd, start);
     }
 
-    private boolean injectTouchEvent(long downTime, long eventTime, int action, int x, int y, float pressure, int buttons) {
-        pointerCoords[0].x = x;
-        pointerCoords[0].y = y;
-        pointerCoords[0].pressure = pressure;
+    private void runMacro(InboundCommand cmd) {
+        final Macro macro = cmd.getMacro();
+        final CancelToken cancelToken = cmd.getCancelToken();
+
+        // WAIT가 있을 수 있으므로 ID가 없어도 실행 스레드에서 실행하지 않는다. ID 없는 응답의 순서는 executeOn()이 잡은 자리로 유지한다.
+        int flags = CommandHandler.FLAG_LONG_RUNNING | CommandHandler.FLAG_ASYNC;
+        for (CommandHandler command : macro.getCommands()) {
+            flags |= command.getFlags();
+        }
+
+        String requestId = cmd.getRequestId();
+        WorkerLane lane = selectLane(requestId, flags);
+        executeOn(lane, requestId, cmd.getRecvElapsedNanos(), () -> executeMacro(macro, cancelToken));
+    }
 
-        MotionEvent event = MotionEvent.obtain(downTime, eventTime, action, 1, pointerProperties, pointerCoords, 0, buttons, 1f, 1f,
-                DEFAULT_DEVICE_ID, 0, InputDevice.SOURCE_TOUCHSCREEN, 0);
-        return Device.injectEvent(event, displayId, Device.INJECT_MODE_ASYNC);
+    private String executeMacro(Macro macro, CancelToken cancelToken) {
+        currentCancelToken.set(cancelToken);
+        try {
+            return macro.run(macroEnvironment, cancelToken);
+        } finally {
+            currentCancelToken.remove();
+            releaseCancelToken(cancelToken);
+        }
     }
 
-    private boolean injectKeycode(int keyCode, String action) {
-        String normalized = action == null ? "both" : action.toLowerCase(Locale.ENGLISH);
-        if ("down".equals(normalized)) {
-            return injectKeyEvent(KeyEvent.ACTION_DOWN, keyCode);
+    /**
+     * @param flags 실행할 명령들의 {@code CommandHandler.FLAG_*}를 합친 값
+     * @return 명령을 실행할 레인, 실행 스레드에서 바로 실행하면 {@code null}
+     */
+    private WorkerLane selectLane(String requestId, int flags) {
+        if ((flags & CommandHandler.FLAG_TOUCH) != 0) {
+            // 제스처를 기다리는 블록은 ID와 관계없이 터치 레인에서 하나씩 실행한다. 제스처와 클립보드가 섞인 BATCH도 터치 레인에서 실행한다.
+            return touchLane;
         }
-        if ("up".equals(normalized)) {
-            return injectKeyEvent(KeyEvent.ACTION_UP, keyCode);
+        if ((flags & CommandHandler.FLAG_BULK) != 0) {
+            return bulkLane;
         }
-        if ("both".equals(normalized)) {
-            return pressReleaseKeycode(keyCode);
+        if ((flags & CommandHandler.FLAG_ASYNC) != 0 || (requestId != null && (flags & CommandHandler.FLAG_LONG_RUNNING) != 0)) {
+            // ID가 있는 오래 걸리는 명령은 워커에서 실행해 뒤따르는 짧은 명령이 먼저 완료될 수 있게 한다.
+            return asyncLane;
         }
-        return false;
+        return null;
     }
 
-    private int injectText(String text) {
-        int successCount = 0;
-        for (int i = 0; i < text.length(); ++i) {
-            char c = text.charAt(i);
-            if (!injectChar(c)) {
-                Ln.w("Could not inject char u+" + String.format("%04x", (int) c));
-                continue;
+    private void recordRealtime(InboundCommand cmd, long start) {
+        realtimeStats.record(start - cmd.getRecvElapsedNanos(), SystemClock.elapsedRealtimeNanos() - start);
+    }
+
+    private String executeBatch(CommandHandler[] batchCommands, LineTokenizer[] arguments, boolean stopOnError, CancelToken cancelToken) {
+        if (cancelToken != null) {
+            currentCancelToken.set(cancelToken);
+        }
+        try {
+            return executeBatch(batchCommands, arguments, stopOnError);
+        } finally {
+            if (cancelToken != null) {
+                currentCancelToken.remove();
+                releaseCancelToken(cancelToken);
             }
-            successCount++;
         }
-        return successCount;
     }
 
-    private boolean injectChar(char c) {
-        String decomposed = KeyComposition.decompose(c);
-        char[] chars = decomposed != null ? decomposed.toCharArray() : new char[]{c};
-        KeyEvent[] events = charMap.getEvents(chars);
-        if (events == null) {
-            return false;
-        }
+    private String executeBatch(CommandHandler[] batchCommands, LineTokenizer[] arguments, boolean stopOnError) {
+        CancelToken cancelToken = currentCancelToken.get();
+        StringBuilder builder = new StringBuilder("OK ");
+        boolean failed = false;
+        for (int i = 0; i < batchCommands.length; ++i) {
+            if (i > 0) {
+                builder.append(',');
+            }
 
-        for (int i = 0; i < events.length; ++i) {
-            KeyEvent event = events[i];
-            if (!Device.injectEvent(event, displayId, Device.INJECT_MODE_ASYNC)) {
-                return false;
+            if (failed && stopOnError) {
+                builder.append("SKIP");
+                continue;
             }
+
+            CommandHandler command = batchCommands[i];
+            String response;
+            if (!command.isAllowedInBatch()) {
+                // 중첩 배치, 모드 전환, 요청 ID는 블록 안에서 허용하지 않는다.
+                response = error("NOT_ALLOWED_IN_BATCH");
+            } else if (cancelToken != null && cancelToken.isCancelled()) {
+                response = error("CANCELLED");
+            } else {
+                response = execute(command, arguments[i]);
+            }
+
+            failed |= !response.startsWith("OK");
+            builder.append(response.replace(' ', ':'));
         }
-        return true;
+        return builder.toString();
     }
 
-    private boolean injectKeyEvent(int action, int keyCode) {
-        return Device.injectKeyEvent(action, keyCode, 0, 0, displayId, Device.INJECT_MODE_ASYNC);
+    private void executeOn(WorkerLane lane, final String requestId, long recvNanos, WorkerLane.Task task) {
+        final UntaggedResponseOrder.Ticket ticket = reserveResponse(requestId);
+        lane.execute(recvNanos, guard(task), response -> deliver(requestId, ticket, response));
     }
 
-    private boolean pressReleaseKeycode(int keyCode) {
-        return Device.pressReleaseKeycode(keyCode, displayId, Device.INJECT_MODE_ASYNC);
+    /**
+     * 터치 레인은 세션이 끝나도 멈추지 않으므로, 끝난 세션의 대기 중인 명령은 실행하지 않고 버린다. 실행 중인 명령은 {@link #join()}이 기다린다.
+     */
+    private WorkerLane.Task guard(final WorkerLane.Task task) {
+        return new WorkerLane.Task() {
+            @Override
+            public String execute() {
+                synchronized (laneTaskLock) {
+                    if (stopped) {
+                        return null;
+                    }
+                    ++runningLaneTasks;
+                }
+                try {
+                    return task.execute();
+                } finally {
+                    synchronized (laneTaskLock) {
+                        --runningLaneTasks;
+                        laneTaskLock.notifyAll();
+                    }
+                }
+            }
+        };
     }
 
-    private void respond(boolean ok, String errorMessage) throws IOException {
-        if (ok) {
-            sendOk(null);
-        } else if (errorMessage != null && !errorMessage.isEmpty()) {
-            sendError(errorMessage);
-        } else {
-            sendError("INJECT_FAILED");
-        }
+    /**
+     * "AT &lt;uptimeMillis&gt; &lt;command&gt; [args...]": 입력 명령 하나를 기기의 {@code SystemClock.uptimeMillis()}가 지정한 값이 될 때
+     * 실행한다. 이미 지난 시각이면 바로 실행하고, 0 이하이거나 1시간보다 먼 시각은 "ERR INVALID_TIME"이다. PING TIME으로 추정한 시계 차이와 함께 쓰면 여러 기기에서 같은 순간에 입력할 수 있다.
+     * <p>
+     * 응답은 대상 명령을 실행한 뒤 그 명령의 응답이다. ID 없는 AT은 실행될 때까지 뒤따르는 ID 없는 응답도 붙잡아 두므로 보통 ID와 함께 쓴다. 실행
+     * 전에 "CANCEL #id" 또는 "CANCEL SCHEDULED"로 취소할 수 있다. 제스처 명령은 예약 시각에 제스처 스레드에서 재생을 시작하므로 뒤에
+     * 예약된 명령을 늦추지 않는다.
+     */
+    private void schedule(InboundCommand cmd) {
+        final String requestId = cmd.getRequestId();
+        final CommandHandler command = cmd.getCommand();
+        final LineTokenizer arguments = cmd.getArguments().copy();
+        final CancelToken cancelToken = cmd.getCancelToken();
+        final long scheduledTime = cmd.getScheduledTime();
+        final UntaggedResponseOrder.Ticket ticket = reserveResponse(requestId);
+        final Handler handler = getScheduler();
+
+        scheduledPending.incrementAndGet();
+        final Runnable task = new Runnable() {
+            // 예약 스레드 전용
+            private boolean done;
+
+            @Override
+            public void run() {
+                if (done) {
+                    return;
+                }
+                done = true;
+
+                long start = SystemClock.elapsedRealtimeNanos();
+                long lateMillis = Math.max(0, SystemClock.uptimeMillis() - scheduledTime);
+                if (isGesture(command)) {
+                    // 제스처 스레드에서 재생하므로 뒤에 예약된 명령을 늦추지 않는다. 응답은 제스처가 끝나면 보낸다.
+                    startGesture(requestId, command, arguments, cancelToken, ticket);
+                    scheduledStats.record(TimeUnit.MILLISECONDS.toNanos(lateMillis), SystemClock.elapsedRealtimeNanos() - start);
+                    scheduledPending.decrementAndGet();
+                    return;
+                }
+
+                String response;
+                try {
+                    response = execute(command, arguments, cancelToken);
+                    scheduledStats.record(TimeUnit.MILLISECONDS.toNanos(lateMillis), SystemClock.elapsedRealtimeNanos() - start);
+                } catch (RuntimeException e) {
+                    Ln.e("Scheduled command failed", e);
+                    response = error("INTERNAL_ERROR");
+                }
+                scheduledPending.decrementAndGet();
+                deliver(requestId, ticket, response);
+            }
+        };
+        handler.postAtTime(task, scheduledTime);
+        // 취소되면 실행 시각을 기다리지 않고 바로 "ERR CANCELLED"로 응답한다.
+        cancelToken.setCancelListener(() -> {
+            handler.removeCallbacks(task);
+            handler.post(task);
+        });
     }
 
-    private void sendOk(String payload) throws IOException {
-        if (payload == null || payload.isEmpty()) {
-            controlChannel.send("OK");
-        } else {
-            controlChannel.send("OK " + payload);
+    private Handler getScheduler() {
+        if (scheduler == null) {
+            HandlerThread thread = new HandlerThread("control-at", Process.THREAD_PRIORITY_DISPLAY);
+            thread.start();
+            scheduler = new Handler(thread.getLooper());
+            schedulerThread = thread;
         }
+        return scheduler;
     }
 
-    private void sendError(String message) throws IOException {
-        if (message == null || message.isEmpty()) {
-            controlChannel.send("ERR");
-        } else {
-            controlChannel.send("ERR " + message);
-        }
+    /**
+     * 다른 스레드에서 완료될 응답의 자리를 잡는다. ID 없는 응답이 뒤따르는 ID 없는 응답에 앞지르지 않게 한다.
+     *
+     * @return ID가 있으면 {@code null}
+     */
+    private UntaggedResponseOrder.Ticket reserveResponse(String requestId) {
+        return requestId == null ? untaggedResponses.reserve() : null;
     }
 
-    private Integer parseInt(String token) {
-        try {
-            return Integer.valueOf(Integer.parseInt(token));
-        } catch (NumberFormatException e) {
-            return null;
+    private void deliver(String requestId, UntaggedResponseOrder.Ticket ticket, String response) {
+        if (ticket != null) {
+            untaggedResponses.complete(ticket, response);
+        } else if (response != null) {
+            send(requestId, response);
         }
     }
 
-    private Float parseFloat(String token) {
+    /**
+     * {@code cancelToken}이 있으면 실행 중인 스레드에 설정해 두고 실행한다. 실행 전에 이미 취소되었으면 실행하지 않는다.
+     */
+    private String execute(CommandHandler command, LineTokenizer arguments, CancelToken cancelToken) {
+        if (cancelToken == null) {
+            return execute(command, arguments);
+        }
+
         try {
-            return Float.valueOf(Float.parseFloat(token));
-        } catch (NumberFormatException e) {
-            return null;
+            if (cancelToken.isCancelled()) {
+                return error("CANCELLED");
+            }
+            currentCancelToken.set(cancelToken);
+            return execute(command, arguments);
+        } finally {
+            currentCancelToken.remove();
+            releaseCancelToken(cancelToken);
         }
     }
 
-    private String decodeBase64(String token) {
-        if (token == null) {
-            return null;
+    /**
+     * 텍스트 명령 하나를 실행하고 응답 라인("OK ..." 또는 "ERR ...")을 반환한다.
+     */
+    private String execute(CommandHandler command, LineTokenizer arguments) {
+        // 입력이 필요한 커맨드는 디스플레이 지원 여부를 먼저 확인한다.
+        if (command.needsInput() && !supportsInputEvents) {
+            return error("INPUT_NOT_SUPPORTED");
         }
 
-        try {
-            byte[] decoded = Base64.decode(token, Base64.DEFAULT);
-            return new String(decoded, StandardCharsets.UTF_8);
-        } catch (IllegalArgumentException e) {
-            return null;
+        if (!command.acceptsArguments(arguments)) {
+            return error("INVALID_ARGS");
         }
+
+        return command.execute(arguments);
     }
 
-    private String encodeBase64(String text) {
-        if (text == null) {
-            return "";
+    /**
+     * "PING TIME": 시계 동기화와 RTT 측정용 PING.
+     * <p>
+     * 응답 형식: "OK PONG &lt;recvUptimeMs&gt; &lt;recvElapsedNs&gt; &lt;sendUptimeMs&gt; &lt;sendElapsedNs&gt;". recv는 명령 라인을 읽은 시각,
+     * send는 응답을 소켓에 쓴 시각이다({@code SystemClock.uptimeMillis()}, {@code SystemClock.elapsedRealtimeNanos()}). 클라이언트는
+     * 왕복 시간에서 (send - recv)를 빼 전송 지연만 구하고, 여러 번 측정해 NTP 방식으로 시계 차이를 추정할 수 있다.
+     */
+    private void handlePing(InboundCommand cmd) {
+        LineTokenizer tokenizer = cmd.getArguments();
+        String requestId = cmd.getRequestId();
+        if (!tokenizer.nextToken() || !tokenizer.tokenEqualsIgnoreCase("TIME") || tokenizer.hasMoreTokens()) {
+            send(requestId, error("INVALID_ARGS"));
+            return;
+        }
+
+        String response = ok("PONG " + cmd.getRecvUptimeMillis() + " " + cmd.getRecvElapsedNanos());
+        if (requestId == null) {
+            untaggedResponses.sendTimestamped(response);
+        } else {
+            sender.sendTimestamped(tag(requestId, response));
         }
+    }
 
-        byte[] data = text.getBytes(StandardCharsets.UTF_8);
-        return Base64.encodeToString(data, Base64.NO_WRAP);
+    private void handleMode(String requestId, LineTokenizer tokenizer) throws InterruptedException {
+        boolean hasMode = tokenizer.nextToken() && !tokenizer.hasMoreTokens();
+        if (hasMode && tokenizer.tokenEqualsIgnoreCase("BINARY")) {
+            // 앞선 텍스트 명령의 응답이 모두 나간 뒤에 전환한다.
+            inboundQueue.awaitIdle();
+            if (scheduledPending.get() > 0) {
+                // 예약된 명령의 응답은 텍스트로 나가야 하므로 먼저 실행되거나 취소되어야 한다.
+                reply(requestId, error("SCHEDULED_PENDING"));
+                return;
+            }
+            asyncLane.awaitIdle();
+            bulkLane.awaitIdle();
+            touchLane.awaitIdle();
+            gestureEngine.awaitIdle();
+            // 이벤트는 텍스트 라인이므로 전환 전에 구독을 해제한다.
+            eventMonitor.unsubscribe(eventListener, DeviceEventMonitor.EVENT_ALL);
+            // 응답은 텍스트로 보낸 뒤 전환해야 클라이언트가 전환 시점을 알 수 있다.
+            send(requestId, ok("BINARY"));
+            controlChannel.switchToBinary();
+            Ln.i("컨트롤 채널을 바이너리 모드로 전환");
+        } else if (hasMode && tokenizer.tokenEqualsIgnoreCase("TEXT")) {
+            reply(requestId, ok("TEXT"));
+        } else {
+            reply(requestId, error("INVALID_ARGS"));
+        }
+    }
+
+    private boolean receiveMessage() throws InterruptedException {
+        // 큐의 칸이 가진 메시지에 바로 읽으므로 메시지마다 객체를 만들지 않는다. 칸은 publish() 전까지 수신 스레드만 쓴다.
+        InboundCommand cmd = inboundQueue.claim();
+        ControlMessage msg = cmd.setMessage();
+        try {
+            controlChannel.recvMessage(msg);
+        } catch (ControlProtocolException e) {
+            // 이후 바이트의 경계를 알 수 없으므로 계속 읽을 수 없다. 세션을 끝내면 연결이 닫힌다.
+            Ln.e("Invalid control message, closing the session", e);
+            return false;
+        } catch (IOException e) {
+            // this is expected on close
+            return false;
+        }
+
+        cmd.setRecvTime(SystemClock.uptimeMillis(), SystemClock.elapsedRealtimeNanos());
+        if (msg.getType() == ControlMessage.TYPE_INJECT_TOUCH_EVENT && msg.getAction() == MotionEvent.ACTION_MOVE) {
+            // 같은 포인터, 같은 버튼 상태의 MOVE만 합친다.
+            cmd.setMove(msg.getPointerId() << 8 | (msg.getButtons() & 0xff));
+        }
+        inboundQueue.publish();
+        return true;
+    }
+
+    /**
+     * @param recvNanos 메시지를 읽은 시각
+     */
+    private void handleMessage(ControlMessage msg, long recvNanos) {
+        int type = msg.getType();
+        switch (type) {
+            case ControlMessage.TYPE_GET_CLIPBOARD:
+                getClipboardOnBulkLane(msg.getCopyKey(), recvNanos);
+                return;
+            case ControlMessage.TYPE_SET_CLIPBOARD:
+                setClipboardOnBulkLane(msg.getText(), msg.getPaste(), msg.getSequence(), recvNanos);
+                return;
+            case ControlMessage.TYPE_EXPAND_NOTIFICATION_PANEL:
+                Device.expandNotificationPanel();
+                return;
+            case ControlMessage.TYPE_EXPAND_SETTINGS_PANEL:
+                Device.expandSettingsPanel();
+                return;
+            case ControlMessage.TYPE_COLLAPSE_PANELS:
+                Device.collapsePanels();
+                return;
+            case ControlMessage.TYPE_SET_DISPLAY_POWER:
+                Device.setDisplayPower(displayId, msg.getOn());
+                return;
+            case ControlMessage.TYPE_ROTATE_DEVICE:
+                Device.rotateDevice(displayId);
+                return;
+            case ControlMessage.TYPE_START_APP:
+                startApp(msg.getText());
+                return;
+            default:
+                break;
+        }
+
+        if (!supportsInputEvents) {
+            // 바이너리 모드에는 오류 응답이 없으므로 로그만 남긴다.
+            Ln.w("Input event ignored (type " + type + "): input events are not supported");
+            return;
+        }
+
+        switch (type) {
+            case ControlMessage.TYPE_INJECT_KEYCODE:
+                injector.injectKeyEvent(msg.getAction(), msg.getKeycode(), msg.getRepeat(), msg.getMetaState());
+                break;
+            case ControlMessage.TYPE_INJECT_TEXT:
+                injector.injectText(msg.getText());
+                break;
+            case ControlMessage.TYPE_INJECT_TOUCH_EVENT:
+                injector.injectTouch(msg.getAction(), msg.getX(), msg.getY(), msg.getPressure(), msg.getButtons());
+                break;
+            case ControlMessage.TYPE_INJECT_SCROLL_EVENT:
+                injector.injectScroll(msg.getX(), msg.getY(), msg.getHScroll(), msg.getVScroll(), msg.getButtons());
+                break;
+            case ControlMessage.TYPE_BACK_OR_SCREEN_ON:
+                injector.pressBackOrTurnScreenOn(msg.getAction());
+                break;
+            default:
+                // UHID, 하드웨어 키보드 설정, 비디오 리셋은 브리지 서버에서 지원하지 않는다.
+                Ln.w("Unsupported control message type: " + type);
+                break;
+        }
+    }
+
+    private String handleTap(LineTokenizer tokenizer) {
+        int x;
+        int y;
+        try {
+            x = tokenizer.nextInt();
+            y = tokenizer.nextInt();
+        } catch (NumberFormatException e) {
+            return error("INVALID_COORDS");
+        }
+
+        float pressure = 1.0f;
+        if (tokenizer.hasMoreTokens()) {
+            try {
+                pressure = tokenizer.nextFloat();
+            } catch (NumberFormatException e) {
+                return error("INVALID_PRESSURE");
+            }
+        }
+
+        int buttons = 0;
+        if (tokenizer.hasMoreTokens()) {
+            try {
+                buttons = tokenizer.nextInt();
+            } catch (NumberFormatException e) {
+                return error("INVALID_BUTTONS");
+            }
+        }
+
+        if (tokenizer.hasMoreTokens()) {
+            return error("INVALID_ARGS");
+        }
+
+        if (isPointerBusy()) {
+            return error("POINTER_BUSY");
+        }
+
+        boolean ok = injector.injectTap(x, y, pressure, buttons);
+        // 탭마다 로그 문자열을 만들지 않도록 VERBOSE에서만 상세히 남긴다.
+        if (Ln.isEnabled(Ln.Level.VERBOSE)) {
+            Ln.v("터치 입력 요청 처리: x=" + x + ", y=" + y + ", pressure=" + pressure
+                    + ", buttons=" + buttons + ", 결과=" + (ok ? "성공" : "실패"));
+        }
+        return result(ok, null);
+    }
+
+    /**
+     * "TOUCH &lt;down|move|up|cancel&gt; &lt;x&gt; &lt;y&gt; [pressure]": 포인터 하나의 터치 이벤트를 그대로 주입한다.
+     * <p>
+     * ID 없이 연달아 보낸 MOVE는 실행 전에 마지막 것만 남을 수 있으며, 대체된 MOVE는 "OK MERGED"로 응답한다. MTOUCH로 눌린 포인터가 있을 때의
+     * DOWN은 "ERR POINTER_BUSY"다.
+     */
+    private String handleTouch(LineTokenizer tokenizer) {
+        if (!tokenizer.nextToken()) {
+            return error("INVALID_ARGS");
+        }
+
+        int action = parseTouchAction(tokenizer);
+        if (action == -1) {
+            return error("INVALID_ARGS");
+        }
+
+        int x;
+        int y;
+        float pressure = action == MotionEvent.ACTION_UP ? 0f : 1f;
+        try {
+            x = tokenizer.nextInt();
+            y = tokenizer.nextInt();
+            if (tokenizer.hasMoreTokens()) {
+                pressure = tokenizer.nextFloat();
+            }
+        } catch (NumberFormatException e) {
+            return error("INVALID_ARGS");
+        }
+
+        if (tokenizer.hasMoreTokens() || pressure < 0f || pressure > 1f) {
+            return error("INVALID_ARGS");
+        }
+
+        if (action == MotionEvent.ACTION_DOWN && injector.isMultiTouchActive()) {
+            return error("POINTER_BUSY");
+        }
+
+        return result(injector.injectTouch(action, x, y, pressure, 0), null);
+    }
+
+    /**
+     * TOUCH/MTOUCH의 동작 토큰(대소문자 무시).
+     *
+     * @return MotionEvent 동작, 알 수 없는 토큰이면 -1
+     */
+    private static int parseTouchAction(LineTokenizer tokenizer) {
+        if (tokenizer.tokenEqualsIgnoreCase("down")) {
+            return MotionEvent.ACTION_DOWN;
+        }
+        if (tokenizer.tokenEqualsIgnoreCase("move")) {
+            return MotionEvent.ACTION_MOVE;
+        }
+        if (tokenizer.tokenEqualsIgnoreCase("up")) {
+            return MotionEvent.ACTION_UP;
+        }
+        if (tokenizer.tokenEqualsIgnoreCase("cancel")) {
+            return MotionEvent.ACTION_CANCEL;
+        }
+        return -1;
+    }
+
+    /**
+     * "MTOUCH &lt;DOWN|MOVE|UP|CANCEL&gt; &lt;pointer&gt; &lt;x&gt; &lt;y&gt; [pressure]": 포인터 ID(0~9)별 멀티 터치. 두 번째 이후 포인터의 DOWN/UP은
+     * ACTION_POINTER_DOWN/UP으로 주입되고, MOVE는 눌린 모든 포인터의 현재 위치를 담는다. CANCEL은 눌린 모든 포인터를 뗀다(좌표는 무시한다).
+     * <p>
+     * 포인터 상태는 모든 세션이 공유하며 TOUCH와는 별개다. 상태에 맞지 않는 동작(이미 눌린 포인터의 DOWN 등)은 "ERR INVALID_POINTER_STATE"다.
+     * 두 스트림 모두 포인터 0을 쓰므로 TOUCH로 눌린 채일 때의 DOWN은 "ERR POINTER_BUSY"다.
+     */
+    private String handleMultiTouch(LineTokenizer tokenizer) {
+        if (!tokenizer.nextToken()) {
+            return error("INVALID_ARGS");
+        }
+
+        int action = parseTouchAction(tokenizer);
+        if (action == -1) {
+            return error("INVALID_ARGS");
+        }
+
+        int pointerId;
+        int x;
+        int y;
+        float pressure = action == MotionEvent.ACTION_UP ? 0f : 1f;
+        try {
+            pointerId = tokenizer.nextInt();
+            x = tokenizer.nextInt();
+            y = tokenizer.nextInt();
+            if (tokenizer.hasMoreTokens()) {
+                pressure = tokenizer.nextFloat();
+            }
+        } catch (NumberFormatException e) {
+            return error("INVALID_ARGS");
+        }
+
+        if (pointerId < 0 || pointerId >= InputInjector.MAX_POINTERS || pressure < 0f || pressure > 1f) {
+            return error("INVALID_ARGS");
+        }
+
+        if (action == MotionEvent.ACTION_DOWN && injector.isSingleTouchActive()) {
+            return error("POINTER_BUSY");
+        }
+
+        return result(injector.injectPointer(action, pointerId, x, y, pressure), "INVALID_POINTER_STATE");
+    }
+
+    /**
+     * 제스처 명령을 시작하고 바로 돌아온다. 응답은 제스처가 끝나면 제스처 스레드에서 보낸다. 제스처는 비어 있는 포인터 ID로 재생되므로 여러
+     * 제스처와 MTOUCH가 동시에 진행될 수 있고, 남은 ID가 없거나 TOUCH/TAP이 눌린 채이면 "ERR POINTER_BUSY"이다.
+     */
+    private void startGesture(final String requestId, final CommandHandler command, LineTokenizer arguments, final CancelToken cancelToken,
+            final UntaggedResponseOrder.Ticket ticket) {
+        String response = null;
+        Gesture gesture = null;
+        if (cancelToken != null && cancelToken.isCancelled()) {
+            response = error("CANCELLED");
+        } else if (!supportsInputEvents) {
+            response = error("INPUT_NOT_SUPPORTED");
+        } else if (!command.acceptsArguments(arguments)) {
+            response = error("INVALID_ARGS");
+        } else {
+            gesture = parseGesture(command, arguments);
+            if (gesture == null) {
+                response = error("INVALID_ARGS");
+            }
+        }
+
+        if (response == null) {
+            final Gesture started = gesture;
+            boolean ok = gestureEngine.start(gesture, cancelToken, result -> {
+                releaseCancelToken(cancelToken);
+                deliver(requestId, ticket, gestureResult(command, started, result));
+            });
+            if (ok) {
+                return;
+            }
+            response = gestureResult(command, gesture, GestureEngine.RESULT_POINTER_BUSY);
+        }
+
+        releaseCancelToken(cancelToken);
+        deliver(requestId, ticket, response);
+    }
+
+    /**
+     * BATCH와 매크로 안의 SWIPE/DRAG/PINCH/ROTATE. 다음 명령이 제스처 뒤에 실행되도록 재생이 끝날 때까지 기다린다. 이벤트는 제스처 스레드가
+     * 주입한다.
+     */
+    private String handleGesture(CommandHandler command, LineTokenizer tokenizer) {
+        Gesture gesture = parseGesture(command, tokenizer);
+        if (gesture == null) {
+            return error("INVALID_ARGS");
+        }
+
+        int result = gestureEngine.startAndWait(gesture, currentCancelToken.get());
+        return gestureResult(command, gesture, result);
+    }
+
+    /**
+     * TAP은 포인터 0으로 새 스트림을 시작한다. TOUCH나 MTOUCH, 제스처가 누른 포인터가 있을 때 주입하면 앞선 스트림이 새 DOWN에 끊기므로
+     * 실행하지 않는다. 남은 포인터는 UP, CANCEL 또는 "CANCEL GESTURES"로 뗄 수 있다.
+     */
+    private boolean isPointerBusy() {
+        return injector.isSingleTouchActive() || injector.isMultiTouchActive();
+    }
+
+    private boolean isGesture(CommandHandler command) {
+        return command == swipeCommand || command == dragCommand || command == pinchCommand || command == rotateCommand;
+    }
+
+    /**
+     * 제스처 명령의 인수로 시각표를 만든다.
+     * <ul>
+     * <li>SWIPE/DRAG "&lt;x1&gt; &lt;y1&gt; &lt;x2&gt; &lt;y2&gt; &lt;durationMs&gt;"</li>
+     * <li>PINCH "&lt;cx&gt; &lt;cy&gt; &lt;fromDistance&gt; &lt;toDistance&gt; &lt;durationMs&gt; [angleDeg]": 두 손가락 사이 거리를 바꾼다.</li>
+     * <li>ROTATE "&lt;cx&gt; &lt;cy&gt; &lt;radius&gt; &lt;degrees&gt; &lt;durationMs&gt; [startDeg]": 마주 본 두 손가락을 중심 주위로 돌린다.</li>
+     * </ul>
+     *
+     * @return 인수가 잘못되었으면 {@code null}
+     */
+    private Gesture parseGesture(CommandHandler command, LineTokenizer tokenizer) {
+        try {
+            if (command == pinchCommand) {
+                int cx = tokenizer.nextInt();
+                int cy = tokenizer.nextInt();
+                int fromDistance = tokenizer.nextInt();
+                int toDistance = tokenizer.nextInt();
+                int durationMs = tokenizer.nextInt();
+                float angle = tokenizer.hasMoreTokens() ? tokenizer.nextFloat() : 0f;
+                if (fromDistance < 0 || toDistance < 0) {
+                    return null;
+                }
+                return Gesture.pinch(cx, cy, fromDistance, toDistance, durationMs, angle);
+            }
+
+            if (command == rotateCommand) {
+                int cx = tokenizer.nextInt();
+                int cy = tokenizer.nextInt();
+                int radius = tokenizer.nextInt();
+                float degrees = tokenizer.nextFloat();
+                int durationMs = tokenizer.nextInt();
+                float start = tokenizer.hasMoreTokens() ? tokenizer.nextFloat() : 0f;
+                if (radius <= 0) {
+                    return null;
+                }
+                return Gesture.rotate(cx, cy, radius, degrees, durationMs, start);
+            }
+
+            int x1 = tokenizer.nextInt();
+            int y1 = tokenizer.nextInt();
+            int x2 = tokenizer.nextInt();
+            int y2 = tokenizer.nextInt();
+            int durationMs = tokenizer.nextInt();
+            return Gesture.swipe(x1, y1, x2, y2, durationMs);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private String gestureResult(CommandHandler command, Gesture gesture, int result) {
+        if (result == GestureEngine.RESULT_POINTER_BUSY) {
+            return error("POINTER_BUSY");
+        }
+        // 제스처 입력의 경로와 시간을 상세히 기록한다.
+        String actionLabel;
+        if (command == dragCommand) {
+            actionLabel = "드래그";
+        } else if (command == pinchCommand) {
+            actionLabel = "핀치";
+        } else if (command == rotateCommand) {
+            actionLabel = "회전";
+        } else {
+            actionLabel = "스와이프";
+        }
+        int last = gesture.size() - 1;
+        Ln.i(actionLabel + " 입력 요청 처리: 시작=(" + gesture.getX(0, 0) + "," + gesture.getY(0, 0) + "), 종료=(" + gesture.getX(last, 0) + ","
+                + gesture.getY(last, 0) + "), durationMs=" + gesture.getDuration() + ", 결과="
+                + (result == GestureEngine.RESULT_COMPLETED ? "성공" : result == GestureEngine.RESULT_CANCELLED ? "취소" : "실패"));
+        return result(result == GestureEngine.RESULT_COMPLETED, result == GestureEngine.RESULT_CANCELLED ? "CANCELLED" : null);
+    }
+
+    private String handleKeycode(LineTokenizer tokenizer) {
+        if (!tokenizer.hasMoreTokens()) {
+            return error("INVALID_ARGS");
+        }
+
+        int keyCode;
+        try {
+            keyCode = tokenizer.nextInt();
+        } catch (NumberFormatException e) {
+            return error("INVALID_KEYCODE");
+        }
+
+        int action = KEY_ACTION_BOTH;
+        if (tokenizer.nextToken()) {
+            if (tokenizer.tokenEqualsIgnoreCase("down")) {
+                action = KEY_ACTION_DOWN;
+            } else if (tokenizer.tokenEqualsIgnoreCase("up")) {
+                action = KEY_ACTION_UP;
+            } else if (!tokenizer.tokenEqualsIgnoreCase("both")) {
+                action = KEY_ACTION_INVALID;
+            }
+        }
+
+        if (tokenizer.hasMoreTokens()) {
+            return error("INVALID_ARGS");
+        }
+
+        boolean ok = injectKeycode(keyCode, action);
+        return result(ok, null);
+    }
+
+    private String handleText(LineTokenizer tokenizer) {
+        String decoded = decodeBase64(tokenizer);
+        if (decoded == null) {
+            return error("INVALID_BASE64");
+        }
+
+        if (decoded.isEmpty()) {
+            return ok(null);
+        }
+
+        CancelToken cancelToken = currentCancelToken.get();
+        int injected = injector.injectText(decoded, cancelToken);
+        if (cancelToken != null && cancelToken.isCancelled()) {
+            return error("CANCELLED");
+        }
+        if (injected <= 0) {
+            return error("TEXT_NOT_SUPPORTED");
+        }
+
+        return ok(null);
+    }
+
+    private String handleClipboardGet() {
+        // 클립보드 복사 요청은 상세 로그로 남겨 클라이언트 동작을 추적한다.
+        Ln.i("클립보드 GET 요청 수신");
+        String clipboardText = Device.getClipboardText();
+        if (clipboardText == null) {
+            Ln.w("클립보드 GET 실패: 클립보드 접근 불가");
+            return error("CLIPBOARD_UNAVAILABLE");
+        }
+
+        Ln.i("클립보드 GET 결과: length=" + clipboardText.length() + ", preview=\"" + toPreview(clipboardText) + "\"");
+        byte[] data = clipboardText.getBytes(StandardCharsets.UTF_8);
+        String encoded;
+        synchronized (payloadCodec) {
+            encoded = payloadCodec.encode(data, 0, data.length);
+        }
+        return ok(encoded);
+    }
+
+    private String handleClipboardSet(LineTokenizer tokenizer) {
+        int start = tokenizer.getRemainingStart();
+        int end = tokenizer.getRemainingEnd();
+        String decoded;
+        synchronized (payloadCodec) {
+            int length = payloadCodec.decode(tokenizer.getBuffer(), start, end, ClipboardTransfer.TRANSFER_MAX_LENGTH);
+            if (length < 0) {
+                Ln.w("클립보드 SET 실패: 페이로드 디코딩 오류");
+                return decodeError(length);
+            }
+            decoded = new String(payloadCodec.getDecoded(), 0, length, StandardCharsets.UTF_8);
+            payloadCodec.releaseLargeBuffers();
+        }
+
+        // 클립보드 붙여넣기용 데이터 수신 내용을 상세히 기록한다.
+        Ln.i("클립보드 SET 요청 수신: length=" + decoded.length() + ", preview=\"" + toPreview(decoded) + "\"");
+        boolean ok = Device.setClipboardText(decoded);
+        Ln.i("클립보드 SET 처리 결과: " + (ok ? "성공" : "실패"));
+        return result(ok, ok ? null : "CLIPBOARD_SET_FAILED");
+    }
+
+    /**
+     * "CLIP_BEGIN [length]": 분할 업로드를 시작한다. length(UTF-8 바이트)를 알려 주면 버퍼를 한 번에 할당한다.
+     */
+    private String handleClipboardBegin(LineTokenizer tokenizer) {
+        int length = -1;
+        if (tokenizer.hasMoreTokens()) {
+            try {
+                length = tokenizer.nextInt();
+            } catch (NumberFormatException e) {
+                return error("INVALID_ARGS");
+            }
+        }
+
+        if (tokenizer.hasMoreTokens() || length < -1) {
+            return error("INVALID_ARGS");
+        }
+
+        if (!clipboardTransfer.beginUpload(length)) {
+            return error("CLIPBOARD_TOO_LARGE");
+        }
+        return ok(null);
+    }
+
+    /**
+     * "CLIP_CHUNK &lt;base64&gt;": 청크 하나를 덧붙이고 누적 바이트 수를 응답한다.
+     */
+    private String handleClipboardChunk(LineTokenizer tokenizer) {
+        if (!clipboardTransfer.isUploading()) {
+            return error("NO_TRANSFER");
+        }
+
+        int start = tokenizer.getRemainingStart();
+        int end = tokenizer.getRemainingEnd();
+        // base64 4문자가 3바이트이므로 디코딩 전에 크기를 제한한다.
+        if ((end - start) / 4 * 3 > ClipboardTransfer.CHUNK_MAX_LENGTH) {
+            return error("CHUNK_TOO_LARGE");
+        }
+
+        int received;
+        synchronized (payloadCodec) {
+            int length = payloadCodec.decode(tokenizer.getBuffer(), start, end, CLIPBOARD_CHUNK_INFLATED_MAX_LENGTH);
+            if (length < 0) {
+                return decodeError(length);
+            }
+            received = clipboardTransfer.appendUpload(payloadCodec.getDecoded(), 0, length);
+            payloadCodec.releaseLargeBuffers();
+        }
+
+        if (received < 0) {
+            return error("CLIPBOARD_TOO_LARGE");
+        }
+        return ok(Integer.toString(received));
+    }
+
+    /**
+     * "CLIP_END": 모인 내용으로 클립보드를 설정한다.
+     */
+    private String handleClipboardEnd(LineTokenizer tokenizer) {
+        if (tokenizer.hasMoreTokens()) {
+            return error("INVALID_ARGS");
+        }
+
+        if (!clipboardTransfer.isUploading()) {
+            return error("NO_TRANSFER");
+        }
+
+        String text = clipboardTransfer.finishUpload();
+        Ln.i("클립보드 분할 SET 완료: length=" + text.length());
+        boolean ok = Device.setClipboardText(text);
+        return result(ok, ok ? null : "CLIPBOARD_SET_FAILED");
+    }
+
+    /**
+     * "CLIP_OPEN": 현재 클립보드를 분할 다운로드용으로 열고 전체 크기(UTF-8 바이트)를 응답한다.
+     */
+    private String handleClipboardOpen(LineTokenizer tokenizer) {
+        if (tokenizer.hasMoreTokens()) {
+            return error("INVALID_ARGS");
+        }
+
+        String clipboardText = Device.getClipboardText();
+        if (clipboardText == null) {
+            return error("CLIPBOARD_UNAVAILABLE");
+        }
+
+        clipboardTransfer.beginDownload(clipboardText);
+        return ok(Integer.toString(StringUtils.getUtf8Length(clipboardText)));
+    }
+
+    /**
+     * "CLIP_READ": 다음 청크를 base64로 응답한다. 빈 "OK"는 전송 끝을 뜻한다.
+     */
+    private String handleClipboardRead(LineTokenizer tokenizer) {
+        if (tokenizer.hasMoreTokens()) {
+            return error("INVALID_ARGS");
+        }
+
+        if (!clipboardTransfer.isDownloading()) {
+            return error("NO_TRANSFER");
+        }
+
+        ByteBuffer chunk = clipboardTransfer.readChunk();
+        if (!chunk.hasRemaining()) {
+            return ok(null);
+        }
+        synchronized (payloadCodec) {
+            return ok(payloadCodec.encode(chunk.array(), 0, chunk.limit()));
+        }
+    }
+
+    /**
+     * "COMPRESS deflate [level]" 또는 "COMPRESS none": 이 세션의 클립보드 페이로드 압축을 협상한다.
+     * <p>
+     * 압축이 켜지면 CLIP_GET/CLIP_READ 응답 중 압축으로 작아지는 페이로드는 "z:&lt;base64(zlib)&gt;"로 보내고, CLIP_SET/CLIP_CHUNK도 같은 형식을
+     * 받는다.
+     */
+    private String handleCompress(LineTokenizer tokenizer) {
+        if (!tokenizer.nextToken()) {
+            return error("INVALID_ARGS");
+        }
+
+        boolean enable;
+        if (tokenizer.tokenEqualsIgnoreCase("deflate")) {
+            enable = true;
+        } else if (tokenizer.tokenEqualsIgnoreCase("none")) {
+            enable = false;
+        } else {
+            return error("UNSUPPORTED_COMPRESSION");
+        }
+
+        int level = Deflater.DEFAULT_COMPRESSION;
+        if (enable && tokenizer.hasMoreTokens()) {
+            try {
+                level = tokenizer.nextInt();
+            } catch (NumberFormatException e) {
+                return error("INVALID_ARGS");
+            }
+            if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+                return error("INVALID_ARGS");
+            }
+        }
+
+        if (tokenizer.hasMoreTokens()) {
+            return error("INVALID_ARGS");
+        }
+
+        synchronized (payloadCodec) {
+            payloadCodec.setCompression(enable, level);
+        }
+        return ok(enable ? "DEFLATE" : "NONE");
+    }
+
+    /**
+     * "SUBSCRIBE &lt;event&gt;..." / "UNSUBSCRIBE [&lt;event&gt;...]": 기기 상태 변화 이벤트(clipboard, display, rotation, power, all)의 구독을
+     * 바꾼다. UNSUBSCRIBE에 인수가 없으면 모두 해제한다.
+     * <p>
+     * 응답은 변경 후 구독 중인 이벤트 목록이다(예: "OK CLIPBOARD,POWER", 없으면 "OK NONE"). 새로 구독한 이벤트는 현재 상태를 한 번 먼저 받으며,
+     * 이벤트는 비동기로 전달되므로 이 응답보다 먼저 도착할 수 있다.
+     */
+    private String handleSubscribe(LineTokenizer tokenizer, boolean subscribe) {
+        int events = 0;
+        while (tokenizer.nextToken()) {
+            int event = lookupEvent(tokenizer);
+            if (event == 0) {
+                return error("UNKNOWN_EVENT");
+            }
+            events |= event;
+        }
+
+        int mask;
+        if (subscribe) {
+            if (events == 0) {
+                return error("INVALID_ARGS");
+            }
+            mask = eventMonitor.subscribe(eventListener, events);
+        } else {
+            mask = eventMonitor.unsubscribe(eventListener, events == 0 ? DeviceEventMonitor.EVENT_ALL : events);
+        }
+        return ok(eventNames(mask));
+    }
+
+    private static int lookupEvent(LineTokenizer tokenizer) {
+        if (tokenizer.tokenEqualsIgnoreCase("ALL")) {
+            return DeviceEventMonitor.EVENT_ALL;
+        }
+        for (int i = 0; i < EVENT_NAMES.length; ++i) {
+            if (tokenizer.tokenEqualsIgnoreCase(EVENT_NAMES[i])) {
+                return EVENT_MASKS[i];
+            }
+        }
+        return 0;
+    }
+
+    private static String eventNames(int mask) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < EVENT_NAMES.length; ++i) {
+            if ((mask & EVENT_MASKS[i]) != 0) {
+                if (builder.length() > 0) {
+                    builder.append(',');
+                }
+                builder.append(EVENT_NAMES[i]);
+            }
+        }
+        return builder.length() > 0 ? builder.toString() : "NONE";
+    }
+
+    /**
+     * "CANCEL &lt;#id|GESTURES|TEXT|CLIPBOARD|SCHEDULED|MACROS|ALL&gt;": 요청 ID로 지정한 명령, 또는 분류에 속한 모든 명령을 취소한다. 응답은 취소한 수다("OK 1").
+     * <p>
+     * 진행 중인 제스처(SWIPE, DRAG, PINCH, ROTATE)는 다음 단계를 기다리지 않고 ACTION_CANCEL을 주입해 끝나며, 대기 중인 명령은 실행되지 않는다. 취소된 명령은 각자
+     * "ERR CANCELLED"로 응답한다. GESTURES와 ALL은 TOUCH/MTOUCH로 눌린 채인 포인터도 ACTION_CANCEL로 뗀다. 이미 시작된 클립보드 접근은 중단할 수
+     * 없으므로 끝난 뒤 응답한다.
+     * <p>
+     * 수신 스레드에서 바로 처리하므로 앞선 명령이 실행 중이어도 기다리지 않는다.
+     */
+    private void handleCancel(String requestId, LineTokenizer tokenizer) throws InterruptedException {
+        if (!tokenizer.nextToken() || tokenizer.hasMoreTokens()) {
+            reply(requestId, error("INVALID_ARGS"));
+            return;
+        }
+
+        String targetId = null;
+        int categories = 0;
+        if (tokenizer.tokenStartsWith(REQUEST_ID_PREFIX) && tokenizer.tokenLength() > 1) {
+            targetId = tokenizer.tokenToString(1);
+        } else if (tokenizer.tokenEqualsIgnoreCase("GESTURES")) {
+            categories = CancelToken.CATEGORY_GESTURE;
+        } else if (tokenizer.tokenEqualsIgnoreCase("TEXT")) {
+            categories = CancelToken.CATEGORY_TEXT;
+        } else if (tokenizer.tokenEqualsIgnoreCase("CLIPBOARD")) {
+            categories = CancelToken.CATEGORY_CLIPBOARD;
+        } else if (tokenizer.tokenEqualsIgnoreCase("SCHEDULED")) {
+            categories = CancelToken.CATEGORY_SCHEDULED;
+        } else if (tokenizer.tokenEqualsIgnoreCase("MACROS")) {
+            categories = CancelToken.CATEGORY_MACRO;
+        } else if (tokenizer.tokenEqualsIgnoreCase("ALL")) {
+            categories = CancelToken.CATEGORY_ALL;
+        } else {
+            reply(requestId, error("INVALID_ARGS"));
+            return;
+        }
+
+        int count = cancel(targetId, categories);
+        if ((categories & CancelToken.CATEGORY_GESTURE) != 0 && supportsInputEvents && injector.cancelTouch()) {
+            ++count;
+        }
+        reply(requestId, ok(Integer.toString(count)));
+    }
+
+    /**
+     * @return 취소한 명령 수
+     */
+    private int cancel(String targetId, int categories) {
+        int count = 0;
+        synchronized (cancelTokens) {
+            for (CancelToken token : cancelTokens) {
+                boolean match = targetId != null ? targetId.equals(token.getRequestId()) : token.matches(categories);
+                if (match && !token.isCancelled()) {
+                    token.cancel();
+                    ++count;
+                }
+            }
+        }
+        return count;
+    }
+
+    private int getCancelCategories(CommandHandler command) {
+        if (isGesture(command)) {
+            return CancelToken.CATEGORY_GESTURE;
+        }
+        if (command == textCommand) {
+            return CancelToken.CATEGORY_TEXT;
+        }
+        if (command.isBulk()) {
+            return CancelToken.CATEGORY_CLIPBOARD;
+        }
+        return 0;
+    }
+
+    /**
+     * @return 취소할 수 없는 명령이면 {@code null}
+     */
+    private CancelToken createCancelToken(String requestId, int categories) {
+        if (categories == 0) {
+            return null;
+        }
+
+        CancelToken token = new CancelToken(requestId, categories);
+        synchronized (cancelTokens) {
+            cancelTokens.add(token);
+        }
+        return token;
+    }
+
+    private void releaseCancelToken(CancelToken token) {
+        if (token != null) {
+            synchronized (cancelTokens) {
+                cancelTokens.remove(token);
+            }
+        }
+    }
+
+    /**
+     * "STATS": 단계별 큐 상태와 레인별 지연. 응답 형식: "OK queued=&lt;n&gt;/&lt;capacity&gt; merged=&lt;n&gt; expired=&lt;n&gt; async=&lt;n&gt;
+     * bulk=&lt;n&gt; send=&lt;n&gt; lane.realtime=&lt;lane&gt; lane.async=&lt;lane&gt; lane.bulk=&lt;lane&gt;
+     * scheduled=&lt;n&gt; lane.at=&lt;lane&gt; gestures=&lt;n&gt;".
+     * <p>
+     * queued는 수신 스레드와 실행 스레드 사이에서 처리가 끝나지 않은 명령 수(실행 중인 것 포함), async와 bulk는 각 레인에서 대기하거나 실행 중인
+     * 명령 수, send는 소켓에 쓰기를 기다리는 응답 수다. merged는 뒤따르는 MOVE로 대체된 명령 수, expired는 기한이 지나 실행하지 않은 명령 수다.
+     * scheduled는 AT으로 예약되어 아직 실행하지 않은 명령 수, gestures는 재생 중인 제스처 수다.
+     * <p>
+     * 레인 지연은 "&lt;count&gt;,&lt;avgWaitUs&gt;,&lt;maxWaitUs&gt;,&lt;avgExecUs&gt;,&lt;maxExecUs&gt;"이며, 대기는 명령을 읽은 뒤 실행을 시작하기까지다.
+     */
+    private String handleStats() {
+        return ok("queued=" + inboundQueue.size() + "/" + inboundQueue.getCapacity() + " merged=" + inboundQueue.getMergedCount()
+                + " expired=" + inboundQueue.getExpiredCount() + " async=" + asyncLane.getPending() + " bulk=" + bulkLane.getPending()
+                + " send=" + sender.getQueueSize() + " lane.realtime=" + realtimeStats + " lane.async=" + asyncLane.getStats()
+                + " lane.bulk=" + bulkLane.getStats() + " scheduled=" + scheduledPending.get() + " lane.at=" + scheduledStats + " gestures="
+                + gestureEngine.getActive());
+    }
+
+    /**
+     * "INJECT_STATS [START|STOP]": 입력 주입기의 이벤트 수와 할당 수. START는 값을 지우고 할당 계측을 켜며, STOP은 계측을 끈다. 응답 형식:
+     * "OK touch=&lt;events&gt;,&lt;allocations&gt; key=&lt;events&gt;,&lt;allocations&gt; receive=&lt;commands&gt;,&lt;allocations&gt;
+     * dispatch=&lt;commands&gt;,&lt;allocations&gt; tracking=&lt;0|1&gt;".
+     * <p>
+     * 주입기는 모든 세션이 공유하므로 값도 서버 전체의 것이다. 할당 수는 계측 중에 주입한 이벤트만 센다. 터치 이벤트는 MotionEvent 풀을, 키
+     * 이벤트는 미리 만든 KeyEvent를 재사용하므로 준비가 끝난 뒤에는 0이어야 한다. receive와 dispatch는 TAP/KEYCODE가 실제로 지나는 수신,
+     * 실행 큐, 실행과 응답 큐잉까지의 할당이다.
+     */
+    private String handleInjectStats(LineTokenizer tokenizer) {
+        InjectionStats stats = injector.getStats();
+        if (tokenizer.nextToken()) {
+            if (tokenizer.tokenEqualsIgnoreCase("start")) {
+                stats.startTracking();
+            } else if (tokenizer.tokenEqualsIgnoreCase("stop")) {
+                stats.stopTracking();
+            } else {
+                return error("INVALID_ARGS");
+            }
+        }
+        return ok(stats.toString());
+    }
+
+    /**
+     * "INJECT_BENCH [count]": 바인더 직접 호출과 리플렉션 주입 경로의 이벤트당 비용을 비교한다. 응답 형식:
+     * "OK direct=&lt;nsPerEvent&gt; reflection=&lt;nsPerEvent&gt; count=&lt;n&gt;" ({@link InjectionBenchmark}). ID와 관계없이 async 레인에서
+     * 실행한다.
+     */
+    private String handleInjectBench(LineTokenizer tokenizer) {
+        int count = InjectionBenchmark.DEFAULT_COUNT;
+        if (tokenizer.hasMoreTokens()) {
+            try {
+                count = tokenizer.nextInt();
+            } catch (NumberFormatException e) {
+                return error("INVALID_ARGS");
+            }
+            if (count <= 0 || count > InjectionBenchmark.MAX_COUNT) {
+                return error("INVALID_ARGS");
+            }
+        }
+
+        String result = new InjectionBenchmark(ServiceManager.getInputManager()).run(count, currentCancelToken.get());
+        return result != null ? ok(result) : error("CANCELLED");
+    }
+
+    /**
+     * "RESUME &lt;token&gt;": 상주 모드에서 끊긴 세션의 상태(압축 설정, 진행 중인 클립보드 전송)를 이어받는다. 연결 후 첫 명령이어야 한다.
+     */
+    private String handleResume(LineTokenizer tokenizer, boolean first) {
+        if (sessionRegistry == null) {
+            return error("RESUME_NOT_SUPPORTED");
+        }
+
+        if (!first) {
+            return error("NOT_FIRST_COMMAND");
+        }
+
+        if (!tokenizer.nextToken() || tokenizer.hasMoreTokens()) {
+            return error("INVALID_ARGS");
+        }
+
+        SessionState resumed = sessionRegistry.resume(tokenizer.tokenToString());
+        if (resumed == null) {
+            return error("UNKNOWN_SESSION");
+        }
+
+        setSessionState(resumed);
+        Ln.i("세션 재개: " + resumed.getToken());
+        return ok(resumed.getToken());
+    }
+
+    private static String decodeError(int code) {
+        return error(code == PayloadCodec.DECODE_ERROR_BASE64 ? "INVALID_BASE64" : "INVALID_COMPRESSED_DATA");
+    }
+
+    /**
+     * 텍스트 모드의 CLIP_GET/CLIP_SET처럼 bulk 레인에서 실행해, 큰 클립보드가 뒤따르는 입력을 늦추지 않게 한다. 메시지 칸은 재사용되므로 값만
+     * 넘긴다. 응답(DeviceMessage)은 레인에서 직접 보낸다.
+     */
+    private void getClipboardOnBulkLane(final int copyKey, long recvNanos) {
+        executeMessageOn(bulkLane, recvNanos, new WorkerLane.Task() {
+            @Override
+            public String execute() {
+                getClipboard(copyKey);
+                return null;
+            }
+        });
+    }
+
+    private void setClipboardOnBulkLane(final String text, final boolean paste, final long sequence, long recvNanos) {
+        executeMessageOn(bulkLane, recvNanos, new WorkerLane.Task() {
+            @Override
+            public String execute() {
+                setClipboard(text, paste, sequence);
+                return null;
+            }
+        });
+    }
+
+    private void executeMessageOn(WorkerLane lane, long recvNanos, WorkerLane.Task task) {
+        lane.execute(recvNanos, guard(task), new WorkerLane.Callback() {
+            @Override
+            public void onResponse(String response) {
+                // 바이너리 모드에는 응답 라인이 없다.
+            }
+        });
+    }
+
+    private void getClipboard(int copyKey) {
+        // On Android >= 7, press the COPY or CUT key if requested
+        if (copyKey != ControlMessage.COPY_KEY_NONE) {
+            int key = copyKey == ControlMessage.COPY_KEY_COPY ? KeyEvent.KEYCODE_COPY : KeyEvent.KEYCODE_CUT;
+            // Wait until the event is finished, to ensure that the clipboard text we read just after is the correct one
+            Device.pressReleaseKeycode(key, displayId, Device.INJECT_MODE_WAIT_FOR_FINISH);
+        }
+
+        String clipboardText = Device.getClipboardText();
+        if (clipboardText != null) {
+            sender.send(DeviceMessage.createClipboard(clipboardText));
+        }
+    }
+
+    private void setClipboard(String text, boolean paste, long sequence) {
+        boolean ok = Device.setClipboardText(text);
+        if (ok) {
+            Ln.i("Device clipboard set");
+        }
+
+        // On Android >= 7, also press the PASTE key if requested
+        if (paste && supportsInputEvents) {
+            injector.pressReleaseKeycode(KeyEvent.KEYCODE_PASTE);
+        }
+
+        if (sequence != ControlMessage.SEQUENCE_INVALID) {
+            // Acknowledgement requested
+            sender.send(DeviceMessage.createAckClipboard(sequence));
+        }
+    }
+
+    private void startApp(String name) {
+        boolean forceStopBeforeStart = name.startsWith("+");
+        if (forceStopBeforeStart) {
+            name = name.substring(1);
+        }
+
+        Ln.i("Starting app \"" + name + "\"");
+        Device.startApp(name, displayId, forceStopBeforeStart);
+    }
+
+    private boolean injectKeycode(int keyCode, int action) {
+        switch (action) {
+            case KEY_ACTION_DOWN:
+                return injector.injectKeyEvent(KeyEvent.ACTION_DOWN, keyCode);
+            case KEY_ACTION_UP:
+                return injector.injectKeyEvent(KeyEvent.ACTION_UP, keyCode);
+            case KEY_ACTION_BOTH:
+                return injector.pressReleaseKeycode(keyCode);
+            default:
+                return false;
+        }
+    }
+
+    private void send(String requestId, String response) {
+        if (requestId == null) {
+            untaggedResponses.send(response);
+        } else {
+            sender.send(tag(requestId, response));
+        }
+    }
+
+    private static String tag(String requestId, String response) {
+        if (requestId == null) {
+            return response;
+        }
+        return REQUEST_ID_PREFIX + requestId + " " + response;
+    }
+
+    private static String result(boolean ok, String errorMessage) {
+        if (ok) {
+            return ok(null);
+        }
+        if (errorMessage != null && !errorMessage.isEmpty()) {
+            return error(errorMessage);
+        }
+        return error("INJECT_FAILED");
+    }
+
+    private static String ok(String payload) {
+        if (payload == null || payload.isEmpty()) {
+            return "OK";
+        }
+        return "OK " + payload;
+    }
+
+    private static String error(String message) {
+        if (message == null || message.isEmpty()) {
+            return "ERR";
+        }
+        return "ERR " + message;
+    }
+
+    private String decodeBase64(LineTokenizer tokenizer) {
+        int start = tokenizer.getRemainingStart();
+        int end = tokenizer.getRemainingEnd();
+        try {
+            // 수신 버퍼에서 바로 디코딩해 중간 String을 만들지 않는다.
+            byte[] decoded = Base64.decode(tokenizer.getBuffer(), start, end - start, Base64.DEFAULT);
+            return new String(decoded, StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
     }
 
     private String toPreview(String text) {
@@ -0,0 +1,343 @@
+package com.genymobile.scrcpy.control;
+
+import com.genymobile.scrcpy.AndroidVersions;
+import com.genymobile.scrcpy.device.Device;
+import com.genymobile.scrcpy.device.DisplayInfo;
+import com.genymobile.scrcpy.device.Size;
+import com.genymobile.scrcpy.util.Ln;
+import com.genymobile.scrcpy.util.StringUtils;
+import com.genymobile.scrcpy.wrappers.ClipboardManager;
+import com.genymobile.scrcpy.wrappers.DisplayManager;
+import com.genymobile.scrcpy.wrappers.DisplayWindowListener;
+import com.genymobile.scrcpy.wrappers.ServiceManager;
+
+import android.content.res.Configuration;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 클립보드, 디스플레이 크기, 회전, 화면 전원 상태 변화를 감시해 구독한 세션에 "EVENT ..." 라인으로 밀어 준다. 서버 전체에서 하나만 만들고 모든
+ * 세션이 공유한다.
+ * <p>
+ * 시스템 콜백은 짧은 시간 안에 여러 번 올 수 있으므로(회전 중 크기/회전이 따로 바뀌는 등) 전용 스레드에서 {@link #DEBOUNCE_MS} 동안 모은 뒤 한
+ * 번만 상태를 읽고, 마지막으로 알린 값과 같으면 보내지 않는다. 구독자가 없으면 리스너를 해제하고 스레드도 종료한다.
+ * <p>
+ * 이벤트 형식:
+ * <ul>
+ * <li>"EVENT CLIPBOARD &lt;utf8Length&gt;"</li>
+ * <li>"EVENT DISPLAY &lt;width&gt; &lt;height&gt;", "EVENT DISPLAY_ADDED &lt;id&gt;", "EVENT DISPLAY_REMOVED &lt;id&gt;"</li>
+ * <li>"EVENT ROTATION &lt;0..3&gt;"</li>
+ * <li>"EVENT POWER ON|OFF"</li>
+ * </ul>
+ */
+public final class DeviceEventMonitor {
+
+    public static final int EVENT_CLIPBOARD = 1;
+    public static final int EVENT_DISPLAY = 1 << 1;
+    public static final int EVENT_ROTATION = 1 << 2;
+    public static final int EVENT_POWER = 1 << 3;
+    public static final int EVENT_ALL = EVENT_CLIPBOARD | EVENT_DISPLAY | EVENT_ROTATION | EVENT_POWER;
+
+    // 연속된 시스템 콜백을 하나로 묶는 시간
+    private static final long DEBOUNCE_MS = 50;
+
+    public interface Listener {
+        /**
+         * 이벤트 스레드에서 호출된다. 막히지 않아야 한다.
+         */
+        void onEvent(String event);
+    }
+
+    private static final class Subscription {
+        private final Listener listener;
+        private int mask;
+
+        Subscription(Listener listener) {
+            this.listener = listener;
+        }
+    }
+
+    private final int displayId;
+
+    // guarded by this
+    private final List<Subscription> subscriptions = new ArrayList<>();
+    private HandlerThread thread;
+    private Handler handler;
+    private int dirtyEvents;
+
+    private final Runnable refreshRunnable = this::refresh;
+    private ClipboardManager clipboardManager;
+    private android.content.ClipboardManager.OnPrimaryClipChangedListener clipChangedListener;
+    private DisplayManager.DisplayListenerHandle displayListenerHandle;
+    private DisplayWindowListener displayWindowListener;
+
+    // 마지막으로 알린 상태, 이벤트 스레드 전용
+    private int clipboardHash;
+    private int clipboardLength = -1;
+    private int width;
+    private int height;
+    private int rotation = -1;
+    private int screenOn = -1; // 0 or 1, -1 if unknown
+
+    public DeviceEventMonitor(int displayId) {
+        this.displayId = displayId;
+    }
+
+    /**
+     * 구독을 추가한다. 새로 구독한 이벤트는 현재 상태를 한 번 먼저 보낸다.
+     *
+     * @return 추가 후 이 리스너의 구독 마스크
+     */
+    public synchronized int subscribe(final Listener listener, int events) {
+        Subscription subscription = find(listener);
+        if (subscription == null) {
+            if (events == 0) {
+                return 0;
+            }
+            subscription = new Subscription(listener);
+            subscriptions.add(subscription);
+        }
+
+        final int added = events & ~subscription.mask;
+        subscription.mask |= events;
+
+        if (thread == null) {
+            startMonitoring();
+        }
+        if (added != 0) {
+            handler.post(() -> replay(listener, added));
+        }
+        return subscription.mask;
+    }
+
+    /**
+     * 구독을 해제한다. 이 메서드가 반환된 뒤에는 해제한 이벤트가 리스너로 전달되지 않는다.
+     *
+     * @return 해제 후 이 리스너의 구독 마스크
+     */
+    public synchronized int unsubscribe(Listener listener, int events) {
+        Subscription subscription = find(listener);
+        if (subscription == null) {
+            return 0;
+        }
+
+        subscription.mask &= ~events;
+        if (subscription.mask == 0) {
+            subscriptions.remove(subscription);
+            if (subscriptions.isEmpty()) {
+                stopMonitoring();
+            }
+        }
+        return subscription.mask;
+    }
+
+    private Subscription find(Listener listener) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.listener == listener) {
+                return subscription;
+            }
+        }
+        return null;
+    }
+
+    private void startMonitoring() {
+        thread = new HandlerThread("control-events");
+        thread.start();
+        handler = new Handler(thread.getLooper());
+
+        // 기준 상태를 먼저 읽어, 이후에는 바뀐 것만 알린다.
+        dirtyEvents = 0;
+        handler.post(() -> readState(EVENT_ALL, false));
+
+        clipboardManager = ServiceManager.getClipboardManager();
+        if (clipboardManager != null) {
+            // 메인 루퍼에서 호출된다.
+            clipChangedListener = () -> scheduleRefresh(EVENT_CLIPBOARD);
+            clipboardManager.addPrimaryClipChangedListener(clipChangedListener);
+        }
+
+        if (displayId != Device.DISPLAY_ID_NONE) {
+            // 화면을 켜고 끄면 DisplayInfo의 state가 바뀌므로, 전원 상태 변화도 디스플레이 변경 콜백으로 들어온다.
+            displayListenerHandle = ServiceManager.getDisplayManager().registerDisplayListener(changedDisplayId -> {
+                if (changedDisplayId == displayId) {
+                    scheduleRefresh(EVENT_DISPLAY | EVENT_ROTATION | EVENT_POWER);
+                }
+            }, handler);
+        }
+
+        if (Build.VERSION.SDK_INT >= AndroidVersions.API_30_ANDROID_11) {
+            // 바인더 스레드에서 호출된다.
+            displayWindowListener = new DisplayWindowListener() {
+                @Override
+                public void onDisplayAdded(int addedDisplayId) {
+                    post(EVENT_DISPLAY, "EVENT DISPLAY_ADDED " + addedDisplayId);
+                }
+
+                @Override
+                public void onDisplayConfigurationChanged(int changedDisplayId, Configuration newConfig) {
+                    if (changedDisplayId == displayId) {
+                        scheduleRefresh(EVENT_DISPLAY | EVENT_ROTATION);
+                    }
+                }
+
+                @Override
+                public void onDisplayRemoved(int removedDisplayId) {
+                    post(EVENT_DISPLAY, "EVENT DISPLAY_REMOVED " + removedDisplayId);
+                }
+            };
+            ServiceManager.getWindowManager().registerDisplayWindowListener(displayWindowListener);
+        }
+
+        Ln.d("Device event monitor started");
+    }
+
+    private void stopMonitoring() {
+        if (clipChangedListener != null) {
+            clipboardManager.removePrimaryClipChangedListener(clipChangedListener);
+            clipChangedListener = null;
+        }
+        if (displayListenerHandle != null) {
+            ServiceManager.getDisplayManager().unregisterDisplayListener(displayListenerHandle);
+            displayListenerHandle = null;
+        }
+        if (displayWindowListener != null) {
+            ServiceManager.getWindowManager().unregisterDisplayWindowListener(displayWindowListener);
+            displayWindowListener = null;
+        }
+
+        thread.quit();
+        thread = null;
+        handler = null;
+
+        Ln.d("Device event monitor stopped");
+    }
+
+    private synchronized void scheduleRefresh(int events) {
+        if (handler == null) {
+            // stopped
+            return;
+        }
+        dirtyEvents |= events;
+        // 마지막 콜백으로부터 DEBOUNCE_MS 뒤에 한 번만 읽는다.
+        handler.removeCallbacks(refreshRunnable);
+        handler.postDelayed(refreshRunnable, DEBOUNCE_MS);
+    }
+
+    private synchronized void post(final int event, final String line) {
+        if (handler != null) {
+            handler.post(() -> dispatch(event, line));
+        }
+    }
+
+    private void refresh() {
+        int events;
+        synchronized (this) {
+            events = dirtyEvents;
+            dirtyEvents = 0;
+        }
+        readState(events, true);
+    }
+
+    /**
+     * 상태를 읽어 마지막 값과 다르면 기록하고, {@code notify}가 참이면 구독자에게 알린다.
+     */
+    private void readState(int events, boolean notify) {
+        if ((events & EVENT_CLIPBOARD) != 0) {
+            String text = Device.getClipboardText();
+            int hash = text != null ? text.hashCode() : 0;
+            int length = text != null ? StringUtils.getUtf8Length(text) : 0;
+            if (hash != clipboardHash || length != clipboardLength) {
+                clipboardHash = hash;
+                clipboardLength = length;
+                if (notify) {
+                    dispatch(EVENT_CLIPBOARD, clipboardEvent());
+                }
+            }
+        }
+
+        if (displayId == Device.DISPLAY_ID_NONE) {
+            return;
+        }
+
+        if ((events & (EVENT_DISPLAY | EVENT_ROTATION)) != 0) {
+            DisplayInfo info = ServiceManager.getDisplayManager().getDisplayInfo(displayId);
+            if (info != null) {
+                Size size = info.getSize();
+                if (size.getWidth() != width || size.getHeight() != height) {
+                    width = size.getWidth();
+                    height = size.getHeight();
+                    if (notify) {
+                        dispatch(EVENT_DISPLAY, displayEvent());
+                    }
+                }
+                if (info.getRotation() != rotation) {
+                    rotation = info.getRotation();
+                    if (notify) {
+                        dispatch(EVENT_ROTATION, rotationEvent());
+                    }
+                }
+            }
+        }
+
+        if ((events & EVENT_POWER) != 0) {
+            int on = Device.isScreenOn(displayId) ? 1 : 0;
+            if (on != screenOn) {
+                screenOn = on;
+                if (notify) {
+                    dispatch(EVENT_POWER, powerEvent());
+                }
+            }
+        }
+    }
+
+    private void replay(Listener listener, int events) {
+        if ((events & EVENT_CLIPBOARD) != 0 && clipboardLength >= 0) {
+            dispatch(listener, EVENT_CLIPBOARD, clipboardEvent());
+        }
+        if ((events & EVENT_DISPLAY) != 0 && width > 0) {
+            dispatch(listener, EVENT_DISPLAY, displayEvent());
+        }
+        if ((events & EVENT_ROTATION) != 0 && rotation >= 0) {
+            dispatch(listener, EVENT_ROTATION, rotationEvent());
+        }
+        if ((events & EVENT_POWER) != 0 && screenOn >= 0) {
+            dispatch(listener, EVENT_POWER, powerEvent());
+        }
+    }
+
+    private String clipboardEvent() {
+        return "EVENT CLIPBOARD " + clipboardLength;
+    }
+
+    private String displayEvent() {
+        return "EVENT DISPLAY " + width + " " + height;
+    }
+
+    private String rotationEvent() {
+        return "EVENT ROTATION " + rotation;
+    }
+
+    private String powerEvent() {
+        return screenOn == 1 ? "EVENT POWER ON" : "EVENT POWER OFF";
+    }
+
+    // 전달을 잠금 안에서 하므로, unsubscribe()가 반환된 뒤에는 이벤트가 전달되지 않는다.
+    private synchronized void dispatch(int event, String line) {
+        for (Subscription subscription : subscriptions) {
+            if ((subscription.mask & event) != 0) {
+                subscription.listener.onEvent(line);
+            }
+        }
+    }
+
+    private synchronized void dispatch(Listener listener, int event, String line) {
+        Subscription subscription = find(listener);
+        if (subscription != null && (subscription.mask & event) != 0) {
+            listener.onEvent(line);
+        }
+    }
+}
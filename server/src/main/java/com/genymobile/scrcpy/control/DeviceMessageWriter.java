@@ -0,0 +1,61 @@
+package com.genymobile.scrcpy.control;
+
+import com.genymobile.scrcpy.util.StringUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+public class DeviceMessageWriter {
+
+    private static final int MESSAGE_MAX_SIZE = 1 << 18; // 256k
+    public static final int CLIPBOARD_TEXT_MAX_LENGTH = MESSAGE_MAX_SIZE - 5; // type: 1 byte; length: 4 bytes
+
+    private final DataOutputStream dos;
+
+    public DeviceMessageWriter(OutputStream rawOutputStream) {
+        this(new DataOutputStream(new BufferedOutputStream(rawOutputStream)));
+    }
+
+    /**
+     * 이미 버퍼링된 스트림에 이어 쓴다. 텍스트 응답과 같은 버퍼를 공유해 순서를 유지할 때 사용한다.
+     */
+    DeviceMessageWriter(DataOutputStream dos) {
+        this.dos = dos;
+    }
+
+    public void write(DeviceMessage msg) throws IOException {
+        append(msg);
+        dos.flush();
+    }
+
+    /**
+     * 메시지를 버퍼에만 쓰고 flush하지 않는다.
+     */
+    public void append(DeviceMessage msg) throws IOException {
+        int type = msg.getType();
+        dos.writeByte(type);
+        switch (type) {
+            case DeviceMessage.TYPE_CLIPBOARD:
+                String text = msg.getText();
+                byte[] raw = text.getBytes(StandardCharsets.UTF_8);
+                int len = StringUtils.getUtf8TruncationIndex(raw, CLIPBOARD_TEXT_MAX_LENGTH);
+                dos.writeInt(len);
+                dos.write(raw, 0, len);
+                break;
+            case DeviceMessage.TYPE_ACK_CLIPBOARD:
+                dos.writeLong(msg.getSequence());
+                break;
+            case DeviceMessage.TYPE_UHID_OUTPUT:
+                dos.writeShort(msg.getId());
+                byte[] data = msg.getData();
+                dos.writeShort(data.length);
+                dos.write(data);
+                break;
+            default:
+                throw new ControlProtocolException("Unknown event type: " + type);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.genymobile.scrcpy.control;
+
+import android.view.MotionEvent;
+
+/**
+ * 제스처의 포인터 경로와, 그 경로를 STEP_MS 간격으로 나눈 터치 이벤트 시각표.
+ * <p>
+ * {@link GestureEngine}은 vsync마다 {@link #sample(long, int[], int[])}로 그 시각의 위치를 구해 MOVE를 주입하고, 누르고 떼는 이벤트는 시각표의
+ * 앞뒤 {@link #getPointerCount()}개를 쓴다. vsync를 받을 수 없으면 시각표 전체를 시작 시각 기준으로 주입한다.
+ * <p>
+ * 이벤트 시각은 DOWN 기준 밀리초이며, 주입하는 이벤트의 eventTime도 이 값으로 정한다. 제스처 스레드가 늦게 깨어나도 앱이 보는 속도는 바뀌지 않는다.
+ * <p>
+ * 여러 포인터 제스처에서 i번째 포인터의 ID는 i다. 포인터는 ID 순서로 눌리고 역순으로 떼므로 이벤트 안의 인덱스도 ID와 같다.
+ */
+final class Gesture {
+
+    // vsync 없이 재생할 때의 MOVE 간격, 약 60Hz
+    static final int STEP_MS = 16;
+
+    /**
+     * 진행률(0~1)에서 각 포인터의 위치를 {@code xs[offset + p]}, {@code ys[offset + p]}에 쓴다.
+     */
+    private interface Path {
+        void locate(double progress, int[] xs, int[] ys, int offset);
+    }
+
+    private final Path path;
+    private final int maxPointers;
+    private final long[] times;
+    private final int[] actions;
+    private final int[] pointerCounts;
+    // 이벤트 i의 포인터 p 좌표는 [i * maxPointers + p]
+    private final int[] xs;
+    private final int[] ys;
+
+    private Gesture(int size, int maxPointers, Path path) {
+        this.path = path;
+        this.maxPointers = maxPointers;
+        times = new long[size];
+        actions = new int[size];
+        pointerCounts = new int[size];
+        xs = new int[size * maxPointers];
+        ys = new int[size * maxPointers];
+    }
+
+    private static int getSteps(int duration) {
+        return duration > 0 ? Math.max(1, duration / STEP_MS) : 0;
+    }
+
+    /**
+     * (x1, y1)에서 DOWN, durationMs 동안 STEP_MS 간격으로 직선 MOVE, (x2, y2)에서 UP.
+     */
+    static Gesture swipe(int x1, int y1, int x2, int y2, int durationMs) {
+        int duration = Math.max(0, durationMs);
+        int steps = getSteps(duration);
+        int stepDuration = steps > 0 ? duration / steps : 0;
+
+        Path path = (progress, xs, ys, offset) -> {
+            xs[offset] = x1 + (int) Math.round((x2 - x1) * progress);
+            ys[offset] = y1 + (int) Math.round((y2 - y1) * progress);
+        };
+
+        // DOWN, MOVE (steps - 1)개, UP
+        Gesture gesture = new Gesture(Math.max(2, steps + 1), 1, path);
+        gesture.set(0, 0, MotionEvent.ACTION_DOWN, 1, 0);
+        for (int i = 1; i < steps; ++i) {
+            gesture.set(i, (long) stepDuration * i, MotionEvent.ACTION_MOVE, 1, (double) i / steps);
+        }
+        gesture.set(gesture.size() - 1, duration, MotionEvent.ACTION_UP, 1, 1);
+        return gesture;
+    }
+
+    /**
+     * 두 손가락을 (cx, cy)에서 distance만큼 떨어뜨려 놓고 endDistance까지 벌리거나 오므린다. 손가락은 angleDeg(0이면 가로) 방향으로 마주 본다.
+     */
+    static Gesture pinch(int cx, int cy, int startDistance, int endDistance, int durationMs, float angleDeg) {
+        double angle = Math.toRadians(angleDeg);
+        return twoFingers(cx, cy, startDistance / 2f, endDistance / 2f, angle, angle, durationMs);
+    }
+
+    /**
+     * 두 손가락을 (cx, cy)를 중심으로 radius만큼 떨어진 원 위에 마주 보게 놓고, startDeg에서 degrees만큼 돌린다. 양수는 화면 좌표에서 시계 방향이다.
+     */
+    static Gesture rotate(int cx, int cy, int radius, float degrees, int durationMs, float startDeg) {
+        double start = Math.toRadians(startDeg);
+        return twoFingers(cx, cy, radius, radius, start, start + Math.toRadians(degrees), durationMs);
+    }
+
+    /**
+     * 중심에서 반지름 r, 각도 a인 곳(포인터 0)과 그 반대편(포인터 1)에 손가락을 두고, r과 a를 선형으로 바꾼다.
+     */
+    private static Gesture twoFingers(int cx, int cy, float r0, float r1, double a0, double a1, int durationMs) {
+        int duration = Math.max(0, durationMs);
+        int steps = getSteps(duration);
+        int stepDuration = steps > 0 ? duration / steps : 0;
+
+        Path path = (progress, xs, ys, offset) -> {
+            double r = r0 + (r1 - r0) * progress;
+            double a = a0 + (a1 - a0) * progress;
+            int dx = (int) Math.round(r * Math.cos(a));
+            int dy = (int) Math.round(r * Math.sin(a));
+            xs[offset] = cx + dx;
+            ys[offset] = cy + dy;
+            xs[offset + 1] = cx - dx;
+            ys[offset + 1] = cy - dy;
+        };
+
+        // DOWN, POINTER_DOWN, MOVE (steps - 1)개, POINTER_UP, UP
+        Gesture gesture = new Gesture(Math.max(4, steps + 3), 2, path);
+        gesture.set(0, 0, MotionEvent.ACTION_DOWN, 1, 0);
+        gesture.set(1, 0, MotionEvent.ACTION_POINTER_DOWN | (1 << MotionEvent.ACTION_POINTER_INDEX_SHIFT), 2, 0);
+        for (int i = 1; i < steps; ++i) {
+            gesture.set(i + 1, (long) stepDuration * i, MotionEvent.ACTION_MOVE, 2, (double) i / steps);
+        }
+        int last = gesture.size() - 1;
+        gesture.set(last - 1, duration, MotionEvent.ACTION_POINTER_UP | (1 << MotionEvent.ACTION_POINTER_INDEX_SHIFT), 2, 1);
+        gesture.set(last, duration, MotionEvent.ACTION_UP, 1, 1);
+        return gesture;
+    }
+
+    /**
+     * 이벤트 {@code index}를 정하고, 모든 포인터를 진행률 {@code progress}의 위치에 둔다. 떼어진 포인터의 위치도 채워 둔다.
+     */
+    private void set(int index, long time, int action, int pointerCount, double progress) {
+        times[index] = time;
+        actions[index] = action;
+        pointerCounts[index] = pointerCount;
+        path.locate(progress, xs, ys, index * maxPointers);
+    }
+
+    /**
+     * DOWN 기준 {@code time} 밀리초의 포인터 위치를 {@code xs}, {@code ys}의 앞부분에 쓴다. 경로는 시작과 끝 사이를 시간에 비례해 나아간다.
+     *
+     * @return 위치를 쓴 포인터 수, {@link #getPointerCount()}
+     */
+    int sample(long time, int[] outXs, int[] outYs) {
+        long duration = getDuration();
+        double progress = duration > 0 ? Math.min(1.0, Math.max(0.0, (double) time / duration)) : 1.0;
+        path.locate(progress, outXs, outYs, 0);
+        return maxPointers;
+    }
+
+    /**
+     * 제스처가 누르는 포인터 수. 시각표의 처음 이만큼의 이벤트가 포인터를 하나씩 누르고, 마지막 이만큼의 이벤트가 하나씩 뗀다.
+     */
+    int getPointerCount() {
+        return maxPointers;
+    }
+
+    int size() {
+        return times.length;
+    }
+
+    /**
+     * @return DOWN 기준 밀리초
+     */
+    long getTime(int index) {
+        return times[index];
+    }
+
+    int getAction(int index) {
+        return actions[index];
+    }
+
+    int getPointerCount(int index) {
+        return pointerCounts[index];
+    }
+
+    int getX(int index, int pointer) {
+        return xs[index * maxPointers + pointer];
+    }
+
+    int getY(int index, int pointer) {
+        return ys[index * maxPointers + pointer];
+    }
+
+    /**
+     * {@link #getXs()}와 {@link #getYs()}에서 이벤트 {@code index}의 첫 포인터 위치
+     */
+    int getOffset(int index) {
+        return index * maxPointers;
+    }
+
+    /**
+     * 모든 이벤트의 X 좌표. 주입할 때 복사 없이 넘기기 위한 것으로, 수정하면 안 된다.
+     */
+    int[] getXs() {
+        return xs;
+    }
+
+    int[] getYs() {
+        return ys;
+    }
+
+    long getDuration() {
+        return times[times.length - 1];
+    }
+}
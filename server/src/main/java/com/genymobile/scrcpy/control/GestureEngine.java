@@ -0,0 +1,399 @@
+package com.genymobile.scrcpy.control;
+
+import com.genymobile.scrcpy.util.Ln;
+import com.genymobile.scrcpy.wrappers.ServiceManager;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.view.Choreographer;
+import android.view.Display;
+import android.view.MotionEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 제스처 전용 스레드에서 {@link Gesture}를 재생한다. 이벤트는 제스처 스레드의 {@link Choreographer} 프레임 콜백이나
+ * {@link Handler#postAtTime(Runnable, long)}으로 예약한다. {@link #start}는 기다리지 않고 끝나면 제스처마다 콜백으로 알리므로 여러 제스처를
+ * 동시에 재생할 수 있다. 제스처는 시작할 때 비어 있는 포인터 ID를 차지해({@link InputInjector#claimGesturePointers}) 다른 제스처, MTOUCH와
+ * 하나의 멀티 터치 스트림으로 주입되고, 남은 ID가 없거나 TOUCH가 눌린 채이면 시작하지 않는다.
+ * <p>
+ * 기본은 vsync에 맞춘 재생이다. 첫 vsync에서 누르고, 이후 vsync마다 그 프레임 시각의 위치로 MOVE를 주입하며(프레임당 샘플 수만큼, 프레임 사이
+ * 시각 포함), 끝 시각이 지난 첫 vsync에서 시각표의 끝 시각으로 뗀다. 패널 재생률을 따르고 DOWN이 프레임 시각에 맞으므로 실행마다 같은 터치 간격과
+ * 플링 속도가 나온다. Choreographer를 쓸 수 없거나 기본 디스플레이가 아닌 디스플레이에 주입하면 {@link Gesture#STEP_MS} 간격의 시각표를
+ * 재생한다.
+ * <p>
+ * 재생 상태는 제스처 스레드에서만 바뀐다. 취소는 {@link CancelToken}의 취소 동작으로 제스처 스레드에 넘겨, 눌린 포인터를 취소로 떼고
+ * 끝낸다.
+ */
+final class GestureEngine {
+
+    static final int RESULT_COMPLETED = 0;
+    static final int RESULT_CANCELLED = 1;
+    static final int RESULT_FAILED = 2;
+    static final int RESULT_POINTER_BUSY = 3;
+
+    // 디스플레이 재생률을 알 수 없을 때 가정하는 vsync 간격 (60Hz)
+    private static final long DEFAULT_FRAME_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1) / 60;
+    // 이 프레임 수만큼 vsync가 오지 않으면(화면이 꺼진 경우 등) 제스처 스레드의 시계로 대신 진행한다.
+    private static final int VSYNC_TIMEOUT_FRAMES = 2;
+
+    /**
+     * 제스처 스레드에서 재생 결과({@code RESULT_*})를 받는다.
+     */
+    interface Callback {
+        void onFinished(int result);
+    }
+
+    private final InputInjector injector;
+    private final int samplesPerFrame;
+
+    // 처음 제스처를 시작할 때 만든다 (guarded by this).
+    private HandlerThread thread;
+    private Handler handler;
+    private int active;
+
+    // 제스처 스레드 전용
+    private final List<Playback> playbacks = new ArrayList<>();
+    private Choreographer choreographer;
+    private boolean choreographerUnavailable;
+
+    /**
+     * @param samplesPerFrame vsync마다 주입할 MOVE 수, 1이면 프레임 시각에만 주입한다
+     */
+    GestureEngine(InputInjector injector, int samplesPerFrame) {
+        this.injector = injector;
+        this.samplesPerFrame = samplesPerFrame;
+    }
+
+    private final class Playback implements Runnable, Choreographer.FrameCallback {
+        private final Gesture gesture;
+        private final CancelToken cancelToken;
+        private final Callback callback;
+        // 시각표의 i번째 포인터가 쓰는 포인터 ID와 그 마스크
+        private final int[] pointerIds;
+        private final int claimedPointers;
+        // vsync 재생에서는 첫 프레임 시각으로 바뀐다.
+        private long downTime;
+        // 주입한 시각표 이벤트 수 (vsync 재생에서는 누르고 떼는 이벤트만)
+        private int next;
+        private boolean finished;
+
+        // vsync 재생, frames가 null이면 시각표 재생
+        private Choreographer frames;
+        private long frameIntervalNanos;
+        // 마지막 MOVE의 DOWN 기준 밀리초
+        private long lastSampleTime;
+        private final int[] xs = new int[InputInjector.MAX_POINTERS];
+        private final int[] ys = new int[InputInjector.MAX_POINTERS];
+        private final Runnable vsyncTimeout = () -> doFrame(System.nanoTime());
+
+        Playback(Gesture gesture, CancelToken cancelToken, Callback callback, int[] pointerIds, int claimedPointers, long downTime) {
+            this.gesture = gesture;
+            this.cancelToken = cancelToken;
+            this.callback = callback;
+            this.pointerIds = pointerIds;
+            this.claimedPointers = claimedPointers;
+            this.downTime = downTime;
+        }
+
+        void begin() {
+            if (finished) {
+                return;
+            }
+            playbacks.add(this);
+            frames = getChoreographer();
+            if (frames == null) {
+                run();
+                return;
+            }
+            frameIntervalNanos = getFrameIntervalNanos();
+            postFrame();
+        }
+
+        /**
+         * 시각표 재생: 다음 이벤트를 주입하고 그다음 이벤트를 예약한다.
+         */
+        @Override
+        public void run() {
+            if (finished) {
+                return;
+            }
+            if (cancelToken != null && cancelToken.isCancelled()) {
+                cancel();
+                return;
+            }
+
+            int i = next;
+            if (!inject(downTime + gesture.getTime(i), gesture.getAction(i), i, 1.0f)) {
+                finish(RESULT_FAILED);
+                return;
+            }
+
+            next = i + 1;
+            if (next == gesture.size()) {
+                finish(RESULT_COMPLETED);
+            } else {
+                handler.postAtTime(this, downTime + gesture.getTime(next));
+            }
+        }
+
+        /**
+         * vsync 재생: 첫 프레임이면 누르고, 아니면 지난 프레임 이후의 샘플을 MOVE로 주입한다. 끝 시각이 지났으면 뗀다.
+         */
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (finished) {
+                return;
+            }
+            frames.removeFrameCallback(this);
+            handler.removeCallbacks(vsyncTimeout);
+            if (cancelToken != null && cancelToken.isCancelled()) {
+                cancel();
+                return;
+            }
+
+            long frameTime = TimeUnit.NANOSECONDS.toMillis(frameTimeNanos);
+            int pointers = gesture.getPointerCount();
+            if (next == 0) {
+                downTime = frameTime;
+                if (!injectRange(0, pointers, downTime)) {
+                    return;
+                }
+                postFrame();
+                return;
+            }
+
+            long duration = gesture.getDuration();
+            for (int k = samplesPerFrame - 1; k >= 0; --k) {
+                // 샘플 시각은 이번 프레임까지의 한 프레임 간격을 나눈 것이다. 위치는 주입할 밀리초 시각에서 구해 앱이 보는 속도가 시각과 맞는다.
+                long time = TimeUnit.NANOSECONDS.toMillis(frameTimeNanos - frameIntervalNanos * k / samplesPerFrame) - downTime;
+                if (time <= lastSampleTime) {
+                    continue;
+                }
+                if (time >= duration) {
+                    break;
+                }
+                int count = gesture.sample(time, xs, ys);
+                if (!injector.injectGestureEvent(MotionEvent.ACTION_MOVE, pointerIds, count, downTime + time, xs, ys, 0, 1.0f)) {
+                    finish(RESULT_FAILED);
+                    return;
+                }
+                lastSampleTime = time;
+            }
+
+            if (frameTime - downTime >= duration) {
+                // 떼는 시각은 프레임과 관계없이 끝 시각이다.
+                int size = gesture.size();
+                if (injectRange(size - pointers, size, downTime + duration)) {
+                    finish(RESULT_COMPLETED);
+                }
+            } else {
+                postFrame();
+            }
+        }
+
+        private void postFrame() {
+            frames.postFrameCallback(this);
+            handler.postDelayed(vsyncTimeout, TimeUnit.NANOSECONDS.toMillis(frameIntervalNanos * VSYNC_TIMEOUT_FRAMES) + 1);
+        }
+
+        /**
+         * 시각표 이벤트 [from, to)를 모두 {@code eventTime}에 주입한다.
+         *
+         * @return 실패하면 {@link #RESULT_FAILED}로 끝내고 {@code false}
+         */
+        private boolean injectRange(int from, int to, long eventTime) {
+            for (int i = from; i < to; ++i) {
+                if (!inject(eventTime, gesture.getAction(i), i, 1.0f)) {
+                    finish(RESULT_FAILED);
+                    return false;
+                }
+                next = i + 1;
+            }
+            return true;
+        }
+
+        void cancel() {
+            if (finished) {
+                return;
+            }
+            handler.removeCallbacks(this);
+            if (frames != null) {
+                frames.removeFrameCallback(this);
+                handler.removeCallbacks(vsyncTimeout);
+            }
+            // 앱이 제스처를 탭이나 플링으로 처리하지 않도록, 눌린 포인터는 포인터를 돌려줄 때 UP 대신 취소로 뗀다.
+            finish(RESULT_CANCELLED);
+        }
+
+        /**
+         * 이벤트 {@code index}의 포인터들로 이벤트 하나를 주입한다.
+         */
+        private boolean inject(long eventTime, int action, int index, float pressure) {
+            return injector.injectGestureEvent(action, pointerIds, gesture.getPointerCount(index), eventTime, gesture.getXs(), gesture.getYs(),
+                    gesture.getOffset(index), pressure);
+        }
+
+        private void finish(int result) {
+            finished = true;
+            playbacks.remove(this);
+            injector.releaseGesturePointers(claimedPointers);
+            try {
+                callback.onFinished(result);
+            } finally {
+                finished();
+            }
+        }
+    }
+
+    /**
+     * 제스처를 지금 시작한다. 호출한 스레드는 기다리지 않으며, 끝나면 제스처 스레드에서 {@code callback}이 불린다. 포인터는 호출한 스레드에서
+     * 차지하므로, 돌아온 뒤 시작하는 TAP/TOUCH는 이 제스처가 끝날 때까지 포인터를 누르지 못한다.
+     *
+     * @param cancelToken 취소되면 다음 이벤트를 기다리지 않고 끝낸다, 없으면 {@code null}
+     * @return 포인터를 차지하지 못해 시작하지 않았으면 {@code false}, 이때 {@code callback}은 불리지 않는다
+     */
+    boolean start(Gesture gesture, CancelToken cancelToken, Callback callback) {
+        int[] pointerIds = new int[gesture.getPointerCount()];
+        int claimedPointers = injector.claimGesturePointers(pointerIds.length, pointerIds);
+        if (claimedPointers == 0) {
+            return false;
+        }
+
+        final Handler h;
+        synchronized (this) {
+            h = getHandler();
+            ++active;
+        }
+
+        final Playback playback = new Playback(gesture, cancelToken, callback, pointerIds, claimedPointers, SystemClock.uptimeMillis());
+        h.post(playback::begin);
+        if (cancelToken != null) {
+            cancelToken.setCancelListener(() -> h.post(playback::cancel));
+        }
+        return true;
+    }
+
+    /**
+     * 제스처를 재생하고 끝날 때까지 기다린다. BATCH와 매크로처럼 다음 명령이 제스처 뒤에 실행되어야 할 때 사용한다. 제스처 스레드에서 호출하면
+     * 안 된다.
+     *
+     * @return {@code RESULT_*}, 기다리는 중에 인터럽트되면 제스처를 취소하고 {@link #RESULT_CANCELLED}, 포인터를 차지하지 못하면
+     *         {@link #RESULT_POINTER_BUSY}
+     */
+    int startAndWait(Gesture gesture, CancelToken cancelToken) {
+        final int[] result = {-1};
+        Callback callback = r -> {
+            synchronized (result) {
+                result[0] = r;
+                result.notifyAll();
+            }
+        };
+
+        // 인터럽트되었을 때 제스처를 끝내기 위해 토큰이 없어도 만든다.
+        CancelToken token = cancelToken != null ? cancelToken : new CancelToken(null, CancelToken.CATEGORY_GESTURE);
+        if (!start(gesture, token, callback)) {
+            return RESULT_POINTER_BUSY;
+        }
+        synchronized (result) {
+            while (result[0] < 0) {
+                try {
+                    result.wait();
+                } catch (InterruptedException e) {
+                    // 컨트롤러가 멈추는 중이다.
+                    Thread.currentThread().interrupt();
+                    token.cancel();
+                    return RESULT_CANCELLED;
+                }
+            }
+            return result[0];
+        }
+    }
+
+    private Handler getHandler() {
+        if (handler == null) {
+            thread = new HandlerThread("control-gesture", Process.THREAD_PRIORITY_DISPLAY);
+            thread.start();
+            handler = new Handler(thread.getLooper());
+        }
+        return handler;
+    }
+
+    /**
+     * Choreographer는 기본 디스플레이의 vsync만 전달하므로, 다른 디스플레이에 주입하는 제스처는 시각표로 재생한다.
+     *
+     * @return vsync에 맞춰 재생할 수 없으면 {@code null}
+     */
+    private Choreographer getChoreographer() {
+        if (injector.getDisplayId() != Display.DEFAULT_DISPLAY) {
+            return null;
+        }
+        if (choreographer == null && !choreographerUnavailable) {
+            try {
+                choreographer = Choreographer.getInstance();
+            } catch (RuntimeException e) {
+                Ln.w("Cannot receive vsync, gestures use a fixed " + Gesture.STEP_MS + " ms step", e);
+                choreographerUnavailable = true;
+            }
+        }
+        return choreographer;
+    }
+
+    /**
+     * 제스처를 시작할 때마다 vsync를 받는 기본 디스플레이의 현재 재생률에서 구한다. 재생률은 앱과 설정에 따라 바뀔 수 있다.
+     */
+    private long getFrameIntervalNanos() {
+        float refreshRate = ServiceManager.getDisplayManager().getRefreshRate(Display.DEFAULT_DISPLAY);
+        if (refreshRate <= 0) {
+            return DEFAULT_FRAME_INTERVAL_NANOS;
+        }
+        return (long) (TimeUnit.SECONDS.toNanos(1) / refreshRate);
+    }
+
+    private synchronized void finished() {
+        --active;
+        notifyAll();
+    }
+
+    /**
+     * 진행 중이거나 시작을 기다리는 제스처 수
+     */
+    synchronized int getActive() {
+        return active;
+    }
+
+    /**
+     * 진행 중인 제스처가 없을 때까지 기다린다.
+     */
+    synchronized void awaitIdle() throws InterruptedException {
+        while (active > 0) {
+            wait();
+        }
+    }
+
+    /**
+     * 진행 중인 제스처를 ACTION_CANCEL로 끝내고 제스처 스레드를 종료한다. 눌린 채인 포인터를 남기지 않는다.
+     */
+    void quit() {
+        final HandlerThread t;
+        final Handler h;
+        synchronized (this) {
+            t = thread;
+            h = handler;
+        }
+        if (h == null) {
+            return;
+        }
+
+        h.post(() -> {
+            for (Playback playback : new ArrayList<>(playbacks)) {
+                playback.cancel();
+            }
+            t.quit();
+        });
+    }
+}
@@ -0,0 +1,317 @@
+package com.genymobile.scrcpy.control;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 수신 스레드가 읽어 {@link InboundQueue}에 넣는 명령 하나. 텍스트 명령, BATCH 블록, 바이너리 메시지, 또는 수신 단계에서 이미 결정된 응답(파싱
+ * 오류 등) 중 하나다.
+ * <p>
+ * 응답 순서를 지키기 위해 수신 스레드는 응답을 직접 보내지 않고 모두 큐를 거친다.
+ * <p>
+ * 인스턴스는 큐의 칸으로 재사용된다. 텍스트 명령의 인수는 칸이 가진 버퍼로 복사하므로, 보통 크기의 명령은 수신할 때 힙 할당이 없다.
+ */
+final class InboundCommand {
+
+    static final long NO_DEADLINE = Long.MAX_VALUE;
+    // uptimeMillis는 항상 양수이므로 AT이 받아들이는 시각과 겹치지 않는다(parseScheduledTime).
+    static final long NOT_SCHEDULED = Long.MIN_VALUE;
+
+    // AT으로 예약할 수 있는 가장 먼 시각 (현재 기준)
+    static final long AT_MAX_DELAY_MS = TimeUnit.HOURS.toMillis(1);
+
+    // 칸마다 유지하는 인수 버퍼의 초기/최대 크기, 이보다 큰 인수(클립보드 등)는 그때만 따로 할당한다. 큰 인수는 큐 전체에서 한 번에 하나만
+    // 받는다(InboundQueue#claimText(LineTokenizer)).
+    private static final int ARGUMENTS_INITIAL_SIZE = 128;
+    private static final int ARGUMENTS_RETAINED_MAX_SIZE = 4096;
+
+    private String requestId;
+    private CommandHandler command;
+    private LineTokenizer arguments = new LineTokenizer();
+    private byte[] argumentsBuffer = new byte[ARGUMENTS_INITIAL_SIZE];
+    // 인수가 따로 할당한 큰 버퍼에 있다.
+    private boolean largeArguments;
+    private String response;
+    private ControlMessage message;
+    // 바이너리 메시지를 읽어 넣는 칸 소유의 인스턴스, 합칠 때는 인수 버퍼처럼 다음 칸과 맞바꾼다.
+    private ControlMessage messageBuffer = new ControlMessage();
+
+    private CommandHandler[] batchCommands;
+    private LineTokenizer[] batchArguments;
+    private boolean batchStopOnError;
+    // MACRO_RUN이면 수신할 때 찾은 매크로
+    private Macro macro;
+
+    // 취소할 수 있는 명령이면 CANCEL이 표시할 곳
+    private CancelToken cancelToken;
+
+    // "AT <uptimeMillis>"로 예약한 실행 시각
+    private long scheduledTime = NOT_SCHEDULED;
+    // 클라이언트가 "!<uptimeMillis>"로 지정한 실행 기한
+    private long deadline = NO_DEADLINE;
+    // 명령 라인을 읽은 시각 (PING TIME)
+    private long recvUptimeMillis;
+    private long recvElapsedNanos;
+
+    // 합칠 수 있는 포인터 MOVE이면 같은 포인터를 나타내는 키와 함께 표시한다.
+    private boolean move;
+    private long moveKey;
+    // 이 명령에 합쳐진 ID 없는 텍스트 MOVE 수, 각각 "OK MERGED"로 응답한다.
+    private int mergedCount;
+
+    private void clear() {
+        requestId = null;
+        command = null;
+        response = null;
+        message = null;
+        batchCommands = null;
+        batchArguments = null;
+        batchStopOnError = false;
+        macro = null;
+        cancelToken = null;
+        scheduledTime = NOT_SCHEDULED;
+        deadline = NO_DEADLINE;
+        recvUptimeMillis = 0;
+        recvElapsedNanos = 0;
+        move = false;
+        moveKey = 0;
+        mergedCount = 0;
+        largeArguments = false;
+    }
+
+    /**
+     * @return {@code tokenizer}의 남은 부분이 칸의 버퍼에 들어가지 않아 {@link #setText}가 따로 할당하면 {@code true}
+     */
+    static boolean isLargeArguments(LineTokenizer tokenizer) {
+        return tokenizer.getRemainingEnd() - tokenizer.getRemainingStart() > ARGUMENTS_RETAINED_MAX_SIZE;
+    }
+
+    /**
+     * 텍스트 명령으로 설정한다. {@code tokenizer}의 남은 부분을 복사하므로 호출 뒤 원본 버퍼를 재사용해도 된다.
+     */
+    void setText(String requestId, CommandHandler command, LineTokenizer tokenizer) {
+        clear();
+        this.requestId = requestId;
+        this.command = command;
+
+        int start = tokenizer.getRemainingStart();
+        int len = tokenizer.getRemainingEnd() - start;
+        byte[] buf = argumentsBuffer;
+        if (len > buf.length) {
+            if (len <= ARGUMENTS_RETAINED_MAX_SIZE) {
+                argumentsBuffer = new byte[Math.min(ARGUMENTS_RETAINED_MAX_SIZE, Math.max(len, buf.length * 2))];
+                buf = argumentsBuffer;
+            } else {
+                buf = new byte[len];
+                largeArguments = true;
+            }
+        }
+        System.arraycopy(tokenizer.getBuffer(), start, buf, 0, len);
+        arguments.reset(buf, 0, len);
+    }
+
+    void setBatch(String requestId, CommandHandler command, CommandHandler[] commands, LineTokenizer[] arguments, boolean stopOnError) {
+        clear();
+        this.requestId = requestId;
+        this.command = command;
+        batchCommands = commands;
+        batchArguments = arguments;
+        batchStopOnError = stopOnError;
+    }
+
+    void setResponse(String requestId, String response) {
+        clear();
+        this.requestId = requestId;
+        this.response = response;
+    }
+
+    /**
+     * 바이너리 메시지 칸으로 설정한다.
+     *
+     * @return 수신한 메시지를 채울 칸 소유의 인스턴스
+     */
+    ControlMessage setMessage() {
+        clear();
+        message = messageBuffer;
+        return message;
+    }
+
+    String getRequestId() {
+        return requestId;
+    }
+
+    CommandHandler getCommand() {
+        return command;
+    }
+
+    LineTokenizer getArguments() {
+        return arguments;
+    }
+
+    boolean hasLargeArguments() {
+        return largeArguments;
+    }
+
+    /**
+     * 따로 할당한 큰 인수를 복사하지 않고 넘겨준다. 칸은 이후 빈 인수를 가진다. 받은 쪽은 다 쓴 뒤
+     * {@link InboundQueue#releaseLargeArguments()}를 불러야 한다.
+     */
+    LineTokenizer detachLargeArguments() {
+        LineTokenizer detached = arguments;
+        arguments = new LineTokenizer();
+        arguments.reset(argumentsBuffer, 0, 0);
+        largeArguments = false;
+        return detached;
+    }
+
+    /**
+     * 처리가 끝난 칸이 큰 인수 버퍼를 붙잡고 있지 않게 한다.
+     *
+     * @return 큰 인수를 가지고 있었으면 {@code true}
+     */
+    boolean releaseLargeArguments() {
+        if (!largeArguments) {
+            return false;
+        }
+        arguments.reset(argumentsBuffer, 0, 0);
+        largeArguments = false;
+        return true;
+    }
+
+    String getResponse() {
+        return response;
+    }
+
+    ControlMessage getMessage() {
+        return message;
+    }
+
+    CommandHandler[] getBatchCommands() {
+        return batchCommands;
+    }
+
+    LineTokenizer[] getBatchArguments() {
+        return batchArguments;
+    }
+
+    boolean getBatchStopOnError() {
+        return batchStopOnError;
+    }
+
+    CancelToken getCancelToken() {
+        return cancelToken;
+    }
+
+    void setCancelToken(CancelToken cancelToken) {
+        this.cancelToken = cancelToken;
+    }
+
+    Macro getMacro() {
+        return macro;
+    }
+
+    void setMacro(Macro macro) {
+        this.macro = macro;
+    }
+
+    /**
+     * "AT &lt;uptimeMillis&gt;"의 시각(현재 토큰)을 읽는다. 기기의 {@code SystemClock.uptimeMillis()}는 항상 양수이므로 0 이하의 시각은
+     * 받지 않는다. 이미 지난 양수 시각은 받으며 바로 실행된다.
+     *
+     * @param now 명령 라인을 읽은 시각
+     * @return 예약 시각, 숫자가 아니거나 0 이하이거나 {@link #AT_MAX_DELAY_MS}보다 먼 시각이면 {@link #NOT_SCHEDULED}
+     */
+    static long parseScheduledTime(LineTokenizer tokenizer, long now) {
+        long time;
+        try {
+            time = tokenizer.tokenToLong(0);
+        } catch (NumberFormatException e) {
+            return NOT_SCHEDULED;
+        }
+        if (time <= 0 || time - now > AT_MAX_DELAY_MS) {
+            return NOT_SCHEDULED;
+        }
+        return time;
+    }
+
+    long getScheduledTime() {
+        return scheduledTime;
+    }
+
+    void setScheduledTime(long scheduledTime) {
+        this.scheduledTime = scheduledTime;
+    }
+
+    long getDeadline() {
+        return deadline;
+    }
+
+    void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    boolean isExpired(long now) {
+        return now > deadline;
+    }
+
+    long getRecvUptimeMillis() {
+        return recvUptimeMillis;
+    }
+
+    long getRecvElapsedNanos() {
+        return recvElapsedNanos;
+    }
+
+    void setRecvTime(long uptimeMillis, long elapsedNanos) {
+        recvUptimeMillis = uptimeMillis;
+        recvElapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * 뒤따르는 같은 키의 MOVE가 이 명령을 대체할 수 있다고 표시한다.
+     */
+    void setMove(long key) {
+        move = true;
+        moveKey = key;
+    }
+
+    int getMergedCount() {
+        return mergedCount;
+    }
+
+    /**
+     * {@code next}가 이 명령 바로 뒤에 올 때 이 명령을 대체할 수 있는지 확인한다.
+     */
+    boolean canMerge(InboundCommand next) {
+        return move && next.move && moveKey == next.moveKey && (message == null) == (next.message == null);
+    }
+
+    /**
+     * 이 명령을 {@code next}의 내용으로 대체한다. 중간 위치는 버리고 마지막 위치만 주입한다.
+     * <p>
+     * 인수는 복사하지 않고 두 칸의 버퍼를 맞바꾼다. {@code next}는 이후 빈 칸으로만 재사용된다.
+     */
+    void merge(InboundCommand next) {
+        LineTokenizer tokenizer = arguments;
+        arguments = next.arguments;
+        next.arguments = tokenizer;
+        byte[] buf = argumentsBuffer;
+        argumentsBuffer = next.argumentsBuffer;
+        next.argumentsBuffer = buf;
+        boolean large = largeArguments;
+        largeArguments = next.largeArguments;
+        next.largeArguments = large;
+
+        ControlMessage msg = messageBuffer;
+        messageBuffer = next.messageBuffer;
+        next.messageBuffer = msg;
+        if (next.message != null) {
+            message = messageBuffer;
+        }
+        deadline = next.deadline;
+        recvUptimeMillis = next.recvUptimeMillis;
+        recvElapsedNanos = next.recvElapsedNanos;
+        if (message == null) {
+            mergedCount += 1 + next.mergedCount;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.genymobile.scrcpy.control;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 수신 스레드(생산자 하나)와 실행 스레드(소비자 하나) 사이의 크기 제한 원형 버퍼.
+ * <p>
+ * 링크가 잠시 멈췄다가 밀린 명령이 한꺼번에 도착해도 실행이 무한정 뒤처지지 않도록 한다.
+ * <ul>
+ * <li>가득 차면 수신 스레드를 막아, 나머지는 소켓 버퍼에 남겨 둔다(역압력).</li>
+ * <li>같은 포인터의 MOVE가 연달아 쌓이면 마지막 것만 남긴다.</li>
+ * <li>기한이 지난 명령은 실행 스레드가 꺼낸 뒤 실행하지 않고 버린다({@link #countExpired()}).</li>
+ * </ul>
+ * 칸({@link InboundCommand})은 미리 만들어 두고 재사용한다. 생산자는 {@link #claim()}으로 받은 칸을 채워 {@link #publish()}하고, 소비자는
+ * {@link #take()}로 꺼낸 칸을 {@link #done()}할 때까지만 사용한다. 두 스레드는 락 없이 인덱스만 주고받고, 상대가 기다리고 있을 때만 깨운다.
+ */
+final class InboundQueue {
+
+    // takeIndex에 설정되어 있으면 생산자가 마지막 칸에 MOVE를 합치는 중이다.
+    private static final long MERGING = 1L << 62;
+
+    private final int capacity;
+    private final InboundCommand[] slots;
+
+    // 생산자가 다음에 채울 칸, 소비자가 다음에 꺼낼 칸, 소비자가 처리를 마친 칸 (모두 단조 증가)
+    private volatile long tail;
+    private final AtomicLong takeIndex = new AtomicLong();
+    private volatile long head;
+
+    // 생산자 전용 빈 칸, publish() 때 원형 버퍼의 다 쓴 칸과 맞바꾼다.
+    private InboundCommand spare = new InboundCommand();
+
+    // 칸 버퍼에 들어가지 않는 큰 인수(클립보드 등)는 명령마다 따로 할당하므로 한 번에 하나만 받는다. 링크가 밀려 큰 명령이 한꺼번에 도착해도
+    // 힙에는 큰 인수 하나만 있다.
+    private final Semaphore largeArguments = new Semaphore(1);
+
+    private volatile Thread waitingProducer;
+    private volatile Thread waitingConsumer;
+
+    // 각각 생산자, 소비자만 쓴다.
+    private volatile long mergedCount;
+    private volatile long expiredCount;
+
+    InboundQueue(int capacity) {
+        this.capacity = capacity;
+        slots = new InboundCommand[capacity];
+        for (int i = 0; i < capacity; ++i) {
+            slots[i] = new InboundCommand();
+        }
+    }
+
+    /**
+     * 생산자가 채울 칸을 반환한다. {@link #publish()} 전까지 같은 칸이다.
+     */
+    InboundCommand claim() {
+        return spare;
+    }
+
+    /**
+     * 텍스트 명령({@link InboundCommand#setText})을 채울 칸을 반환한다. 인수가 칸 버퍼에 들어가지 않으면, 앞선 큰 인수를 다 쓸 때까지
+     * 기다린다.
+     */
+    InboundCommand claimText(LineTokenizer arguments) throws InterruptedException {
+        if (InboundCommand.isLargeArguments(arguments)) {
+            largeArguments.acquire();
+        }
+        return spare;
+    }
+
+    /**
+     * {@link InboundCommand#detachLargeArguments()}로 넘겨받은 인수를 다 쓴 뒤 부른다. 어느 스레드에서나 호출할 수 있다.
+     */
+    void releaseLargeArguments() {
+        largeArguments.release();
+    }
+
+    /**
+     * {@link #claim()}한 칸을 넣는다. 마지막 명령과 합칠 수 있으면 합치고, 큐가 가득 차면 자리가 날 때까지 기다린다.
+     */
+    void publish() throws InterruptedException {
+        InboundCommand command = spare;
+        long t = tail;
+        if (t > head && tryMerge(slots[(int) ((t - 1) % capacity)], command, t - 1)) {
+            ++mergedCount;
+            return;
+        }
+
+        while (t - head >= capacity) {
+            awaitProducer();
+        }
+
+        int index = (int) (t % capacity);
+        // 이 칸은 소비자가 이미 done() 했으므로 생산자 것이다.
+        spare = slots[index];
+        slots[index] = command;
+        tail = t + 1;
+        wakeUp(waitingConsumer);
+    }
+
+    private boolean tryMerge(InboundCommand last, InboundCommand next, long lastIndex) {
+        if (!last.canMerge(next)) {
+            return false;
+        }
+
+        // 소비자가 마지막 칸을 아직 꺼내지 않았을 때만, 합치는 동안 꺼내지 못하게 막고 합친다.
+        long taken = takeIndex.get();
+        if (taken > lastIndex || !takeIndex.compareAndSet(taken, taken | MERGING)) {
+            return false;
+        }
+        try {
+            last.merge(next);
+        } finally {
+            takeIndex.set(taken);
+        }
+        if (next.releaseLargeArguments()) {
+            // 대체된 명령의 큰 인수
+            largeArguments.release();
+        }
+        return true;
+    }
+
+    /**
+     * 다음 명령을 꺼낸다. 처리가 끝나면 {@link #done()}을 호출해야 하며, 그 뒤에는 칸이 재사용되므로 참조를 유지하면 안 된다.
+     */
+    InboundCommand take() throws InterruptedException {
+        while (true) {
+            long taken = takeIndex.get();
+            if ((taken & MERGING) != 0) {
+                // 생산자가 필드 몇 개를 옮기는 짧은 구간이다.
+                Thread.yield();
+                continue;
+            }
+            if (taken == tail) {
+                awaitConsumer(taken);
+                continue;
+            }
+            if (takeIndex.compareAndSet(taken, taken + 1)) {
+                return slots[(int) (taken % capacity)];
+            }
+        }
+    }
+
+    void done() {
+        // 꺼낸 명령은 한 번에 하나뿐이다.
+        long h = head;
+        if (slots[(int) (h % capacity)].releaseLargeArguments()) {
+            largeArguments.release();
+        }
+        head = h + 1;
+        wakeUp(waitingProducer);
+    }
+
+    /**
+     * 큐가 비고 실행 중인 명령이 없을 때까지 기다린다. 생산자 스레드에서 호출한다.
+     */
+    void awaitIdle() throws InterruptedException {
+        while (head != tail) {
+            awaitProducer();
+        }
+    }
+
+    private void awaitProducer() throws InterruptedException {
+        long h = head;
+        waitingProducer = Thread.currentThread();
+        // 깨우기 표시를 한 뒤 다시 확인해 done()과의 경합에서 신호를 놓치지 않는다.
+        if (h == head) {
+            LockSupport.park(this);
+        }
+        waitingProducer = null;
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    private void awaitConsumer(long taken) throws InterruptedException {
+        waitingConsumer = Thread.currentThread();
+        if (taken == tail) {
+            LockSupport.park(this);
+        }
+        waitingConsumer = null;
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    private static void wakeUp(Thread thread) {
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    void countExpired() {
+        ++expiredCount;
+    }
+
+    /**
+     * 아직 처리가 끝나지 않은 명령 수(실행 중인 명령 포함). 어느 스레드에서나 호출할 수 있다.
+     */
+    int size() {
+        return (int) (tail - head);
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    long getMergedCount() {
+        return mergedCount;
+    }
+
+    long getExpiredCount() {
+        return expiredCount;
+    }
+}
@@ -0,0 +1,80 @@
+package com.genymobile.scrcpy.control;
+
+import com.genymobile.scrcpy.wrappers.InputManager;
+
+import android.os.SystemClock;
+import android.view.InputDevice;
+import android.view.KeyCharacterMap;
+import android.view.KeyEvent;
+
+/**
+ * 주입 경로별 이벤트 하나의 비용을 잰다. 바인더 직접 호출과 리플렉션 경로를 같은 이벤트로 번갈아 주입해 평균 시간을 비교한다.
+ * <p>
+ * 화면에 영향을 주지 않도록 DOWN 없이 KEYCODE_UNKNOWN의 UP만 주입한다. InputDispatcher는 짝이 맞지 않는 키 이벤트로 버리지만, 그 전까지의 주입
+ * 비용(바인더 호출, 권한과 정책 검사, 큐 삽입)은 실제 이벤트와 같다.
+ */
+final class InjectionBenchmark {
+
+    static final int DEFAULT_COUNT = 1000;
+    static final int MAX_COUNT = 100000;
+
+    // 한쪽 경로를 연속으로 주입하는 횟수, 번갈아 재서 기기 상태의 변화가 한쪽에만 몰리지 않게 한다.
+    private static final int ROUND = 100;
+
+    private final InputManager inputManager;
+
+    InjectionBenchmark(InputManager inputManager) {
+        this.inputManager = inputManager;
+    }
+
+    /**
+     * @param count 경로마다 주입할 이벤트 수
+     * @return "direct=&lt;nsPerEvent&gt; reflection=&lt;nsPerEvent&gt; count=&lt;n&gt;", 바인더 직접 호출을 쓸 수 없으면 direct는 "-"
+     */
+    String run(int count, CancelToken cancelToken) {
+        long now = SystemClock.uptimeMillis();
+        KeyEvent event = new KeyEvent(now, now, KeyEvent.ACTION_UP, KeyEvent.KEYCODE_UNKNOWN, 0, 0, KeyCharacterMap.VIRTUAL_KEYBOARD, 0, 0,
+                InputDevice.SOURCE_KEYBOARD);
+        boolean direct = inputManager.isDirectInjectionSupported();
+
+        // 리플렉션 메서드 조회와 JIT가 측정에 들어가지 않게 먼저 한 라운드씩 주입한다.
+        inject(event, true, ROUND);
+        inject(event, false, ROUND);
+
+        long directNanos = 0;
+        long reflectionNanos = 0;
+        int done = 0;
+        while (done < count) {
+            if (cancelToken != null && cancelToken.isCancelled()) {
+                break;
+            }
+            int n = Math.min(ROUND, count - done);
+            if (direct) {
+                directNanos += inject(event, true, n);
+            }
+            reflectionNanos += inject(event, false, n);
+            done += n;
+        }
+
+        if (done == 0) {
+            return null;
+        }
+        String directResult = direct ? Long.toString(directNanos / done) : "-";
+        return "direct=" + directResult + " reflection=" + reflectionNanos / done + " count=" + done;
+    }
+
+    /**
+     * @return 걸린 시간(ns)
+     */
+    private long inject(KeyEvent event, boolean direct, int n) {
+        long start = System.nanoTime();
+        for (int i = 0; i < n; ++i) {
+            if (direct) {
+                inputManager.injectInputEvent(event, InputManager.INJECT_INPUT_EVENT_MODE_ASYNC);
+            } else {
+                inputManager.injectInputEventReflective(event, InputManager.INJECT_INPUT_EVENT_MODE_ASYNC);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+}
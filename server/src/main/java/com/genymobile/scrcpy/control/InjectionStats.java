@@ -0,0 +1,119 @@
+package com.genymobile.scrcpy.control;
+
+import android.os.Debug;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 주입한 이벤트 수와 그동안 만든 객체 수. 주입 경로가 이벤트마다 객체를 만들지 않는지 확인하는 데 쓴다.
+ * <p>
+ * 이벤트 주입만이 아니라 명령이 지나는 전체 경로도 센다. 수신 스레드가 라인이나 메시지 하나를 읽어 큐에 넣기까지(receive)와, 실행 스레드가 큐에서
+ * 꺼낸 명령을 실행하고 응답을 송신 큐에 넣기까지(dispatch)다. 실행 스레드에서 바로 주입하는 TAP/KEYCODE의 dispatch에는 주입 자체의 할당도
+ * 포함된다.
+ * <p>
+ * 할당 수는 {@link #startTracking()} 이후에만 센다. 주입하는 스레드에서 이벤트를 만들기 전부터 주입이 끝날 때까지
+ * {@link Debug#getThreadAllocCount()}의 차이이므로, 다른 스레드의 할당은 섞이지 않는다.
+ */
+final class InjectionStats {
+
+    private static final long NOT_TRACKED = -1;
+
+    private volatile boolean tracking;
+
+    private final AtomicLong touchEvents = new AtomicLong();
+    private final AtomicLong touchAllocations = new AtomicLong();
+    private final AtomicLong keyEvents = new AtomicLong();
+    private final AtomicLong keyAllocations = new AtomicLong();
+    private final AtomicLong receivedCommands = new AtomicLong();
+    private final AtomicLong receiveAllocations = new AtomicLong();
+    private final AtomicLong dispatchedCommands = new AtomicLong();
+    private final AtomicLong dispatchAllocations = new AtomicLong();
+
+    /**
+     * 할당 계측을 켜고 지금까지의 값을 지운다. 계측은 런타임 전체에 부담을 주므로 측정할 때만 켠다.
+     */
+    synchronized void startTracking() {
+        if (!tracking) {
+            Debug.startAllocCounting();
+            tracking = true;
+        }
+        touchEvents.set(0);
+        touchAllocations.set(0);
+        keyEvents.set(0);
+        keyAllocations.set(0);
+        receivedCommands.set(0);
+        receiveAllocations.set(0);
+        dispatchedCommands.set(0);
+        dispatchAllocations.set(0);
+    }
+
+    synchronized void stopTracking() {
+        if (tracking) {
+            tracking = false;
+            Debug.stopAllocCounting();
+        }
+    }
+
+    boolean isTracking() {
+        return tracking;
+    }
+
+    /**
+     * 이벤트를 만들기 전에 부른다.
+     *
+     * @return {@code record*()}에 넘길 값
+     */
+    long begin() {
+        return tracking ? Debug.getThreadAllocCount() : NOT_TRACKED;
+    }
+
+    /**
+     * 터치/스크롤 이벤트 하나를 주입한 뒤 같은 스레드에서 부른다.
+     */
+    void recordTouch(long start) {
+        record(touchEvents, touchAllocations, start);
+    }
+
+    /**
+     * 키 이벤트 하나를 주입한 뒤 같은 스레드에서 부른다.
+     */
+    void recordKey(long start) {
+        record(keyEvents, keyAllocations, start);
+    }
+
+    /**
+     * 수신 스레드가 라인이나 메시지 하나를 처리한 뒤 같은 스레드에서 부른다.
+     */
+    void recordReceive(long start) {
+        if (start != NOT_TRACKED) {
+            record(receivedCommands, receiveAllocations, start);
+        }
+    }
+
+    /**
+     * 실행 스레드가 큐에서 꺼낸 명령 하나를 처리한 뒤 같은 스레드에서 부른다.
+     */
+    void recordDispatch(long start) {
+        if (start != NOT_TRACKED) {
+            record(dispatchedCommands, dispatchAllocations, start);
+        }
+    }
+
+    private void record(AtomicLong events, AtomicLong allocations, long start) {
+        events.incrementAndGet();
+        if (start != NOT_TRACKED) {
+            allocations.addAndGet(Debug.getThreadAllocCount() - start);
+        }
+    }
+
+    /**
+     * "touch=&lt;events&gt;,&lt;allocations&gt; key=&lt;events&gt;,&lt;allocations&gt; receive=&lt;commands&gt;,&lt;allocations&gt;
+     * dispatch=&lt;commands&gt;,&lt;allocations&gt; tracking=&lt;0|1&gt;". receive와 dispatch는 계측을 켠 동안만 센다.
+     */
+    @Override
+    public String toString() {
+        return "touch=" + touchEvents.get() + "," + touchAllocations.get() + " key=" + keyEvents.get() + "," + keyAllocations.get()
+                + " receive=" + receivedCommands.get() + "," + receiveAllocations.get() + " dispatch=" + dispatchedCommands.get() + ","
+                + dispatchAllocations.get() + " tracking=" + (tracking ? 1 : 0);
+    }
+}
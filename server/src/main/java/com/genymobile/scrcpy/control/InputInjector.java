@@ -0,0 +1,634 @@
+package com.genymobile.scrcpy.control;
+
+import com.genymobile.scrcpy.device.Device;
+import com.genymobile.scrcpy.util.Ln;
+import com.genymobile.scrcpy.wrappers.InputManager;
+
+import android.os.SystemClock;
+import android.view.InputDevice;
+import android.view.KeyCharacterMap;
+import android.view.KeyEvent;
+import android.view.MotionEvent;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 한 디스플레이에 대한 입력 주입. 서버 전체에서 하나만 만들고 모든 세션이 공유한다.
+ * <p>
+ * 여러 세션의 스레드에서 동시에 호출될 수 있으므로, 재사용하는 포인터 배열과 마지막 DOWN 시각은 동기화해 접근한다.
+ * <p>
+ * 터치 이벤트는 모두 같은 디바이스 ID와 소스로 주입되므로 InputDispatcher에는 하나의 포인터 스트림으로 보인다. MTOUCH와 제스처는 포인터 ID를
+ * 나눠 쓰는 하나의 멀티 터치 스트림으로 주입하고, TOUCH/TAP/바이너리 터치의 포인터 0 스트림은 그 스트림에 포인터가 없을 때만 누른다.
+ */
+public final class InputInjector {
+
+    /**
+     * 터치 이벤트 하나에 담을 수 있는 최대 포인터 수. MTOUCH의 포인터 ID는 0부터 이 값 - 1까지다.
+     */
+    public static final int MAX_POINTERS = 10;
+
+    private static final int DEFAULT_DEVICE_ID = 0;
+
+    // 키 템플릿을 미리 만들어 두는 문자 범위 (Latin-1)
+    private static final int KEY_TEMPLATE_CHARS = 256;
+    // 키 이벤트로 입력할 수 없는 문자의 템플릿
+    private static final KeyEvent[] NO_KEY_EVENTS = new KeyEvent[0];
+
+    private final int displayId;
+    private final boolean supportsInputEvents;
+
+    private final KeyCharacterMap charMap = KeyCharacterMap.load(KeyCharacterMap.VIRTUAL_KEYBOARD);
+    // 문자마다 getEvents()가 만드는 키 이벤트를 미리 만든 KeyEvent로 기억한다. TEXT가 문자마다 KeyEvent 배열과 문자 배열을 새로 만들지
+    // 않도록 처음 입력할 때 채운다. 여러 스레드(세션의 레인, AT)가 채우므로, 다른 스레드가 내용을 다 쓰기 전의 배열을 보지 않도록 원자적 배열로
+    // 게시한다.
+    private final AtomicReferenceArray<KeyEvent[]> keyTemplates = new AtomicReferenceArray<>(KEY_TEMPLATE_CHARS);
+    // KEYCODE와 메타 키 없는 키 입력의 DOWN/UP 이벤트, 인덱스는 keyCode * 2 + (UP이면 1)이다. 처음 누를 때 만들고 이후에는 시각만 바꿔 다시
+    // 주입한다.
+    private final AtomicReferenceArray<KeyEvent> keyEvents = new AtomicReferenceArray<>((KeyEvent.getMaxKeyCode() + 1) * 2);
+
+    private final InjectionStats stats = new InjectionStats();
+
+    // 이 디스플레이에 터치 스트림을 주입하는 명령을 모든 세션에서 받은 순서대로 하나씩 실행한다. 스레드는 처음 쓸 때 만들어진다.
+    private final WorkerLane touchLane = new WorkerLane("touch");
+
+    // 모든 터치 이벤트가 재사용하는 포인터 풀, 이벤트마다 앞에서부터 필요한 만큼 채운다 (guarded by pointerCoords).
+    private final MotionEvent.PointerProperties[] pointerProperties = new MotionEvent.PointerProperties[MAX_POINTERS];
+    private final MotionEvent.PointerCoords[] pointerCoords = new MotionEvent.PointerCoords[MAX_POINTERS];
+    // 스크롤 축 값이 터치 좌표에 남지 않도록 스크롤용 좌표는 분리한다.
+    private final MotionEvent.PointerProperties[] scrollProperties = new MotionEvent.PointerProperties[1];
+    private final MotionEvent.PointerCoords[] scrollCoords = new MotionEvent.PointerCoords[1];
+
+    // MTOUCH와 제스처가 함께 쓰는 포인터 스트림. 비트와 인덱스가 포인터 ID다 (guarded by pointerCoords).
+    private int downPointers;
+    // 제스처가 차지한 포인터, 아직 누르지 않은 것도 포함한다.
+    private int gesturePointers;
+    private final int[] multiTouchX = new int[MAX_POINTERS];
+    private final int[] multiTouchY = new int[MAX_POINTERS];
+    private final float[] multiTouchPressure = new float[MAX_POINTERS];
+    private long multiTouchDownTime;
+    // 여러 제스처가 각자의 시각표로 주입해도 스트림의 이벤트 시각은 줄어들지 않게 한다.
+    private long lastPointerEventTime;
+
+    // 바이너리 모드 터치 이벤트는 DOWN 시점을 기억해 이후 MOVE/UP에 사용한다.
+    private long lastTouchDown;
+    // TOUCH/바이너리 터치로 눌린 채인 포인터의 마지막 위치 (CANCEL)
+    private boolean touchActive;
+    private int lastTouchX;
+    private int lastTouchY;
+
+    public InputInjector(int displayId) {
+        this.displayId = displayId;
+        initPointers();
+
+        supportsInputEvents = Device.supportsInputEvents(displayId);
+        if (!supportsInputEvents) {
+            Ln.w("Input events are not supported for secondary displays before Android 10");
+        }
+    }
+
+    private void initPointers() {
+        for (int i = 0; i < MAX_POINTERS; ++i) {
+            MotionEvent.PointerProperties props = new MotionEvent.PointerProperties();
+            props.id = i;
+            props.toolType = MotionEvent.TOOL_TYPE_FINGER;
+            pointerProperties[i] = props;
+
+            MotionEvent.PointerCoords coords = new MotionEvent.PointerCoords();
+            coords.orientation = 0;
+            coords.size = 0;
+            pointerCoords[i] = coords;
+        }
+
+        MotionEvent.PointerProperties props = new MotionEvent.PointerProperties();
+        props.id = 0;
+        props.toolType = MotionEvent.TOOL_TYPE_FINGER;
+        scrollProperties[0] = props;
+        scrollCoords[0] = new MotionEvent.PointerCoords();
+    }
+
+    public int getDisplayId() {
+        return displayId;
+    }
+
+    public boolean supportsInputEvents() {
+        return supportsInputEvents;
+    }
+
+    /**
+     * 터치 레인({@link CommandHandler#FLAG_TOUCH}). 제스처를 기다리는 BATCH와 매크로를 모든 세션에서 받은 순서대로 하나씩 실행한다. TAP,
+     * TOUCH와 MTOUCH는 이 레인을 거치지 않으며, 포인터 스트림이 겹치지 않는지는 주입할 때 포인터 상태로 검사한다.
+     */
+    WorkerLane getTouchLane() {
+        return touchLane;
+    }
+
+    /**
+     * TOUCH나 바이너리 터치로 눌린 채인 포인터가 있는지.
+     */
+    public synchronized boolean isSingleTouchActive() {
+        return touchActive;
+    }
+
+    /**
+     * MTOUCH나 제스처가 눌렀거나 제스처가 차지한 포인터가 있는지.
+     */
+    public boolean isMultiTouchActive() {
+        synchronized (pointerCoords) {
+            return (downPointers | gesturePointers) != 0;
+        }
+    }
+
+    InjectionStats getStats() {
+        return stats;
+    }
+
+    /**
+     * @return MTOUCH나 제스처의 포인터가 있을 때의 DOWN이면 주입하지 않고 {@code false}
+     */
+    public boolean injectTouch(int action, int x, int y, float pressure, int buttons) {
+        long now = SystemClock.uptimeMillis();
+        long downTime;
+        synchronized (pointerCoords) {
+            // 다른 스트림이 포인터를 누르지 않았음을 확인하고 표시하는 것은 제스처가 포인터를 차지하는 것과 원자적이어야 한다.
+            if (action == MotionEvent.ACTION_DOWN && (downPointers | gesturePointers) != 0) {
+                return false;
+            }
+            synchronized (this) {
+                if (action == MotionEvent.ACTION_DOWN) {
+                    lastTouchDown = now;
+                }
+                downTime = lastTouchDown;
+                touchActive = action == MotionEvent.ACTION_DOWN || action == MotionEvent.ACTION_MOVE;
+                lastTouchX = x;
+                lastTouchY = y;
+            }
+        }
+        // 브리지 서버에는 비디오 스트림이 없으므로 좌표는 디바이스 좌표로 그대로 사용한다.
+        return injectTouchEvent(downTime, now, action, x, y, pressure, buttons);
+    }
+
+    /**
+     * TOUCH나 MTOUCH로 눌린 채인 포인터가 있으면 ACTION_CANCEL로 끝낸다.
+     *
+     * @return 끝낸 포인터가 있으면 {@code true}
+     */
+    public boolean cancelTouch() {
+        boolean cancelled;
+        synchronized (pointerCoords) {
+            // 제스처의 포인터도 뗀다. 제스처는 다음 이벤트를 주입하지 못하고 끝난다.
+            cancelled = downPointers != 0;
+            liftPointers(downPointers, SystemClock.uptimeMillis());
+        }
+        return cancelSingleTouch() || cancelled;
+    }
+
+    /**
+     * TOUCH나 바이너리 터치로 눌린 채인 포인터가 있으면 ACTION_CANCEL로 끝낸다. MTOUCH 포인터는 그대로 둔다.
+     *
+     * @return 끝낸 포인터가 있으면 {@code true}
+     */
+    public boolean cancelSingleTouch() {
+        long downTime;
+        int x;
+        int y;
+        synchronized (this) {
+            if (!touchActive) {
+                return false;
+            }
+            touchActive = false;
+            downTime = lastTouchDown;
+            x = lastTouchX;
+            y = lastTouchY;
+        }
+        injectTouchEvent(downTime, SystemClock.uptimeMillis(), MotionEvent.ACTION_CANCEL, x, y, 0f, 0);
+        return true;
+    }
+
+    /**
+     * 포인터 ID로 지정한 포인터 하나를 누르거나(ACTION_DOWN), 옮기거나(ACTION_MOVE), 뗀다(ACTION_UP). 이벤트에는 눌린 모든 포인터가 ID 순서로
+     * 담긴다. 다른 포인터가 눌린 채이면 DOWN과 UP은 ACTION_POINTER_DOWN/ACTION_POINTER_UP이 된다. ACTION_CANCEL은 MTOUCH로 눌린 모든
+     * 포인터를 뗀다. 제스처가 차지한 포인터는 건드리지 않는다.
+     *
+     * @param pointerId 0 이상 {@link #MAX_POINTERS} 미만
+     * @return 포인터 상태에 맞지 않는 동작(이미 눌리거나 제스처가 차지한 포인터의 DOWN, 눌리지 않은 포인터의 MOVE/UP 등)이거나 주입에 실패하면
+     *         {@code false}
+     */
+    public boolean injectPointer(int action, int pointerId, int x, int y, float pressure) {
+        long now = SystemClock.uptimeMillis();
+        int pointer = 1 << pointerId;
+        synchronized (pointerCoords) {
+            int multiTouchPointers = downPointers & ~gesturePointers;
+            switch (action) {
+                case MotionEvent.ACTION_DOWN:
+                    if (((downPointers | gesturePointers) & pointer) != 0) {
+                        return false;
+                    }
+                    break;
+                case MotionEvent.ACTION_MOVE:
+                case MotionEvent.ACTION_UP:
+                    if ((multiTouchPointers & pointer) == 0) {
+                        return false;
+                    }
+                    break;
+                case MotionEvent.ACTION_CANCEL:
+                    return multiTouchPointers != 0 && liftPointers(multiTouchPointers, now);
+                default:
+                    throw new IllegalArgumentException("Unsupported pointer action: " + action);
+            }
+
+            multiTouchX[pointerId] = x;
+            multiTouchY[pointerId] = y;
+            multiTouchPressure[pointerId] = pressure;
+            return injectPointerEvent(action, pointerId, now, 0);
+        }
+    }
+
+    /**
+     * 제스처에 쓸 포인터 ID를 {@code count}개 차지한다. 눌리거나 다른 제스처가 차지하지 않은 ID 중 작은 것부터 고르므로, 여러 제스처와 MTOUCH가
+     * 하나의 멀티 터치 스트림으로 함께 주입된다.
+     *
+     * @param ids 고른 ID를 제스처 포인터 순서로 쓴다
+     * @return 차지한 ID의 비트 마스크, TOUCH가 눌린 채이거나 남은 ID가 부족하면 0
+     */
+    int claimGesturePointers(int count, int[] ids) {
+        synchronized (pointerCoords) {
+            if (isSingleTouchActive()) {
+                return 0;
+            }
+            int used = downPointers | gesturePointers;
+            int claimed = 0;
+            int n = 0;
+            for (int id = 0; id < MAX_POINTERS && n < count; ++id) {
+                if ((used & (1 << id)) == 0) {
+                    ids[n++] = id;
+                    claimed |= 1 << id;
+                }
+            }
+            if (n < count) {
+                return 0;
+            }
+            gesturePointers |= claimed;
+            return claimed;
+        }
+    }
+
+    /**
+     * 제스처가 차지한 포인터를 돌려준다. 아직 눌린 포인터는 취소로 뗀다.
+     */
+    void releaseGesturePointers(int claimed) {
+        synchronized (pointerCoords) {
+            liftPointers(downPointers & claimed, SystemClock.uptimeMillis());
+            gesturePointers &= ~claimed;
+        }
+    }
+
+    /**
+     * 제스처 시각표의 이벤트 하나를 주입한다. 시각표의 i번째 포인터는 {@code ids[i]}이고 좌표는 ({@code xs[offset + i]}, {@code ys[offset + i]})다.
+     * 다른 제스처나 MTOUCH의 포인터가 눌린 채이면 그 포인터도 이벤트에 담기고, DOWN/UP은 ACTION_POINTER_DOWN/UP이 된다.
+     *
+     * @param action 시각표의 동작. ACTION_POINTER_DOWN/UP의 인덱스는 시각표 안의 포인터 인덱스다.
+     * @param pointerCount 이벤트에 담긴 시각표 포인터 수
+     */
+    boolean injectGestureEvent(int action, int[] ids, int pointerCount, long eventTime, int[] xs, int[] ys, int offset, float pressure) {
+        synchronized (pointerCoords) {
+            int pointers = 0;
+            for (int i = 0; i < pointerCount; ++i) {
+                int id = ids[i];
+                if ((gesturePointers & (1 << id)) == 0) {
+                    // 돌려준 뒤이거나 다른 스레드가 모든 포인터를 뗐다(CANCEL GESTURES).
+                    return false;
+                }
+                pointers |= 1 << id;
+                multiTouchX[id] = xs[offset + i];
+                multiTouchY[id] = ys[offset + i];
+                multiTouchPressure[id] = pressure;
+            }
+
+            int index = (action & MotionEvent.ACTION_POINTER_INDEX_MASK) >> MotionEvent.ACTION_POINTER_INDEX_SHIFT;
+            switch (action & MotionEvent.ACTION_MASK) {
+                case MotionEvent.ACTION_DOWN:
+                case MotionEvent.ACTION_POINTER_DOWN:
+                    if ((downPointers & (1 << ids[index])) != 0) {
+                        return false;
+                    }
+                    return injectPointerEvent(MotionEvent.ACTION_DOWN, ids[index], eventTime, 0);
+                case MotionEvent.ACTION_MOVE:
+                    if ((downPointers & pointers) != pointers) {
+                        return false;
+                    }
+                    return injectPointerEvent(MotionEvent.ACTION_MOVE, ids[0], eventTime, 0);
+                case MotionEvent.ACTION_UP:
+                case MotionEvent.ACTION_POINTER_UP:
+                    if ((downPointers & (1 << ids[index])) == 0) {
+                        return false;
+                    }
+                    return injectPointerEvent(MotionEvent.ACTION_UP, ids[index], eventTime, 0);
+                default:
+                    throw new IllegalArgumentException("Unsupported gesture action: " + action);
+            }
+        }
+    }
+
+    /**
+     * {@code pointers}의 포인터를 마지막 위치에서 취소로 뗀다. 스트림의 모든 포인터면 ACTION_CANCEL 하나로, 아니면 포인터마다 FLAG_CANCELED를
+     * 붙인 ACTION_POINTER_UP으로 뗀다. pointerCoords를 잡고 부른다.
+     */
+    private boolean liftPointers(int pointers, long eventTime) {
+        pointers &= downPointers;
+        if (pointers == 0) {
+            return false;
+        }
+        if (pointers == downPointers) {
+            return injectPointerEvent(MotionEvent.ACTION_CANCEL, 0, eventTime, 0);
+        }
+        boolean ok = true;
+        for (int id = 0; id < MAX_POINTERS; ++id) {
+            if ((pointers & (1 << id)) != 0) {
+                ok &= injectPointerEvent(MotionEvent.ACTION_UP, id, eventTime, MotionEvent.FLAG_CANCELED);
+            }
+        }
+        return ok;
+    }
+
+    /**
+     * 멀티 터치 스트림에 포인터 하나의 DOWN/MOVE/UP 또는 ACTION_CANCEL을 주입한다. 다른 스레드의 이벤트와 순서가 바뀌지 않도록 pointerCoords를
+     * 잡은 채로 주입한다. 상태 검사는 호출하는 쪽에서 한다.
+     */
+    private boolean injectPointerEvent(int action, int pointerId, long eventTime, int flags) {
+        long allocationStart = stats.begin();
+        if (action == MotionEvent.ACTION_DOWN) {
+            if (downPointers == 0) {
+                multiTouchDownTime = eventTime;
+                lastPointerEventTime = eventTime;
+            }
+            downPointers |= 1 << pointerId;
+        }
+        eventTime = Math.max(eventTime, lastPointerEventTime);
+        lastPointerEventTime = eventTime;
+
+        // 눌린 포인터를 ID 순서로 풀에 채우고, 대상 포인터의 인덱스를 찾는다.
+        int count = 0;
+        int index = 0;
+        for (int id = 0; id < MAX_POINTERS; ++id) {
+            if ((downPointers & (1 << id)) == 0) {
+                continue;
+            }
+            if (id == pointerId) {
+                index = count;
+            }
+            pointerProperties[count].id = id;
+            MotionEvent.PointerCoords coords = pointerCoords[count];
+            coords.x = multiTouchX[id];
+            coords.y = multiTouchY[id];
+            coords.pressure = multiTouchPressure[id];
+            ++count;
+        }
+
+        int eventAction = action;
+        if (count > 1 && action == MotionEvent.ACTION_DOWN) {
+            eventAction = MotionEvent.ACTION_POINTER_DOWN | (index << MotionEvent.ACTION_POINTER_INDEX_SHIFT);
+        } else if (count > 1 && action == MotionEvent.ACTION_UP) {
+            eventAction = MotionEvent.ACTION_POINTER_UP | (index << MotionEvent.ACTION_POINTER_INDEX_SHIFT);
+        }
+
+        MotionEvent event = MotionEvent.obtain(multiTouchDownTime, eventTime, eventAction, count, pointerProperties, pointerCoords, 0, 0, 1f,
+                1f, DEFAULT_DEVICE_ID, 0, InputDevice.SOURCE_TOUCHSCREEN, flags);
+        resetPointerIds(count);
+
+        if (action == MotionEvent.ACTION_UP) {
+            downPointers &= ~(1 << pointerId);
+        } else if (action == MotionEvent.ACTION_CANCEL) {
+            downPointers = 0;
+        }
+        return injectMotionEvent(event, allocationStart);
+    }
+
+    /**
+     * 이벤트를 주입하고 MotionEvent 풀에 돌려준다. 비동기 주입도 바인더 호출 중에 이벤트를 복사하므로, 돌아온 뒤에는 다음 obtain()이 같은 객체를
+     * 다시 써도 된다.
+     *
+     * @param allocationStart 이벤트를 만들기 전의 {@link InjectionStats#begin()}
+     */
+    private boolean injectMotionEvent(MotionEvent event, long allocationStart) {
+        try {
+            return Device.injectEvent(event, displayId, Device.INJECT_MODE_ASYNC);
+        } finally {
+            event.recycle();
+            stats.recordTouch(allocationStart);
+        }
+    }
+
+    /**
+     * 풀의 포인터 ID를 인덱스로 되돌린다. 단일 포인터 경로는 ID가 인덱스와 같다고 가정한다.
+     */
+    private void resetPointerIds(int count) {
+        for (int i = 0; i < count; ++i) {
+            pointerProperties[i].id = i;
+        }
+    }
+
+    public boolean injectScroll(int x, int y, float hScroll, float vScroll, int buttons) {
+        long allocationStart = stats.begin();
+        long now = SystemClock.uptimeMillis();
+        long downTime;
+        synchronized (this) {
+            downTime = lastTouchDown;
+        }
+
+        MotionEvent event;
+        synchronized (scrollCoords) {
+            MotionEvent.PointerCoords coords = scrollCoords[0];
+            coords.x = x;
+            coords.y = y;
+            coords.setAxisValue(MotionEvent.AXIS_HSCROLL, hScroll);
+            coords.setAxisValue(MotionEvent.AXIS_VSCROLL, vScroll);
+
+            event = MotionEvent.obtain(downTime, now, MotionEvent.ACTION_SCROLL, 1, scrollProperties, scrollCoords, 0, buttons, 1f, 1f,
+                    DEFAULT_DEVICE_ID, 0, InputDevice.SOURCE_MOUSE, 0);
+        }
+        return injectMotionEvent(event, allocationStart);
+    }
+
+    public boolean pressBackOrTurnScreenOn(int action) {
+        if (Device.isScreenOn(displayId)) {
+            return injectKeyEvent(action, KeyEvent.KEYCODE_BACK);
+        }
+
+        // Screen is off
+        // Only press POWER on ACTION_DOWN
+        if (action != KeyEvent.ACTION_DOWN) {
+            // do nothing,
+            return true;
+        }
+
+        return pressReleaseKeycode(KeyEvent.KEYCODE_POWER);
+    }
+
+    /**
+     * @return 다른 스트림의 포인터가 눌렸거나 제스처가 차지하고 있으면 주입하지 않고 {@code false}
+     */
+    public boolean injectTap(int x, int y, float pressure, int buttons) {
+        // 누르고 떼는 동안 제스처가 포인터를 차지하지 못하게 한다.
+        synchronized (pointerCoords) {
+            if ((downPointers | gesturePointers) != 0 || isSingleTouchActive()) {
+                return false;
+            }
+            long downTime = SystemClock.uptimeMillis();
+            boolean downOk = injectTouchEvent(downTime, downTime, MotionEvent.ACTION_DOWN, x, y, pressure, buttons);
+            long upTime = SystemClock.uptimeMillis();
+            boolean upOk = injectTouchEvent(downTime, upTime, MotionEvent.ACTION_UP, x, y, pressure, buttons);
+            return downOk && upOk;
+        }
+    }
+
+    /**
+     * 단일 포인터 터치 이벤트 하나를 주입한다. DOWN 시각과 이벤트 시각을 직접 정하는 호출자가 사용한다.
+     */
+    public boolean injectTouchEvent(long downTime, long eventTime, int action, int x, int y, float pressure, int buttons) {
+        long allocationStart = stats.begin();
+        MotionEvent event;
+        // 여러 세션의 수신/실행 스레드가 포인터 배열을 공유하므로 obtain()까지 보호한다.
+        synchronized (pointerCoords) {
+            pointerCoords[0].x = x;
+            pointerCoords[0].y = y;
+            pointerCoords[0].pressure = pressure;
+
+            event = MotionEvent.obtain(downTime, eventTime, action, 1, pointerProperties, pointerCoords, 0, buttons, 1f, 1f,
+                    DEFAULT_DEVICE_ID, 0, InputDevice.SOURCE_TOUCHSCREEN, 0);
+        }
+        return injectMotionEvent(event, allocationStart);
+    }
+
+    public int injectText(String text) {
+        return injectText(text, null);
+    }
+
+    /**
+     * @param cancelToken 취소되면 남은 문자를 주입하지 않는다, 없으면 {@code null}
+     */
+    public int injectText(String text, CancelToken cancelToken) {
+        int successCount = 0;
+        for (int i = 0; i < text.length(); ++i) {
+            if (cancelToken != null && cancelToken.isCancelled()) {
+                break;
+            }
+            char c = text.charAt(i);
+            if (!injectChar(c)) {
+                Ln.w("Could not inject char u+" + String.format("%04x", (int) c));
+                continue;
+            }
+            successCount++;
+        }
+        return successCount;
+    }
+
+    private boolean injectChar(char c) {
+        KeyEvent[] template = c < KEY_TEMPLATE_CHARS ? getKeyTemplate(c) : createKeyTemplate(c);
+        if (template == NO_KEY_EVENTS) {
+            return false;
+        }
+
+        for (KeyEvent event : template) {
+            long allocationStart = stats.begin();
+            try {
+                if (!injectKeyTemplate(event)) {
+                    return false;
+                }
+            } finally {
+                stats.recordKey(allocationStart);
+            }
+        }
+        return true;
+    }
+
+    private KeyEvent[] getKeyTemplate(char c) {
+        KeyEvent[] template = keyTemplates.get(c);
+        if (template == null) {
+            template = createKeyTemplate(c);
+            if (!keyTemplates.compareAndSet(c, null, template)) {
+                // 다른 스레드가 먼저 채웠다. 내용은 같다.
+                template = keyTemplates.get(c);
+            }
+        }
+        return template;
+    }
+
+    /**
+     * @return 문자를 입력하는 키 이벤트를 차례로 담은 배열, 입력할 수 없으면 {@link #NO_KEY_EVENTS}
+     */
+    private KeyEvent[] createKeyTemplate(char c) {
+        String decomposed = KeyComposition.decompose(c);
+        char[] chars = decomposed != null ? decomposed.toCharArray() : new char[]{c};
+        KeyEvent[] events = charMap.getEvents(chars);
+        if (events == null) {
+            return NO_KEY_EVENTS;
+        }
+
+        KeyEvent[] template = new KeyEvent[events.length];
+        for (int i = 0; i < events.length; ++i) {
+            KeyEvent event = events[i];
+            template[i] = createKeyEvent(event.getAction(), event.getKeyCode(), event.getMetaState());
+        }
+        return template;
+    }
+
+    private KeyEvent getKeyEvent(int action, int keyCode) {
+        int index = keyCode * 2 + (action == KeyEvent.ACTION_UP ? 1 : 0);
+        KeyEvent event = keyEvents.get(index);
+        if (event == null) {
+            event = createKeyEvent(action, keyCode, 0);
+            if (!keyEvents.compareAndSet(index, null, event)) {
+                event = keyEvents.get(index);
+            }
+        }
+        return event;
+    }
+
+    /**
+     * 다시 주입할 키 이벤트를 만든다. 시각은 주입할 때 채운다({@link #injectKeyTemplate(KeyEvent)}).
+     */
+    private static KeyEvent createKeyEvent(int action, int keyCode, int metaState) {
+        return new KeyEvent(0, 0, action, keyCode, 0, metaState, KeyCharacterMap.VIRTUAL_KEYBOARD, 0, 0, InputDevice.SOURCE_KEYBOARD);
+    }
+
+    /**
+     * 미리 만든 키 이벤트의 시각을 지금으로 바꿔 주입한다. 두 스레드가 같은 이벤트를 주입하면 시각이 섞이므로 이벤트마다 잡는다. 비동기 주입도
+     * 바인더 호출 중에 이벤트를 복사하므로 돌아온 뒤에는 다시 써도 된다. 시각 필드를 쓸 수 없는 기기에서는 같은 내용의 이벤트를 새로 만든다.
+     */
+    private boolean injectKeyTemplate(KeyEvent template) {
+        synchronized (template) {
+            long now = SystemClock.uptimeMillis();
+            KeyEvent event = template;
+            if (!InputManager.setKeyEventTime(template, now, now)) {
+                event = new KeyEvent(now, now, template.getAction(), template.getKeyCode(), 0, template.getMetaState(),
+                        KeyCharacterMap.VIRTUAL_KEYBOARD, 0, 0, InputDevice.SOURCE_KEYBOARD);
+            }
+            return Device.injectEvent(event, displayId, Device.INJECT_MODE_ASYNC);
+        }
+    }
+
+    public boolean injectKeyEvent(int action, int keyCode) {
+        return injectKeyEvent(action, keyCode, 0, 0);
+    }
+
+    /**
+     * 키 이벤트 하나를 주입한다. 반복과 메타 키가 없는 DOWN/UP은 keyCode마다 미리 만든 이벤트를 다시 쓰므로 할당하지 않는다.
+     */
+    public boolean injectKeyEvent(int action, int keyCode, int repeat, int metaState) {
+        long allocationStart = stats.begin();
+        try {
+            boolean reusable = repeat == 0 && metaState == 0 && keyCode >= 0 && keyCode * 2 < keyEvents.length()
+                    && (action == KeyEvent.ACTION_DOWN || action == KeyEvent.ACTION_UP);
+            if (reusable) {
+                return injectKeyTemplate(getKeyEvent(action, keyCode));
+            }
+            return Device.injectKeyEvent(action, keyCode, repeat, metaState, displayId, Device.INJECT_MODE_ASYNC);
+        } finally {
+            stats.recordKey(allocationStart);
+        }
+    }
+
+    public boolean pressReleaseKeycode(int keyCode) {
+        return injectKeyEvent(KeyEvent.ACTION_DOWN, keyCode) && injectKeyEvent(KeyEvent.ACTION_UP, keyCode);
+    }
+}
@@ -0,0 +1,42 @@
+package com.genymobile.scrcpy.control;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 실행 레인 하나의 지연 통계. 대기 시간은 명령 라인을 읽은 뒤 실행을 시작하기까지, 실행 시간은 실행 시작부터 응답을 만들기까지다.
+ */
+final class LaneStats {
+
+    // guarded by this
+    private long count;
+    private long totalWaitNanos;
+    private long maxWaitNanos;
+    private long totalExecNanos;
+    private long maxExecNanos;
+
+    synchronized void record(long waitNanos, long execNanos) {
+        ++count;
+        totalWaitNanos += waitNanos;
+        maxWaitNanos = Math.max(maxWaitNanos, waitNanos);
+        totalExecNanos += execNanos;
+        maxExecNanos = Math.max(maxExecNanos, execNanos);
+    }
+
+    synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * "&lt;count&gt;,&lt;avgWaitUs&gt;,&lt;maxWaitUs&gt;,&lt;avgExecUs&gt;,&lt;maxExecUs&gt;"
+     */
+    @Override
+    public synchronized String toString() {
+        long avgWait = count == 0 ? 0 : totalWaitNanos / count;
+        long avgExec = count == 0 ? 0 : totalExecNanos / count;
+        return count + "," + toMicros(avgWait) + "," + toMicros(maxWaitNanos) + "," + toMicros(avgExec) + "," + toMicros(maxExecNanos);
+    }
+
+    private static long toMicros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
@@ -0,0 +1,372 @@
+package com.genymobile.scrcpy.control;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 바이트 버퍼 위의 한 줄을 공백 단위로 나누고, 정수/실수를 힙 할당 없이 바이트에서 바로 파싱한다.
+ * <p>
+ * 공백은 {@link String#trim()}과 같이 0x20 이하의 바이트로 정의한다. 파싱 실패는 {@link NumberFormatException}으로 알리며, 예외 객체는 오류
+ * 경로에서만 생성된다.
+ */
+public final class LineTokenizer {
+
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22,
+    };
+
+    // long 범위에서 넘치지 않는 유효 자릿수
+    private static final int MAX_SIGNIFICANT_DIGITS = 18;
+
+    // 32비트 FNV-1a
+    private static final int FNV_OFFSET_BASIS = 0x811c9dc5;
+    private static final int FNV_PRIME = 0x01000193;
+
+    private byte[] buffer;
+    private int pos;
+    private int end;
+
+    private int tokenStart;
+    private int tokenEnd;
+
+    public LineTokenizer() {
+    }
+
+    public LineTokenizer(String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        reset(bytes, 0, bytes.length);
+    }
+
+    public void reset(byte[] buffer, int start, int end) {
+        this.buffer = buffer;
+        this.pos = start;
+        this.end = end;
+        tokenStart = start;
+        tokenEnd = start;
+    }
+
+    /**
+     * 남은 부분을 별도 배열로 복사한 독립 인스턴스를 만든다. 다른 스레드에서 실행할 명령처럼 원본 버퍼가 재사용되기 전에 보존해야 할 때 사용한다.
+     */
+    public LineTokenizer copy() {
+        int len = end - pos;
+        byte[] data = new byte[len];
+        System.arraycopy(buffer, pos, data, 0, len);
+        LineTokenizer copy = new LineTokenizer();
+        copy.reset(data, 0, len);
+        return copy;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return (b & 0xff) <= ' ';
+    }
+
+    private void skipWhitespace() {
+        while (pos < end && isWhitespace(buffer[pos])) {
+            ++pos;
+        }
+    }
+
+    public boolean hasMoreTokens() {
+        skipWhitespace();
+        return pos < end;
+    }
+
+    public int countTokens() {
+        return countTokens(Integer.MAX_VALUE);
+    }
+
+    /**
+     * 남은 토큰 수를 세되, {@code limit}개를 넘는 것이 확인되면 바로 {@code limit + 1}을 반환한다. 큰 페이로드 뒤를 끝까지 훑지 않고 인수 개수를
+     * 검사할 때 사용한다.
+     */
+    public int countTokens(int limit) {
+        int count = 0;
+        boolean inToken = false;
+        for (int i = pos; i < end; ++i) {
+            boolean ws = isWhitespace(buffer[i]);
+            if (!ws && !inToken) {
+                if (count == limit) {
+                    return limit + 1;
+                }
+                ++count;
+            }
+            inToken = !ws;
+        }
+        return count;
+    }
+
+    /**
+     * 다음 토큰으로 이동한다. 이후 token* 메서드는 이 토큰을 대상으로 한다.
+     *
+     * @return 토큰이 없으면 {@code false}
+     */
+    public boolean nextToken() {
+        skipWhitespace();
+        if (pos == end) {
+            tokenStart = pos;
+            tokenEnd = pos;
+            return false;
+        }
+        tokenStart = pos;
+        while (pos < end && !isWhitespace(buffer[pos])) {
+            ++pos;
+        }
+        tokenEnd = pos;
+        return true;
+    }
+
+    public int tokenLength() {
+        return tokenEnd - tokenStart;
+    }
+
+    public boolean tokenStartsWith(char c) {
+        return tokenEnd > tokenStart && buffer[tokenStart] == c;
+    }
+
+    /**
+     * 현재 토큰을 ASCII 대소문자 구분 없이 비교한다.
+     */
+    public boolean tokenEqualsIgnoreCase(String ascii) {
+        int len = ascii.length();
+        if (tokenEnd - tokenStart != len) {
+            return false;
+        }
+        for (int i = 0; i < len; ++i) {
+            if (toUpperAscii(buffer[tokenStart + i]) != toUpperAscii((byte) ascii.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 현재 토큰의 ASCII 대소문자 무시 해시. 같은 이름에 대해 {@link #hashIgnoreCase(String)}와 같은 값이다.
+     */
+    public int tokenHashIgnoreCase() {
+        int hash = FNV_OFFSET_BASIS;
+        for (int i = tokenStart; i < tokenEnd; ++i) {
+            hash = (hash ^ toUpperAscii(buffer[i])) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    public static int hashIgnoreCase(String ascii) {
+        int hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < ascii.length(); ++i) {
+            hash = (hash ^ toUpperAscii((byte) ascii.charAt(i))) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static int toUpperAscii(byte b) {
+        return b >= 'a' && b <= 'z' ? b - ('a' - 'A') : b;
+    }
+
+    /**
+     * 현재 토큰의 {@code offset}번째 바이트부터를 문자열로 만든다(할당 발생).
+     */
+    public String tokenToString(int offset) {
+        return new String(buffer, tokenStart + offset, tokenEnd - tokenStart - offset, StandardCharsets.UTF_8);
+    }
+
+    public String tokenToString() {
+        return tokenToString(0);
+    }
+
+    public int nextInt() {
+        if (!nextToken()) {
+            throw new NumberFormatException("Missing integer");
+        }
+        return parseInt(buffer, tokenStart, tokenEnd);
+    }
+
+    /**
+     * 현재 토큰의 {@code offset}번째 바이트부터를 정수로 읽는다. "!1234" 같은 접두어 토큰에 사용한다.
+     */
+    public long tokenToLong(int offset) {
+        return parseLong(buffer, tokenStart + offset, tokenEnd);
+    }
+
+    public float nextFloat() {
+        if (!nextToken()) {
+            throw new NumberFormatException("Missing float");
+        }
+        return parseFloat(buffer, tokenStart, tokenEnd);
+    }
+
+    /**
+     * 남은 부분(앞뒤 공백 제외)의 시작 위치. 바이트 배열을 직접 받는 디코더(Base64 등)에 넘길 때 사용한다.
+     */
+    public int getRemainingStart() {
+        skipWhitespace();
+        return pos;
+    }
+
+    public int getRemainingEnd() {
+        int e = end;
+        while (e > pos && isWhitespace(buffer[e - 1])) {
+            --e;
+        }
+        return e;
+    }
+
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    public String remainingToString() {
+        int start = getRemainingStart();
+        return new String(buffer, start, getRemainingEnd() - start, StandardCharsets.UTF_8);
+    }
+
+    public static int parseInt(byte[] buf, int start, int end) {
+        if (start == end) {
+            throw new NumberFormatException("Empty integer");
+        }
+
+        int i = start;
+        boolean negative = false;
+        if (buf[i] == '-' || buf[i] == '+') {
+            negative = buf[i] == '-';
+            if (++i == end) {
+                throw new NumberFormatException("Invalid integer");
+            }
+        }
+
+        // accumulate negatively to handle Integer.MIN_VALUE
+        int limit = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+        int multmin = limit / 10;
+        int result = 0;
+        for (; i < end; ++i) {
+            int digit = buf[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Invalid integer");
+            }
+            if (result < multmin) {
+                throw new NumberFormatException("Integer overflow");
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                throw new NumberFormatException("Integer overflow");
+            }
+            result -= digit;
+        }
+        return negative ? result : -result;
+    }
+
+    public static long parseLong(byte[] buf, int start, int end) {
+        if (start == end) {
+            throw new NumberFormatException("Empty integer");
+        }
+
+        int i = start;
+        boolean negative = false;
+        if (buf[i] == '-' || buf[i] == '+') {
+            negative = buf[i] == '-';
+            if (++i == end) {
+                throw new NumberFormatException("Invalid integer");
+            }
+        }
+
+        // same as parseInt(), accumulate negatively to handle Long.MIN_VALUE
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long multmin = limit / 10;
+        long result = 0;
+        for (; i < end; ++i) {
+            int digit = buf[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Invalid integer");
+            }
+            if (result < multmin) {
+                throw new NumberFormatException("Integer overflow");
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                throw new NumberFormatException("Integer overflow");
+            }
+            result -= digit;
+        }
+        return negative ? result : -result;
+    }
+
+    /**
+     * {@link Float#parseFloat(String)}와 같은 문법을 받는다. 흔한 십진 표기("-12.5", "1.5e3")는 문자열을 만들지 않고 바로 변환하고, 그 밖의
+     * 표기(NaN, Infinity, 16진수, "1f" 같은 접미사)와 잘못된 값은 {@link Float#parseFloat(String)}에 맡긴다.
+     */
+    public static float parseFloat(byte[] buf, int start, int end) {
+        double value = parseDecimal(buf, start, end);
+        if (Double.isNaN(value)) {
+            return Float.parseFloat(new String(buf, start, end - start, StandardCharsets.UTF_8));
+        }
+        return (float) value;
+    }
+
+    /**
+     * @return 부호, 숫자, 소수점, 십진 지수만으로 된 값, 그 밖의 표기이면 {@link Double#NaN}
+     */
+    private static double parseDecimal(byte[] buf, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buf[i] == '-' || buf[i] == '+')) {
+            negative = buf[i] == '-';
+            ++i;
+        }
+
+        long mantissa = 0;
+        int significantDigits = 0;
+        int exponent = 0;
+        boolean anyDigit = false;
+        boolean dot = false;
+        for (; i < end; ++i) {
+            byte b = buf[i];
+            if (b == '.') {
+                if (dot) {
+                    return Double.NaN;
+                }
+                dot = true;
+                continue;
+            }
+            int digit = b - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            anyDigit = true;
+            if (significantDigits < MAX_SIGNIFICANT_DIGITS) {
+                if (mantissa != 0 || digit != 0) {
+                    ++significantDigits;
+                }
+                mantissa = mantissa * 10 + digit;
+                if (dot) {
+                    --exponent;
+                }
+            } else if (!dot) {
+                // 더 이상 담을 수 없는 정수부 자릿수는 지수로만 반영한다
+                ++exponent;
+            }
+        }
+
+        if (!anyDigit) {
+            return Double.NaN;
+        }
+
+        if (i < end) {
+            if (buf[i] != 'e' && buf[i] != 'E') {
+                return Double.NaN;
+            }
+            try {
+                exponent += parseInt(buf, i + 1, end);
+            } catch (NumberFormatException e) {
+                // 접미사가 붙었거나 지수가 int 범위를 넘는다
+                return Double.NaN;
+            }
+        }
+
+        double value = mantissa;
+        if (exponent > 0) {
+            value *= exponent < POW10.length ? POW10[exponent] : Math.pow(10, exponent);
+        } else if (exponent < 0) {
+            value /= -exponent < POW10.length ? POW10[-exponent] : Math.pow(10, -exponent);
+        }
+        return negative ? -value : value;
+    }
+}
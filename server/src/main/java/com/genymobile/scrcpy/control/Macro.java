@@ -0,0 +1,341 @@
+package com.genymobile.scrcpy.control;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 서버에 저장해 두고 한 줄로 실행하는 명령 순서("MACRO_DEF"). 기존 텍스트 명령에 대기, 반복, 기기 상태 조건을 더한 작은 프로그램이다.
+ * <p>
+ * 줄 형식:
+ * <ul>
+ * <li>BATCH 블록 안에서 허용되는 명령(TAP, SWIPE, KEYCODE, TEXT, CLIP_SET 등)</li>
+ * <li>"WAIT &lt;ms&gt;": 앞 줄이 끝난 뒤 기다린다.</li>
+ * <li>"REPEAT &lt;count&gt;" ... "END": 사이의 줄을 count번 실행한다.</li>
+ * <li>"IF [NOT] SCREEN_ON" 또는 "IF [NOT] CLIPBOARD &lt;base64&gt;" ... ["ELSE" ...] "END": 조건에 따라 실행한다.</li>
+ * </ul>
+ * 정의할 때 블록 짝과 명령 인수 개수를 모두 검사해 한 번만 해석하고, 실행할 때는 줄 번호로 점프한다. 인스턴스는 변경되지 않으므로 실행 중에 같은
+ * 이름으로 다시 정의해도 실행 중인 매크로에는 영향이 없다.
+ */
+final class Macro {
+
+    static final int MAX_LINES = 256;
+    static final int MAX_WAIT_MS = 60_000;
+    static final int MAX_REPEAT = 10_000;
+    static final int MAX_DEPTH = 8;
+    // 중첩 반복으로 끝나지 않는 매크로를 막기 위한 한 번 실행의 최대 단계 수
+    static final int MAX_STEPS = 100_000;
+
+    static final int CONDITION_SCREEN_ON = 1;
+    static final int CONDITION_CLIPBOARD = 2;
+
+    private static final int OP_COMMAND = 0;
+    private static final int OP_WAIT = 1;
+    private static final int OP_REPEAT = 2;
+    private static final int OP_END_REPEAT = 3;
+    private static final int OP_IF = 4;
+    private static final int OP_ELSE = 5;
+    private static final int OP_END_IF = 6;
+
+    // IF의 operand에서 NOT을 나타내는 비트
+    private static final int CONDITION_NOT = 1 << 16;
+
+    /**
+     * 정의할 때 명령 이름과 조건 인수를 해석한다.
+     */
+    interface Resolver {
+        /**
+         * @return 현재 토큰에 해당하는 명령, 없으면 {@code null}
+         */
+        CommandHandler lookupCommand(LineTokenizer tokenizer);
+
+        /**
+         * 남은 인수(base64 페이로드)를 디코딩한다.
+         *
+         * @return 잘못된 페이로드이면 {@code null}
+         */
+        String decodeText(LineTokenizer tokenizer);
+    }
+
+    /**
+     * 실행할 때 명령을 실행하고 기기 상태를 읽는다.
+     */
+    interface Environment {
+        /**
+         * @return 응답 라인("OK ..." 또는 "ERR ...")
+         */
+        String execute(CommandHandler command, LineTokenizer arguments);
+
+        boolean isScreenOn();
+
+        /**
+         * @return 읽을 수 없으면 {@code null}
+         */
+        String getClipboardText();
+    }
+
+    /**
+     * 정의 오류. 줄 번호는 1부터 센다.
+     */
+    static final class InvalidMacroException extends Exception {
+        private final int line;
+        private final String reason;
+
+        InvalidMacroException(int line, String reason) {
+            super("line " + line + ": " + reason);
+            this.line = line;
+            this.reason = reason;
+        }
+
+        int getLine() {
+            return line;
+        }
+
+        String getReason() {
+            return reason;
+        }
+    }
+
+    private final String name;
+    private final int[] ops;
+    // WAIT 시간, REPEAT 횟수, IF 조건
+    private final int[] operands;
+    // REPEAT/IF/ELSE: 건너뛸 때 이동할 줄, END(REPEAT): 대응하는 REPEAT 줄
+    private final int[] jumps;
+    private final CommandHandler[] commands;
+    // 명령 인수, 실행할 때마다 같은 바이트를 다시 토큰화한다.
+    private final byte[][] arguments;
+    // CLIPBOARD 조건의 비교 대상
+    private final String[] texts;
+    // compile()에서 한 번 설정한다.
+    private CommandHandler[] usedCommands;
+
+    private Macro(String name, int lineCount) {
+        this.name = name;
+        ops = new int[lineCount];
+        operands = new int[lineCount];
+        jumps = new int[lineCount];
+        commands = new CommandHandler[lineCount];
+        arguments = new byte[lineCount][];
+        texts = new String[lineCount];
+    }
+
+    /**
+     * 줄들을 해석한다. 각 줄의 토큰 위치는 처음이어야 한다.
+     */
+    static Macro compile(String name, LineTokenizer[] lines, Resolver resolver) throws InvalidMacroException {
+        Macro macro = new Macro(name, lines.length);
+        List<CommandHandler> used = new ArrayList<>();
+        // 열린 REPEAT/IF 줄
+        int[] blocks = new int[MAX_DEPTH];
+        int depth = 0;
+        for (int i = 0; i < lines.length; ++i) {
+            LineTokenizer tokenizer = lines[i];
+            int line = i + 1;
+            if (!tokenizer.nextToken()) {
+                throw new InvalidMacroException(line, "EMPTY_LINE");
+            }
+
+            if (tokenizer.tokenEqualsIgnoreCase("WAIT")) {
+                macro.ops[i] = OP_WAIT;
+                macro.operands[i] = parseOperand(tokenizer, line, 0, MAX_WAIT_MS);
+            } else if (tokenizer.tokenEqualsIgnoreCase("REPEAT")) {
+                if (depth == MAX_DEPTH) {
+                    throw new InvalidMacroException(line, "TOO_DEEP");
+                }
+                macro.ops[i] = OP_REPEAT;
+                macro.operands[i] = parseOperand(tokenizer, line, 1, MAX_REPEAT);
+                blocks[depth++] = i;
+            } else if (tokenizer.tokenEqualsIgnoreCase("IF")) {
+                if (depth == MAX_DEPTH) {
+                    throw new InvalidMacroException(line, "TOO_DEEP");
+                }
+                macro.ops[i] = OP_IF;
+                macro.operands[i] = parseCondition(macro, i, tokenizer, resolver);
+                blocks[depth++] = i;
+            } else if (tokenizer.tokenEqualsIgnoreCase("ELSE")) {
+                if (depth == 0 || macro.ops[blocks[depth - 1]] != OP_IF || tokenizer.hasMoreTokens()) {
+                    throw new InvalidMacroException(line, "UNEXPECTED_ELSE");
+                }
+                // 조건이 거짓이면 ELSE 다음 줄로 간다.
+                macro.ops[i] = OP_ELSE;
+                macro.jumps[blocks[depth - 1]] = i + 1;
+                blocks[depth - 1] = i;
+            } else if (tokenizer.tokenEqualsIgnoreCase("END")) {
+                if (depth == 0 || tokenizer.hasMoreTokens()) {
+                    throw new InvalidMacroException(line, "UNEXPECTED_END");
+                }
+                int open = blocks[--depth];
+                if (macro.ops[open] == OP_REPEAT) {
+                    macro.ops[i] = OP_END_REPEAT;
+                    macro.jumps[i] = open;
+                } else {
+                    macro.ops[i] = OP_END_IF;
+                }
+                macro.jumps[open] = i + 1;
+            } else {
+                CommandHandler command = resolver.lookupCommand(tokenizer);
+                if (command == null) {
+                    throw new InvalidMacroException(line, "UNKNOWN_COMMAND");
+                }
+                if (!command.isAllowedInBatch()) {
+                    throw new InvalidMacroException(line, "NOT_ALLOWED_IN_MACRO");
+                }
+                if (!command.acceptsArguments(tokenizer)) {
+                    throw new InvalidMacroException(line, "INVALID_ARGS");
+                }
+                macro.ops[i] = OP_COMMAND;
+                macro.commands[i] = command;
+                macro.arguments[i] = tokenizer.copy().getBuffer();
+                if (!used.contains(command)) {
+                    used.add(command);
+                }
+            }
+        }
+
+        if (depth > 0) {
+            throw new InvalidMacroException(blocks[depth - 1] + 1, "MISSING_END");
+        }
+        macro.usedCommands = used.toArray(new CommandHandler[0]);
+        return macro;
+    }
+
+    private static int parseOperand(LineTokenizer tokenizer, int line, int min, int max) throws InvalidMacroException {
+        int value;
+        try {
+            value = tokenizer.nextInt();
+        } catch (NumberFormatException e) {
+            throw new InvalidMacroException(line, "INVALID_ARGS");
+        }
+        if (value < min || value > max || tokenizer.hasMoreTokens()) {
+            throw new InvalidMacroException(line, "INVALID_ARGS");
+        }
+        return value;
+    }
+
+    private static int parseCondition(Macro macro, int index, LineTokenizer tokenizer, Resolver resolver) throws InvalidMacroException {
+        int line = index + 1;
+        int not = 0;
+        if (!tokenizer.nextToken()) {
+            throw new InvalidMacroException(line, "INVALID_CONDITION");
+        }
+        if (tokenizer.tokenEqualsIgnoreCase("NOT")) {
+            not = CONDITION_NOT;
+            if (!tokenizer.nextToken()) {
+                throw new InvalidMacroException(line, "INVALID_CONDITION");
+            }
+        }
+
+        if (tokenizer.tokenEqualsIgnoreCase("SCREEN_ON")) {
+            if (tokenizer.hasMoreTokens()) {
+                throw new InvalidMacroException(line, "INVALID_CONDITION");
+            }
+            return CONDITION_SCREEN_ON | not;
+        }
+        if (tokenizer.tokenEqualsIgnoreCase("CLIPBOARD")) {
+            if (tokenizer.countTokens(1) != 1) {
+                throw new InvalidMacroException(line, "INVALID_CONDITION");
+            }
+            String text = resolver.decodeText(tokenizer);
+            if (text == null) {
+                throw new InvalidMacroException(line, "INVALID_BASE64");
+            }
+            macro.texts[index] = text;
+            return CONDITION_CLIPBOARD | not;
+        }
+        throw new InvalidMacroException(line, "INVALID_CONDITION");
+    }
+
+    String getName() {
+        return name;
+    }
+
+    int getLineCount() {
+        return ops.length;
+    }
+
+    /**
+     * 매크로가 실행할 수 있는 명령들(중복 없음). 실행 레인과 취소 분류를 정하는 데 사용한다.
+     */
+    CommandHandler[] getCommands() {
+        return usedCommands.clone();
+    }
+
+    /**
+     * 현재 스레드에서 매크로를 끝까지 실행한다. 명령 하나가 실패하면 멈춘다.
+     * <p>
+     * 응답 형식: 성공하면 "OK &lt;executed&gt;"(실행한 명령 수), 실패하면 "ERR MACRO_FAILED &lt;line&gt; &lt;error&gt;"이다. error는 실패한
+     * 명령의 응답에서 "ERR "를 빼고 공백을 ':'로 바꾼 값이다. 취소되면 "ERR CANCELLED"이다.
+     *
+     * @param cancelToken 명령 사이와 WAIT 중에 확인한다
+     */
+    String run(Environment environment, CancelToken cancelToken) {
+        int[] counters = new int[ops.length];
+        LineTokenizer tokenizer = new LineTokenizer();
+        int executed = 0;
+        int steps = 0;
+        int pc = 0;
+        while (pc < ops.length) {
+            if (cancelToken.isCancelled()) {
+                return "ERR CANCELLED";
+            }
+            if (++steps > MAX_STEPS) {
+                return failed(pc, "ERR STEP_LIMIT");
+            }
+
+            switch (ops[pc]) {
+                case OP_COMMAND:
+                    byte[] args = arguments[pc];
+                    tokenizer.reset(args, 0, args.length);
+                    String response = environment.execute(commands[pc], tokenizer);
+                    if (!response.startsWith("OK")) {
+                        return cancelToken.isCancelled() ? "ERR CANCELLED" : failed(pc, response);
+                    }
+                    ++executed;
+                    ++pc;
+                    break;
+                case OP_WAIT:
+                    if (cancelToken.sleep(operands[pc])) {
+                        return "ERR CANCELLED";
+                    }
+                    ++pc;
+                    break;
+                case OP_REPEAT:
+                    counters[pc] = operands[pc];
+                    ++pc;
+                    break;
+                case OP_END_REPEAT:
+                    int repeat = jumps[pc];
+                    pc = --counters[repeat] > 0 ? repeat + 1 : pc + 1;
+                    break;
+                case OP_IF:
+                    pc = test(environment, pc) ? pc + 1 : jumps[pc];
+                    break;
+                case OP_ELSE:
+                    // 참인 블록을 끝냈으므로 END 다음으로 간다.
+                    pc = jumps[pc];
+                    break;
+                default:
+                    // OP_END_IF
+                    ++pc;
+                    break;
+            }
+        }
+        return "OK " + executed;
+    }
+
+    private boolean test(Environment environment, int pc) {
+        int condition = operands[pc];
+        boolean result;
+        if ((condition & ~CONDITION_NOT) == CONDITION_SCREEN_ON) {
+            result = environment.isScreenOn();
+        } else {
+            result = texts[pc].equals(environment.getClipboardText());
+        }
+        return (condition & CONDITION_NOT) != 0 ? !result : result;
+    }
+
+    private static String failed(int pc, String response) {
+        String error = response.startsWith("ERR ") ? response.substring(4) : response;
+        return "ERR MACRO_FAILED " + (pc + 1) + " " + error.replace(' ', ':');
+    }
+}
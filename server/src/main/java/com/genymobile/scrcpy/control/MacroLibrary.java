@@ -0,0 +1,65 @@
+package com.genymobile.scrcpy.control;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 세션에 저장된 매크로. {@link SessionState}에 속하므로 RESUME으로 다시 연결해도 유지된다.
+ * <p>
+ * 정의와 삭제는 수신 스레드에서, 목록 조회는 실행 스레드에서 할 수 있으므로 동기화한다.
+ */
+public final class MacroLibrary {
+
+    static final int MAX_MACROS = 32;
+    static final int NAME_MAX_LENGTH = 32;
+
+    // guarded by this
+    private final Map<String, Macro> macros = new HashMap<>();
+
+    /**
+     * 매크로를 저장한다. 같은 이름이 있으면 교체한다.
+     *
+     * @return 저장할 자리가 없으면 {@code false}
+     */
+    synchronized boolean put(Macro macro) {
+        if (macros.size() >= MAX_MACROS && !macros.containsKey(macro.getName())) {
+            return false;
+        }
+        macros.put(macro.getName(), macro);
+        return true;
+    }
+
+    synchronized Macro get(String name) {
+        return macros.get(name);
+    }
+
+    synchronized boolean remove(String name) {
+        return macros.remove(name) != null;
+    }
+
+    /**
+     * @return 이름순으로 정렬한 매크로 이름
+     */
+    synchronized List<String> getNames() {
+        List<String> names = new ArrayList<>(macros.keySet());
+        Collections.sort(names);
+        return names;
+    }
+
+    static boolean isValidName(String name) {
+        if (name.isEmpty() || name.length() > NAME_MAX_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); ++i) {
+            char c = name.charAt(i);
+            boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '-' || c == '.';
+            if (!valid) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
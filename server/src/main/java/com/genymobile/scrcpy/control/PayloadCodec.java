@@ -0,0 +1,218 @@
+package com.genymobile.scrcpy.control;
+
+import android.util.Base64;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 큰 텍스트 명령 페이로드(클립보드)의 base64 인코딩과, 세션에서 협상된 경우 zlib(deflate) 압축을 처리한다.
+ * <p>
+ * 압축된 페이로드는 base64 앞에 {@code "z:"}를 붙여 구분한다(':'는 base64 문자가 아니다). 압축해도 작아지지 않는 페이로드는 그대로 보낸다.
+ * <p>
+ * Deflater/Inflater와 출력 버퍼는 재사용한다. 스레드 안전하지 않으므로 호출자는 이 객체로 동기화해야 하며, {@link #getDecoded()}의 내용은
+ * 다음 호출 전까지만 유효하다.
+ */
+public final class PayloadCodec {
+
+    public static final int DECODE_ERROR_BASE64 = -1;
+    public static final int DECODE_ERROR_COMPRESSED = -2;
+
+    private static final byte[] COMPRESSED_PREFIX = {'z', ':'};
+
+    // 이보다 작은 페이로드는 압축 헤더 비용이 더 크다.
+    private static final int COMPRESS_MIN_LENGTH = 256;
+
+    private static final int INITIAL_BUFFER_SIZE = 1 << 16; // 64k
+    // 한 번 크게 자란 버퍼를 계속 들고 있지 않도록 하는 상한
+    private static final int RETAINED_BUFFER_MAX_SIZE = 1 << 20; // 1M
+
+    /**
+     * base64 변환. 기기에서는 {@link android.util.Base64}를 쓰고, JVM 단위 테스트는 {@code java.util.Base64}(API 26+)로 만든 구현을 넘긴다.
+     */
+    interface Base64Codec {
+        String encode(byte[] data, int offset, int length);
+
+        /**
+         * @throws IllegalArgumentException base64가 아닐 때
+         */
+        byte[] decode(byte[] data, int offset, int length);
+    }
+
+    private static final Base64Codec ANDROID_BASE64 = new Base64Codec() {
+        @Override
+        public String encode(byte[] data, int offset, int length) {
+            return Base64.encodeToString(data, offset, length, Base64.NO_WRAP);
+        }
+
+        @Override
+        public byte[] decode(byte[] data, int offset, int length) {
+            return Base64.decode(data, offset, length, Base64.DEFAULT);
+        }
+    };
+
+    private final Base64Codec base64;
+
+    private boolean enabled;
+
+    private Deflater deflater;
+    private Inflater inflater;
+    private byte[] deflateBuffer;
+    private byte[] inflateBuffer;
+
+    private byte[] decoded;
+
+    public PayloadCodec() {
+        this(ANDROID_BASE64);
+    }
+
+    PayloadCodec(Base64Codec base64) {
+        this.base64 = base64;
+    }
+
+    /**
+     * 압축을 켜거나 끈다.
+     *
+     * @param level {@link Deflater} 압축 레벨(0~9) 또는 {@link Deflater#DEFAULT_COMPRESSION}
+     */
+    public void setCompression(boolean enabled, int level) {
+        this.enabled = enabled;
+        if (enabled) {
+            if (deflater == null) {
+                deflater = new Deflater(level);
+                inflater = new Inflater();
+                deflateBuffer = new byte[INITIAL_BUFFER_SIZE];
+                inflateBuffer = new byte[INITIAL_BUFFER_SIZE];
+            } else {
+                deflater.setLevel(level);
+            }
+        }
+    }
+
+    public boolean isCompressionEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 페이로드를 응답용 문자열(base64, 압축 시 "z:" 접두어)로 인코딩한다.
+     */
+    public String encode(byte[] data, int offset, int length) {
+        if (enabled && length >= COMPRESS_MIN_LENGTH) {
+            int compressedLength = compress(data, offset, length);
+            if (compressedLength >= 0) {
+                String encoded = base64.encode(deflateBuffer, 0, compressedLength);
+                releaseLargeBuffers();
+                return "z:" + encoded;
+            }
+        }
+        return base64.encode(data, offset, length);
+    }
+
+    /**
+     * 수신 버퍼의 {@code [start, end)} 구간을 디코딩한다. 결과는 {@link #getDecoded()}의 앞부분에 있다.
+     *
+     * @param maxLength 압축 해제 결과의 최대 크기
+     * @return 디코딩된 길이, 또는 DECODE_ERROR_*
+     */
+    public int decode(byte[] buffer, int start, int end, int maxLength) {
+        boolean compressed = enabled && startsWith(buffer, start, end, COMPRESSED_PREFIX);
+        if (compressed) {
+            start += COMPRESSED_PREFIX.length;
+        }
+
+        byte[] raw;
+        try {
+            raw = base64.decode(buffer, start, end - start);
+        } catch (IllegalArgumentException e) {
+            return DECODE_ERROR_BASE64;
+        }
+
+        if (!compressed) {
+            decoded = raw;
+            return raw.length;
+        }
+
+        int length = decompress(raw, maxLength);
+        decoded = inflateBuffer;
+        return length;
+    }
+
+    public byte[] getDecoded() {
+        return decoded;
+    }
+
+    /**
+     * 디코딩 결과를 다 사용한 뒤 호출해, 크게 자란 버퍼를 해제한다.
+     */
+    public void releaseLargeBuffers() {
+        decoded = null;
+        if (deflateBuffer != null && deflateBuffer.length > RETAINED_BUFFER_MAX_SIZE) {
+            deflateBuffer = new byte[INITIAL_BUFFER_SIZE];
+        }
+        if (inflateBuffer != null && inflateBuffer.length > RETAINED_BUFFER_MAX_SIZE) {
+            inflateBuffer = new byte[INITIAL_BUFFER_SIZE];
+        }
+    }
+
+    private static boolean startsWith(byte[] buffer, int start, int end, byte[] prefix) {
+        if (end - start < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; ++i) {
+            if (buffer[start + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return 압축된 길이, 원본보다 작아지지 않으면 -1
+     */
+    private int compress(byte[] data, int offset, int length) {
+        if (deflateBuffer.length < length) {
+            deflateBuffer = new byte[length];
+        }
+
+        deflater.reset();
+        deflater.setInput(data, offset, length);
+        deflater.finish();
+        int n = 0;
+        // 출력은 원본 크기까지만 허용한다. 그 안에 끝나지 않으면 압축할 가치가 없다.
+        while (!deflater.finished()) {
+            if (n == length) {
+                return -1;
+            }
+            n += deflater.deflate(deflateBuffer, n, length - n);
+        }
+        return n;
+    }
+
+    private int decompress(byte[] data, int maxLength) {
+        inflater.reset();
+        inflater.setInput(data);
+        int n = 0;
+        try {
+            while (!inflater.finished()) {
+                if (n == inflateBuffer.length) {
+                    if (n >= maxLength) {
+                        return DECODE_ERROR_COMPRESSED;
+                    }
+                    byte[] newBuffer = new byte[(int) Math.min(2L * n, maxLength)];
+                    System.arraycopy(inflateBuffer, 0, newBuffer, 0, n);
+                    inflateBuffer = newBuffer;
+                }
+                int r = inflater.inflate(inflateBuffer, n, inflateBuffer.length - n);
+                if (r == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    // 잘린 스트림
+                    return DECODE_ERROR_COMPRESSED;
+                }
+                n += r;
+            }
+        } catch (DataFormatException e) {
+            return DECODE_ERROR_COMPRESSED;
+        }
+        return n <= maxLength ? n : DECODE_ERROR_COMPRESSED;
+    }
+}
@@ -0,0 +1,203 @@
+package com.genymobile.scrcpy.control;
+
+import com.genymobile.scrcpy.util.Ln;
+
+import android.os.SystemClock;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 응답을 큐에 넣고 전용 스레드에서 소켓으로 내보낸다.
+ * <p>
+ * 명령 스레드는 큐에 넣기만 하므로 느린 클라이언트 소켓에 막히지 않는다. 송신 스레드는 짧은 간격 안에 완료된 응답들을 한 번의 flush(write
+ * syscall)로 묶는다. 묶음 대기 시간은 응답이 몰릴 때만 늘어나고, 단건 요청/응답이 이어지면 0으로 줄어든다. 어떤 응답도 첫 응답이 큐에서 나온 뒤
+ * {@code maxDelayUs}를 넘겨 기다리지 않으며, 그때 이미 큐에 있는 응답은 기다림 없이 같은 flush로 나간다.
+ * <p>
+ * 클라이언트가 응답을 읽지 않아 큐가 가득 차면 넣는 스레드를 {@link #ENQUEUE_TIMEOUT_MS}까지 막아 수신을 늦추고, 그래도 자리가 나지 않으면 응답을
+ * 버리는 대신 {@link Listener}에 알려 세션을 끝낸다. 응답 하나라도 빠지면 ID 없는 요청의 응답 순서가 어긋나기 때문이다.
+ */
+public final class ResponseSender {
+
+    private static final int QUEUE_CAPACITY = 1024;
+    // 큐가 가득 찼을 때 자리가 나기를 기다리는 시간
+    private static final long ENQUEUE_TIMEOUT_MS = 1000;
+
+    /**
+     * 더 이상 응답을 보낼 수 없을 때(큐가 비지 않거나 소켓 쓰기 실패) 송신 스레드에서 한 번 불린다.
+     */
+    public interface Listener {
+        void onSendFailed();
+    }
+
+    private static final class TimestampedLine {
+        private final String line;
+
+        TimestampedLine(String line) {
+            this.line = line;
+        }
+    }
+
+    // 묶음이 감지되었을 때 처음 적용하는 대기 시간
+    private static final long MIN_WINDOW_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final ControlChannel controlChannel;
+    private final long maxDelayNanos;
+
+    // 원소는 텍스트 응답(String, TimestampedLine) 또는 바이너리 메시지(DeviceMessage). 고정 크기 배열이라 응답마다 노드를 할당하지 않는다.
+    private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    // 송신 스레드 전용
+    private long windowNanos;
+
+    private Thread thread;
+    private final AtomicBoolean failed = new AtomicBoolean();
+
+    public ResponseSender(ControlChannel controlChannel, int maxDelayUs) {
+        this.controlChannel = controlChannel;
+        this.maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayUs);
+    }
+
+    public void send(String line) {
+        enqueue(line);
+    }
+
+    public void send(DeviceMessage msg) {
+        enqueue(msg);
+    }
+
+    /**
+     * 소켓에 쓰는 순간의 시각 "&lt;uptimeMillis&gt; &lt;elapsedRealtimeNanos&gt;"를 라인 끝에 붙여 보낸다. 큐와 묶음 대기 시간은 시각에 포함되지
+     * 않는다.
+     */
+    public void sendTimestamped(String line) {
+        enqueue(new TimestampedLine(line));
+    }
+
+    /**
+     * 소켓에 쓰기를 기다리는 응답 수.
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    private void enqueue(Object item) {
+        if (failed.get() || queue.offer(item)) {
+            return;
+        }
+
+        try {
+            // 클라이언트가 응답을 읽지 않고 있다. 넣는 스레드를 막아 명령 수신을 늦춘다.
+            if (queue.offer(item, ENQUEUE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            // 세션이 끝나는 중이다.
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (failed.compareAndSet(false, true)) {
+            Ln.w("Response queue full for " + ENQUEUE_TIMEOUT_MS + " ms, closing the session");
+            // 세션은 송신 스레드에서 끝낸다. 넣는 스레드는 세션의 스레드일 수 있어 여기서 끝내면 자신을 기다리게 된다.
+            thread.interrupt();
+        }
+    }
+
+    private void loop() throws IOException, InterruptedException {
+        while (!Thread.currentThread().isInterrupted()) {
+            Object item = queue.take();
+
+            long deadline = System.nanoTime() + maxDelayNanos;
+            int count = 0;
+            while (item != null) {
+                ++count;
+                if (write(item)) {
+                    // 송신 시각을 담은 응답은 묶지 않고 바로 내보낸다.
+                    break;
+                }
+                if (count == QUEUE_CAPACITY) {
+                    // 계속 채워지는 큐에서도 묶음 하나의 크기는 제한한다.
+                    break;
+                }
+
+                // 이미 도착한 응답은 기한과 관계없이 같은 묶음에 넣는다. 기한은 더 기다릴 시간만 정한다.
+                item = queue.poll();
+                if (item == null && windowNanos > 0) {
+                    long timeout = Math.min(windowNanos, deadline - System.nanoTime());
+                    if (timeout > 0) {
+                        item = queue.poll(timeout, TimeUnit.NANOSECONDS);
+                    }
+                }
+            }
+
+            controlChannel.flush();
+            adaptWindow(count);
+        }
+    }
+
+    /**
+     * @return 곧바로 flush해야 하면 {@code true}
+     */
+    private boolean write(Object item) throws IOException {
+        if (item instanceof DeviceMessage) {
+            controlChannel.write((DeviceMessage) item);
+        } else if (item instanceof TimestampedLine) {
+            String line = ((TimestampedLine) item).line;
+            controlChannel.write(line + " " + SystemClock.uptimeMillis() + " " + SystemClock.elapsedRealtimeNanos());
+            return true;
+        } else {
+            controlChannel.write((String) item);
+        }
+        return false;
+    }
+
+    private void adaptWindow(int count) {
+        if (count > 1) {
+            // 응답이 몰리고 있으므로 다음 묶음은 조금 더 기다린다.
+            windowNanos = Math.min(maxDelayNanos, Math.max(MIN_WINDOW_NANOS, windowNanos * 2));
+        } else {
+            // 단건 응답은 지연 없이 바로 보내도록 대기 시간을 줄인다.
+            windowNanos = windowNanos > MIN_WINDOW_NANOS ? windowNanos / 2 : 0;
+        }
+    }
+
+    /**
+     * @param listener 송신이 실패하면 세션을 끝낼 곳
+     */
+    public void start(final Listener listener) {
+        thread = new Thread(() -> {
+            try {
+                loop();
+            } catch (IOException e) {
+                // this is expected on close
+                failed.set(true);
+            } catch (InterruptedException e) {
+                // stopped, or the queue stayed full
+            } finally {
+                Ln.d("Response sender stopped");
+                if (failed.get()) {
+                    listener.onSendFailed();
+                }
+            }
+        }, "control-send");
+        thread.start();
+    }
+
+    /**
+     * 송신 실패를 알린 송신 스레드에서 불릴 수 있다. 그 스레드는 곧 끝나므로 자신은 인터럽트하거나 기다리지 않는다.
+     */
+    public void stop() {
+        if (thread != null && thread != Thread.currentThread()) {
+            thread.interrupt();
+        }
+    }
+
+    public void join() throws InterruptedException {
+        if (thread != null && thread != Thread.currentThread()) {
+            thread.join();
+        }
+    }
+}
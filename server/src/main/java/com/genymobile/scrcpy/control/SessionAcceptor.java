@@ -0,0 +1,272 @@
+package com.genymobile.scrcpy.control;
+
+import com.genymobile.scrcpy.AsyncProcessor;
+import com.genymobile.scrcpy.Options;
+import com.genymobile.scrcpy.device.ControlConnection;
+import com.genymobile.scrcpy.device.DesktopConnection;
+import com.genymobile.scrcpy.util.Ln;
+
+import android.os.SystemClock;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 다중 클라이언트 모드와 상주 모드에서 클라이언트 연결을 계속 받아, 연결마다 독립된 세션({@link Controller})을 시작한다.
+ * <p>
+ * 세션은 각자의 채널, 수신/송신 스레드, 클립보드 전송 상태를 가지며, 입력 주입기({@link InputInjector})와 기기 상태 감시기
+ * ({@link DeviceEventMonitor})만 공유한다. 세션이 끝나도 서버는 계속 동작하고, 이 프로세서는 연결 수락 자체가 실패할 때만 종료된다.
+ * <p>
+ * 상주 모드에서는 끝난 세션의 상태를 일정 시간 보관해, 다시 연결한 클라이언트가 "RESUME &lt;token&gt;"으로 이어받을 수 있게 한다. 다중 클라이언트
+ * 모드가 아니면 한 번에 한 세션만 받는다.
+ */
+public final class SessionAcceptor implements AsyncProcessor, SessionRegistry {
+
+    // 보관한 세션 상태의 유효 시간과 최대 개수
+    private static final long DETACHED_SESSION_TIMEOUT_MS = 5 * 60 * 1000;
+    private static final int DETACHED_SESSION_MAX_COUNT = 16;
+    // 보관한 세션들의 업로드 버퍼 총량 상한, 넘으면 오래된 세션의 업로드부터 버린다.
+    private static final long DETACHED_UPLOAD_MAX_TOTAL = 1 << 25; // 32M
+    // 끊긴 세션의 레인에서 실행 중인 명령(클립보드 전송 등)이 멈추기를 기다리는 시간, 넘으면 상태를 보관하지 않는다.
+    private static final long SESSION_STOP_TIMEOUT_MS = 5000;
+
+    private static final class Session {
+        private final int id;
+        private final ControlConnection connection;
+        private final Controller controller;
+
+        Session(int id, ControlConnection connection, Controller controller) {
+            this.id = id;
+            this.connection = connection;
+            this.controller = controller;
+        }
+    }
+
+    private final DesktopConnection connection;
+    private final InputInjector injector;
+    private final DeviceEventMonitor eventMonitor;
+    private final Options options;
+    private final int maxSessions;
+    private final boolean resident;
+
+    // guarded by this
+    private final List<Session> sessions = new ArrayList<>();
+    // 토큰 -> 분리된 세션 상태, 분리된 순서로 유지된다 (guarded by this)
+    private final Map<String, SessionState> detachedSessions = new LinkedHashMap<>();
+    private int nextSessionId = 1;
+    private boolean stopped;
+
+    private Thread thread;
+
+    public SessionAcceptor(DesktopConnection connection, InputInjector injector, DeviceEventMonitor eventMonitor, Options options) {
+        this.connection = connection;
+        this.injector = injector;
+        this.eventMonitor = eventMonitor;
+        this.options = options;
+        maxSessions = options.getMultiClient() ? Integer.MAX_VALUE : 1;
+        resident = options.getResident();
+    }
+
+    private void acceptLoop() throws IOException, InterruptedException {
+        while (!Thread.currentThread().isInterrupted()) {
+            waitForSessionSlot();
+            // 연결 하나의 실패는 accept()와 여기서 처리하고, 서버 소켓의 실패만 이 루프를 끝낸다.
+            ControlConnection client = connection.accept();
+            try {
+                startSession(client);
+            } catch (IOException e) {
+                Ln.w("Could not start session: " + e.getMessage());
+                try {
+                    client.close();
+                } catch (IOException e2) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private synchronized void waitForSessionSlot() throws InterruptedException {
+        while (sessions.size() >= maxSessions) {
+            wait();
+        }
+    }
+
+    private void startSession(ControlConnection client) throws IOException {
+        ControlChannel controlChannel = client.getControlChannel();
+        Controller controller = new Controller(controlChannel, injector, eventMonitor, options, resident ? this : null);
+
+        final Session session;
+        synchronized (this) {
+            if (stopped) {
+                client.close();
+                return;
+            }
+            session = new Session(nextSessionId++, client, controller);
+            sessions.add(session);
+        }
+
+        Ln.i("Session " + session.id + " connected");
+        controller.start(new TerminationListener() {
+            @Override
+            public void onTerminated(boolean fatalError) {
+                // 한 세션의 종료는 다른 세션이나 서버에 영향을 주지 않는다.
+                endSession(session);
+            }
+        });
+    }
+
+    /**
+     * 세션의 스레드(수신 또는 송신)에서 불린다.
+     */
+    private void endSession(Session session) {
+        synchronized (this) {
+            if (!sessions.remove(session)) {
+                // already stopped by stop()
+                return;
+            }
+        }
+
+        session.controller.stop();
+        try {
+            session.connection.close();
+        } catch (IOException e) {
+            Ln.w("Could not close session " + session.id + " connection: " + e.getMessage());
+        }
+
+        // 세션의 스레드와 레인이 모두 끝난 뒤에만 상태를 보관한다. RESUME한 세션이 아직 실행 중인 이전 세션의 명령과 클립보드 전송 상태나 코덱을
+        // 함께 쓰지 않게 한다. 시간 안에 멈추지 않은 명령이 있으면 상태를 버리므로, 그 토큰의 RESUME은
+        // "ERR UNKNOWN_SESSION"이다.
+        boolean joined = false;
+        try {
+            joined = session.controller.join(SESSION_STOP_TIMEOUT_MS);
+            if (!joined) {
+                Ln.w("Session " + session.id + " commands still running after " + SESSION_STOP_TIMEOUT_MS + " ms, its state will not be resumed");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this) {
+            if (resident && joined && !stopped) {
+                detach(session.controller.getSessionState());
+            }
+            notifyAll();
+        }
+        Ln.i("Session " + session.id + " disconnected");
+    }
+
+    private void detach(SessionState state) {
+        state.trim();
+        state.setDetachedAt(SystemClock.uptimeMillis());
+        detachedSessions.put(state.getToken(), state);
+        pruneDetachedSessions();
+        limitDetachedUploads();
+    }
+
+    private void limitDetachedUploads() {
+        long total = 0;
+        for (SessionState state : detachedSessions.values()) {
+            total += state.getClipboardTransfer().trimUpload();
+        }
+
+        // 분리된 순서로 순회하므로 가장 오래된 세션의 업로드부터 버린다.
+        Iterator<SessionState> it = detachedSessions.values().iterator();
+        while (total > DETACHED_UPLOAD_MAX_TOTAL && it.hasNext()) {
+            ClipboardTransfer transfer = it.next().getClipboardTransfer();
+            int size = transfer.trimUpload();
+            if (size > 0) {
+                transfer.abortUpload();
+                total -= size;
+                Ln.w("Dropped a pending clipboard upload of a detached session (" + size + " bytes)");
+            }
+        }
+    }
+
+    private void pruneDetachedSessions() {
+        long expiredBefore = SystemClock.uptimeMillis() - DETACHED_SESSION_TIMEOUT_MS;
+        Iterator<SessionState> it = detachedSessions.values().iterator();
+        while (it.hasNext()) {
+            SessionState state = it.next();
+            // 분리된 순서로 순회하므로 가장 오래된 것부터 제거한다.
+            if (detachedSessions.size() > DETACHED_SESSION_MAX_COUNT || state.getDetachedAt() < expiredBefore) {
+                it.remove();
+            } else {
+                break;
+            }
+        }
+    }
+
+    @Override
+    public synchronized SessionState resume(String token) {
+        pruneDetachedSessions();
+        SessionState state = detachedSessions.remove(token);
+        if (state != null) {
+            state.setDetachedAt(0);
+        }
+        return state;
+    }
+
+    @Override
+    public void start(final TerminationListener listener) {
+        thread = new Thread(() -> {
+            try {
+                acceptLoop();
+            } catch (IOException e) {
+                Ln.e("Session acceptor error", e);
+            } catch (InterruptedException e) {
+                // stopped
+            } finally {
+                Ln.d("Session acceptor stopped");
+                listener.onTerminated(true);
+            }
+        }, "control-accept");
+        // accept()는 인터럽트로 깨울 수 없으므로, 프로세스 종료를 막지 않도록 데몬으로 둔다.
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void stop() {
+        if (thread != null) {
+            thread.interrupt();
+        }
+
+        List<Session> remaining;
+        synchronized (this) {
+            stopped = true;
+            remaining = new ArrayList<>(sessions);
+        }
+
+        for (Session session : remaining) {
+            session.controller.stop();
+            try {
+                // unblock the session receiver
+                session.connection.shutdown();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    @Override
+    public void join() throws InterruptedException {
+        List<Session> remaining;
+        synchronized (this) {
+            remaining = new ArrayList<>(sessions);
+            sessions.clear();
+        }
+
+        for (Session session : remaining) {
+            session.controller.join();
+            try {
+                session.connection.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.genymobile.scrcpy.control;
+
+/**
+ * 상주 모드에서 연결이 끊긴 세션 상태를 보관하고, 재연결한 클라이언트에게 돌려준다.
+ */
+public interface SessionRegistry {
+    /**
+     * 분리된 세션 상태를 꺼낸다. 꺼낸 상태는 보관 목록에서 제거된다.
+     *
+     * @return 토큰에 해당하는 상태가 없거나 만료되었으면 {@code null}
+     */
+    SessionState resume(String token);
+}
@@ -0,0 +1,61 @@
+package com.genymobile.scrcpy.control;
+
+import java.security.SecureRandom;
+
+/**
+ * 연결이 끊겨도 이어 쓸 수 있는 세션 상태. 상주 모드에서 클라이언트가 다시 연결해 "RESUME &lt;token&gt;"을 보내면 이 상태를 그대로 넘겨받는다.
+ * <p>
+ * 압축 협상 결과, 진행 중이던 분할 클립보드 전송과 저장한 매크로가 여기에 속한다. 채널 모드(텍스트/바이너리)와 처리 중이던 요청은 연결에 속하므로 이어지지 않는다.
+ */
+public final class SessionState {
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final String token;
+    private final ClipboardTransfer clipboardTransfer = new ClipboardTransfer();
+    private final PayloadCodec payloadCodec = new PayloadCodec();
+    private final MacroLibrary macroLibrary = new MacroLibrary();
+
+    // 분리된 시각(SystemClock.uptimeMillis()), 연결 중이면 0
+    private long detachedAt;
+
+    public SessionState() {
+        token = String.format("%016x", RANDOM.nextLong());
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public ClipboardTransfer getClipboardTransfer() {
+        return clipboardTransfer;
+    }
+
+    public PayloadCodec getPayloadCodec() {
+        return payloadCodec;
+    }
+
+    public MacroLibrary getMacroLibrary() {
+        return macroLibrary;
+    }
+
+    /**
+     * 세션을 보관하기 전에, 세션의 모든 스레드가 끝난 뒤 부른다. 이어받을 내용만 남기고 여분의 버퍼를 해제한다.
+     *
+     * @return 남은 업로드 버퍼 크기(바이트)
+     */
+    int trim() {
+        synchronized (payloadCodec) {
+            payloadCodec.releaseLargeBuffers();
+        }
+        return clipboardTransfer.trimUpload();
+    }
+
+    long getDetachedAt() {
+        return detachedAt;
+    }
+
+    void setDetachedAt(long detachedAt) {
+        this.detachedAt = detachedAt;
+    }
+}
@@ -0,0 +1,90 @@
+package com.genymobile.scrcpy.control;
+
+import java.util.ArrayDeque;
+
+/**
+ * 요청 ID 없는 응답의 순서를 지킨다.
+ * <p>
+ * ID 없는 요청은 응답 순서로만 짝을 맞추므로, 다른 레인에서 실행 중인 ID 없는 명령이 있으면 그 뒤에 완료된 ID 없는 응답은 앞선 응답이 나갈 때까지
+ * 붙잡아 둔다. 실행 자체는 기다리지 않는다. 앞선 명령이 없으면 곧바로 송신 큐에 넣는다.
+ */
+final class UntaggedResponseOrder {
+
+    /**
+     * 아직 완료되지 않았을 수 있는 응답 자리.
+     */
+    static final class Ticket {
+        private boolean done;
+        private String line;
+        private boolean timestamped;
+    }
+
+    private final ResponseSender sender;
+
+    // 먼저 예약된 순서, 첫 원소는 미완료 (guarded by this)
+    private final ArrayDeque<Ticket> tickets = new ArrayDeque<>();
+
+    UntaggedResponseOrder(ResponseSender sender) {
+        this.sender = sender;
+    }
+
+    /**
+     * 나중에 {@link #complete(Ticket, String)}로 채울 응답 자리를 예약한다.
+     */
+    synchronized Ticket reserve() {
+        Ticket ticket = new Ticket();
+        tickets.addLast(ticket);
+        return ticket;
+    }
+
+    /**
+     * 예약한 자리에 응답을 채운다. {@code line}이 {@code null}이면 응답 없이 자리만 반납한다.
+     */
+    synchronized void complete(Ticket ticket, String line) {
+        ticket.done = true;
+        ticket.line = line;
+        drain();
+    }
+
+    synchronized void send(String line) {
+        send(line, false);
+    }
+
+    /**
+     * {@link ResponseSender#sendTimestamped(String)}와 같다.
+     */
+    synchronized void sendTimestamped(String line) {
+        send(line, true);
+    }
+
+    private void send(String line, boolean timestamped) {
+        if (tickets.isEmpty()) {
+            write(line, timestamped);
+            return;
+        }
+
+        Ticket ticket = new Ticket();
+        ticket.done = true;
+        ticket.line = line;
+        ticket.timestamped = timestamped;
+        tickets.addLast(ticket);
+    }
+
+    private void drain() {
+        Ticket ticket;
+        while ((ticket = tickets.peekFirst()) != null && ticket.done) {
+            tickets.pollFirst();
+            if (ticket.line != null) {
+                write(ticket.line, ticket.timestamped);
+            }
+        }
+    }
+
+    private void write(String line, boolean timestamped) {
+        if (timestamped) {
+            sender.sendTimestamped(line);
+        } else {
+            sender.send(line);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.genymobile.scrcpy.control;
+
+import com.genymobile.scrcpy.util.Ln;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 전용 스레드 하나에서 명령을 순서대로 실행하는 레인. 대기/실행 시간을 {@link LaneStats}로 집계하고, 대기하거나 실행 중인 명령 수를 센다.
+ */
+final class WorkerLane {
+
+    /**
+     * 레인 스레드에서 실행할 명령. 응답 라인을 반환한다.
+     */
+    interface Task {
+        String execute();
+    }
+
+    /**
+     * 레인 스레드에서 응답을 받는다. 레인이 종료되어 실행하지 못하면 {@code null}을 받는다.
+     */
+    interface Callback {
+        void onResponse(String response);
+    }
+
+    /**
+     * 대기/실행 시간을 재는 시계. {@code recvNanos}와 같은 기준이어야 한다.
+     */
+    interface Clock {
+        long elapsedRealtimeNanos();
+    }
+
+    private static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long elapsedRealtimeNanos() {
+            return SystemClock.elapsedRealtimeNanos();
+        }
+    };
+
+    private final String name;
+    private final Clock clock;
+    private final ExecutorService executor;
+    private final LaneStats stats = new LaneStats();
+
+    // guarded by this
+    private int pending;
+
+    WorkerLane(String name) {
+        this(name, SYSTEM_CLOCK);
+    }
+
+    /**
+     * 안드로이드 런타임 없이(JVM 단위 테스트) 쓸 때 시계를 지정한다.
+     */
+    WorkerLane(String name, Clock clock) {
+        this.name = name;
+        this.clock = clock;
+        executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "control-" + name));
+    }
+
+    /**
+     * @param recvNanos 명령 라인을 읽은 시각({@link SystemClock#elapsedRealtimeNanos()})
+     */
+    void execute(final long recvNanos, final Task task, final Callback callback) {
+        synchronized (this) {
+            ++pending;
+        }
+        try {
+            executor.execute(() -> {
+                String response = null;
+                try {
+                    long start = clock.elapsedRealtimeNanos();
+                    response = task.execute();
+                    stats.record(start - recvNanos, clock.elapsedRealtimeNanos() - start);
+                } catch (RuntimeException e) {
+                    Ln.e("Command failed on lane " + name, e);
+                    response = "ERR INTERNAL_ERROR";
+                } finally {
+                    callback.onResponse(response);
+                    finished();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the controller is stopping
+            Ln.d("Command rejected on lane " + name + ": controller is stopping");
+            callback.onResponse(null);
+            finished();
+        }
+    }
+
+    private synchronized void finished() {
+        --pending;
+        notifyAll();
+    }
+
+    /**
+     * 대기하거나 실행 중인 명령이 없을 때까지 기다린다.
+     */
+    synchronized void awaitIdle() throws InterruptedException {
+        while (pending > 0) {
+            wait();
+        }
+    }
+
+    synchronized int getPending() {
+        return pending;
+    }
+
+    LaneStats getStats() {
+        return stats;
+    }
+
+    void shutdownNow() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return 시간 안에 레인 스레드가 끝났으면 {@code true}
+     */
+    boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+}
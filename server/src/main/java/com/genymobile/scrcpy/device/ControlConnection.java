@@ -0,0 +1,19 @@
+package com.genymobile.scrcpy.device;
+
+import com.genymobile.scrcpy.control.ControlChannel;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * 클라이언트 하나와의 컨트롤 연결. 전송 방식(로컬 소켓, TCP)과 무관하게 세션이 사용하는 부분만 노출한다.
+ */
+public interface ControlConnection extends Closeable {
+
+    ControlChannel getControlChannel();
+
+    /**
+     * 막혀 있는 수신과 송신을 깨운다. 이후 수신은 EOF를 반환한다.
+     */
+    void shutdown() throws IOException;
+}
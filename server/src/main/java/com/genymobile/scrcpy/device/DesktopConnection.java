@@ -1,15 +1,15 @@
 package com.genymobile.scrcpy.device;
 
 import com.genymobile.scrcpy.control.ControlChannel;
+import com.genymobile.scrcpy.util.Ln;
 
 import android.net.LocalServerSocket;
 import android.net.LocalSocket;
 import android.net.LocalSocketAddress;
 
-import java.io.Closeable;
 import java.io.IOException;
 
-public final class DesktopConnection implements Closeable {
+public final class DesktopConnection implements ControlConnection {
 
     // 데스크톱 측과 소켓 이름 규칙을 맞추기 위해 접두어를 고정한다.
     private static final String SOCKET_NAME_PREFIX = "framex";
@@ -17,13 +17,38 @@ public final class DesktopConnection implements Closeable {
     private final LocalSocket controlSocket;
     private final ControlChannel controlChannel;
 
-    private DesktopConnection(LocalSocket controlSocket) throws IOException {
+    // 다중 클라이언트 모드에서만 열린 채로 유지한다.
+    private final LocalServerSocket serverSocket;
+    private final boolean sendDummyByte;
+    // TCP 모드에서만 사용한다.
+    private final TcpControlServer tcpServer;
+
+    private DesktopConnection(LocalSocket controlSocket, boolean seqpacket) throws IOException {
         this.controlSocket = controlSocket;
-        controlChannel = controlSocket != null ? new ControlChannel(controlSocket) : null;
+        controlChannel = controlSocket != null ? new ControlChannel(controlSocket, seqpacket) : null;
+        serverSocket = null;
+        sendDummyByte = false;
+        tcpServer = null;
+    }
+
+    private DesktopConnection(LocalServerSocket serverSocket, boolean sendDummyByte) {
+        this.serverSocket = serverSocket;
+        this.sendDummyByte = sendDummyByte;
+        controlSocket = null;
+        controlChannel = null;
+        tcpServer = null;
     }
 
-    private static LocalSocket connect(String abstractName) throws IOException {
-        LocalSocket localSocket = new LocalSocket();
+    private DesktopConnection(TcpControlServer tcpServer) {
+        this.tcpServer = tcpServer;
+        serverSocket = null;
+        sendDummyByte = false;
+        controlSocket = null;
+        controlChannel = null;
+    }
+
+    private static LocalSocket connect(String abstractName, boolean seqpacket) throws IOException {
+        LocalSocket localSocket = new LocalSocket(seqpacket ? LocalSocket.SOCKET_SEQPACKET : LocalSocket.SOCKET_STREAM);
         localSocket.connect(new LocalSocketAddress(abstractName));
         return localSocket;
     }
@@ -37,7 +62,12 @@ public final class DesktopConnection implements Closeable {
         return SOCKET_NAME_PREFIX + String.format("_%08x", scid);
     }
 
-    public static DesktopConnection open(int scid, boolean tunnelForward, boolean control, boolean sendDummyByte) throws IOException {
+    /**
+     * @param seqpacket 메시지 경계를 보존하는 SOCK_SEQPACKET 소켓으로 연결한다. 디바이스 내 에이전트가 소켓을 여는 reverse 방식에서만 사용할 수
+     *                  있다(LocalServerSocket은 스트림 소켓만 만든다).
+     */
+    public static DesktopConnection open(int scid, boolean tunnelForward, boolean control, boolean sendDummyByte, boolean seqpacket)
+            throws IOException {
         String socketName = getSocketName(scid);
 
         LocalSocket controlSocket = null;
@@ -54,7 +84,7 @@ public final class DesktopConnection implements Closeable {
                 }
             } else {
                 if (control) {
-                    controlSocket = connect(socketName);
+                    controlSocket = connect(socketName, seqpacket);
                 }
             }
         } catch (IOException | RuntimeException e) {
@@ -64,9 +94,62 @@ public final class DesktopConnection implements Closeable {
             throw e;
         }
 
-        return new DesktopConnection(controlSocket);
+        return new DesktopConnection(controlSocket, seqpacket);
+    }
+
+    /**
+     * 다중 클라이언트 모드: 서버 소켓만 열어 두고, 클라이언트는 {@link #accept()}로 하나씩 받는다.
+     * <p>
+     * 클라이언트가 붙을 서버 소켓이 필요하므로 forward 터널에서만 사용할 수 있다.
+     */
+    public static DesktopConnection listen(int scid, boolean sendDummyByte) throws IOException {
+        LocalServerSocket serverSocket = new LocalServerSocket(getSocketName(scid));
+        return new DesktopConnection(serverSocket, sendDummyByte);
+    }
+
+    /**
+     * TCP 모드: 로컬 소켓 대신 루프백 {@code port}에서 연결을 받는다. 클라이언트는 {@link #accept()}로 하나씩 받는다.
+     */
+    public static DesktopConnection listenTcp(int port, boolean sendDummyByte) throws IOException {
+        return new DesktopConnection(TcpControlServer.open(port, sendDummyByte));
+    }
+
+    /**
+     * 다음 클라이언트를 기다린다. 반환된 연결은 호출자가 닫아야 한다.
+     * <p>
+     * 연결하자마자 끊은 클라이언트처럼 연결 하나를 준비하다 실패하면 그 소켓만 닫고 다음 클라이언트를 기다린다.
+     *
+     * @throws IOException 서버 소켓 자체가 실패했을 때
+     */
+    public ControlConnection accept() throws IOException {
+        if (tcpServer != null) {
+            return tcpServer.accept();
+        }
+
+        while (true) {
+            LocalSocket socket = serverSocket.accept();
+            try {
+                if (sendDummyByte) {
+                    // send one byte so the client may read() to detect a connection error
+                    socket.getOutputStream().write(0);
+                }
+                return new DesktopConnection(socket, false);
+            } catch (IOException e) {
+                Ln.w("Could not accept client connection: " + e.getMessage());
+                closeQuietly(socket);
+            }
+        }
     }
 
+    private static void closeQuietly(LocalSocket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    @Override
     public void shutdown() throws IOException {
         if (controlSocket != null) {
             controlSocket.shutdownInput();
@@ -74,12 +157,20 @@ public final class DesktopConnection implements Closeable {
         }
     }
 
+    @Override
     public void close() throws IOException {
         if (controlSocket != null) {
             controlSocket.close();
         }
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+        if (tcpServer != null) {
+            tcpServer.close();
+        }
     }
 
+    @Override
     public ControlChannel getControlChannel() {
         return controlChannel;
     }
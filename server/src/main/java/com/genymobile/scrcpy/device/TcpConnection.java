@@ -0,0 +1,275 @@
+package com.genymobile.scrcpy.device;
+
+import com.genymobile.scrcpy.control.ControlChannel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * {@link TcpControlServer}가 받은 논블로킹 TCP 연결 하나.
+ * <p>
+ * 소켓 입출력은 선택 스레드에서만 일어나고, 세션 스레드는 연결별 버퍼를 블로킹 스트림처럼 읽고 쓴다. 입력 버퍼가 가득 차면 읽기 관심을 끄고, 출력
+ * 버퍼가 가득 차면 쓰는 쪽이 기다리므로 느린 쪽에 맞춰 역압력이 걸린다.
+ */
+final class TcpConnection implements ControlConnection {
+
+    private static final int INPUT_BUFFER_SIZE = 1 << 16; // 64k
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16; // 64k
+
+    private final TcpControlServer server;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final ControlChannel controlChannel;
+
+    // 수신한 바이트의 원형 버퍼 (guarded by inputLock)
+    private final Object inputLock = new Object();
+    private final byte[] input = new byte[INPUT_BUFFER_SIZE];
+    private int inputHead;
+    private int inputCount;
+    private boolean inputEof;
+    private boolean readPaused;
+
+    // 쓰기 모드로 유지한다 (guarded by outputLock)
+    private final Object outputLock = new Object();
+    private final ByteBuffer output = ByteBuffer.allocateDirect(OUTPUT_BUFFER_SIZE);
+    private boolean writeRequested;
+
+    private volatile boolean closed;
+
+    TcpConnection(TcpControlServer server, SocketChannel channel, SelectionKey key) {
+        this.server = server;
+        this.channel = channel;
+        this.key = key;
+        controlChannel = new ControlChannel(new ChannelInputStream(), new ChannelOutputStream(), false);
+    }
+
+    @Override
+    public ControlChannel getControlChannel() {
+        return controlChannel;
+    }
+
+    void writeDummyByte() {
+        synchronized (outputLock) {
+            output.put((byte) 0);
+            requestWrite();
+        }
+    }
+
+    /**
+     * 선택 스레드에서 호출된다.
+     */
+    void onReadable(ByteBuffer buffer) {
+        synchronized (inputLock) {
+            int free = input.length - inputCount;
+            if (free == 0) {
+                pauseRead();
+                return;
+            }
+
+            buffer.clear();
+            buffer.limit(Math.min(buffer.capacity(), free));
+            int r;
+            try {
+                r = channel.read(buffer);
+            } catch (IOException e) {
+                r = -1;
+            }
+
+            if (r < 0) {
+                inputEof = true;
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                inputLock.notifyAll();
+                return;
+            }
+
+            buffer.flip();
+            int tail = (inputHead + inputCount) % input.length;
+            int first = Math.min(r, input.length - tail);
+            buffer.get(input, tail, first);
+            buffer.get(input, 0, r - first);
+            inputCount += r;
+            if (inputCount == input.length) {
+                pauseRead();
+            }
+            inputLock.notifyAll();
+        }
+    }
+
+    private void pauseRead() {
+        readPaused = true;
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+    }
+
+    /**
+     * 선택 스레드에서 호출된다.
+     */
+    void onWritable() {
+        synchronized (outputLock) {
+            output.flip();
+            try {
+                channel.write(output);
+            } catch (IOException e) {
+                output.clear();
+                closeQuietly();
+                return;
+            }
+            output.compact();
+
+            if (output.position() == 0) {
+                writeRequested = false;
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            }
+            outputLock.notifyAll();
+        }
+    }
+
+    // must be called with outputLock held
+    private void requestWrite() {
+        if (!writeRequested) {
+            writeRequested = true;
+            server.post(() -> {
+                if (key.isValid()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                }
+            });
+        }
+    }
+
+    private int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        synchronized (inputLock) {
+            while (inputCount == 0 && !inputEof && !closed) {
+                try {
+                    inputLock.wait();
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted", e);
+                }
+            }
+            if (inputCount == 0) {
+                return -1;
+            }
+
+            int n = Math.min(len, inputCount);
+            int first = Math.min(n, input.length - inputHead);
+            System.arraycopy(input, inputHead, b, off, first);
+            System.arraycopy(input, 0, b, off + first, n - first);
+            inputHead = (inputHead + n) % input.length;
+            inputCount -= n;
+
+            if (readPaused) {
+                readPaused = false;
+                server.post(() -> {
+                    if (key.isValid()) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                    }
+                });
+            }
+            return n;
+        }
+    }
+
+    private void write(byte[] b, int off, int len) throws IOException {
+        synchronized (outputLock) {
+            while (len > 0) {
+                while (!output.hasRemaining() && !closed) {
+                    requestWrite();
+                    try {
+                        outputLock.wait();
+                    } catch (InterruptedException e) {
+                        throw new IOException("Interrupted", e);
+                    }
+                }
+                if (closed) {
+                    throw new IOException("Connection closed");
+                }
+
+                int n = Math.min(len, output.remaining());
+                output.put(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+    }
+
+    private void flush() throws IOException {
+        synchronized (outputLock) {
+            if (closed) {
+                throw new IOException("Connection closed");
+            }
+            if (output.position() > 0) {
+                requestWrite();
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        closed = true;
+        synchronized (inputLock) {
+            inputLock.notifyAll();
+        }
+        synchronized (outputLock) {
+            outputLock.notifyAll();
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        shutdown();
+        // 채널을 닫으면 선택 키도 취소된다.
+        channel.close();
+    }
+
+    private final class ChannelInputStream extends InputStream {
+        private final byte[] single = new byte[1];
+
+        @Override
+        public int read() throws IOException {
+            int r = TcpConnection.this.read(single, 0, 1);
+            return r == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return TcpConnection.this.read(b, off, len);
+        }
+    }
+
+    private final class ChannelOutputStream extends OutputStream {
+        // guarded by outputLock
+        private final byte[] single = new byte[1];
+
+        @Override
+        public void write(int b) throws IOException {
+            synchronized (outputLock) {
+                single[0] = (byte) b;
+                TcpConnection.this.write(single, 0, 1);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            TcpConnection.this.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            TcpConnection.this.flush();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.genymobile.scrcpy.device;
+
+import com.genymobile.scrcpy.util.Ln;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * 루프백 TCP 포트에서 컨트롤 연결을 받는 전송. adb를 거치지 않고 localhost TCP로 접근하는 에뮬레이터 환경에서 사용한다.
+ * <p>
+ * 모든 연결의 소켓 입출력은 하나의 선택 스레드("control-nio")가 논블로킹으로 처리한다. 수신은 공유 direct 버퍼로 읽어 연결별 입력 버퍼로 옮기고,
+ * 송신은 연결별 direct 버퍼에서 바로 쓴다. 세션은 각 연결의 {@link com.genymobile.scrcpy.control.ControlChannel}을 로컬 소켓과 똑같이 사용하므로
+ * 텍스트/바이너리 프로토콜은 그대로다.
+ */
+public final class TcpControlServer implements Closeable {
+
+    private static final int READ_BUFFER_SIZE = 1 << 16; // 64k
+
+    // accept()를 깨우는 종료 표시
+    private static final Object CLOSED = new Object();
+
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final boolean sendDummyByte;
+
+    // 다른 스레드에서 요청한 관심 이벤트 변경, 선택 스레드에서 실행한다.
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    // 수락했지만 아직 세션에 넘기지 않은 연결
+    private final BlockingQueue<Object> accepted = new LinkedBlockingQueue<>();
+    // 모든 연결이 공유하는 수신 버퍼 (선택 스레드 전용)
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+    private final Thread thread;
+    private volatile boolean closed;
+
+    private TcpControlServer(ServerSocketChannel serverChannel, Selector selector, boolean sendDummyByte) {
+        this.serverChannel = serverChannel;
+        this.selector = selector;
+        this.sendDummyByte = sendDummyByte;
+        thread = new Thread(this::loop, "control-nio");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * 루프백 주소의 {@code port}에서 연결을 받기 시작한다.
+     */
+    public static TcpControlServer open(int port, boolean sendDummyByte) throws IOException {
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        Selector selector = null;
+        try {
+            serverChannel.socket().setReuseAddress(true);
+            serverChannel.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            serverChannel.configureBlocking(false);
+            selector = Selector.open();
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            serverChannel.close();
+            if (selector != null) {
+                selector.close();
+            }
+            throw e;
+        }
+
+        TcpControlServer server = new TcpControlServer(serverChannel, selector, sendDummyByte);
+        server.thread.start();
+        Ln.i("Listening on 127.0.0.1:" + port);
+        return server;
+    }
+
+    /**
+     * 다음 연결을 기다린다. 반환된 연결은 호출자가 닫아야 한다.
+     */
+    public ControlConnection accept() throws IOException {
+        Object connection;
+        try {
+            connection = accepted.take();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+        if (connection == CLOSED) {
+            accepted.offer(CLOSED);
+            throw new IOException("TCP control server closed");
+        }
+        return (ControlConnection) connection;
+    }
+
+    /**
+     * 선택 스레드에서 {@code task}를 실행한다.
+     */
+    void post(Runnable task) {
+        tasks.offer(task);
+        selector.wakeup();
+    }
+
+    private void loop() {
+        try {
+            while (!closed) {
+                selector.select();
+
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (CancelledKeyException e) {
+                        // the connection was closed by its session
+                    }
+                }
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+
+                    if (key.isAcceptable()) {
+                        acceptConnection();
+                        continue;
+                    }
+
+                    TcpConnection connection = (TcpConnection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            connection.onReadable(readBuffer);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.onWritable();
+                        }
+                    } catch (CancelledKeyException e) {
+                        // the connection was closed by its session
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                Ln.e("TCP control server error", e);
+            }
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof TcpConnection) {
+                    ((TcpConnection) key.attachment()).shutdown();
+                }
+            }
+            accepted.offer(CLOSED);
+            Ln.d("TCP control server stopped");
+        }
+    }
+
+    private void acceptConnection() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+
+        try {
+            channel.configureBlocking(false);
+            // 응답은 이미 송신 스레드에서 묶어 보내므로 Nagle 지연은 필요 없다.
+            channel.socket().setTcpNoDelay(true);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            TcpConnection connection = new TcpConnection(this, channel, key);
+            key.attach(connection);
+            if (sendDummyByte) {
+                // send one byte so the client may read() to detect a connection error
+                connection.writeDummyByte();
+            }
+            accepted.offer(connection);
+        } catch (IOException e) {
+            Ln.w("Could not accept TCP connection: " + e.getMessage());
+            channel.close();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        selector.wakeup();
+        serverChannel.close();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        selector.close();
+    }
+}
@@ -19,4 +19,30 @@ public final class StringUtils {
         }
         return len;
     }
+
+    /**
+     * Return the number of bytes of the UTF-8 encoding of {@code s}, without encoding it.
+     * <p>
+     * Unpaired surrogates count as 1 byte, since the encoder replaces them by '?'.
+     */
+    public static int getUtf8Length(CharSequence s) {
+        int len = s.length();
+        int count = 0;
+        for (int i = 0; i < len; ++i) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                ++count;
+            } else if (c < 0x800) {
+                count += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                count += 4;
+                ++i;
+            } else if (Character.isSurrogate(c)) {
+                ++count;
+            } else {
+                count += 3;
+            }
+        }
+        return count;
+    }
 }
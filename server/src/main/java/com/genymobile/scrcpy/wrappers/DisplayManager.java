@@ -152,6 +152,36 @@ public final class DisplayManager {
         }
     }
 
+    /**
+     * @return 디스플레이의 현재 재생률(Hz), 알 수 없으면 0
+     */
+    public float getRefreshRate(int displayId) {
+        try {
+            Method method = getGetDisplayInfoMethod();
+            Object displayInfo = method.invoke(manager, displayId);
+            if (displayInfo == null) {
+                return 0;
+            }
+            Class<?> cls = displayInfo.getClass();
+            try {
+                // 최근 버전은 앱별 재생률 오버라이드까지 반영한 값을 준다.
+                return (float) cls.getMethod("getRefreshRate").invoke(displayInfo);
+            } catch (NoSuchMethodException e) {
+                // fall through
+            }
+            try {
+                Object mode = cls.getMethod("getMode").invoke(displayInfo);
+                return (float) mode.getClass().getMethod("getRefreshRate").invoke(mode);
+            } catch (NoSuchMethodException e) {
+                // 디스플레이 모드가 없는 Android 5
+                return cls.getDeclaredField("refreshRate").getFloat(displayInfo);
+            }
+        } catch (ReflectiveOperationException e) {
+            Ln.e("Could not get display refresh rate", e);
+            return 0;
+        }
+    }
+
     public int[] getDisplayIds() {
         try {
             return (int[]) manager.getClass().getMethod("getDisplayIds").invoke(manager);
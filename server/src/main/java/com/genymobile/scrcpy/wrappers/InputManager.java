@@ -6,11 +6,15 @@ import com.genymobile.scrcpy.util.Ln;
 
 import android.annotation.SuppressLint;
 import android.annotation.TargetApi;
+import android.os.RemoteException;
 import android.view.InputEvent;
+import android.view.KeyEvent;
 import android.view.MotionEvent;
 
+import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
 
 @SuppressLint("PrivateApi,DiscouragedPrivateApi")
 public final class InputManager {
@@ -20,6 +24,8 @@ public final class InputManager {
     public static final int INJECT_INPUT_EVENT_MODE_WAIT_FOR_FINISH = 2;
 
     private final android.hardware.input.InputManager manager;
+    // injectInputEvent()의 바인더 직접 호출, 준비하지 못했으면 null이고 리플렉션 경로만 쓴다.
+    private final InputManagerBinder binder;
     private long lastPermissionLogDate;
 
     private static Method injectInputEventMethod;
@@ -28,14 +34,35 @@ public final class InputManager {
     private static Method addUniqueIdAssociationByPortMethod;
     private static Method removeUniqueIdAssociationByPortMethod;
 
+    // KeyEvent의 시각 필드. 값은 밀리초에 keyEventTimeScale을 곱한 것이다(Android 13부터 나노초). 0이면 아직 찾지 않았고 음수면 쓸 수 없다.
+    private static Field keyEventDownTimeField;
+    private static Field keyEventEventTimeField;
+    private static volatile long keyEventTimeScale;
+
+    // 이벤트마다 Method.invoke()의 가변 인자 배열을 만들지 않도록 스레드별로 재사용한다. mode와 디스플레이 ID는 작은 정수라 박싱해도 캐시된
+    // Integer를 쓴다.
+    private static final ThreadLocal<Object[]> INJECT_ARGS = new ThreadLocal<Object[]>() {
+        @Override
+        protected Object[] initialValue() {
+            return new Object[2];
+        }
+    };
+    private static final ThreadLocal<Object[]> SET_DISPLAY_ID_ARGS = new ThreadLocal<Object[]>() {
+        @Override
+        protected Object[] initialValue() {
+            return new Object[1];
+        }
+    };
+
     static InputManager create() {
         android.hardware.input.InputManager manager = (android.hardware.input.InputManager) FakeContext.get()
                 .getSystemService(FakeContext.INPUT_SERVICE);
-        return new InputManager(manager);
+        return new InputManager(manager, InputManagerBinder.create());
     }
 
-    private InputManager(android.hardware.input.InputManager manager) {
+    private InputManager(android.hardware.input.InputManager manager, InputManagerBinder binder) {
         this.manager = manager;
+        this.binder = binder;
     }
 
     private static Method getInjectInputEventMethod() throws NoSuchMethodException {
@@ -45,31 +72,69 @@ public final class InputManager {
         return injectInputEventMethod;
     }
 
+    /**
+     * @return {@link #injectInputEvent(InputEvent, int)}가 리플렉션 없이 바인더에 직접 트랜잭션을 보내면 {@code true}
+     */
+    public boolean isDirectInjectionSupported() {
+        return binder != null;
+    }
+
     public boolean injectInputEvent(InputEvent inputEvent, int mode) {
+        if (binder == null) {
+            return injectInputEventReflective(inputEvent, mode);
+        }
+
+        try {
+            return binder.injectInputEvent(inputEvent, mode);
+        } catch (SecurityException e) {
+            onSecurityException(e);
+            return false;
+        } catch (RemoteException | RuntimeException e) {
+            Ln.e("Could not inject input event", e);
+            return false;
+        }
+    }
+
+    /**
+     * 바인더 직접 호출을 쓸 수 없을 때의 경로. 비교 측정을 위해 공개한다.
+     */
+    public boolean injectInputEventReflective(InputEvent inputEvent, int mode) {
+        Object[] args = INJECT_ARGS.get();
         try {
             Method method = getInjectInputEventMethod();
-            return (boolean) method.invoke(manager, inputEvent, mode);
+            args[0] = inputEvent;
+            args[1] = mode;
+            return (boolean) method.invoke(manager, args);
         } catch (ReflectiveOperationException e) {
             if (e instanceof InvocationTargetException) {
                 Throwable cause = e.getCause();
                 if (cause instanceof SecurityException) {
-                    String message = e.getCause().getMessage();
-                    if (message != null && message.contains("INJECT_EVENTS permission")) {
-                        // Do not flood the console, limit to one permission error log every 3 seconds
-                        long now = System.currentTimeMillis();
-                        if (lastPermissionLogDate <= now - 3000) {
-                            Ln.e(message);
-                            Ln.e("Make sure you have enabled \"USB debugging (Security Settings)\" and then rebooted your device.");
-                            lastPermissionLogDate = now;
-                        }
-                        // Do not print the stack trace
-                        return false;
-                    }
+                    onSecurityException((SecurityException) cause);
+                    return false;
                 }
             }
             Ln.e("Could not invoke method", e);
             return false;
+        } finally {
+            // 재활용된 이벤트를 붙잡고 있지 않는다.
+            args[0] = null;
+        }
+    }
+
+    private void onSecurityException(SecurityException e) {
+        String message = e.getMessage();
+        if (message != null && message.contains("INJECT_EVENTS permission")) {
+            // Do not flood the console, limit to one permission error log every 3 seconds
+            long now = System.currentTimeMillis();
+            if (lastPermissionLogDate <= now - 3000) {
+                Ln.e(message);
+                Ln.e("Make sure you have enabled \"USB debugging (Security Settings)\" and then rebooted your device.");
+                lastPermissionLogDate = now;
+            }
+            // Do not print the stack trace
+            return;
         }
+        Ln.e("Could not inject input event", e);
     }
 
     private static Method getSetDisplayIdMethod() throws NoSuchMethodException {
@@ -82,7 +147,9 @@ public final class InputManager {
     public static boolean setDisplayId(InputEvent inputEvent, int displayId) {
         try {
             Method method = getSetDisplayIdMethod();
-            method.invoke(inputEvent, displayId);
+            Object[] args = SET_DISPLAY_ID_ARGS.get();
+            args[0] = displayId;
+            method.invoke(inputEvent, args);
             return true;
         } catch (ReflectiveOperationException e) {
             Ln.e("Cannot associate a display id to the input event", e);
@@ -108,6 +175,56 @@ public final class InputManager {
         }
     }
 
+    private static synchronized long getKeyEventTimeScale() {
+        if (keyEventTimeScale == 0) {
+            long scale = -1;
+            try {
+                Field downTimeField = KeyEvent.class.getDeclaredField("mDownTime");
+                Field eventTimeField = KeyEvent.class.getDeclaredField("mEventTime");
+                downTimeField.setAccessible(true);
+                eventTimeField.setAccessible(true);
+                // 알려진 시각으로 만든 이벤트에서 필드의 단위를 확인한다.
+                KeyEvent probe = new KeyEvent(1, 2, KeyEvent.ACTION_DOWN, KeyEvent.KEYCODE_UNKNOWN, 0);
+                long unit = downTimeField.getLong(probe);
+                if ((unit == 1 || unit == TimeUnit.MILLISECONDS.toNanos(1)) && eventTimeField.getLong(probe) == 2 * unit) {
+                    keyEventDownTimeField = downTimeField;
+                    keyEventEventTimeField = eventTimeField;
+                    scale = unit;
+                } else {
+                    Ln.w("Unexpected KeyEvent time unit, key events will not be reused");
+                }
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                Ln.w("Cannot access KeyEvent time fields, key events will not be reused", e);
+            }
+            keyEventTimeScale = scale;
+        }
+        return keyEventTimeScale;
+    }
+
+    /**
+     * 이미 만든 KeyEvent의 DOWN 시각과 이벤트 시각을 바꾼다. 같은 이벤트를 다시 주입할 수 있게 한다. KeyEvent에는 공개된 API가 없으므로
+     * 필드를 직접 쓴다.
+     *
+     * @return 필드를 쓸 수 없으면 {@code false}, 이때 호출자는 새 이벤트를 만들어야 한다
+     */
+    public static boolean setKeyEventTime(KeyEvent event, long downTime, long eventTime) {
+        long scale = keyEventTimeScale;
+        if (scale == 0) {
+            scale = getKeyEventTimeScale();
+        }
+        if (scale < 0) {
+            return false;
+        }
+        try {
+            keyEventDownTimeField.setLong(event, downTime * scale);
+            keyEventEventTimeField.setLong(event, eventTime * scale);
+            return true;
+        } catch (IllegalAccessException e) {
+            Ln.e("Cannot set KeyEvent time", e);
+            return false;
+        }
+    }
+
     private static Method getAddUniqueIdAssociationByPortMethod() throws NoSuchMethodException {
         if (addUniqueIdAssociationByPortMethod == null) {
             addUniqueIdAssociationByPortMethod = android.hardware.input.InputManager.class.getMethod(
@@ -0,0 +1,85 @@
+package com.genymobile.scrcpy.wrappers;
+
+import com.genymobile.scrcpy.util.Ln;
+
+import android.annotation.SuppressLint;
+import android.os.IBinder;
+import android.os.IInterface;
+import android.os.Parcel;
+import android.os.RemoteException;
+import android.view.InputEvent;
+
+import java.lang.reflect.Field;
+
+/**
+ * "input" 서비스 바인더에 IInputManager.injectInputEvent() 트랜잭션을 직접 보낸다.
+ * <p>
+ * 트랜잭션 코드는 디바이스의 IInputManager.Stub에서, 인터페이스 디스크립터는 바인더에서 만들 때 한 번만 가져온다. 이벤트마다 AIDL 프록시와 같은
+ * 내용을 풀에서 얻은 Parcel에 쓰므로 리플렉션, 박싱과 인자 배열이 없다.
+ */
+@SuppressLint("PrivateApi,DiscouragedPrivateApi")
+final class InputManagerBinder {
+
+    private static final String INTERFACE = "android.hardware.input.IInputManager";
+
+    private final IBinder binder;
+    private final String descriptor;
+    private final int injectInputEventTransaction;
+
+    private InputManagerBinder(IBinder binder, String descriptor, int injectInputEventTransaction) {
+        this.binder = binder;
+        this.descriptor = descriptor;
+        this.injectInputEventTransaction = injectInputEventTransaction;
+    }
+
+    /**
+     * 어떤 실패도 던지지 않는다. 호출하는 쪽은 {@code null}이면 리플렉션 경로를 쓴다.
+     *
+     * @return 트랜잭션 코드, 서비스나 디스크립터를 찾지 못하면 {@code null}
+     */
+    static InputManagerBinder create() {
+        try {
+            Field field = Class.forName(INTERFACE + "$Stub").getDeclaredField("TRANSACTION_injectInputEvent");
+            field.setAccessible(true);
+            int transaction = field.getInt(null);
+
+            // getService()는 실패를 AssertionError로 감싸고, 서비스가 없으면 null 인터페이스를 준다.
+            IInterface service = ServiceManager.getService("input", INTERFACE);
+            IBinder binder = service != null ? service.asBinder() : null;
+            if (binder == null) {
+                Ln.w("Cannot bind IInputManager.injectInputEvent() directly: no \"input\" service");
+                return null;
+            }
+            String descriptor = binder.getInterfaceDescriptor();
+            if (descriptor == null) {
+                return null;
+            }
+            return new InputManagerBinder(binder, descriptor, transaction);
+        } catch (ReflectiveOperationException | RemoteException | RuntimeException | Error e) {
+            // Error: getService()의 AssertionError, 기기에 없는 클래스의 LinkageError
+            Ln.w("Cannot bind IInputManager.injectInputEvent() directly", e);
+            return null;
+        }
+    }
+
+    /**
+     * @throws SecurityException INJECT_EVENTS 권한이 없을 때
+     */
+    boolean injectInputEvent(InputEvent inputEvent, int mode) throws RemoteException {
+        Parcel data = Parcel.obtain();
+        Parcel reply = Parcel.obtain();
+        try {
+            // AIDL이 생성한 프록시와 같은 형식: "in InputEvent"는 null 여부 뒤에 내용
+            data.writeInterfaceToken(descriptor);
+            data.writeInt(1);
+            inputEvent.writeToParcel(data, 0);
+            data.writeInt(mode);
+            binder.transact(injectInputEventTransaction, data, reply, 0);
+            reply.readException();
+            return reply.readInt() != 0;
+        } finally {
+            reply.recycle();
+            data.recycle();
+        }
+    }
+}
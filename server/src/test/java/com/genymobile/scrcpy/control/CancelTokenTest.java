@@ -0,0 +1,44 @@
+package com.genymobile.scrcpy.control;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CancelTokenTest {
+
+    @Test
+    public void testSleepWithoutCancel() {
+        CancelToken token = new CancelToken("1", CancelToken.CATEGORY_GESTURE);
+        long start = System.nanoTime();
+        Assert.assertFalse(token.sleep(20));
+        Assert.assertTrue(System.nanoTime() - start >= 15_000_000);
+        Assert.assertFalse(token.isCancelled());
+    }
+
+    @Test
+    public void testCancelWakesSleep() throws InterruptedException {
+        final CancelToken token = new CancelToken(null, CancelToken.CATEGORY_GESTURE);
+        Thread canceller = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                // ignore
+            }
+            token.cancel();
+        });
+        canceller.start();
+
+        long start = System.nanoTime();
+        Assert.assertTrue(token.sleep(10_000));
+        Assert.assertTrue(System.nanoTime() - start < 5_000_000_000L);
+        canceller.join();
+    }
+
+    @Test
+    public void testMatches() {
+        CancelToken token = new CancelToken(null, CancelToken.CATEGORY_GESTURE | CancelToken.CATEGORY_CLIPBOARD);
+        Assert.assertTrue(token.matches(CancelToken.CATEGORY_GESTURE));
+        Assert.assertTrue(token.matches(CancelToken.CATEGORY_CLIPBOARD));
+        Assert.assertFalse(token.matches(CancelToken.CATEGORY_TEXT));
+        Assert.assertTrue(token.matches(CancelToken.CATEGORY_ALL));
+    }
+}
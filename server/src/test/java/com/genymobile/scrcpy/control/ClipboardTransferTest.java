@@ -0,0 +1,87 @@
+package com.genymobile.scrcpy.control;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class ClipboardTransferTest {
+
+    private static String createText(int length) {
+        StringBuilder builder = new StringBuilder(length);
+        String pattern = "aé한😀";
+        while (builder.length() < length) {
+            builder.append(pattern);
+        }
+        return builder.toString();
+    }
+
+    @Test
+    public void testDownloadInChunks() {
+        String text = createText(100000);
+        ClipboardTransfer transfer = new ClipboardTransfer();
+        transfer.beginDownload(text);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        int chunks = 0;
+        while (true) {
+            ByteBuffer chunk = transfer.readChunk();
+            if (!chunk.hasRemaining()) {
+                break;
+            }
+            Assert.assertTrue(chunk.remaining() <= ClipboardTransfer.CHUNK_MAX_LENGTH);
+            bos.write(chunk.array(), 0, chunk.limit());
+            ++chunks;
+        }
+
+        Assert.assertTrue(chunks > 1);
+        Assert.assertFalse(transfer.isDownloading());
+        Assert.assertArrayEquals(text.getBytes(StandardCharsets.UTF_8), bos.toByteArray());
+    }
+
+    @Test
+    public void testUpload() {
+        String text = createText(100000);
+        byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+
+        ClipboardTransfer transfer = new ClipboardTransfer();
+        Assert.assertTrue(transfer.beginUpload(-1));
+        int offset = 0;
+        while (offset < utf8.length) {
+            // split on arbitrary boundaries, possibly in the middle of a code point
+            int len = Math.min(1000, utf8.length - offset);
+            Assert.assertEquals(offset + len, transfer.appendUpload(utf8, offset, len));
+            offset += len;
+        }
+
+        Assert.assertEquals(text, transfer.finishUpload());
+        Assert.assertFalse(transfer.isUploading());
+    }
+
+    @Test
+    public void testUploadLargerThanPresize() {
+        // 선언한 크기는 일부만 미리 할당하고, 나머지는 청크가 도착하는 만큼 늘린다.
+        byte[] chunk = new byte[ClipboardTransfer.CHUNK_MAX_LENGTH];
+        for (int i = 0; i < chunk.length; ++i) {
+            chunk[i] = (byte) ('a' + i % 26);
+        }
+        int count = 50; // 2.4M
+        ClipboardTransfer transfer = new ClipboardTransfer();
+        Assert.assertTrue(transfer.beginUpload(ClipboardTransfer.TRANSFER_MAX_LENGTH));
+        for (int i = 0; i < count; ++i) {
+            Assert.assertEquals((i + 1) * chunk.length, transfer.appendUpload(chunk, 0, chunk.length));
+        }
+
+        String text = transfer.finishUpload();
+        Assert.assertEquals(count * chunk.length, text.length());
+        Assert.assertEquals(new String(chunk, StandardCharsets.UTF_8), text.substring(text.length() - chunk.length));
+    }
+
+    @Test
+    public void testUploadTooLarge() {
+        ClipboardTransfer transfer = new ClipboardTransfer();
+        Assert.assertFalse(transfer.beginUpload(ClipboardTransfer.TRANSFER_MAX_LENGTH + 1));
+    }
+}
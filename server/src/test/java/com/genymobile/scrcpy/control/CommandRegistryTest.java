@@ -0,0 +1,104 @@
+package com.genymobile.scrcpy.control;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CommandRegistryTest {
+
+    private static final class EchoCommand extends CommandHandler {
+        EchoCommand(String name, String usage) {
+            super(name, usage, 0);
+        }
+
+        @Override
+        public String execute(LineTokenizer arguments) {
+            return "OK " + arguments.remainingToString();
+        }
+    }
+
+    private static LineTokenizer command(String line) {
+        LineTokenizer tokenizer = new LineTokenizer(line);
+        tokenizer.nextToken();
+        return tokenizer;
+    }
+
+    @Test
+    public void testLookupIgnoreCase() {
+        CommandRegistry registry = new CommandRegistry();
+        CommandHandler tap = registry.register(new EchoCommand("TAP", "<x> <y>"));
+        CommandHandler clipGet = registry.register(new EchoCommand("CLIP_GET", ""));
+
+        Assert.assertSame(tap, registry.lookup(command("tap 1 2")));
+        Assert.assertSame(tap, registry.lookup(command("TaP")));
+        Assert.assertSame(clipGet, registry.lookup(command("clip_get")));
+        Assert.assertNull(registry.lookup(command("TAPS")));
+        Assert.assertNull(registry.lookup(command("")));
+    }
+
+    @Test
+    public void testManyCommands() {
+        CommandRegistry registry = new CommandRegistry();
+        for (int i = 0; i < 100; ++i) {
+            registry.register(new EchoCommand("CMD" + i, ""));
+        }
+
+        Assert.assertEquals(100, registry.size());
+        for (int i = 0; i < 100; ++i) {
+            Assert.assertEquals("CMD" + i, registry.lookup(command("cmd" + i)).getName());
+        }
+        Assert.assertNull(registry.lookup(command("cmd100")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicate() {
+        CommandRegistry registry = new CommandRegistry();
+        registry.register(new EchoCommand("PING", ""));
+        registry.register(new EchoCommand("ping", ""));
+    }
+
+    @Test
+    public void testHashMatchesToken() {
+        Assert.assertEquals(LineTokenizer.hashIgnoreCase("SUBSCRIBE"), command("subscribe clipboard").tokenHashIgnoreCase());
+    }
+
+    @Test
+    public void testArgumentCount() {
+        CommandHandler tap = new EchoCommand("TAP", "<x> <y> [pressure] [buttons]");
+        Assert.assertFalse(tap.acceptsArguments(new LineTokenizer("1")));
+        Assert.assertTrue(tap.acceptsArguments(new LineTokenizer("1 2")));
+        Assert.assertTrue(tap.acceptsArguments(new LineTokenizer("1 2 0.5 1")));
+        Assert.assertFalse(tap.acceptsArguments(new LineTokenizer("1 2 0.5 1 9")));
+
+        CommandHandler subscribe = new EchoCommand("SUBSCRIBE", "<event>...");
+        Assert.assertFalse(subscribe.acceptsArguments(new LineTokenizer("  ")));
+        Assert.assertTrue(subscribe.acceptsArguments(new LineTokenizer("clipboard power display rotation")));
+
+        CommandHandler session = new EchoCommand("SESSION", "");
+        Assert.assertTrue(session.acceptsArguments(new LineTokenizer("")));
+        Assert.assertFalse(session.acceptsArguments(new LineTokenizer("x")));
+    }
+
+    @Test
+    public void testReceiverCommand() {
+        CommandRegistry registry = new CommandRegistry();
+        CommandHandler mode = registry.register(CommandHandler.createReceiverCommand("MODE", "<TEXT|BINARY>"));
+        CommandHandler tap = registry.register(new EchoCommand("TAP", "<x> <y>"));
+
+        Assert.assertSame(mode, registry.lookup(command("mode binary")));
+        Assert.assertTrue(mode.isReceiverCommand());
+        Assert.assertFalse(mode.isAllowedInBatch());
+        Assert.assertTrue(mode.acceptsArguments(new LineTokenizer("BINARY")));
+        Assert.assertFalse(tap.isReceiverCommand());
+        Assert.assertTrue(tap.isAllowedInBatch());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReceiverCommandHasNoAction() {
+        CommandHandler.createReceiverCommand("AT", "<uptimeMillis> <command> [arg]...").execute(new LineTokenizer("1 TAP 1 2"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRequiredAfterOptional() {
+        new EchoCommand("X", "[a] <b>");
+    }
+}
@@ -0,0 +1,115 @@
+package com.genymobile.scrcpy.control;
+
+import android.view.MotionEvent;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GestureTest {
+
+    @Test
+    public void testSwipeTimeline() {
+        Gesture gesture = Gesture.swipe(0, 0, 100, 200, 160);
+        // DOWN, MOVE 9개, UP
+        Assert.assertEquals(11, gesture.size());
+
+        Assert.assertEquals(MotionEvent.ACTION_DOWN, gesture.getAction(0));
+        Assert.assertEquals(0, gesture.getTime(0));
+        Assert.assertEquals(0, gesture.getX(0, 0));
+
+        Assert.assertEquals(MotionEvent.ACTION_MOVE, gesture.getAction(5));
+        Assert.assertEquals(80, gesture.getTime(5));
+        Assert.assertEquals(50, gesture.getX(5, 0));
+        Assert.assertEquals(100, gesture.getY(5, 0));
+
+        Assert.assertEquals(MotionEvent.ACTION_UP, gesture.getAction(10));
+        Assert.assertEquals(160, gesture.getTime(10));
+        Assert.assertEquals(100, gesture.getX(10, 0));
+        Assert.assertEquals(200, gesture.getY(10, 0));
+        Assert.assertEquals(160, gesture.getDuration());
+
+        for (int i = 1; i < gesture.size(); ++i) {
+            Assert.assertTrue(gesture.getTime(i) >= gesture.getTime(i - 1));
+        }
+    }
+
+    @Test
+    public void testZeroDuration() {
+        Gesture gesture = Gesture.swipe(10, 20, 30, 40, 0);
+        Assert.assertEquals(2, gesture.size());
+        Assert.assertEquals(MotionEvent.ACTION_DOWN, gesture.getAction(0));
+        Assert.assertEquals(MotionEvent.ACTION_UP, gesture.getAction(1));
+        Assert.assertEquals(0, gesture.getDuration());
+        Assert.assertEquals(30, gesture.getX(1, 0));
+    }
+
+    @Test
+    public void testPinch() {
+        Gesture gesture = Gesture.pinch(500, 800, 200, 600, 160, 0f);
+        // DOWN, POINTER_DOWN, MOVE 9개, POINTER_UP, UP
+        Assert.assertEquals(13, gesture.size());
+
+        Assert.assertEquals(MotionEvent.ACTION_DOWN, gesture.getAction(0));
+        Assert.assertEquals(1, gesture.getPointerCount(0));
+        Assert.assertEquals(600, gesture.getX(0, 0));
+        Assert.assertEquals(400, gesture.getX(0, 1));
+
+        int pointerDown = MotionEvent.ACTION_POINTER_DOWN | (1 << MotionEvent.ACTION_POINTER_INDEX_SHIFT);
+        Assert.assertEquals(pointerDown, gesture.getAction(1));
+        Assert.assertEquals(2, gesture.getPointerCount(1));
+
+        Assert.assertEquals(MotionEvent.ACTION_MOVE, gesture.getAction(6));
+        Assert.assertEquals(80, gesture.getTime(6));
+        Assert.assertEquals(700, gesture.getX(6, 0));
+        Assert.assertEquals(300, gesture.getX(6, 1));
+        Assert.assertEquals(800, gesture.getY(6, 1));
+
+        int pointerUp = MotionEvent.ACTION_POINTER_UP | (1 << MotionEvent.ACTION_POINTER_INDEX_SHIFT);
+        Assert.assertEquals(pointerUp, gesture.getAction(11));
+        Assert.assertEquals(2, gesture.getPointerCount(11));
+        Assert.assertEquals(MotionEvent.ACTION_UP, gesture.getAction(12));
+        Assert.assertEquals(1, gesture.getPointerCount(12));
+        Assert.assertEquals(800, gesture.getX(12, 0));
+        Assert.assertEquals(200, gesture.getX(12, 1));
+        Assert.assertEquals(gesture.getOffset(12), 12 * 2);
+    }
+
+    @Test
+    public void testRotate() {
+        Gesture gesture = Gesture.rotate(0, 0, 100, 90f, 0, 0f);
+        Assert.assertEquals(4, gesture.size());
+        Assert.assertEquals(100, gesture.getX(0, 0));
+        Assert.assertEquals(0, gesture.getY(0, 0));
+        Assert.assertEquals(-100, gesture.getX(0, 1));
+
+        // 시계 방향으로 90도: (100, 0) -> (0, 100)
+        Assert.assertEquals(0, gesture.getX(3, 0));
+        Assert.assertEquals(100, gesture.getY(3, 0));
+        Assert.assertEquals(-100, gesture.getY(3, 1));
+    }
+
+    @Test
+    public void testSample() {
+        int[] xs = new int[2];
+        int[] ys = new int[2];
+
+        Gesture swipe = Gesture.swipe(0, 0, 100, 200, 100);
+        Assert.assertEquals(1, swipe.sample(25, xs, ys));
+        Assert.assertEquals(25, xs[0]);
+        Assert.assertEquals(50, ys[0]);
+        // 시각표의 STEP_MS 간격과 관계없는 시각에서도 경로 위에 있다.
+        swipe.sample(37, xs, ys);
+        Assert.assertEquals(37, xs[0]);
+        Assert.assertEquals(74, ys[0]);
+        // 범위 밖은 양 끝에 고정한다.
+        swipe.sample(500, xs, ys);
+        Assert.assertEquals(100, xs[0]);
+        Assert.assertEquals(200, ys[0]);
+
+        Gesture pinch = Gesture.pinch(500, 800, 200, 600, 100, 0f);
+        Assert.assertEquals(2, pinch.getPointerCount());
+        Assert.assertEquals(2, pinch.sample(50, xs, ys));
+        Assert.assertEquals(700, xs[0]);
+        Assert.assertEquals(300, xs[1]);
+        Assert.assertEquals(800, ys[1]);
+    }
+}
@@ -0,0 +1,48 @@
+package com.genymobile.scrcpy.control;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class InboundCommandTest {
+
+    private static final long NOW = 100000;
+
+    private static long parseAt(String time) {
+        LineTokenizer tokenizer = new LineTokenizer(time + " TAP 1 2");
+        tokenizer.nextToken();
+        return InboundCommand.parseScheduledTime(tokenizer, NOW);
+    }
+
+    @Test
+    public void testParseScheduledTime() {
+        Assert.assertEquals(NOW + 500, parseAt(Long.toString(NOW + 500)));
+        Assert.assertEquals(NOW + InboundCommand.AT_MAX_DELAY_MS, parseAt(Long.toString(NOW + InboundCommand.AT_MAX_DELAY_MS)));
+        // 이미 지난 시각은 바로 실행한다.
+        Assert.assertEquals(1, parseAt("1"));
+        Assert.assertEquals(NOW, parseAt(Long.toString(NOW)));
+    }
+
+    @Test
+    public void testParseInvalidScheduledTime() {
+        Assert.assertEquals(InboundCommand.NOT_SCHEDULED, parseAt("0"));
+        Assert.assertEquals(InboundCommand.NOT_SCHEDULED, parseAt("-1"));
+        Assert.assertEquals(InboundCommand.NOT_SCHEDULED, parseAt(Long.toString(Long.MIN_VALUE)));
+        Assert.assertEquals(InboundCommand.NOT_SCHEDULED, parseAt(Long.toString(NOW + InboundCommand.AT_MAX_DELAY_MS + 1)));
+        Assert.assertEquals(InboundCommand.NOT_SCHEDULED, parseAt(Long.toString(Long.MAX_VALUE)));
+        Assert.assertEquals(InboundCommand.NOT_SCHEDULED, parseAt("1.5"));
+        Assert.assertEquals(InboundCommand.NOT_SCHEDULED, parseAt("TAP"));
+    }
+
+    @Test
+    public void testScheduledTimeIsClearedOnReuse() {
+        InboundCommand cmd = new InboundCommand();
+        cmd.setText(null, null, new LineTokenizer("1 2"));
+        cmd.setScheduledTime(NOW);
+        Assert.assertEquals(NOW, cmd.getScheduledTime());
+
+        cmd.setText(null, null, new LineTokenizer("3 4"));
+        Assert.assertEquals(InboundCommand.NOT_SCHEDULED, cmd.getScheduledTime());
+        cmd.setResponse(null, "OK");
+        Assert.assertEquals(InboundCommand.NOT_SCHEDULED, cmd.getScheduledTime());
+    }
+}
@@ -0,0 +1,182 @@
+package com.genymobile.scrcpy.control;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class InboundQueueTest {
+
+    private static void putText(InboundQueue queue, String args) throws InterruptedException {
+        queue.claim().setText(null, null, new LineTokenizer(args));
+        queue.publish();
+    }
+
+    private static void putMove(InboundQueue queue, String args, long key) throws InterruptedException {
+        InboundCommand cmd = queue.claim();
+        cmd.setText(null, null, new LineTokenizer(args));
+        cmd.setMove(key);
+        queue.publish();
+    }
+
+    private static void putResponse(InboundQueue queue, String response) throws InterruptedException {
+        queue.claim().setResponse(null, response);
+        queue.publish();
+    }
+
+    @Test
+    public void testMergeConsecutiveMoves() throws InterruptedException {
+        InboundQueue queue = new InboundQueue(8);
+        putResponse(queue, "OK");
+        putMove(queue, "move 1 1", 0);
+        putMove(queue, "move 2 2", 0);
+        putMove(queue, "move 3 3", 0);
+
+        Assert.assertEquals(2, queue.size());
+        Assert.assertEquals(2, queue.getMergedCount());
+
+        Assert.assertEquals("OK", queue.take().getResponse());
+        queue.done();
+
+        InboundCommand move = queue.take();
+        Assert.assertEquals("move 3 3", move.getArguments().remainingToString());
+        Assert.assertEquals(2, move.getMergedCount());
+        queue.done();
+    }
+
+    @Test
+    public void testDoNotMergeAcrossOtherCommands() throws InterruptedException {
+        InboundQueue queue = new InboundQueue(8);
+        putMove(queue, "move 1 1", 0);
+        putText(queue, "up 1 1");
+        putMove(queue, "move 2 2", 0);
+        putMove(queue, "move 3 3", 1); // another pointer
+
+        Assert.assertEquals(4, queue.size());
+        Assert.assertEquals(0, queue.getMergedCount());
+    }
+
+    @Test
+    public void testDoNotMergeIntoTakenCommand() throws InterruptedException {
+        InboundQueue queue = new InboundQueue(8);
+        putMove(queue, "move 1 1", 0);
+        InboundCommand first = queue.take();
+
+        putMove(queue, "move 2 2", 0);
+        Assert.assertEquals("move 1 1", first.getArguments().remainingToString());
+        queue.done();
+
+        Assert.assertEquals("move 2 2", queue.take().getArguments().remainingToString());
+        queue.done();
+        Assert.assertEquals(0, queue.getMergedCount());
+    }
+
+    @Test
+    public void testDeadline() {
+        InboundCommand cmd = new InboundCommand();
+        cmd.setText(null, null, new LineTokenizer(""));
+        Assert.assertFalse(cmd.isExpired(Long.MAX_VALUE - 1));
+
+        cmd.setDeadline(1000);
+        Assert.assertFalse(cmd.isExpired(1000));
+        Assert.assertTrue(cmd.isExpired(1001));
+    }
+
+    @Test
+    public void testSlotReuse() throws InterruptedException {
+        InboundQueue queue = new InboundQueue(2);
+        for (int i = 0; i < 10; ++i) {
+            putText(queue, "tap " + i + " " + i);
+            InboundCommand cmd = queue.take();
+            Assert.assertEquals("tap " + i + " " + i, cmd.getArguments().remainingToString());
+            Assert.assertNull(cmd.getResponse());
+            queue.done();
+        }
+        Assert.assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void testBlockWhenFull() throws InterruptedException {
+        final InboundQueue queue = new InboundQueue(1);
+        putResponse(queue, "1");
+
+        Thread producer = new Thread(() -> {
+            try {
+                putResponse(queue, "2");
+            } catch (InterruptedException e) {
+                // ignore
+            }
+        });
+        producer.start();
+        producer.join(100);
+        Assert.assertTrue(producer.isAlive());
+
+        Assert.assertEquals("1", queue.take().getResponse());
+        queue.done();
+        producer.join();
+        Assert.assertEquals("2", queue.take().getResponse());
+        queue.done();
+        queue.awaitIdle();
+    }
+
+    private static String largeArguments(char c) {
+        char[] chars = new char[8192];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    private static void putLargeText(InboundQueue queue, String args) throws InterruptedException {
+        LineTokenizer tokenizer = new LineTokenizer(args);
+        queue.claimText(tokenizer).setText(null, null, tokenizer);
+        queue.publish();
+    }
+
+    @Test
+    public void testOneLargeArgumentsAtATime() throws InterruptedException {
+        final InboundQueue queue = new InboundQueue(8);
+        final String first = largeArguments('a');
+        final String second = largeArguments('b');
+        putLargeText(queue, first);
+
+        Thread producer = new Thread(() -> {
+            try {
+                putLargeText(queue, second);
+            } catch (InterruptedException e) {
+                // ignore
+            }
+        });
+        producer.start();
+        producer.join(100);
+        Assert.assertTrue(producer.isAlive());
+
+        InboundCommand cmd = queue.take();
+        Assert.assertTrue(cmd.hasLargeArguments());
+        Assert.assertEquals(first, cmd.getArguments().remainingToString());
+        queue.done();
+        // 처리가 끝난 칸은 큰 인수를 붙잡지 않는다.
+        Assert.assertFalse(cmd.hasLargeArguments());
+        producer.join();
+
+        cmd = queue.take();
+        LineTokenizer detached = cmd.detachLargeArguments();
+        queue.done();
+        Assert.assertEquals(second, detached.remainingToString());
+
+        LineTokenizer third = new LineTokenizer(first);
+        final InboundCommand[] claimed = new InboundCommand[1];
+        Thread next = new Thread(() -> {
+            try {
+                claimed[0] = queue.claimText(third);
+            } catch (InterruptedException e) {
+                // ignore
+            }
+        });
+        next.start();
+        next.join(100);
+        // 넘겨받은 인수를 다 쓸 때까지 다음 큰 명령을 받지 않는다.
+        Assert.assertTrue(next.isAlive());
+        queue.releaseLargeArguments();
+        next.join();
+        Assert.assertNotNull(claimed[0]);
+    }
+}
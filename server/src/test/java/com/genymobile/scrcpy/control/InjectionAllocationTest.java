@@ -0,0 +1,207 @@
+package com.genymobile.scrcpy.control;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 주입 경로 중 JVM에서 실행할 수 있는 부분(수신, 파싱, 실행 큐, 응답 큐잉)이 안정 상태에서 이벤트마다 할당하지 않는지 확인한다. 부분별로 재므로
+ * 전체 경로를 증명하지는 않는다. Controller를 거쳐 MotionEvent 풀과 미리 만든 KeyEvent로 주입하는 실제 TAP/KEYCODE 경로는 기기에서
+ * "INJECT_STATS START" 뒤 receive/dispatch/touch/key 할당 수로 확인한다.
+ */
+public class InjectionAllocationTest {
+
+    private static final int WARMUP = 20000;
+    private static final int ITERATIONS = 10000;
+    // 송신 스레드 없이 넣기만 하므로 송신 큐 크기보다 작아야 한다.
+    private static final int RESPONSES = 1000;
+
+    private com.sun.management.ThreadMXBean threadBean;
+
+    /**
+     * 같은 바이트를 끝없이 반복하는 스트림. 읽기마다 할당하지 않는다.
+     */
+    private static final class RepeatingInputStream extends InputStream {
+        private final byte[] data;
+        private int pos;
+
+        RepeatingInputStream(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read() {
+            int b = data[pos] & 0xff;
+            pos = (pos + 1) % data.length;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            int n = Math.min(len, data.length - pos);
+            System.arraycopy(data, pos, b, off, n);
+            pos = (pos + n) % data.length;
+            return n;
+        }
+    }
+
+    private interface Step {
+        void run() throws Exception;
+    }
+
+    private void initThreadBean() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threadBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    /**
+     * @return 안정 상태에서 {@link #ITERATIONS}번 실행하는 동안 할당한 바이트 수
+     */
+    private long measure(Step step) throws Exception {
+        initThreadBean();
+        for (int i = 0; i < WARMUP; ++i) {
+            step.run();
+        }
+        long threadId = Thread.currentThread().getId();
+        long start = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < ITERATIONS; ++i) {
+            step.run();
+        }
+        return threadBean.getThreadAllocatedBytes(threadId) - start;
+    }
+
+    private static void assertNoAllocationPerEvent(long allocatedBytes) {
+        // 측정 호출 자체의 할당은 있을 수 있지만, 이벤트마다 객체 하나만 만들어도 이벤트당 16바이트 이상이다.
+        Assert.assertTrue("allocated " + allocatedBytes + " bytes for " + ITERATIONS + " events", allocatedBytes < ITERATIONS);
+    }
+
+    @Test
+    public void testTextTouchLine() throws Exception {
+        final CommandRegistry registry = new CommandRegistry();
+        final CommandHandler touch = registry.register(CommandHandler.create("TOUCH", "<action> <x> <y> [pressure]", 0,
+                new CommandHandler.Action() {
+                    @Override
+                    public String execute(LineTokenizer arguments) {
+                        return "OK";
+                    }
+                }));
+        final InboundQueue queue = new InboundQueue(8);
+        final LineTokenizer tokenizer = new LineTokenizer();
+        final byte[] line = "TOUCH MOVE 100 200 0.5".getBytes(StandardCharsets.UTF_8);
+        final int[] sum = new int[1];
+
+        long allocated = measure(new Step() {
+            @Override
+            public void run() throws InterruptedException {
+                // 수신 스레드: 명령을 찾고 인수를 큐의 칸으로 복사한다.
+                tokenizer.reset(line, 0, line.length);
+                tokenizer.nextToken();
+                CommandHandler command = registry.lookup(tokenizer);
+                queue.claim().setText(null, command, tokenizer);
+                queue.publish();
+
+                // 실행 스레드: 꺼내서 인수를 읽는다.
+                InboundCommand cmd = queue.take();
+                LineTokenizer arguments = cmd.getArguments();
+                arguments.nextToken();
+                if (cmd.getCommand() == touch && arguments.tokenEqualsIgnoreCase("move")) {
+                    sum[0] += arguments.nextInt() + arguments.nextInt() + (int) arguments.nextFloat();
+                }
+                queue.done();
+            }
+        });
+        Assert.assertTrue(sum[0] != 0);
+        assertNoAllocationPerEvent(allocated);
+    }
+
+    @Test
+    public void testMergedTextMoves() throws Exception {
+        final InboundQueue queue = new InboundQueue(8);
+        final LineTokenizer move1 = new LineTokenizer("MOVE 1 1");
+        final LineTokenizer move2 = new LineTokenizer("MOVE 2 2");
+
+        long allocated = measure(new Step() {
+            @Override
+            public void run() throws InterruptedException {
+                InboundCommand cmd = queue.claim();
+                cmd.setText(null, null, move1);
+                cmd.setMove(0);
+                queue.publish();
+                cmd = queue.claim();
+                cmd.setText(null, null, move2);
+                cmd.setMove(0);
+                queue.publish();
+
+                queue.take();
+                queue.done();
+            }
+        });
+        Assert.assertTrue(queue.getMergedCount() > 0);
+        assertNoAllocationPerEvent(allocated);
+    }
+
+    @Test
+    public void testBinaryTouchMessage() throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        dos.writeByte(ControlMessage.TYPE_INJECT_TOUCH_EVENT);
+        dos.writeByte(2); // MotionEvent.ACTION_MOVE
+        dos.writeLong(-1); // pointerId
+        dos.writeInt(100);
+        dos.writeInt(200);
+        dos.writeShort(1080);
+        dos.writeShort(1920);
+        dos.writeShort(0xffff); // pressure
+        dos.writeInt(0); // action button
+        dos.writeInt(0); // buttons
+
+        final ControlMessageReader reader = new ControlMessageReader(new RepeatingInputStream(bos.toByteArray()));
+        final ControlMessage msg = new ControlMessage();
+        final int[] sum = new int[1];
+
+        long allocated = measure(new Step() {
+            @Override
+            public void run() throws IOException {
+                reader.read(msg);
+                sum[0] += msg.getX() + msg.getY();
+            }
+        });
+        Assert.assertEquals(ControlMessage.TYPE_INJECT_TOUCH_EVENT, msg.getType());
+        Assert.assertTrue(sum[0] != 0);
+        assertNoAllocationPerEvent(allocated);
+    }
+
+    /**
+     * @return 새 송신 큐에 ID 없는 응답 {@link #RESPONSES}개를 넣는 동안 할당한 바이트 수
+     */
+    private long sendUntaggedResponses() {
+        UntaggedResponseOrder order = new UntaggedResponseOrder(new ResponseSender(null, 0));
+        long threadId = Thread.currentThread().getId();
+        long start = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < RESPONSES; ++i) {
+            order.send("OK");
+        }
+        return threadBean.getThreadAllocatedBytes(threadId) - start;
+    }
+
+    @Test
+    public void testUntaggedResponse() {
+        initThreadBean();
+        for (int i = 0; i < WARMUP / RESPONSES; ++i) {
+            sendUntaggedResponses();
+        }
+        long allocated = sendUntaggedResponses();
+        Assert.assertTrue("allocated " + allocated + " bytes for " + RESPONSES + " responses", allocated < RESPONSES);
+    }
+}
@@ -0,0 +1,234 @@
+package com.genymobile.scrcpy.control;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+public class LineTokenizerTest {
+
+    private static int parseInt(String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.US_ASCII);
+        return LineTokenizer.parseInt(bytes, 0, bytes.length);
+    }
+
+    private static float parseFloat(String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.US_ASCII);
+        return LineTokenizer.parseFloat(bytes, 0, bytes.length);
+    }
+
+    private static void assertInvalidInt(String s) {
+        try {
+            parseInt(s);
+            Assert.fail("Expected NumberFormatException for \"" + s + "\"");
+        } catch (NumberFormatException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testParseInt() {
+        Assert.assertEquals(0, parseInt("0"));
+        Assert.assertEquals(1234, parseInt("1234"));
+        Assert.assertEquals(-42, parseInt("-42"));
+        Assert.assertEquals(7, parseInt("+7"));
+        Assert.assertEquals(Integer.MAX_VALUE, parseInt("2147483647"));
+        Assert.assertEquals(Integer.MIN_VALUE, parseInt("-2147483648"));
+
+        assertInvalidInt("");
+        assertInvalidInt("-");
+        assertInvalidInt("12a");
+        assertInvalidInt("2147483648");
+        assertInvalidInt("-2147483649");
+    }
+
+    @Test
+    public void testParseLong() {
+        byte[] bytes = "!9223372036854775807 -9223372036854775808 9223372036854775808".getBytes(StandardCharsets.US_ASCII);
+        Assert.assertEquals(Long.MAX_VALUE, LineTokenizer.parseLong(bytes, 1, 20));
+        Assert.assertEquals(Long.MIN_VALUE, LineTokenizer.parseLong(bytes, 21, 41));
+        try {
+            LineTokenizer.parseLong(bytes, 42, bytes.length);
+            Assert.fail("Expected NumberFormatException");
+        } catch (NumberFormatException e) {
+            // expected
+        }
+
+        LineTokenizer tokenizer = new LineTokenizer("!123456789012 TAP");
+        Assert.assertTrue(tokenizer.nextToken());
+        Assert.assertEquals(123456789012L, tokenizer.tokenToLong(1));
+    }
+
+    @Test
+    public void testParseFloat() {
+        Assert.assertEquals(1.0f, parseFloat("1"), 0f);
+        Assert.assertEquals(0.5f, parseFloat(".5"), 0f);
+        Assert.assertEquals(0.5f, parseFloat("0.5"), 0f);
+        Assert.assertEquals(-2.25f, parseFloat("-2.25"), 0f);
+        Assert.assertEquals(1.0f, parseFloat("1."), 0f);
+        Assert.assertEquals(1500f, parseFloat("1.5e3"), 0f);
+        Assert.assertEquals(0.015f, parseFloat("1.5E-2"), 1e-9f);
+        Assert.assertEquals(Float.parseFloat("0.123456789012345678901"), parseFloat("0.123456789012345678901"), 0f);
+
+        // Float.parseFloat()이 받던 표기도 그대로 받는다.
+        Assert.assertTrue(Float.isNaN(parseFloat("NaN")));
+        Assert.assertEquals(Float.POSITIVE_INFINITY, parseFloat("Infinity"), 0f);
+        Assert.assertEquals(Float.NEGATIVE_INFINITY, parseFloat("-Infinity"), 0f);
+        Assert.assertEquals(1.0f, parseFloat("1f"), 0f);
+        Assert.assertEquals(0.5f, parseFloat("0.5d"), 0f);
+        Assert.assertEquals(1500f, parseFloat("1.5e3F"), 0f);
+        Assert.assertEquals(1.0f, parseFloat("0x1p0"), 0f);
+
+        String[] invalid = {"", ".", "-", "1..2", "1e", "abc", "1ff", "e3"};
+        for (String s : invalid) {
+            try {
+                parseFloat(s);
+                Assert.fail("Expected NumberFormatException for \"" + s + "\"");
+            } catch (NumberFormatException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testTokens() {
+        LineTokenizer tokenizer = new LineTokenizer("  tap 100\t200  0.5 ");
+        Assert.assertEquals(4, tokenizer.countTokens());
+
+        Assert.assertTrue(tokenizer.nextToken());
+        Assert.assertTrue(tokenizer.tokenEqualsIgnoreCase("TAP"));
+        Assert.assertFalse(tokenizer.tokenEqualsIgnoreCase("TA"));
+
+        Assert.assertEquals(100, tokenizer.nextInt());
+        Assert.assertEquals(200, tokenizer.nextInt());
+        Assert.assertEquals(0.5f, tokenizer.nextFloat(), 0f);
+        Assert.assertFalse(tokenizer.hasMoreTokens());
+        Assert.assertFalse(tokenizer.nextToken());
+    }
+
+    @Test
+    public void testRequestIdAndRemaining() {
+        LineTokenizer tokenizer = new LineTokenizer("#a1 TEXT  aGVsbG8=  ");
+
+        Assert.assertTrue(tokenizer.nextToken());
+        Assert.assertTrue(tokenizer.tokenStartsWith('#'));
+        Assert.assertEquals("a1", tokenizer.tokenToString(1));
+
+        Assert.assertTrue(tokenizer.nextToken());
+        LineTokenizer copy = tokenizer.copy();
+        Assert.assertEquals("aGVsbG8=", tokenizer.remainingToString());
+        Assert.assertEquals("aGVsbG8=", copy.remainingToString());
+    }
+
+    @Test
+    public void testReadLines() throws IOException {
+        byte[] data = "PING\r\nTAP 1 2\n\nLAST".getBytes(StandardCharsets.US_ASCII);
+        ControlLineReader reader = new ControlLineReader(new ByteArrayInputStream(data));
+        LineTokenizer tokenizer = new LineTokenizer();
+
+        Assert.assertTrue(reader.readLine(tokenizer));
+        Assert.assertEquals("PING", tokenizer.remainingToString());
+
+        Assert.assertTrue(reader.readLine(tokenizer));
+        Assert.assertEquals("TAP 1 2", tokenizer.remainingToString());
+
+        Assert.assertTrue(reader.readLine(tokenizer));
+        Assert.assertFalse(tokenizer.hasMoreTokens());
+
+        Assert.assertTrue(reader.readLine(tokenizer));
+        Assert.assertEquals("LAST", tokenizer.remainingToString());
+
+        Assert.assertFalse(reader.readLine(tokenizer));
+    }
+
+    @Test
+    public void testLongLineAndBinaryHandOff() throws IOException {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 20000; ++i) {
+            builder.append('x');
+        }
+        byte[] line = (builder + "\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] data = new byte[line.length + 2];
+        System.arraycopy(line, 0, data, 0, line.length);
+        data[line.length] = 0x12;
+        data[line.length + 1] = 0x34;
+
+        ControlLineReader reader = new ControlLineReader(new ByteArrayInputStream(data));
+        LineTokenizer tokenizer = new LineTokenizer();
+        Assert.assertTrue(reader.readLine(tokenizer));
+        Assert.assertEquals(20000, tokenizer.getRemainingEnd() - tokenizer.getRemainingStart());
+
+        // bytes read ahead of the line must still be available as a raw stream
+        Assert.assertEquals(0x12, reader.read());
+        Assert.assertEquals(0x34, reader.read());
+        Assert.assertEquals(-1, reader.read());
+    }
+
+    @Test
+    public void testLinesAfterOversizedLine() throws IOException {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 200000; ++i) {
+            builder.append('x');
+        }
+        // the buffer shrinks back after the long line, keeping the lines already read ahead
+        byte[] data = (builder + "\nTAP 1 2\nPING").getBytes(StandardCharsets.US_ASCII);
+        ControlLineReader reader = new ControlLineReader(new ByteArrayInputStream(data));
+        LineTokenizer tokenizer = new LineTokenizer();
+
+        Assert.assertTrue(reader.readLine(tokenizer));
+        Assert.assertEquals(200000, tokenizer.getRemainingEnd() - tokenizer.getRemainingStart());
+
+        Assert.assertTrue(reader.readLine(tokenizer));
+        Assert.assertEquals("TAP 1 2", tokenizer.remainingToString());
+
+        Assert.assertTrue(reader.readLine(tokenizer));
+        Assert.assertEquals("PING", tokenizer.remainingToString());
+
+        Assert.assertFalse(reader.readLine(tokenizer));
+    }
+
+    @Test
+    public void testReadPackets() throws IOException {
+        // simulate a SOCK_SEQPACKET socket: each read() returns exactly one packet
+        final byte[][] packets = {
+                "PING".getBytes(StandardCharsets.US_ASCII),
+                "TAP 1 2\n".getBytes(StandardCharsets.US_ASCII),
+                {0x12, 0x34},
+        };
+        InputStream in = new InputStream() {
+            private int index;
+
+            @Override
+            public int read() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (index == packets.length) {
+                    return -1;
+                }
+                byte[] packet = packets[index++];
+                System.arraycopy(packet, 0, b, off, packet.length);
+                return packet.length;
+            }
+        };
+
+        ControlLineReader reader = new ControlLineReader(in, true);
+        LineTokenizer tokenizer = new LineTokenizer();
+
+        Assert.assertTrue(reader.readLine(tokenizer));
+        Assert.assertEquals("PING", tokenizer.remainingToString());
+
+        Assert.assertTrue(reader.readLine(tokenizer));
+        Assert.assertEquals("TAP 1 2", tokenizer.remainingToString());
+
+        // binary payload after a mode switch
+        Assert.assertEquals(0x12, reader.read());
+        Assert.assertEquals(0x34, reader.read());
+        Assert.assertEquals(-1, reader.read());
+    }
+}
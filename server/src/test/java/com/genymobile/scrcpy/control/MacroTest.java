@@ -0,0 +1,164 @@
+package com.genymobile.scrcpy.control;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+public class MacroTest {
+
+    private static final class FakeDevice implements Macro.Resolver, Macro.Environment {
+        private final CommandRegistry registry = new CommandRegistry();
+        private final List<String> executed = new ArrayList<>();
+        private boolean screenOn = true;
+        private String clipboard;
+
+        FakeDevice() {
+            registry.register(CommandHandler.create("TAP", "<x> <y>", 0, args -> "OK"));
+            registry.register(CommandHandler.create("FAIL", "", 0, args -> "ERR INJECT_FAILED"));
+            registry.register(CommandHandler.create("BATCH", "<count>", CommandHandler.FLAG_NOT_IN_BATCH, args -> "OK"));
+        }
+
+        @Override
+        public CommandHandler lookupCommand(LineTokenizer tokenizer) {
+            return registry.lookup(tokenizer);
+        }
+
+        @Override
+        public String decodeText(LineTokenizer tokenizer) {
+            try {
+                return new String(Base64.getDecoder().decode(tokenizer.remainingToString()), StandardCharsets.UTF_8);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public String execute(CommandHandler command, LineTokenizer arguments) {
+            executed.add(command.getName() + " " + arguments.remainingToString());
+            return command.execute(arguments);
+        }
+
+        @Override
+        public boolean isScreenOn() {
+            return screenOn;
+        }
+
+        @Override
+        public String getClipboardText() {
+            return clipboard;
+        }
+    }
+
+    private static Macro compile(FakeDevice device, String... lines) throws Macro.InvalidMacroException {
+        LineTokenizer[] tokenizers = new LineTokenizer[lines.length];
+        for (int i = 0; i < lines.length; ++i) {
+            tokenizers[i] = new LineTokenizer(lines[i]);
+        }
+        return Macro.compile("test", tokenizers, device);
+    }
+
+    private static void assertInvalid(int line, String reason, String... lines) {
+        try {
+            compile(new FakeDevice(), lines);
+            Assert.fail("Expected InvalidMacroException");
+        } catch (Macro.InvalidMacroException e) {
+            Assert.assertEquals(line, e.getLine());
+            Assert.assertEquals(reason, e.getReason());
+        }
+    }
+
+    @Test
+    public void testRepeat() throws Macro.InvalidMacroException {
+        FakeDevice device = new FakeDevice();
+        Macro macro = compile(device, "TAP 1 1", "REPEAT 3", "TAP 2 2", "REPEAT 2", "TAP 3 3", "END", "END", "TAP 4 4");
+        Assert.assertEquals("OK 11", macro.run(device, new CancelToken(null, CancelToken.CATEGORY_MACRO)));
+        Assert.assertEquals("TAP 1 1", device.executed.get(0));
+        Assert.assertEquals("TAP 2 2", device.executed.get(1));
+        Assert.assertEquals("TAP 3 3", device.executed.get(2));
+        Assert.assertEquals("TAP 3 3", device.executed.get(3));
+        Assert.assertEquals("TAP 2 2", device.executed.get(4));
+        Assert.assertEquals("TAP 4 4", device.executed.get(10));
+    }
+
+    @Test
+    public void testConditions() throws Macro.InvalidMacroException {
+        String hello = Base64.getEncoder().encodeToString("hello".getBytes(StandardCharsets.UTF_8));
+        FakeDevice device = new FakeDevice();
+        Macro macro = compile(device, "IF NOT SCREEN_ON", "TAP 1 1", "ELSE", "TAP 2 2", "END", "IF CLIPBOARD " + hello, "TAP 3 3", "END");
+
+        device.clipboard = "hello";
+        Assert.assertEquals("OK 2", macro.run(device, new CancelToken(null, CancelToken.CATEGORY_MACRO)));
+        Assert.assertEquals("TAP 2 2", device.executed.get(0));
+        Assert.assertEquals("TAP 3 3", device.executed.get(1));
+
+        device.executed.clear();
+        device.screenOn = false;
+        device.clipboard = null;
+        Assert.assertEquals("OK 1", macro.run(device, new CancelToken(null, CancelToken.CATEGORY_MACRO)));
+        Assert.assertEquals("TAP 1 1", device.executed.get(0));
+    }
+
+    @Test
+    public void testFailureStops() throws Macro.InvalidMacroException {
+        FakeDevice device = new FakeDevice();
+        Macro macro = compile(device, "TAP 1 1", "FAIL", "TAP 2 2");
+        Assert.assertEquals("ERR MACRO_FAILED 2 INJECT_FAILED", macro.run(device, new CancelToken(null, CancelToken.CATEGORY_MACRO)));
+        Assert.assertEquals(2, device.executed.size());
+    }
+
+    @Test
+    public void testCancelDuringWait() throws Exception {
+        FakeDevice device = new FakeDevice();
+        Macro macro = compile(device, "TAP 1 1", "WAIT 60000", "TAP 2 2");
+        final CancelToken token = new CancelToken(null, CancelToken.CATEGORY_MACRO);
+        Thread canceller = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                // ignore
+            }
+            token.cancel();
+        });
+        canceller.start();
+
+        Assert.assertEquals("ERR CANCELLED", macro.run(device, token));
+        Assert.assertEquals(1, device.executed.size());
+        canceller.join();
+    }
+
+    @Test
+    public void testStepLimit() throws Macro.InvalidMacroException {
+        FakeDevice device = new FakeDevice();
+        Macro macro = compile(device, "REPEAT 10000", "REPEAT 10000", "WAIT 0", "END", "END");
+        String response = macro.run(device, new CancelToken(null, CancelToken.CATEGORY_MACRO));
+        Assert.assertTrue(response, response.startsWith("ERR MACRO_FAILED "));
+        Assert.assertTrue(response, response.endsWith(" STEP_LIMIT"));
+    }
+
+    @Test
+    public void testInvalid() {
+        assertInvalid(2, "UNEXPECTED_END", "TAP 1 1", "END");
+        assertInvalid(1, "MISSING_END", "REPEAT 2", "TAP 1 1");
+        assertInvalid(2, "UNEXPECTED_ELSE", "REPEAT 2", "ELSE", "END");
+        assertInvalid(1, "UNKNOWN_COMMAND", "SHAKE");
+        assertInvalid(1, "INVALID_ARGS", "TAP 1");
+        assertInvalid(1, "INVALID_ARGS", "WAIT 100000");
+        assertInvalid(1, "INVALID_ARGS", "REPEAT 0");
+        assertInvalid(1, "NOT_ALLOWED_IN_MACRO", "BATCH 2");
+        assertInvalid(1, "INVALID_CONDITION", "IF RAINING");
+        assertInvalid(1, "INVALID_BASE64", "IF CLIPBOARD !!!");
+        assertInvalid(2, "EMPTY_LINE", "TAP 1 1", "");
+        assertInvalid(9, "TOO_DEEP", "REPEAT 2", "REPEAT 2", "REPEAT 2", "REPEAT 2", "REPEAT 2", "REPEAT 2", "REPEAT 2", "REPEAT 2", "REPEAT 2");
+    }
+
+    @Test
+    public void testGetCommands() throws Macro.InvalidMacroException {
+        Macro macro = compile(new FakeDevice(), "TAP 1 1", "TAP 2 2", "WAIT 10", "FAIL");
+        Assert.assertEquals(2, macro.getCommands().length);
+        Assert.assertEquals(4, macro.getLineCount());
+    }
+}
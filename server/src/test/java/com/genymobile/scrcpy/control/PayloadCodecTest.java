@@ -0,0 +1,99 @@
+package com.genymobile.scrcpy.control;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.zip.Deflater;
+
+public class PayloadCodecTest {
+
+    // android.util.Base64는 JVM에서 동작하지 않으므로 같은 형식(패딩 포함, 줄바꿈 없음)의 JVM 구현을 쓴다.
+    private static final PayloadCodec.Base64Codec JVM_BASE64 = new PayloadCodec.Base64Codec() {
+        @Override
+        public String encode(byte[] data, int offset, int length) {
+            return Base64.getEncoder().encodeToString(Arrays.copyOfRange(data, offset, offset + length));
+        }
+
+        @Override
+        public byte[] decode(byte[] data, int offset, int length) {
+            ByteBuffer decoded = Base64.getDecoder().decode(ByteBuffer.wrap(data, offset, length));
+            return Arrays.copyOfRange(decoded.array(), decoded.position(), decoded.limit());
+        }
+    };
+
+    private static String createText() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 2000; ++i) {
+            builder.append("{\"index\": ").append(i).append(", \"name\": \"item\"}\n");
+        }
+        return builder.toString();
+    }
+
+    private static String roundTrip(PayloadCodec codec, String encoded) {
+        byte[] line = encoded.getBytes(StandardCharsets.US_ASCII);
+        int length = codec.decode(line, 0, line.length, 1 << 24);
+        Assert.assertTrue(length >= 0);
+        return new String(codec.getDecoded(), 0, length, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testUncompressed() {
+        String text = createText();
+        byte[] data = text.getBytes(StandardCharsets.UTF_8);
+
+        PayloadCodec codec = new PayloadCodec(JVM_BASE64);
+        String encoded = codec.encode(data, 0, data.length);
+        Assert.assertFalse(encoded.startsWith("z:"));
+        Assert.assertEquals(text, roundTrip(codec, encoded));
+    }
+
+    @Test
+    public void testCompressed() {
+        String text = createText();
+        byte[] data = text.getBytes(StandardCharsets.UTF_8);
+
+        PayloadCodec codec = new PayloadCodec(JVM_BASE64);
+        codec.setCompression(true, Deflater.DEFAULT_COMPRESSION);
+
+        // encode twice to check that the deflater is correctly reset
+        for (int i = 0; i < 2; ++i) {
+            String encoded = codec.encode(data, 0, data.length);
+            Assert.assertTrue(encoded.startsWith("z:"));
+            Assert.assertTrue(encoded.length() < data.length);
+            Assert.assertEquals(text, roundTrip(codec, encoded));
+        }
+    }
+
+    @Test
+    public void testSmallPayloadNotCompressed() {
+        byte[] data = "hello".getBytes(StandardCharsets.UTF_8);
+
+        PayloadCodec codec = new PayloadCodec(JVM_BASE64);
+        codec.setCompression(true, Deflater.DEFAULT_COMPRESSION);
+        String encoded = codec.encode(data, 0, data.length);
+        Assert.assertFalse(encoded.startsWith("z:"));
+        Assert.assertEquals("hello", roundTrip(codec, encoded));
+    }
+
+    @Test
+    public void testDecodeErrors() {
+        String text = createText();
+        byte[] data = text.getBytes(StandardCharsets.UTF_8);
+
+        PayloadCodec codec = new PayloadCodec(JVM_BASE64);
+        codec.setCompression(true, Deflater.DEFAULT_COMPRESSION);
+        byte[] line = codec.encode(data, 0, data.length).getBytes(StandardCharsets.US_ASCII);
+
+        // output limit exceeded
+        Assert.assertEquals(PayloadCodec.DECODE_ERROR_COMPRESSED, codec.decode(line, 0, line.length, 1000));
+        // truncated stream
+        Assert.assertEquals(PayloadCodec.DECODE_ERROR_COMPRESSED, codec.decode(line, 0, 42, 1 << 24));
+
+        byte[] invalid = "z:!!!".getBytes(StandardCharsets.US_ASCII);
+        Assert.assertEquals(PayloadCodec.DECODE_ERROR_BASE64, codec.decode(invalid, 0, invalid.length, 1 << 24));
+    }
+}
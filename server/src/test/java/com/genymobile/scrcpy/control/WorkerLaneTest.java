@@ -0,0 +1,124 @@
+package com.genymobile.scrcpy.control;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class WorkerLaneTest {
+
+    private static final WorkerLane.Clock CLOCK = new WorkerLane.Clock() {
+        @Override
+        public long elapsedRealtimeNanos() {
+            return System.nanoTime();
+        }
+    };
+
+    private static final class Responses implements WorkerLane.Callback {
+        private final List<String> list = new ArrayList<>();
+
+        @Override
+        public synchronized void onResponse(String response) {
+            list.add(response);
+        }
+
+        synchronized List<String> get() {
+            return new ArrayList<>(list);
+        }
+    }
+
+    private static WorkerLane.Task task(final String response, final List<String> threads) {
+        return new WorkerLane.Task() {
+            @Override
+            public String execute() {
+                synchronized (threads) {
+                    threads.add(Thread.currentThread().getName());
+                }
+                return response;
+            }
+        };
+    }
+
+    @Test
+    public void testRunInOrderOnOneThread() throws InterruptedException {
+        WorkerLane lane = new WorkerLane("test", CLOCK);
+        Responses responses = new Responses();
+        List<String> threads = new ArrayList<>();
+        try {
+            for (int i = 0; i < 100; ++i) {
+                lane.execute(CLOCK.elapsedRealtimeNanos(), task("OK " + i, threads), responses);
+            }
+            lane.awaitIdle();
+        } finally {
+            lane.shutdownNow();
+        }
+
+        List<String> list = responses.get();
+        Assert.assertEquals(100, list.size());
+        for (int i = 0; i < 100; ++i) {
+            Assert.assertEquals("OK " + i, list.get(i));
+            Assert.assertEquals("control-test", threads.get(i));
+        }
+        Assert.assertEquals(0, lane.getPending());
+        Assert.assertEquals(100, lane.getStats().getCount());
+    }
+
+    @Test
+    public void testPendingUntilFinished() throws InterruptedException {
+        WorkerLane lane = new WorkerLane("test", CLOCK);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Responses responses = new Responses();
+        try {
+            lane.execute(CLOCK.elapsedRealtimeNanos(), new WorkerLane.Task() {
+                @Override
+                public String execute() {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return "OK";
+                }
+            }, responses);
+            lane.execute(CLOCK.elapsedRealtimeNanos(), task("OK 2", new ArrayList<String>()), responses);
+
+            Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+            // 실행 중인 명령과 대기 중인 명령을 모두 센다.
+            Assert.assertEquals(2, lane.getPending());
+            Assert.assertTrue(responses.get().isEmpty());
+
+            release.countDown();
+            lane.awaitIdle();
+        } finally {
+            lane.shutdownNow();
+        }
+
+        Assert.assertEquals(0, lane.getPending());
+        List<String> list = responses.get();
+        Assert.assertEquals(2, list.size());
+        Assert.assertEquals("OK", list.get(0));
+        Assert.assertEquals("OK 2", list.get(1));
+    }
+
+    @Test
+    public void testRejectedAfterShutdown() throws InterruptedException {
+        WorkerLane lane = new WorkerLane("test", CLOCK);
+        lane.shutdownNow();
+        lane.awaitTermination(5, TimeUnit.SECONDS);
+
+        List<String> threads = new ArrayList<>();
+        Responses responses = new Responses();
+        lane.execute(CLOCK.elapsedRealtimeNanos(), task("OK", threads), responses);
+
+        // 종료된 레인은 실행하지 않고 바로 null로 응답한다.
+        Assert.assertTrue(threads.isEmpty());
+        Assert.assertEquals(1, responses.get().size());
+        Assert.assertNull(responses.get().get(0));
+        Assert.assertEquals(0, lane.getPending());
+    }
+}
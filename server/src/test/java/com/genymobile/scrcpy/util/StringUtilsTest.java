@@ -39,4 +39,12 @@ public class StringUtilsTest {
         count = StringUtils.getUtf8TruncationIndex(utf8, 8);
         Assert.assertEquals(7, count); // no more chars
     }
+
+    @Test
+    public void testUtf8Length() {
+        String[] strings = {"", "abc", "aÉbÔc", "한글", "a\uD83D\uDE00b", "x\uD83Dy", "\uDE00"};
+        for (String s : strings) {
+            Assert.assertEquals(s.getBytes(StandardCharsets.UTF_8).length, StringUtils.getUtf8Length(s));
+        }
+    }
 }